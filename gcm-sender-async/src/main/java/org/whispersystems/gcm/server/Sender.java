@@ -17,18 +17,26 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
-import java.security.SecureRandom;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The main interface to sending GCM messages.  Thread safe.
+ * <p>
+ * Requests are multiplexed as HTTP/2 streams over a small, fixed set of connections. Each connection carries at most
+ * a bounded number of concurrent streams; requests beyond that wait in a queue until a stream frees up. Retries are
+ * scheduled on a timer shared by all senders.
  *
  * @author Moxie Marlinspike
  */
@@ -36,14 +44,24 @@ public class Sender {
 
   private static final String PRODUCTION_URL = "https://fcm.googleapis.com/fcm/send";
 
-  private final String                   authorizationHeader;
-  private final URI                      uri;
+  private static final int DEFAULT_CONNECTION_COUNT                      = 4;
+  private static final int DEFAULT_MAX_CONCURRENT_STREAMS_PER_CONNECTION = 100;
+
+  private static final ScheduledExecutorService SHARED_RETRY_EXECUTOR = Executors.newScheduledThreadPool(2, runnable -> {
+    Thread thread = new Thread(runnable, "fcm-sender-retry");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final HttpRequest.Builder      requestTemplate;
   private final Retry                    retry;
   private final ObjectMapper             mapper;
-  private final ScheduledExecutorService executorService;
+  private final ScheduledExecutorService retryExecutor;
 
-  private final HttpClient[] clients = new HttpClient[10];
-  private final SecureRandom random  = new SecureRandom();
+  private final Connection[]          connections;
+  private final int                   maxConcurrentStreamsPerConnection;
+  private final Queue<PendingRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger         nextConnection  = new AtomicInteger();
 
   /**
    * Construct a Sender instance.
@@ -66,21 +84,48 @@ public class Sender {
 
   @VisibleForTesting
   public Sender(String apiKey, ObjectMapper mapper, int retryCount, String url) {
-    this.mapper              = mapper;
-    this.executorService     = Executors.newSingleThreadScheduledExecutor();
-    this.uri                 = URI.create(url);
-    this.authorizationHeader = String.format("key=%s", apiKey);
-    this.retry               = Retry.of("fcm-sender", RetryConfig.custom()
-                                                                       .maxAttempts(retryCount)
-                                                                       .intervalFunction(IntervalFunction.ofExponentialRandomBackoff(Duration.ofMillis(100), 2.0))
-                                                                       .retryOnException(this::isRetryableException)
-                                                                       .build());
-
-    for (int i=0;i<clients.length;i++) {
-      this.clients[i] = HttpClient.newBuilder()
-                                  .version(HttpClient.Version.HTTP_2)
-                                  .connectTimeout(Duration.ofSeconds(10))
-                                  .build();
+    this(apiKey, mapper, retryCount, url, DEFAULT_CONNECTION_COUNT, DEFAULT_MAX_CONCURRENT_STREAMS_PER_CONNECTION, SHARED_RETRY_EXECUTOR);
+  }
+
+  /**
+   * Construct a Sender instance with explicit connection and stream limits.
+   *
+   * @param apiKey Your application's GCM API key.
+   * @param retryCount The number of retries to attempt on a network error or 500 response.
+   * @param url The FCM endpoint to send to.
+   * @param connectionCount The number of HTTP/2 connections to open.
+   * @param maxConcurrentStreamsPerConnection The maximum number of in-flight requests on any one connection.
+   * @param retryExecutor The timer on which retries are scheduled.
+   */
+  public Sender(String apiKey, ObjectMapper mapper, int retryCount, String url,
+                int connectionCount, int maxConcurrentStreamsPerConnection,
+                ScheduledExecutorService retryExecutor)
+  {
+    if (connectionCount < 1 || maxConcurrentStreamsPerConnection < 1) {
+      throw new IllegalArgumentException("Connection count and concurrent streams per connection must be positive");
+    }
+
+    this.mapper                            = mapper;
+    this.retryExecutor                     = retryExecutor;
+    this.maxConcurrentStreamsPerConnection = maxConcurrentStreamsPerConnection;
+    this.requestTemplate                   = HttpRequest.newBuilder()
+                                                        .uri(URI.create(url))
+                                                        .header("Authorization", String.format("key=%s", apiKey))
+                                                        .header("Content-Type", "application/json")
+                                                        .timeout(Duration.ofSeconds(10));
+    this.retry                             = Retry.of("fcm-sender", RetryConfig.custom()
+                                                                                 .maxAttempts(retryCount)
+                                                                                 .intervalFunction(IntervalFunction.ofExponentialRandomBackoff(Duration.ofMillis(100), 2.0))
+                                                                                 .retryOnException(this::isRetryableException)
+                                                                                 .build());
+
+    this.connections = new Connection[connectionCount];
+
+    for (int i=0;i<connections.length;i++) {
+      this.connections[i] = new Connection(HttpClient.newBuilder()
+                                                     .version(HttpClient.Version.HTTP_2)
+                                                     .connectTimeout(Duration.ofSeconds(10))
+                                                     .build());
     }
   }
 
@@ -102,16 +147,12 @@ public class Sender {
    */
   public CompletableFuture<Result> send(Message message) {
     try {
-      HttpRequest request = HttpRequest.newBuilder()
-                                       .uri(uri)
-                                       .header("Authorization", authorizationHeader)
-                                       .header("Content-Type", "application/json")
-                                       .POST(HttpRequest.BodyPublishers.ofString(message.serialize()))
-                                       .timeout(Duration.ofSeconds(10))
-                                       .build();
-
-      return retry.executeCompletionStage(executorService,
-                                          () -> getClient().sendAsync(request, BodyHandlers.ofByteArray())
+      HttpRequest request = requestTemplate.copy()
+                                           .POST(HttpRequest.BodyPublishers.ofByteArray(message.serialize().getBytes(StandardCharsets.UTF_8)))
+                                           .build();
+
+      return retry.executeCompletionStage(retryExecutor,
+                                          () -> sendRequest(request)
                                                       .thenApply(response -> {
                                                         switch (response.statusCode()) {
                                                           case 400: throw new CompletionException(new InvalidRequestException());
@@ -147,8 +188,116 @@ public class Sender {
     return retry;
   }
 
-  private HttpClient getClient() {
-    return clients[random.nextInt(clients.length)];
+  @VisibleForTesting
+  int getPendingRequestCount() {
+    return pendingRequests.size();
+  }
+
+  @VisibleForTesting
+  int getInFlightRequestCount() {
+    int inFlight = 0;
+
+    for (Connection connection : connections) {
+      inFlight += connection.inFlightStreams.get();
+    }
+
+    return inFlight;
+  }
+
+  private CompletableFuture<HttpResponse<byte[]>> sendRequest(HttpRequest request) {
+    PendingRequest pendingRequest = new PendingRequest(request);
+
+    pendingRequests.add(pendingRequest);
+    dispatchPendingRequests();
+
+    return pendingRequest.future;
+  }
+
+  private void dispatchPendingRequests() {
+    while (!pendingRequests.isEmpty()) {
+      Connection connection = acquireConnection();
+
+      if (connection == null) {
+        // Every connection is saturated; whichever stream finishes next will pick up the queue
+        return;
+      }
+
+      PendingRequest pendingRequest = pendingRequests.poll();
+
+      if (pendingRequest == null) {
+        connection.inFlightStreams.decrementAndGet();
+        continue;
+      }
+
+      CompletableFuture<HttpResponse<byte[]>> responseFuture;
+
+      try {
+        responseFuture = connection.client.sendAsync(pendingRequest.request, BodyHandlers.ofByteArray());
+      } catch (RuntimeException e) {
+        connection.inFlightStreams.decrementAndGet();
+        pendingRequest.future.completeExceptionally(e);
+        continue;
+      }
+
+      responseFuture.whenComplete((response, cause) -> {
+        connection.inFlightStreams.decrementAndGet();
+        dispatchPendingRequests();
+
+        if (cause != null) {
+          pendingRequest.future.completeExceptionally(cause);
+        } else {
+          pendingRequest.future.complete(response);
+        }
+      });
+    }
+  }
+
+  /**
+   * Reserves a stream on the least-loaded connection that has capacity, or returns {@code null} if every connection
+   * is already carrying the maximum number of concurrent streams.
+   */
+  private Connection acquireConnection() {
+    int offset = Math.floorMod(nextConnection.getAndIncrement(), connections.length);
+
+    while (true) {
+      Connection leastLoaded = null;
+      int        leastStreams = maxConcurrentStreamsPerConnection;
+
+      for (int i=0;i<connections.length;i++) {
+        Connection candidate = connections[(offset + i) % connections.length];
+        int        streams   = candidate.inFlightStreams.get();
+
+        if (streams < leastStreams) {
+          leastLoaded  = candidate;
+          leastStreams = streams;
+        }
+      }
+
+      if (leastLoaded == null) {
+        return null;
+      }
+
+      if (leastLoaded.inFlightStreams.compareAndSet(leastStreams, leastStreams + 1)) {
+        return leastLoaded;
+      }
+    }
+  }
+
+  private static class Connection {
+    private final HttpClient    client;
+    private final AtomicInteger inFlightStreams = new AtomicInteger();
+
+    private Connection(HttpClient client) {
+      this.client = client;
+    }
   }
 
+  private static class PendingRequest {
+    private final HttpRequest                             request;
+    private final CompletableFuture<HttpResponse<byte[]>> future = new CompletableFuture<>();
+
+    private PendingRequest(HttpRequest request) {
+      this.request = request;
+    }
+  }
 }
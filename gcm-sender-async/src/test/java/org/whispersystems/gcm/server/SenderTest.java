@@ -28,8 +28,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.tomakehurst.wiremock.client.CountMatchingStrategy;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import org.junit.Rule;
@@ -197,4 +200,33 @@ public class SenderTest {
     assertFalse(result.isThrottled());
     assertEquals(result.getError(), "NotRegistered");
   }
+
+  @Test
+  public void testConcurrentStreamsBounded() throws InterruptedException, ExecutionException, TimeoutException {
+    wireMock.stubFor(any(anyUrl())
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withFixedDelay(500)
+            .withBody(fixture("fixtures/response-success.json"))));
+
+    Sender                          sender  = new Sender("foobarbaz", mapper, 2, "http://localhost:" + wireMock.port() + "/gcm/send",
+                                                         1, 2, Executors.newSingleThreadScheduledExecutor());
+    List<CompletableFuture<Result>> futures = new ArrayList<>();
+
+    for (int i=0;i<5;i++) {
+      futures.add(sender.send(Message.newBuilder().withDestination(String.valueOf(i)).build()));
+    }
+
+    assertEquals(2, sender.getInFlightRequestCount());
+    assertEquals(3, sender.getPendingRequestCount());
+
+    for (CompletableFuture<Result> future : futures) {
+      assertTrue(future.get(10, TimeUnit.SECONDS).isSuccess());
+    }
+
+    assertEquals(0, sender.getInFlightRequestCount());
+    assertEquals(0, sender.getPendingRequestCount());
+
+    verify(5, postRequestedFor(urlEqualTo("/gcm/send")));
+  }
 }
@@ -4,37 +4,82 @@
  */
 package org.whispersystems.dispatch;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.dispatch.io.RedisPubSubConnectionFactory;
 import org.whispersystems.dispatch.redis.PubSubConnection;
 import org.whispersystems.dispatch.redis.PubSubReply;
+import org.whispersystems.dispatch.util.StripedExecutor;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Multiplexes many logical channels over a single Redis pub/sub connection.
+ * <p>
+ * Callbacks for each channel run on a fixed-size pool of threads, striped by channel name so that a channel's
+ * callbacks always run in order. Subscribing and unsubscribing only update an in-memory table; a single writer thread
+ * then reconciles Redis with that table, sending the channels that changed since its last pass as one batched
+ * SUBSCRIBE and one batched UNSUBSCRIBE command.
+ */
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 public class DispatchManager extends Thread {
 
+  private static final int DEFAULT_DISPATCH_THREADS = 16;
+
+  private static final String METRIC_NAME_PREFIX              = DispatchManager.class.getName() + ".";
+  private static final String DISPATCH_QUEUE_DEPTH_GAUGE_NAME = METRIC_NAME_PREFIX + "dispatchQueueDepth";
+  private static final String PENDING_CHANGES_GAUGE_NAME      = METRIC_NAME_PREFIX + "pendingSubscriptionChanges";
+  private static final String RECONNECT_RECOVERY_TIMER_NAME   = METRIC_NAME_PREFIX + "reconnectRecovery";
+
   private final Logger                       logger        = LoggerFactory.getLogger(DispatchManager.class);
-  private final Executor                     executor      = Executors.newCachedThreadPool();
+  private final StripedExecutor              executor;
+  private final ExecutorService              commandWriter = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "dispatch-command-writer"));
   private final Map<String, DispatchChannel> subscriptions = new ConcurrentHashMap<>();
 
+  // Names of channels whose subscriptions have changed but haven't yet been reconciled with Redis
+  private final Queue<String> pendingChannels       = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean commandFlushScheduled = new AtomicBoolean(false);
+
   private final Optional<DispatchChannel>    deadLetterChannel;
   private final RedisPubSubConnectionFactory redisPubSubConnectionFactory;
 
-  private          PubSubConnection pubSubConnection;
+  private final Timer reconnectRecoveryTimer = Metrics.timer(RECONNECT_RECOVERY_TIMER_NAME);
+
+  private volatile PubSubConnection pubSubConnection;
   private volatile boolean          running;
 
   public DispatchManager(RedisPubSubConnectionFactory redisPubSubConnectionFactory,
                          Optional<DispatchChannel> deadLetterChannel)
+  {
+    this(redisPubSubConnectionFactory, deadLetterChannel, DEFAULT_DISPATCH_THREADS);
+  }
+
+  public DispatchManager(RedisPubSubConnectionFactory redisPubSubConnectionFactory,
+                         Optional<DispatchChannel> deadLetterChannel,
+                         int dispatchThreads)
   {
     this.redisPubSubConnectionFactory = redisPubSubConnectionFactory;
     this.deadLetterChannel            = deadLetterChannel;
+    this.executor                     = new StripedExecutor("dispatch", dispatchThreads);
+
+    Metrics.gauge(DISPATCH_QUEUE_DEPTH_GAUGE_NAME, executor, StripedExecutor::getQueueDepth);
+    Metrics.gauge(PENDING_CHANGES_GAUGE_NAME, pendingChannels, Collection::size);
   }
 
   @Override
@@ -47,34 +92,23 @@ public class DispatchManager extends Thread {
   public void shutdown() {
     this.running = false;
     this.pubSubConnection.close();
+    this.commandWriter.shutdown();
+    this.executor.shutdown();
   }
 
-  public synchronized void subscribe(String name, DispatchChannel dispatchChannel) {
-    Optional<DispatchChannel> previous = Optional.ofNullable(subscriptions.get(name));
-    subscriptions.put(name, dispatchChannel);
+  public void subscribe(String name, DispatchChannel dispatchChannel) {
+    DispatchChannel previous = subscriptions.put(name, dispatchChannel);
+    scheduleSubscriptionUpdate(name);
 
-    try {
-      pubSubConnection.subscribe(name);
-    } catch (IOException e) {
-      logger.warn("Subscription error", e);
+    if (previous != null) {
+      dispatchUnsubscription(name, previous);
     }
-
-    previous.ifPresent(channel -> dispatchUnsubscription(name, channel));
   }
 
-  public synchronized void unsubscribe(String name, DispatchChannel channel) {
-    Optional<DispatchChannel> subscription = Optional.ofNullable(subscriptions.get(name));
-
-    if (subscription.isPresent() && subscription.get() == channel) {
-      subscriptions.remove(name);
-
-      try {
-        pubSubConnection.unsubscribe(name);
-      } catch (IOException e) {
-        logger.warn("Unsubscribe error", e);
-      }
-
-      dispatchUnsubscription(name, subscription.get());
+  public void unsubscribe(String name, DispatchChannel channel) {
+    if (subscriptions.remove(name, channel)) {
+      scheduleSubscriptionUpdate(name);
+      dispatchUnsubscription(name, channel);
     }
   }
 
@@ -97,9 +131,11 @@ public class DispatchManager extends Thread {
       } catch (IOException e) {
         logger.warn("***** PubSub Connection Error *****", e);
         if (running) {
+          final long reconnectStart = System.nanoTime();
+
           this.pubSubConnection.close();
           this.pubSubConnection = redisPubSubConnectionFactory.connect();
-          resubscribeAll();
+          resubscribeAll(reconnectStart);
         }
       }
     }
@@ -129,29 +165,64 @@ public class DispatchManager extends Thread {
     }
   }
 
-  private void resubscribeAll() {
-    new Thread(() -> {
-      synchronized (DispatchManager.this) {
-        try {
-          for (String name : subscriptions.keySet()) {
-            pubSubConnection.subscribe(name);
-          }
-        } catch (IOException e) {
-          logger.warn("***** RESUBSCRIPTION ERROR *****", e);
-        }
+  private void scheduleSubscriptionUpdate(final String name) {
+    pendingChannels.add(name);
+
+    if (commandFlushScheduled.compareAndSet(false, true)) {
+      commandWriter.execute(this::flushSubscriptionUpdates);
+    }
+  }
+
+  /**
+   * Brings Redis up to date with the current subscription table for every channel that has changed since the last
+   * flush. Only the current state of each channel matters, so a channel that was subscribed and unsubscribed (or vice
+   * versa) several times since the last flush still costs at most one command argument.
+   */
+  private void flushSubscriptionUpdates() {
+    commandFlushScheduled.set(false);
+
+    final Set<String> changedChannels = new LinkedHashSet<>();
+
+    for (String name = pendingChannels.poll(); name != null; name = pendingChannels.poll()) {
+      changedChannels.add(name);
+    }
+
+    final List<String> subscribeChannels   = new ArrayList<>();
+    final List<String> unsubscribeChannels = new ArrayList<>();
+
+    for (final String name : changedChannels) {
+      (subscriptions.containsKey(name) ? subscribeChannels : unsubscribeChannels).add(name);
+    }
+
+    try {
+      if (!subscribeChannels.isEmpty())   pubSubConnection.subscribe(subscribeChannels);
+      if (!unsubscribeChannels.isEmpty()) pubSubConnection.unsubscribe(unsubscribeChannels);
+    } catch (IOException e) {
+      // The read loop will notice the broken connection, reconnect, and resubscribe to everything
+      logger.warn("Subscription error", e);
+    }
+  }
+
+  private void resubscribeAll(final long reconnectStart) {
+    commandWriter.execute(() -> {
+      try {
+        pubSubConnection.subscribe(subscriptions.keySet());
+        reconnectRecoveryTimer.record(System.nanoTime() - reconnectStart, TimeUnit.NANOSECONDS);
+      } catch (IOException e) {
+        logger.warn("***** RESUBSCRIPTION ERROR *****", e);
       }
-    }).start();
+    });
   }
 
   private void dispatchMessage(final String name, final DispatchChannel channel, final byte[] message) {
-    executor.execute(() -> channel.onDispatchMessage(name, message));
+    executor.execute(name, () -> channel.onDispatchMessage(name, message));
   }
 
   private void dispatchSubscription(final String name, final DispatchChannel channel) {
-    executor.execute(() -> channel.onDispatchSubscribed(name));
+    executor.execute(name, () -> channel.onDispatchSubscribed(name));
   }
 
   private void dispatchUnsubscription(final String name, final DispatchChannel channel) {
-    executor.execute(() -> channel.onDispatchUnsubscribed(name));
+    executor.execute(name, () -> channel.onDispatchUnsubscribed(name));
   }
 }
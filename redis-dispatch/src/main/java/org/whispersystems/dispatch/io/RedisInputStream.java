@@ -4,65 +4,143 @@
  */
 package org.whispersystems.dispatch.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * Reads RESP-encoded data from an underlying stream through a fixed internal buffer. Integer lines (array and bulk
+ * string headers, integer replies) are decoded directly from the buffer, and bulk string bodies can be copied into
+ * caller-supplied arrays, so reading a reply needn't allocate anything beyond the payloads the caller keeps.
+ * <p>
+ * Instances are not thread-safe; each connection is expected to have a single reader.
+ */
 public class RedisInputStream {
 
   private static final byte CR = 0x0D;
   private static final byte LF = 0x0A;
 
+  private static final int BUFFER_SIZE = 8192;
+
+  // Enough digits for any non-negative long without risk of overflow
+  private static final int MAX_DIGITS = 18;
+
   private final InputStream inputStream;
+  private final byte[]      buffer = new byte[BUFFER_SIZE];
+
+  private int position;
+  private int limit;
 
   public RedisInputStream(InputStream inputStream) {
     this.inputStream = inputStream;
   }
 
-  public String readLine() throws IOException {
-    ByteArrayOutputStream boas = new ByteArrayOutputStream();
+  /**
+   * Reads a line of the form {@code <prefix><integer>\r\n} (for example, {@code *3\r\n} or {@code :1\r\n}) and returns
+   * the integer.
+   *
+   * @throws IOException if the line doesn't start with the given prefix or doesn't contain a valid integer
+   */
+  public long readPrefixedLong(byte prefix) throws IOException {
+    byte character = readByte();
+
+    if (character != prefix) {
+      throw new IOException("Expected '" + (char) prefix + "' but found '" + (char) character + "'");
+    }
 
-    boolean foundCr = false;
+    character = readByte();
 
-    while (true) {
-      int character = inputStream.read();
+    final boolean negative = character == '-';
 
-      if (character == -1) {
-        throw new IOException("Stream closed!");
-      }
+    if (negative) {
+      character = readByte();
+    }
+
+    long value  = 0;
+    int  digits = 0;
 
-      boas.write(character);
+    while (character != CR) {
+      if (character < '0' || character > '9' || ++digits > MAX_DIGITS) {
+        throw new IOException("Invalid integer in line with prefix '" + (char) prefix + "'");
+      }
 
-      if      (foundCr && character == LF) break;
-      else if (character == CR)            foundCr = true;
-      else if (foundCr)                    foundCr = false;
+      value     = (value * 10) + (character - '0');
+      character = readByte();
     }
 
-    byte[] data = boas.toByteArray();
-    return new String(data, 0, data.length-2);
-  }
+    expect(LF);
 
-  public byte[] readFully(int size) throws IOException {
-    byte[] result    = new byte[size];
-    int    offset    = 0;
-    int    remaining = result.length;
+    if (digits == 0) {
+      throw new IOException("Missing integer in line with prefix '" + (char) prefix + "'");
+    }
 
-    while (remaining > 0) {
-      int read = inputStream.read(result, offset, remaining);
+    return negative ? -value : value;
+  }
 
-      if (read < 0) {
-        throw new IOException("Stream closed!");
+  /**
+   * Reads exactly {@code length} bytes into the given array at the given offset.
+   */
+  public void readFully(byte[] destination, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (position == limit) {
+        fill();
       }
 
-      offset    += read;
-      remaining -= read;
+      int available = Math.min(length, limit - position);
+      System.arraycopy(buffer, position, destination, offset, available);
+
+      position += available;
+      offset   += available;
+      length   -= available;
     }
+  }
+
+  public byte[] readFully(int size) throws IOException {
+    byte[] result = new byte[size];
+    readFully(result, 0, size);
 
     return result;
   }
 
+  /**
+   * Consumes a line terminator, failing if the next two bytes aren't {@code \r\n}.
+   */
+  public void readCrlf() throws IOException {
+    expect(CR);
+    expect(LF);
+  }
+
   public void close() throws IOException {
     inputStream.close();
   }
 
+  private void expect(byte expected) throws IOException {
+    byte character = readByte();
+
+    if (character != expected) {
+      throw new IOException("Expected " + expected + " but found " + character);
+    }
+  }
+
+  private byte readByte() throws IOException {
+    if (position == limit) {
+      fill();
+    }
+
+    return buffer[position++];
+  }
+
+  private void fill() throws IOException {
+    int read;
+
+    do {
+      read = inputStream.read(buffer, 0, buffer.length);
+    } while (read == 0);
+
+    if (read < 0) {
+      throw new IOException("Stream closed!");
+    }
+
+    position = 0;
+    limit    = read;
+  }
 }
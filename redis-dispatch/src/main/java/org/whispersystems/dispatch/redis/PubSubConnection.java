@@ -7,17 +7,17 @@ package org.whispersystems.dispatch.redis;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.dispatch.io.RedisInputStream;
-import org.whispersystems.dispatch.redis.protocol.ArrayReplyHeader;
-import org.whispersystems.dispatch.redis.protocol.IntReply;
-import org.whispersystems.dispatch.redis.protocol.StringReplyHeader;
 import org.whispersystems.dispatch.util.Util;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PubSubConnection {
@@ -32,49 +32,90 @@ public class PubSubConnection {
   private static final byte[] UNSUBSCRIBE_COMMAND = {'U', 'N', 'S', 'U', 'B', 'S', 'C', 'R', 'I', 'B', 'E', ' '};
   private static final byte[] CRLF                = {'\r', '\n'                                                };
 
+  private static final byte ARRAY_PREFIX   = '*';
+  private static final byte STRING_PREFIX  = '$';
+  private static final byte INTEGER_PREFIX = ':';
+
+  // Redis rejects inline commands longer than 64KB, so batched commands are split well below that
+  private static final int MAX_BATCH_COMMAND_LENGTH = 16 * 1024;
+
   private final OutputStream     outputStream;
   private final RedisInputStream inputStream;
   private final Socket           socket;
   private final AtomicBoolean    closed;
 
+  // Maps the encoded names of subscribed channels to their String forms so replies can be resolved without decoding
+  private final Map<ChannelKey, String> channelNames = new ConcurrentHashMap<>();
+
+  // Only touched by the reading thread
+  private final ChannelKey lookupKey = new ChannelKey();
+  private       byte[]     scratch   = new byte[256];
+
   public PubSubConnection(Socket socket) throws IOException {
     this.socket       = socket;
     this.outputStream = socket.getOutputStream();
-    this.inputStream  = new RedisInputStream(new BufferedInputStream(socket.getInputStream()));
+    this.inputStream  = new RedisInputStream(socket.getInputStream());
     this.closed       = new AtomicBoolean(false);
   }
 
   public void subscribe(String channelName) throws IOException {
     if (closed.get()) throw new IOException("Connection closed!");
 
-    byte[] command = Util.combine(SUBSCRIBE_COMMAND, channelName.getBytes(), CRLF);
+    byte[] encodedName = channelName.getBytes();
+    channelNames.put(new ChannelKey(encodedName), channelName);
+
+    byte[] command = Util.combine(SUBSCRIBE_COMMAND, encodedName, CRLF);
     outputStream.write(command);
   }
 
+  /**
+   * Subscribes to all of the given channels, packing as many channels into each SUBSCRIBE command as Redis allows
+   * rather than sending (and waiting on the socket for) one command per channel.
+   */
+  public void subscribe(Collection<String> channelNames) throws IOException {
+    for (String channelName : channelNames) {
+      this.channelNames.put(new ChannelKey(channelName.getBytes()), channelName);
+    }
+
+    writeBatchedCommand(SUBSCRIBE_COMMAND, channelNames);
+  }
+
   public void unsubscribe(String channelName) throws IOException {
     if (closed.get()) throw new IOException("Connection closed!");
 
-    byte[] command = Util.combine(UNSUBSCRIBE_COMMAND, channelName.getBytes(), CRLF);
+    byte[] encodedName = channelName.getBytes();
+    channelNames.remove(new ChannelKey(encodedName));
+
+    byte[] command = Util.combine(UNSUBSCRIBE_COMMAND, encodedName, CRLF);
     outputStream.write(command);
   }
 
+  /**
+   * Unsubscribes from all of the given channels, packing as many channels into each UNSUBSCRIBE command as Redis allows.
+   */
+  public void unsubscribe(Collection<String> channelNames) throws IOException {
+    for (String channelName : channelNames) {
+      this.channelNames.remove(new ChannelKey(channelName.getBytes()));
+    }
+
+    writeBatchedCommand(UNSUBSCRIBE_COMMAND, channelNames);
+  }
+
   public PubSubReply read() throws IOException {
     if (closed.get()) throw new IOException("Connection closed!");
 
-    ArrayReplyHeader replyHeader = new ArrayReplyHeader(inputStream.readLine());
+    long elementCount = inputStream.readPrefixedLong(ARRAY_PREFIX);
 
-    if (replyHeader.getElementCount() != 3) {
-      throw new IOException("Received array reply header with strange count: " + replyHeader.getElementCount());
+    if (elementCount != 3) {
+      throw new IOException("Received array reply header with strange count: " + elementCount);
     }
 
-    StringReplyHeader replyTypeHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            replyType       = inputStream.readFully(replyTypeHeader.getStringLength());
-    inputStream.readLine();
+    int replyTypeLength = readStringIntoScratch();
 
-    if      (Arrays.equals(SUBSCRIBE_TYPE, replyType))   return readSubscribeReply();
-    else if (Arrays.equals(UNSUBSCRIBE_TYPE, replyType)) return readUnsubscribeReply();
-    else if (Arrays.equals(MESSAGE_TYPE, replyType))     return readMessageReply();
-    else throw new IOException("Unknown reply type: " + new String(replyType));
+    if      (scratchEquals(SUBSCRIBE_TYPE, replyTypeLength))   return readSubscriptionReply(PubSubReply.Type.SUBSCRIBE);
+    else if (scratchEquals(UNSUBSCRIBE_TYPE, replyTypeLength)) return readSubscriptionReply(PubSubReply.Type.UNSUBSCRIBE);
+    else if (scratchEquals(MESSAGE_TYPE, replyTypeLength))     return readMessageReply();
+    else throw new IOException("Unknown reply type: " + new String(scratch, 0, replyTypeLength));
   }
 
   public void close() {
@@ -88,36 +129,128 @@ public class PubSubConnection {
     }
   }
 
+  private void writeBatchedCommand(byte[] commandPrefix, Collection<String> channelNames) throws IOException {
+    if (closed.get()) throw new IOException("Connection closed!");
+
+    ByteArrayOutputStream command = new ByteArrayOutputStream(MAX_BATCH_COMMAND_LENGTH);
+
+    for (String channelName : channelNames) {
+      byte[] encodedName = channelName.getBytes();
+
+      if (command.size() > 0 && command.size() + 1 + encodedName.length + CRLF.length > MAX_BATCH_COMMAND_LENGTH) {
+        command.write(CRLF);
+        outputStream.write(command.toByteArray());
+        command.reset();
+      }
+
+      if (command.size() == 0) {
+        // The command constants end with a separating space, which is written before each channel name instead
+        command.write(commandPrefix, 0, commandPrefix.length - 1);
+      }
+
+      command.write(' ');
+      command.write(encodedName);
+    }
+
+    if (command.size() > 0) {
+      command.write(CRLF);
+      outputStream.write(command.toByteArray());
+    }
+  }
+
   private PubSubReply readMessageReply() throws IOException {
-    StringReplyHeader channelNameHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            channelName       = inputStream.readFully(channelNameHeader.getStringLength());
-    inputStream.readLine();
+    String channelName = readChannelName();
+    byte[] message     = inputStream.readFully(readStringLength());
+    inputStream.readCrlf();
 
-    StringReplyHeader messageHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            message       = inputStream.readFully(messageHeader.getStringLength());
-    inputStream.readLine();
+    return new PubSubReply(PubSubReply.Type.MESSAGE, channelName, Optional.of(message));
+  }
 
-    return new PubSubReply(PubSubReply.Type.MESSAGE, new String(channelName), Optional.of(message));
+  private PubSubReply readSubscriptionReply(PubSubReply.Type type) throws IOException {
+    String channelName = readChannelName();
+    inputStream.readPrefixedLong(INTEGER_PREFIX);
+
+    return new PubSubReply(type, channelName, Optional.empty());
   }
 
-  private PubSubReply readUnsubscribeReply() throws IOException {
-    String channelName = readSubscriptionReply();
-    return new PubSubReply(PubSubReply.Type.UNSUBSCRIBE, channelName, Optional.empty());
+  private String readChannelName() throws IOException {
+    int length = readStringIntoScratch();
+
+    lookupKey.set(scratch, length);
+    String channelName = channelNames.get(lookupKey);
+
+    // Messages can still arrive for channels we've just unsubscribed from
+    return channelName != null ? channelName : new String(scratch, 0, length);
   }
 
-  private PubSubReply readSubscribeReply() throws IOException {
-    String channelName = readSubscriptionReply();
-    return new PubSubReply(PubSubReply.Type.SUBSCRIBE, channelName, Optional.empty());
+  private int readStringIntoScratch() throws IOException {
+    int length = readStringLength();
+
+    if (length > scratch.length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+
+    inputStream.readFully(scratch, 0, length);
+    inputStream.readCrlf();
+
+    return length;
   }
 
-  private String readSubscriptionReply() throws IOException {
-    StringReplyHeader channelNameHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            channelName       = inputStream.readFully(channelNameHeader.getStringLength());
-    inputStream.readLine();
+  private int readStringLength() throws IOException {
+    long length = inputStream.readPrefixedLong(STRING_PREFIX);
 
-    IntReply subscriptionCount = new IntReply(inputStream.readLine());
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Unexpected bulk string length: " + length);
+    }
+
+    return (int) length;
+  }
 
-    return new String(channelName);
+  private boolean scratchEquals(byte[] expected, int length) {
+    return Arrays.equals(scratch, 0, length, expected, 0, expected.length);
   }
 
+  /**
+   * An encoded channel name. Stored keys own their bytes; the single lookup key is repointed at the connection's
+   * scratch buffer for each reply so that finding a subscribed channel's name doesn't allocate.
+   */
+  private static class ChannelKey {
+
+    private byte[] bytes;
+    private int    length;
+    private int    hashCode;
+
+    ChannelKey() {
+    }
+
+    ChannelKey(byte[] bytes) {
+      set(bytes, bytes.length);
+    }
+
+    void set(byte[] bytes, int length) {
+      int hashCode = 1;
+
+      for (int i = 0; i < length; i++) {
+        hashCode = 31 * hashCode + bytes[i];
+      }
+
+      this.bytes    = bytes;
+      this.length   = length;
+      this.hashCode = hashCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)                    return true;
+      if (!(other instanceof ChannelKey))   return false;
+
+      ChannelKey that = (ChannelKey) other;
+      return hashCode == that.hashCode && Arrays.equals(bytes, 0, length, that.bytes, 0, that.length);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed number of single-threaded "stripes," choosing a stripe by key. Tasks with equal keys always run
+ * on the same stripe and so run one at a time, in the order they were submitted; tasks with different keys may run
+ * concurrently.
+ */
+public class StripedExecutor {
+
+  private final ThreadPoolExecutor[] stripes;
+
+  public StripedExecutor(String name, int stripeCount) {
+    if (stripeCount < 1) {
+      throw new IllegalArgumentException("Stripe count must be positive");
+    }
+
+    this.stripes = new ThreadPoolExecutor[stripeCount];
+
+    for (int i = 0; i < stripeCount; i++) {
+      final String threadName = name + "-" + i;
+
+      stripes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                          runnable -> new Thread(runnable, threadName));
+    }
+  }
+
+  public void execute(Object key, Runnable task) {
+    stripes[Math.floorMod(key.hashCode(), stripes.length)].execute(task);
+  }
+
+  /**
+   * Returns the number of tasks waiting to run across all stripes.
+   */
+  public int getQueueDepth() {
+    int queueDepth = 0;
+
+    for (ThreadPoolExecutor stripe : stripes) {
+      queueDepth += stripe.getQueue().size();
+    }
+
+    return queueDepth;
+  }
+
+  public void shutdown() {
+    for (ExecutorService stripe : stripes) {
+      stripe.shutdown();
+    }
+  }
+}
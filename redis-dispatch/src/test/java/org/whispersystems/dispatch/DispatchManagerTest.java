@@ -15,11 +15,16 @@ import org.whispersystems.dispatch.redis.PubSubConnection;
 import org.whispersystems.dispatch.redis.PubSubReply;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
@@ -112,6 +117,34 @@ public class DispatchManagerTest {
     assertArrayEquals("there".getBytes(), captor.getValue());
   }
 
+  @Test
+  public void testSubscriptionsWrittenInBatches() throws IOException {
+    for (int i = 0; i < 100; i++) {
+      dispatchManager.subscribe("channel-" + i, mock(DispatchChannel.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<String>> captor = ArgumentCaptor.forClass(Collection.class);
+    Set<String>                        subscribed = new HashSet<>();
+
+    for (int attempt = 0; attempt < 100 && subscribed.size() < 100; attempt++) {
+      verify(pubSubConnection, timeout(1000).atLeastOnce()).subscribe(captor.capture());
+      captor.getAllValues().forEach(subscribed::addAll);
+    }
+
+    assertEquals(100, subscribed.size());
+  }
+
+  @Test
+  public void testUnsubscribeWins() throws IOException {
+    DispatchChannel dispatchChannel = mock(DispatchChannel.class);
+    dispatchManager.subscribe("foo", dispatchChannel);
+    dispatchManager.unsubscribe("foo", dispatchChannel);
+
+    verify(pubSubConnection, timeout(1000)).unsubscribe(argThat((Collection<String> names) -> names.contains("foo")));
+    verify(dispatchChannel, timeout(1000)).onDispatchUnsubscribed(eq("foo"));
+  }
+
   private static class PubSubReplyInputStream {
 
     private final List<PubSubReply> pubSubReplyList = new LinkedList<>();
@@ -7,8 +7,12 @@ package org.whispersystems.dispatch.redis;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -18,6 +22,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
@@ -90,6 +96,100 @@ public class PubSubConnectionTest {
     assertArrayEquals(captor.getValue(), "UNSUBSCRIBE bazbar\r\n".getBytes());
   }
 
+  @Test
+  public void testSubscribeBatch() throws IOException {
+    OutputStream outputStream = mock(OutputStream.class);
+    Socket       socket       = mock(Socket.class      );
+    when(socket.getOutputStream()).thenReturn(outputStream);
+    PubSubConnection connection  = new PubSubConnection(socket);
+
+    connection.subscribe(List.of("foo", "bar", "baz"));
+
+    ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+    verify(outputStream).write(captor.capture());
+
+    assertArrayEquals("SUBSCRIBE foo bar baz\r\n".getBytes(), captor.getValue());
+  }
+
+  @Test
+  public void testSubscribeLargeBatch() throws IOException {
+    OutputStream outputStream = mock(OutputStream.class);
+    Socket       socket       = mock(Socket.class      );
+    when(socket.getOutputStream()).thenReturn(outputStream);
+    PubSubConnection connection  = new PubSubConnection(socket);
+
+    List<String> channelNames = new ArrayList<>();
+
+    for (int i = 0; i < 10_000; i++) {
+      channelNames.add("channel-" + i);
+    }
+
+    connection.subscribe(channelNames);
+
+    ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+    verify(outputStream, atLeast(2)).write(captor.capture());
+
+    List<String> subscribed = new ArrayList<>();
+
+    for (byte[] command : captor.getAllValues()) {
+      String commandString = new String(command);
+
+      assertTrue(command.length < 64 * 1024);
+      assertTrue(commandString.startsWith("SUBSCRIBE "));
+      assertTrue(commandString.endsWith("\r\n"));
+
+      subscribed.addAll(List.of(commandString.substring("SUBSCRIBE ".length(), commandString.length() - 2).split(" ")));
+    }
+
+    assertEquals(channelNames, subscribed);
+  }
+
+  @Test
+  public void testSubscribedChannelNameReused() throws Exception {
+    String reply = "*3\r\n$7\r\nmessage\r\n$6\r\nfoobar\r\n$2\r\nhi\r\n" +
+                   "*3\r\n$7\r\nmessage\r\n$6\r\nbazbar\r\n$0\r\n\r\n" +
+                   "*3\r\n$11\r\nunsubscribe\r\n$6\r\nfoobar\r\n:12345\r\n";
+
+    InputStream  inputStream  = mockInputStreamFor(new RandomInputStream(reply.getBytes()));
+    OutputStream outputStream = mock(OutputStream.class);
+    Socket       socket       = mock(Socket.class      );
+    when(socket.getOutputStream()).thenReturn(outputStream);
+    when(socket.getInputStream()).thenReturn(inputStream);
+
+    String channelName = new String("foobar");
+
+    PubSubConnection pubSubConnection = new PubSubConnection(socket);
+    pubSubConnection.subscribe(channelName);
+
+    PubSubReply messageReply = pubSubConnection.read();
+    assertEquals(PubSubReply.Type.MESSAGE, messageReply.getType());
+    assertSame(channelName, messageReply.getChannel());
+    assertArrayEquals("hi".getBytes(), messageReply.getContent().get());
+
+    PubSubReply unknownChannelReply = pubSubConnection.read();
+    assertEquals(PubSubReply.Type.MESSAGE, unknownChannelReply.getType());
+    assertEquals("bazbar", unknownChannelReply.getChannel());
+    assertArrayEquals(new byte[0], unknownChannelReply.getContent().get());
+
+    pubSubConnection.unsubscribe(channelName);
+
+    PubSubReply unsubscribeReply = pubSubConnection.read();
+    assertEquals(PubSubReply.Type.UNSUBSCRIBE, unsubscribeReply.getType());
+    assertEquals("foobar", unsubscribeReply.getChannel());
+    assertNotSame(channelName, unsubscribeReply.getChannel());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMalformedResponse() throws Exception {
+    InputStream  inputStream  = mockInputStreamFor(new FullInputStream("*3\r\n$x\r\n".getBytes()));
+    OutputStream outputStream = mock(OutputStream.class);
+    Socket       socket       = mock(Socket.class      );
+    when(socket.getOutputStream()).thenReturn(outputStream);
+    when(socket.getInputStream()).thenReturn(inputStream);
+
+    new PubSubConnection(socket).read();
+  }
+
   @Test
   public void testTricklyResponse() throws Exception {
     InputStream  inputStream  = mockInputStreamFor(new TrickleInputStream(REPLY.getBytes()));
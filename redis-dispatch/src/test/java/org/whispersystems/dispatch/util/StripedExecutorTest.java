@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+  @Test
+  public void testOrderingPerKey() throws InterruptedException {
+    StripedExecutor            executor = new StripedExecutor("test", 4);
+    Map<String, List<Integer>> results  = new ConcurrentHashMap<>();
+    CountDownLatch             latch    = new CountDownLatch(10 * 1000);
+
+    try {
+      for (int i = 0; i < 1000; i++) {
+        for (int key = 0; key < 10; key++) {
+          final String name  = "key-" + key;
+          final int    value = i;
+
+          executor.execute(name, () -> {
+            results.computeIfAbsent(name, ignored -> Collections.synchronizedList(new ArrayList<>())).add(value);
+            latch.countDown();
+          });
+        }
+      }
+
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+      List<Integer> expected = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+
+      assertEquals(10, results.size());
+      results.values().forEach(values -> assertEquals(expected, values));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testQueueDepth() throws InterruptedException {
+    StripedExecutor executor = new StripedExecutor("test", 1);
+    CountDownLatch  blocked  = new CountDownLatch(1);
+    CountDownLatch  release  = new CountDownLatch(1);
+
+    try {
+      executor.execute("a", () -> {
+        blocked.countDown();
+
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      });
+
+      assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+      executor.execute("b", () -> {});
+      executor.execute("c", () -> {});
+
+      assertEquals(2, executor.getQueueDepth());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidStripeCount() {
+    new StripedExecutor("test", 0);
+  }
+}
@@ -142,11 +142,28 @@ public class RateLimitsConfiguration {
     @JsonProperty
     private double leakRatePerMinute;
 
+    /**
+     * The number of permits a server may lease from the shared bucket for a frequently-used key and then hand out
+     * locally without consulting Redis; zero disables local leasing.
+     */
+    @JsonProperty
+    private int localLeaseSize = 0;
+
+    @JsonProperty
+    private Duration localLeaseDuration = Duration.ofSeconds(1);
+
     public RateLimitConfiguration(int bucketSize, double leakRatePerMinute) {
       this.bucketSize        = bucketSize;
       this.leakRatePerMinute = leakRatePerMinute;
     }
 
+    public RateLimitConfiguration(int bucketSize, double leakRatePerMinute, int localLeaseSize, Duration localLeaseDuration) {
+      this(bucketSize, leakRatePerMinute);
+
+      this.localLeaseSize     = localLeaseSize;
+      this.localLeaseDuration = localLeaseDuration;
+    }
+
     public RateLimitConfiguration() {}
 
     public int getBucketSize() {
@@ -156,6 +173,14 @@ public class RateLimitsConfiguration {
     public double getLeakRatePerMinute() {
       return leakRatePerMinute;
     }
+
+    public int getLocalLeaseSize() {
+      return localLeaseSize;
+    }
+
+    public Duration getLocalLeaseDuration() {
+      return localLeaseDuration;
+    }
   }
 
   public static class CardinalityRateLimitConfiguration {
@@ -51,6 +51,14 @@ public class DynamicConfiguration {
   @Valid
   private DynamicRateLimitChallengeConfiguration rateLimitChallenge = new DynamicRateLimitChallengeConfiguration();
 
+  @JsonProperty
+  @Valid
+  private DynamicMessagePersisterConfiguration messagePersister = new DynamicMessagePersisterConfiguration();
+
+  @JsonProperty
+  @Valid
+  private DynamicPushNotificationDebounceConfiguration pushNotificationDebounce = new DynamicPushNotificationDebounceConfiguration();
+
   public Optional<DynamicExperimentEnrollmentConfiguration> getExperimentEnrollmentConfiguration(
       final String experimentName) {
     return Optional.ofNullable(experiments.get(experimentName));
@@ -101,4 +109,12 @@ public class DynamicConfiguration {
   public DynamicRateLimitChallengeConfiguration getRateLimitChallengeConfiguration() {
     return rateLimitChallenge;
   }
+
+  public DynamicMessagePersisterConfiguration getMessagePersisterConfiguration() {
+    return messagePersister;
+  }
+
+  public DynamicPushNotificationDebounceConfiguration getPushNotificationDebounceConfiguration() {
+    return pushNotificationDebounce;
+  }
 }
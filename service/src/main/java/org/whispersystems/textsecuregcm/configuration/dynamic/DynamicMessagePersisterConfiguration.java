@@ -0,0 +1,35 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.configuration.dynamic;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.annotations.VisibleForTesting;
+import javax.validation.constraints.Min;
+
+public class DynamicMessagePersisterConfiguration {
+
+  @JsonProperty
+  @Min(1)
+  private int minConcurrency = 4;
+
+  @JsonProperty
+  @Min(1)
+  private int maxConcurrency = 32;
+
+  public int getMinConcurrency() {
+    return minConcurrency;
+  }
+
+  public int getMaxConcurrency() {
+    return Math.max(minConcurrency, maxConcurrency);
+  }
+
+  @VisibleForTesting
+  public void setConcurrency(final int minConcurrency, final int maxConcurrency) {
+    this.minConcurrency = minConcurrency;
+    this.maxConcurrency = maxConcurrency;
+  }
+}
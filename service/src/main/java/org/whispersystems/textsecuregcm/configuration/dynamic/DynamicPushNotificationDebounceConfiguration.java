@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.configuration.dynamic;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import javax.validation.constraints.NotNull;
+
+public class DynamicPushNotificationDebounceConfiguration {
+
+  @JsonProperty
+  private boolean enabled = false;
+
+  @JsonProperty
+  @NotNull
+  private Duration window = Duration.ofSeconds(30);
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public Duration getWindow() {
+    return window;
+  }
+
+  @VisibleForTesting
+  public void setEnabled(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @VisibleForTesting
+  public void setWindow(final Duration window) {
+    this.window = window;
+  }
+}
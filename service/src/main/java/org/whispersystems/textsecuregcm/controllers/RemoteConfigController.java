@@ -31,26 +31,40 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Path("/v1/config")
 public class RemoteConfigController {
 
   private final RemoteConfigsManager remoteConfigsManager;
   private final List<String>         configAuthTokens;
-  private final Map<String, String>  globalConfig;
+  private final List<UserRemoteConfig> globalConfigs;
+
+  private volatile PrecomputedRemoteConfigs precomputedRemoteConfigs = new PrecomputedRemoteConfigs(List.of());
 
   private static final String GLOBAL_CONFIG_PREFIX = "global.";
 
+  private static final ThreadLocal<MessageDigest> SHA1_DIGEST = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  });
+
   public RemoteConfigController(RemoteConfigsManager remoteConfigsManager, List<String> configAuthTokens, Map<String, String> globalConfig) {
     this.remoteConfigsManager = remoteConfigsManager;
     this.configAuthTokens = configAuthTokens;
-    this.globalConfig = globalConfig;
+
+    // Global configs are the same for every user and never change, so we can build them once and share them
+    this.globalConfigs = globalConfig.entrySet().stream()
+        .map(entry -> new UserRemoteConfig(GLOBAL_CONFIG_PREFIX + entry.getKey(), true, entry.getValue()))
+        .collect(Collectors.toUnmodifiableList());
   }
 
   @Timed
@@ -58,18 +72,36 @@ public class RemoteConfigController {
   @Consumes(MediaType.APPLICATION_JSON)
   @Produces(MediaType.APPLICATION_JSON)
   public UserRemoteConfigList getAll(@Auth Account account) {
-    try {
-      MessageDigest digest = MessageDigest.getInstance("SHA1");
-
-      final Stream<UserRemoteConfig> globalConfigStream = globalConfig.entrySet().stream().map(entry -> new UserRemoteConfig(GLOBAL_CONFIG_PREFIX + entry.getKey(), true, entry.getValue()));
-      return new UserRemoteConfigList(Stream.concat(remoteConfigsManager.getAll().stream().map(config -> {
-        final byte[] hashKey = config.getHashKey() != null ? config.getHashKey().getBytes(StandardCharsets.UTF_8) : config.getName().getBytes(StandardCharsets.UTF_8);
-        boolean inBucket = isInBucket(digest, account.getUuid(), hashKey, config.getPercentage(), config.getUuids());
-        return new UserRemoteConfig(config.getName(), inBucket, inBucket ? config.getValue() : config.getDefaultValue());
-      }), globalConfigStream).collect(Collectors.toList()));
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
+    final PrecomputedRemoteConfigs remoteConfigs = getPrecomputedRemoteConfigs();
+    final List<UserRemoteConfig> userRemoteConfigs = new ArrayList<>(remoteConfigs.configs.size() + globalConfigs.size());
+
+    final MessageDigest digest = SHA1_DIGEST.get();
+    final byte[] uuidBytes = getUuidBytes(account.getUuid());
+
+    for (final PrecomputedRemoteConfig config : remoteConfigs.configs) {
+      final boolean inBucket = isInBucket(digest, account.getUuid(), uuidBytes, config.hashKey, config.percentage, config.uuids);
+      userRemoteConfigs.add(inBucket ? config.enabledConfig : config.disabledConfig);
     }
+
+    userRemoteConfigs.addAll(globalConfigs);
+
+    return new UserRemoteConfigList(userRemoteConfigs);
+  }
+
+  /**
+   * Returns the current remote configs along with everything about them that doesn't depend on the requesting user,
+   * rebuilding that state only when the remote configs manager has refreshed its cache.
+   */
+  private PrecomputedRemoteConfigs getPrecomputedRemoteConfigs() {
+    final List<RemoteConfig> currentRemoteConfigs = remoteConfigsManager.getAll();
+    PrecomputedRemoteConfigs remoteConfigs = precomputedRemoteConfigs;
+
+    if (remoteConfigs.source != currentRemoteConfigs) {
+      remoteConfigs = new PrecomputedRemoteConfigs(currentRemoteConfigs);
+      precomputedRemoteConfigs = remoteConfigs;
+    }
+
+    return remoteConfigs;
   }
 
   @Timed
@@ -105,13 +137,16 @@ public class RemoteConfigController {
 
   @VisibleForTesting
   public static boolean isInBucket(MessageDigest digest, UUID uid, byte[] hashKey, int configPercentage, Set<UUID> uuidsInBucket) {
+    return isInBucket(digest, uid, getUuidBytes(uid), hashKey, configPercentage, uuidsInBucket);
+  }
+
+  private static boolean isInBucket(MessageDigest digest, UUID uid, byte[] uuidBytes, byte[] hashKey, int configPercentage, Set<UUID> uuidsInBucket) {
     if (uuidsInBucket.contains(uid)) return true;
 
-    ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
-    bb.putLong(uid.getMostSignificantBits());
-    bb.putLong(uid.getLeastSignificantBits());
+    // Buckets are always less than 100, so there's no need to hash anything to know that every user is in the bucket
+    if (configPercentage >= 100) return true;
 
-    digest.update(bb.array());
+    digest.update(uuidBytes);
 
     byte[] hash   = digest.digest(hashKey);
     int    bucket = (int)(Math.abs(Conversions.byteArrayToLong(hash)) % 100);
@@ -119,8 +154,44 @@ public class RemoteConfigController {
     return bucket < configPercentage;
   }
 
+  private static byte[] getUuidBytes(UUID uuid) {
+    ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
+    bb.putLong(uuid.getMostSignificantBits());
+    bb.putLong(uuid.getLeastSignificantBits());
+
+    return bb.array();
+  }
+
   @SuppressWarnings("BooleanMethodIsAlwaysInverted")
   private boolean isAuthorized(String configToken) {
     return configToken != null && configAuthTokens.stream().anyMatch(authorized -> MessageDigest.isEqual(authorized.getBytes(), configToken.getBytes()));
   }
+
+  private static class PrecomputedRemoteConfigs {
+
+    private final List<RemoteConfig>            source;
+    private final List<PrecomputedRemoteConfig> configs;
+
+    private PrecomputedRemoteConfigs(List<RemoteConfig> source) {
+      this.source  = source;
+      this.configs = source.stream().map(PrecomputedRemoteConfig::new).collect(Collectors.toUnmodifiableList());
+    }
+  }
+
+  private static class PrecomputedRemoteConfig {
+
+    private final byte[]           hashKey;
+    private final int              percentage;
+    private final Set<UUID>        uuids;
+    private final UserRemoteConfig enabledConfig;
+    private final UserRemoteConfig disabledConfig;
+
+    private PrecomputedRemoteConfig(RemoteConfig config) {
+      this.hashKey        = (config.getHashKey() != null ? config.getHashKey() : config.getName()).getBytes(StandardCharsets.UTF_8);
+      this.percentage     = config.getPercentage();
+      this.uuids          = config.getUuids();
+      this.enabledConfig  = new UserRemoteConfig(config.getName(), true, config.getValue());
+      this.disabledConfig = new UserRemoteConfig(config.getName(), false, config.getDefaultValue());
+    }
+  }
 }
@@ -5,16 +5,29 @@
 
 package org.whispersystems.textsecuregcm.limits;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import java.io.IOException;
 import java.time.Duration;
+import java.util.List;
 import org.whispersystems.textsecuregcm.configuration.RateLimitsConfiguration.CardinalityRateLimitConfiguration;
 import org.whispersystems.textsecuregcm.controllers.RateLimitExceededException;
+import org.whispersystems.textsecuregcm.redis.ClusterLuaScript;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
+import org.whispersystems.textsecuregcm.util.Constants;
 
 /**
  * A cardinality rate limiter prevents an actor from taking some action if that actor has attempted to take that action
  * on too many targets in a fixed period of time. Behind the scenes, we estimate the target count using a
  * hyper-log-log data structure; as a consequence, the number of targets is an approximation, and this rate limiter
  * should not be used in cases where precise time or target limits are required.
+ * <p>
+ * An actor's limit may be raised above the default with {@link #increaseMaxCardinality(String, int, int)}; raised
+ * limits expire along with the actor's set of targets.
  */
 public class CardinalityRateLimiter {
 
@@ -25,6 +38,9 @@ public class CardinalityRateLimiter {
   private final Duration ttl;
   private final int defaultMaxCardinality;
 
+  private final ClusterLuaScript validateScript;
+  private final Timer validateTimer;
+
   public CardinalityRateLimiter(final FaultTolerantRedisCluster cacheCluster, final String name, final Duration ttl, final int defaultMaxCardinality) {
     this.cacheCluster = cacheCluster;
 
@@ -32,36 +48,69 @@ public class CardinalityRateLimiter {
 
     this.ttl = ttl;
     this.defaultMaxCardinality = defaultMaxCardinality;
+
+    this.validateTimer = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME)
+        .timer(name(getClass(), name, "validate"));
+
+    try {
+      this.validateScript = ClusterLuaScript.fromResource(cacheCluster, "lua/cardinality_rate_limiter/validate.lua", ScriptOutputType.MULTI);
+    } catch (final IOException e) {
+      // This should never happen for a script included in our own resource bundle
+      throw new AssertionError("Failed to load script", e);
+    }
   }
 
+  /**
+   * Adds the given target to the set of targets for the given key and checks whether the key has exceeded its limit in
+   * a single round trip.
+   *
+   * @param maxCardinality the maximum number of targets for the given key unless its limit has been raised
+   */
+  @SuppressWarnings("unchecked")
   public void validate(final String key, final String target, final int maxCardinality) throws RateLimitExceededException {
+    final List<Long> result;
 
-    final boolean rateLimitExceeded = cacheCluster.withCluster(connection -> {
-      final String hllKey = getHllKey(key);
+    try (final Timer.Context ignored = validateTimer.time()) {
+      result = (List<Long>) validateScript.execute(List.of(getHllKey(key), getMaxCardinalityKey(key)),
+          List.of(target, String.valueOf(maxCardinality), String.valueOf(ttl.toSeconds())));
+    }
 
-      final boolean changed = connection.sync().pfadd(hllKey, target) == 1;
-      final long cardinality = connection.sync().pfcount(hllKey);
+    final boolean rateLimitExceeded = result.get(0) == 1;
 
-      final boolean mayNeedExpiration = changed && cardinality == 1;
+    if (rateLimitExceeded) {
+      throw new RateLimitExceededException(Duration.ofSeconds(result.get(1)));
+    }
+  }
 
-      // If the set already existed, we can assume it already had an expiration time and can save a round trip by
-      // skipping the ttl check.
-      if (mayNeedExpiration && connection.sync().ttl(hllKey) == -1) {
-        connection.sync().expire(hllKey, ttl.toSeconds());
+  /**
+   * Raises the limit for the given key by the given increment until the key's current set of targets expires.
+   *
+   * @param defaultMaxCardinality the limit to raise if the key's limit has not already been raised
+   */
+  public void increaseMaxCardinality(final String key, final int defaultMaxCardinality, final int increment) {
+    cacheCluster.useCluster(connection -> {
+      final long ttlSeconds;
+      {
+        final long remainingTtl = connection.sync().ttl(getHllKey(key));
+        ttlSeconds = remainingTtl > 0 ? remainingTtl : ttl.toSeconds();
       }
 
-      return changed && cardinality > maxCardinality;
-    });
+      final String maxCardinalityKey = getMaxCardinalityKey(key);
 
-    if (rateLimitExceeded) {
-      throw new RateLimitExceededException(Duration.ofSeconds(getRemainingTtl(key)));
-    }
+      connection.sync().set(maxCardinalityKey, String.valueOf(defaultMaxCardinality), SetArgs.Builder.nx().ex(ttlSeconds));
+      connection.sync().incrby(maxCardinalityKey, increment);
+    });
   }
 
   private String getHllKey(final String key) {
     return "hll_rate_limit::" + name + "::" + key;
   }
 
+  private String getMaxCardinalityKey(final String key) {
+    // Hash-tag the HLL key so that both keys land in the same slot and can be used together in a script
+    return "{" + getHllKey(key) + "}::max_cardinality";
+  }
+
   public Duration getInitialTtl() {
     return ttl;
   }
@@ -70,6 +119,10 @@ public class CardinalityRateLimiter {
     return cacheCluster.withCluster(connection -> connection.sync().ttl(getHllKey(key)));
   }
 
+  public long getCardinality(final String key) {
+    return cacheCluster.withCluster(connection -> connection.sync().pfcount(getHllKey(key)));
+  }
+
   public int getDefaultMaxCardinality() {
     return defaultMaxCardinality;
   }
@@ -10,23 +10,33 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import io.lettuce.core.ScriptOutputType;
 import java.io.IOException;
+import java.time.Clock;
 import java.time.Duration;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.List;
 import org.whispersystems.textsecuregcm.configuration.RateLimitsConfiguration.RateLimitConfiguration;
 import org.whispersystems.textsecuregcm.controllers.RateLimitExceededException;
+import org.whispersystems.textsecuregcm.redis.ClusterLuaScript;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
 import org.whispersystems.textsecuregcm.util.Constants;
-import org.whispersystems.textsecuregcm.util.SystemMapper;
 
+/**
+ * A leaky bucket rate limiter backed by the shared Redis cache cluster.
+ * <p>
+ * Optionally, a limiter may lease permits for frequently-used keys: when a key is validated again within the lease
+ * duration of a previous request, this server takes up to {@code localLeaseSize} permits from the shared bucket in one
+ * round trip and hands them out locally until they run out or the lease expires. Leased permits are removed from the
+ * shared bucket up front, so leasing never lets a key exceed its limit across the fleet; the cost is that permits
+ * leased by one server are unavailable to the others until they leak back. The "unusedLeasedPermits" meter tracks how
+ * many permits expire unused (i.e. how much stricter than configured the limiter was in practice).
+ */
 public class RateLimiter {
 
-  private final Logger       logger = LoggerFactory.getLogger(RateLimiter.class);
-  private final ObjectMapper mapper = SystemMapper.getMapper();
-
   private   final Meter                     meter;
   private   final Timer                     validateTimer;
   protected final FaultTolerantRedisCluster cacheCluster;
@@ -34,8 +44,33 @@ public class RateLimiter {
   private   final int                       bucketSize;
   private   final double                    leakRatePerMinute;
   private   final double                    leakRatePerMillis;
+  private   final long                      bucketTtlMillis;
+  private   final ClusterLuaScript          validateScript;
+  private   final Clock                     clock;
+
+  private   final int                       localLeaseSize;
+  private   final Duration                  localLeaseDuration;
+  private   final Cache<String, LocalLease> localLeases;
+  private   final Meter                     localLeaseHitMeter;
+  private   final Meter                     leasedPermitsMeter;
+  private   final Meter                     unusedLeasedPermitsMeter;
+
+  private static final int MAX_LOCAL_LEASES = 100_000;
 
   public RateLimiter(FaultTolerantRedisCluster cacheCluster, String name, int bucketSize, double leakRatePerMinute)
+  {
+    this(cacheCluster, name, bucketSize, leakRatePerMinute, 0, Duration.ZERO);
+  }
+
+  public RateLimiter(FaultTolerantRedisCluster cacheCluster, String name, int bucketSize, double leakRatePerMinute,
+                     int localLeaseSize, Duration localLeaseDuration)
+  {
+    this(cacheCluster, name, bucketSize, leakRatePerMinute, localLeaseSize, localLeaseDuration, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  RateLimiter(FaultTolerantRedisCluster cacheCluster, String name, int bucketSize, double leakRatePerMinute,
+              int localLeaseSize, Duration localLeaseDuration, Clock clock)
   {
     MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
 
@@ -46,17 +81,70 @@ public class RateLimiter {
     this.bucketSize             = bucketSize;
     this.leakRatePerMinute      = leakRatePerMinute;
     this.leakRatePerMillis      = leakRatePerMinute / (60.0 * 1000.0);
+    this.bucketTtlMillis        = (long) Math.ceil(bucketSize / leakRatePerMillis);
+    this.clock                  = clock;
+    this.localLeaseSize         = localLeaseSize;
+    this.localLeaseDuration     = localLeaseDuration;
+
+    this.localLeaseHitMeter       = metricRegistry.meter(name(getClass(), name, "localLeaseHit"));
+    this.leasedPermitsMeter       = metricRegistry.meter(name(getClass(), name, "leasedPermits"));
+    this.unusedLeasedPermitsMeter = metricRegistry.meter(name(getClass(), name, "unusedLeasedPermits"));
+
+    if (localLeaseSize > 0 && !localLeaseDuration.isZero()) {
+      // Entries outlive the leases they hold by one lease duration so we can tell that a key is "hot" (i.e. it has been
+      // validated recently) when its lease has run out
+      this.localLeases = CacheBuilder.newBuilder()
+                                     .expireAfterWrite(localLeaseDuration.multipliedBy(2))
+                                     .maximumSize(MAX_LOCAL_LEASES)
+                                     .removalListener(this::handleLeaseRemoved)
+                                     .build();
+    } else {
+      this.localLeases = null;
+    }
+
+    try {
+      this.validateScript = ClusterLuaScript.fromResource(cacheCluster, "lua/leaky_bucket/validate.lua", ScriptOutputType.MULTI);
+    } catch (IOException e) {
+      // This should never happen for a script included in our own resource bundle
+      throw new AssertionError("Failed to load script", e);
+    }
   }
 
   public void validate(String key, int amount) throws RateLimitExceededException {
     try (final Timer.Context ignored = validateTimer.time()) {
-      LeakyBucket bucket = getBucket(key);
+      final long now = clock.millis();
+      final LocalLease lease = localLeases != null ? localLeases.getIfPresent(key) : null;
+
+      if (lease != null && lease.tryConsume(amount, now)) {
+        localLeaseHitMeter.mark();
+        return;
+      }
+
+      // Only lease permits for keys we've seen recently; most keys are validated once in a blue moon, and leasing
+      // permits for them would just strand those permits on this server
+      final int maxAmount = lease != null ? Math.max(amount, localLeaseSize) : amount;
+      final ValidateResult result = executeValidateScript(key, amount, maxAmount, now, false);
+      final long retryAfterMillis = result.retryAfterMillis;
+
+      if (localLeases != null && retryAfterMillis == 0) {
+        final long leasedPermits = result.grantedPermits - amount;
+
+        if (leasedPermits > 0) {
+          leasedPermitsMeter.mark(leasedPermits);
+        }
 
-      if (bucket.add(amount)) {
-        setBucket(key, bucket);
-      } else {
+        localLeases.put(key, new LocalLease(leasedPermits, now + localLeaseDuration.toMillis()));
+      }
+
+      if (retryAfterMillis != 0) {
         meter.mark();
-        throw new RateLimitExceededException(key + " , " + amount, bucket.getTimeUntilSpaceAvailable(amount));
+
+        if (retryAfterMillis < 0) {
+          // This shouldn't happen today but if so we should bubble this to the clients somehow
+          throw new IllegalArgumentException("Requested permits exceed maximum bucket size");
+        }
+
+        throw new RateLimitExceededException(key + " , " + amount, Duration.ofMillis(retryAfterMillis));
       }
     }
   }
@@ -66,10 +154,21 @@ public class RateLimiter {
   }
 
   public boolean hasAvailablePermits(final String key, final int permits) {
-    return getBucket(key).getTimeUntilSpaceAvailable(permits).equals(Duration.ZERO);
+    final long now = clock.millis();
+    final LocalLease lease = localLeases != null ? localLeases.getIfPresent(key) : null;
+
+    if (lease != null && lease.hasPermits(permits, now)) {
+      return true;
+    }
+
+    return executeValidateScript(key, permits, permits, now, true).retryAfterMillis == 0;
   }
 
   public void clear(String key) {
+    if (localLeases != null) {
+      localLeases.invalidate(key);
+    }
+
     cacheCluster.useCluster(connection -> connection.sync().del(getBucketName(key)));
   }
 
@@ -81,36 +180,93 @@ public class RateLimiter {
     return leakRatePerMinute;
   }
 
-  private void setBucket(String key, LeakyBucket bucket) {
+  public int getLocalLeaseSize() {
+    return localLeaseSize;
+  }
 
-    try {
-      final String serialized = bucket.serialize(mapper);
+  /**
+   * Leaks and (unless this is a dry run) consumes permits from the named bucket in a single atomic operation. If the
+   * requested amount is available, up to {@code maxAmount} permits are taken from the bucket.
+   */
+  @SuppressWarnings("unchecked")
+  private ValidateResult executeValidateScript(final String key, final int amount, final int maxAmount, final long now,
+      final boolean dryRun) {
 
-      cacheCluster.useCluster(connection -> connection.sync().setex(getBucketName(key), (int) Math.ceil((bucketSize / leakRatePerMillis) / 1000), serialized));
-    } catch (JsonProcessingException e) {
-      throw new IllegalArgumentException(e);
-    }
+    final List<Long> result = (List<Long>) validateScript.execute(List.of(getBucketName(key)),
+        List.of(String.valueOf(bucketSize),
+            String.valueOf(leakRatePerMillis),
+            String.valueOf(amount),
+            String.valueOf(now),
+            String.valueOf(bucketTtlMillis),
+            String.valueOf(dryRun),
+            String.valueOf(maxAmount)));
+
+    return new ValidateResult(result.get(0), result.get(1));
   }
 
-  private LeakyBucket getBucket(String key) {
-    try {
-      final String serialized = cacheCluster.withCluster(connection -> connection.sync().get(getBucketName(key)));
+  private void handleLeaseRemoved(final RemovalNotification<String, LocalLease> removalNotification) {
+    final LocalLease lease = removalNotification.getValue();
 
-      if (serialized != null) {
-        return LeakyBucket.fromSerialized(mapper, serialized);
-      }
-    } catch (IOException e) {
-      logger.warn("Deserialization error", e);
+    if (lease != null) {
+      unusedLeasedPermitsMeter.mark(lease.drain());
     }
-
-    return new LeakyBucket(bucketSize, leakRatePerMillis);
   }
 
-  private String getBucketName(String key) {
+  @VisibleForTesting
+  String getBucketName(String key) {
     return "leaky_bucket::" + name + "::" + key;
   }
 
   public boolean hasConfiguration(final RateLimitConfiguration configuration) {
-    return bucketSize == configuration.getBucketSize() && leakRatePerMinute == configuration.getLeakRatePerMinute();
+    return bucketSize == configuration.getBucketSize() &&
+        leakRatePerMinute == configuration.getLeakRatePerMinute() &&
+        localLeaseSize == configuration.getLocalLeaseSize() &&
+        localLeaseDuration.equals(configuration.getLocalLeaseDuration());
+  }
+
+  private static class ValidateResult {
+
+    private final long grantedPermits;
+    private final long retryAfterMillis;
+
+    private ValidateResult(final long grantedPermits, final long retryAfterMillis) {
+      this.grantedPermits = grantedPermits;
+      this.retryAfterMillis = retryAfterMillis;
+    }
+  }
+
+  /**
+   * Permits taken from the shared bucket that this server may hand out without consulting Redis until they run out or
+   * the lease expires.
+   */
+  private static class LocalLease {
+
+    private final long expiresAtMillis;
+    private long remainingPermits;
+
+    private LocalLease(final long remainingPermits, final long expiresAtMillis) {
+      this.remainingPermits = remainingPermits;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    private synchronized boolean tryConsume(final int amount, final long now) {
+      if (hasPermits(amount, now)) {
+        remainingPermits -= amount;
+        return true;
+      }
+
+      return false;
+    }
+
+    private synchronized boolean hasPermits(final int amount, final long now) {
+      return now < expiresAtMillis && remainingPermits >= amount;
+    }
+
+    private synchronized long drain() {
+      final long drained = remainingPermits;
+      remainingPermits = 0;
+
+      return drained;
+    }
   }
 }
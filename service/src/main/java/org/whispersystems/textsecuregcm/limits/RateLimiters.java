@@ -54,29 +54,17 @@ public class RateLimiters {
     this.cacheCluster  = cacheCluster;
     this.dynamicConfig = dynamicConfig;
 
-    this.smsDestinationLimiter = new RateLimiter(cacheCluster, "smsDestination",
-                                                 config.getSmsDestination().getBucketSize(),
-                                                 config.getSmsDestination().getLeakRatePerMinute());
+    this.smsDestinationLimiter = createLimiter(cacheCluster, config.getSmsDestination(), "smsDestination");
 
-    this.voiceDestinationLimiter = new RateLimiter(cacheCluster, "voxDestination",
-                                                   config.getVoiceDestination().getBucketSize(),
-                                                   config.getVoiceDestination().getLeakRatePerMinute());
+    this.voiceDestinationLimiter = createLimiter(cacheCluster, config.getVoiceDestination(), "voxDestination");
 
-    this.voiceDestinationDailyLimiter = new RateLimiter(cacheCluster, "voxDestinationDaily",
-                                                        config.getVoiceDestinationDaily().getBucketSize(),
-                                                        config.getVoiceDestinationDaily().getLeakRatePerMinute());
+    this.voiceDestinationDailyLimiter = createLimiter(cacheCluster, config.getVoiceDestinationDaily(), "voxDestinationDaily");
 
-    this.smsVoiceIpLimiter = new RateLimiter(cacheCluster, "smsVoiceIp",
-                                             config.getSmsVoiceIp().getBucketSize(),
-                                             config.getSmsVoiceIp().getLeakRatePerMinute());
+    this.smsVoiceIpLimiter = createLimiter(cacheCluster, config.getSmsVoiceIp(), "smsVoiceIp");
 
-    this.smsVoicePrefixLimiter = new RateLimiter(cacheCluster, "smsVoicePrefix",
-                                                 config.getSmsVoicePrefix().getBucketSize(),
-                                                 config.getSmsVoicePrefix().getLeakRatePerMinute());
+    this.smsVoicePrefixLimiter = createLimiter(cacheCluster, config.getSmsVoicePrefix(), "smsVoicePrefix");
 
-    this.autoBlockLimiter = new RateLimiter(cacheCluster, "autoBlock",
-                                            config.getAutoBlock().getBucketSize(),
-                                            config.getAutoBlock().getLeakRatePerMinute());
+    this.autoBlockLimiter = createLimiter(cacheCluster, config.getAutoBlock(), "autoBlock");
 
     this.verifyLimiter = new LockingRateLimiter(cacheCluster, "verify",
                                                 config.getVerifyNumber().getBucketSize(),
@@ -86,45 +74,25 @@ public class RateLimiters {
                                              config.getVerifyPin().getBucketSize(),
                                              config.getVerifyPin().getLeakRatePerMinute());
 
-    this.attachmentLimiter = new RateLimiter(cacheCluster, "attachmentCreate",
-                                             config.getAttachments().getBucketSize(),
-                                             config.getAttachments().getLeakRatePerMinute());
+    this.attachmentLimiter = createLimiter(cacheCluster, config.getAttachments(), "attachmentCreate");
 
-    this.preKeysLimiter = new RateLimiter(cacheCluster, "prekeys",
-                                          config.getPreKeys().getBucketSize(),
-                                          config.getPreKeys().getLeakRatePerMinute());
+    this.preKeysLimiter = createLimiter(cacheCluster, config.getPreKeys(), "prekeys");
 
-    this.messagesLimiter = new RateLimiter(cacheCluster, "messages",
-                                           config.getMessages().getBucketSize(),
-                                           config.getMessages().getLeakRatePerMinute());
+    this.messagesLimiter = createLimiter(cacheCluster, config.getMessages(), "messages");
 
-    this.allocateDeviceLimiter = new RateLimiter(cacheCluster, "allocateDevice",
-                                                 config.getAllocateDevice().getBucketSize(),
-                                                 config.getAllocateDevice().getLeakRatePerMinute());
+    this.allocateDeviceLimiter = createLimiter(cacheCluster, config.getAllocateDevice(), "allocateDevice");
 
-    this.verifyDeviceLimiter = new RateLimiter(cacheCluster, "verifyDevice",
-                                               config.getVerifyDevice().getBucketSize(),
-                                               config.getVerifyDevice().getLeakRatePerMinute());
+    this.verifyDeviceLimiter = createLimiter(cacheCluster, config.getVerifyDevice(), "verifyDevice");
 
-    this.turnLimiter = new RateLimiter(cacheCluster, "turnAllocate",
-                                       config.getTurnAllocations().getBucketSize(),
-                                       config.getTurnAllocations().getLeakRatePerMinute());
+    this.turnLimiter = createLimiter(cacheCluster, config.getTurnAllocations(), "turnAllocate");
 
-    this.profileLimiter = new RateLimiter(cacheCluster, "profile",
-                                          config.getProfile().getBucketSize(),
-                                          config.getProfile().getLeakRatePerMinute());
+    this.profileLimiter = createLimiter(cacheCluster, config.getProfile(), "profile");
 
-    this.stickerPackLimiter = new RateLimiter(cacheCluster, "stickerPack",
-                                              config.getStickerPack().getBucketSize(),
-                                              config.getStickerPack().getLeakRatePerMinute());
+    this.stickerPackLimiter = createLimiter(cacheCluster, config.getStickerPack(), "stickerPack");
 
-    this.usernameLookupLimiter = new RateLimiter(cacheCluster, "usernameLookup",
-                                                 config.getUsernameLookup().getBucketSize(),
-                                                 config.getUsernameLookup().getLeakRatePerMinute());
+    this.usernameLookupLimiter = createLimiter(cacheCluster, config.getUsernameLookup(), "usernameLookup");
 
-    this.usernameSetLimiter = new RateLimiter(cacheCluster, "usernameSet",
-                                              config.getUsernameSet().getBucketSize(),
-                                              config.getUsernameSet().getLeakRatePerMinute());
+    this.usernameSetLimiter = createLimiter(cacheCluster, config.getUsernameSet(), "usernameSet");
 
     this.dailyPreKeysLimiter = new AtomicReference<>(createDailyPreKeysLimiter(cacheCluster, dynamicConfig.getConfiguration().getLimits().getDailyPreKeys()));
 
@@ -322,6 +290,8 @@ public class RateLimiters {
   private RateLimiter createLimiter(FaultTolerantRedisCluster cacheCluster, RateLimitConfiguration configuration, String name) {
     return new RateLimiter(cacheCluster, name,
                            configuration.getBucketSize(),
-                           configuration.getLeakRatePerMinute());
+                           configuration.getLeakRatePerMinute(),
+                           configuration.getLocalLeaseSize(),
+                           configuration.getLocalLeaseDuration());
   }
 }
@@ -8,7 +8,6 @@ package org.whispersystems.textsecuregcm.limits;
 import static com.codahale.metrics.MetricRegistry.name;
 
 import io.dropwizard.util.Duration;
-import io.lettuce.core.SetArgs;
 import io.micrometer.core.instrument.Metrics;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicRateLimitsConfiguration;
 import org.whispersystems.textsecuregcm.controllers.RateLimitExceededException;
@@ -55,19 +54,17 @@ public class UnsealedSenderRateLimiter {
   }
 
   public void validate(final Account sender, final Account destination) throws RateLimitExceededException {
-    final int maxCardinality = rateLimitCluster.withCluster(connection -> {
-      final String cardinalityString = connection.sync().get(getMaxCardinalityKey(sender));
-
-      return cardinalityString != null
-          ? Integer.parseInt(cardinalityString)
-          : dynamicConfigurationManager.getConfiguration().getLimits().getUnsealedSenderDefaultCardinalityLimit();
-    });
+    final CardinalityRateLimiter unsealedSenderCardinalityLimiter = rateLimiters.getUnsealedSenderCardinalityLimiter();
 
     try {
-      rateLimiters.getUnsealedSenderCardinalityLimiter()
-          .validate(sender.getNumber(), destination.getUuid().toString(), maxCardinality);
+      unsealedSenderCardinalityLimiter.validate(sender.getNumber(), destination.getUuid().toString(),
+          dynamicConfigurationManager.getConfiguration().getLimits().getUnsealedSenderDefaultCardinalityLimit());
     } catch (final RateLimitExceededException e) {
 
+      if (isPermittedByLegacyMaxCardinality(sender, unsealedSenderCardinalityLimiter)) {
+        return;
+      }
+
       final boolean enforceLimit = dynamicConfigurationManager.getConfiguration()
           .getRateLimitChallengeConfiguration().isUnsealedSenderLimitEnforced();
 
@@ -84,31 +81,33 @@ public class UnsealedSenderRateLimiter {
   }
 
   public void handleRateLimitReset(final Account account) {
-    rateLimitCluster.useCluster(connection -> {
-      final CardinalityRateLimiter unsealedSenderCardinalityLimiter = rateLimiters.getUnsealedSenderCardinalityLimiter();
-      final DynamicRateLimitsConfiguration rateLimitsConfiguration =
-          dynamicConfigurationManager.getConfiguration().getLimits();
-
-      final long ttl;
-      {
-        final long remainingTtl = unsealedSenderCardinalityLimiter.getRemainingTtl(account.getNumber());
-        ttl = remainingTtl > 0 ? remainingTtl : unsealedSenderCardinalityLimiter.getInitialTtl().toSeconds();
-      }
-
-      final String key = getMaxCardinalityKey(account);
+    final DynamicRateLimitsConfiguration rateLimitsConfiguration =
+        dynamicConfigurationManager.getConfiguration().getLimits();
 
-      connection.sync().set(key,
-          String.valueOf(rateLimitsConfiguration.getUnsealedSenderDefaultCardinalityLimit()),
-          SetArgs.Builder.nx().ex(ttl));
-
-      connection.sync().incrby(key, rateLimitsConfiguration.getUnsealedSenderPermitIncrement());
-    });
+    rateLimiters.getUnsealedSenderCardinalityLimiter().increaseMaxCardinality(account.getNumber(),
+        rateLimitsConfiguration.getUnsealedSenderDefaultCardinalityLimit(),
+        rateLimitsConfiguration.getUnsealedSenderPermitIncrement());
 
     Metrics.counter(RATE_LIMIT_RESET_COUNTER_NAME,
         "countryCode", Util.getCountryCode(account.getNumber())).increment();
   }
 
-  private static String getMaxCardinalityKey(final Account account) {
+  /**
+   * Checks whether the sender was granted a higher limit before raised limits were stored alongside the cardinality
+   * limiter's own state. Legacy limits expire with the sender's set of targets, so this check (which only happens when
+   * a sender has exceeded the current limit) can be removed once the cardinality limiter's TTL has passed.
+   */
+  private boolean isPermittedByLegacyMaxCardinality(final Account sender,
+      final CardinalityRateLimiter unsealedSenderCardinalityLimiter) {
+
+    final String legacyMaxCardinality =
+        rateLimitCluster.withCluster(connection -> connection.sync().get(getLegacyMaxCardinalityKey(sender)));
+
+    return legacyMaxCardinality != null &&
+        unsealedSenderCardinalityLimiter.getCardinality(sender.getNumber()) <= Integer.parseInt(legacyMaxCardinality);
+  }
+
+  private static String getLegacyMaxCardinalityKey(final Account account) {
     return "max_unsealed_sender_cardinality::" + account.getUuid();
   }
 }
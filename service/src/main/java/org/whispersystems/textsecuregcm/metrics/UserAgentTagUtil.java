@@ -5,6 +5,8 @@
 
 package org.whispersystems.textsecuregcm.metrics;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.vdurmont.semver4j.Semver;
 import io.micrometer.core.instrument.Tag;
 import org.whispersystems.textsecuregcm.util.Pair;
@@ -14,10 +16,11 @@ import org.whispersystems.textsecuregcm.util.ua.UserAgent;
 import org.whispersystems.textsecuregcm.util.ua.UserAgentUtil;
 
 import java.util.EnumMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Utility class for extracting platform/version metrics tags from User-Agent strings.
@@ -37,13 +40,39 @@ public class UserAgentTagUtil {
         MINIMUM_VERSION_BY_PLATFORM.put(ClientPlatform.IOS,     new Semver("3.0.0"));
     }
 
+    private static final Map<ClientPlatform, Tag> PLATFORM_TAGS = new EnumMap<>(ClientPlatform.class);
+    private static final Tag                      UNRECOGNIZED_PLATFORM_TAG = Tag.of(PLATFORM_TAG, "unrecognized");
+
+    static {
+        for (final ClientPlatform platform : ClientPlatform.values()) {
+            PLATFORM_TAGS.put(platform, Tag.of(PLATFORM_TAG, platform.name().toLowerCase()));
+        }
+    }
+
     static final         int                               MAX_VERSIONS  = 1_000;
-    private static final Set<Pair<ClientPlatform, Semver>> SEEN_VERSIONS = new HashSet<>();
+    private static final Set<Pair<ClientPlatform, Semver>> SEEN_VERSIONS = ConcurrentHashMap.newKeySet();
+
+    // Versions are never evicted from SEEN_VERSIONS, so the tags for a given User-Agent string never change once computed
+    private static final Cache<String, List<Tag>> USER_AGENT_TAGS = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .build();
 
     private UserAgentTagUtil() {
     }
 
     public static List<Tag> getUserAgentTags(final String userAgentString) {
+        if (userAgentString == null) {
+            return UNRECOGNIZED_TAGS;
+        }
+
+        try {
+            return USER_AGENT_TAGS.get(userAgentString, () -> getUncachedUserAgentTags(userAgentString));
+        } catch (final ExecutionException e) {
+            return UNRECOGNIZED_TAGS;
+        }
+    }
+
+    private static List<Tag> getUncachedUserAgentTags(final String userAgentString) {
         try {
             final UserAgent userAgent = UserAgentUtil.parseUserAgentString(userAgentString);
             final List<Tag> tags;
@@ -65,22 +94,27 @@ public class UserAgentTagUtil {
     }
 
     public static Tag getPlatformTag(final String userAgentString) {
-        String platform;
-
         try {
-            platform = UserAgentUtil.parseUserAgentString(userAgentString).getPlatform().name().toLowerCase();
+            return PLATFORM_TAGS.get(UserAgentUtil.parseUserAgentString(userAgentString).getPlatform());
         } catch (final UnrecognizedUserAgentException e) {
-            platform = "unrecognized";
+            return UNRECOGNIZED_PLATFORM_TAG;
         }
-
-        return Tag.of(PLATFORM_TAG, platform);
     }
 
     private static boolean allowVersion(final ClientPlatform platform, final Semver version) {
         final Pair<ClientPlatform, Semver> platformAndVersion = new Pair<>(platform, version);
 
-        synchronized (SEEN_VERSIONS) {
-            return SEEN_VERSIONS.contains(platformAndVersion) || (SEEN_VERSIONS.size() < MAX_VERSIONS && SEEN_VERSIONS.add(platformAndVersion));
+        if (SEEN_VERSIONS.contains(platformAndVersion)) {
+            return true;
+        }
+
+        // Concurrent callers may push the set slightly past MAX_VERSIONS; that's fine, since the limit only exists to
+        // keep the number of distinct version tags bounded
+        if (SEEN_VERSIONS.size() < MAX_VERSIONS) {
+            SEEN_VERSIONS.add(platformAndVersion);
+            return true;
         }
+
+        return false;
     }
 }
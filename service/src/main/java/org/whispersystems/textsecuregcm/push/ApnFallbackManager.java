@@ -11,6 +11,7 @@ import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.google.common.annotations.VisibleForTesting;
 import io.dropwizard.lifecycle.Managed;
+import io.lettuce.core.ScoredValue;
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.cluster.SlotHash;
 import org.slf4j.Logger;
@@ -19,6 +20,7 @@ import org.whispersystems.textsecuregcm.push.ApnMessage.Type;
 import org.whispersystems.textsecuregcm.redis.ClusterLuaScript;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
 import org.whispersystems.textsecuregcm.redis.RedisException;
+import org.whispersystems.textsecuregcm.redis.SlotRangeScheduler;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
@@ -28,9 +30,11 @@ import org.whispersystems.textsecuregcm.util.RedisClusterUtil;
 import org.whispersystems.textsecuregcm.util.Util;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -42,7 +46,6 @@ public class ApnFallbackManager implements Managed {
   private static final Logger logger = LoggerFactory.getLogger(ApnFallbackManager.class);
 
   private static final String PENDING_NOTIFICATIONS_KEY = "PENDING_APN";
-          static final String NEXT_SLOT_TO_PERSIST_KEY  = "pending_notification_next_slot";
 
   private static final MetricRegistry metricRegistry        = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   private static final Meter          delivered             = metricRegistry.meter(name(ApnFallbackManager.class, "voip_delivered"));
@@ -57,19 +60,24 @@ public class ApnFallbackManager implements Managed {
   private final APNSender                 apnSender;
   private final AccountsManager           accountsManager;
   private final FaultTolerantRedisCluster cluster;
+  private final SlotRangeScheduler        slotRangeScheduler;
 
   private final ClusterLuaScript getScript;
   private final ClusterLuaScript insertScript;
   private final ClusterLuaScript removeScript;
 
-  private final Thread[] workerThreads = new Thread[WORKER_THREAD_COUNT];
-
-  private static final int WORKER_THREAD_COUNT = 4;
+  private final Thread[] workerThreads;
 
   private final AtomicBoolean running = new AtomicBoolean(false);
 
   class NotificationWorker implements Runnable {
 
+    private final int lane;
+
+    NotificationWorker(final int lane) {
+      this.lane = lane;
+    }
+
     @Override
     public void run() {
       while (running.get()) {
@@ -86,7 +94,15 @@ public class ApnFallbackManager implements Managed {
     }
 
     long processNextSlot() {
-      final int slot = getNextSlot();
+      final OptionalInt maybeSlot = slotRangeScheduler.nextSlot(lane);
+
+      if (maybeSlot.isEmpty()) {
+        return 0;
+      }
+
+      final int slot = maybeSlot.getAsInt();
+
+      getOldestPendingTimestamp(slot).ifPresent(oldestPendingTimestamp -> slotRangeScheduler.recordOldestEntry(lane, oldestPendingTimestamp));
 
       List<String> pendingDestinations;
       long entriesProcessed = 0;
@@ -119,19 +135,22 @@ public class ApnFallbackManager implements Managed {
 
   public ApnFallbackManager(FaultTolerantRedisCluster cluster,
                             APNSender apnSender,
-                            AccountsManager accountsManager)
+                            AccountsManager accountsManager,
+                            SlotRangeScheduler slotRangeScheduler)
       throws IOException
   {
-    this.apnSender       = apnSender;
-    this.accountsManager = accountsManager;
-    this.cluster         = cluster;
+    this.apnSender          = apnSender;
+    this.accountsManager    = accountsManager;
+    this.cluster            = cluster;
+    this.slotRangeScheduler = slotRangeScheduler;
+    this.workerThreads      = new Thread[slotRangeScheduler.getLaneCount()];
 
     this.getScript = ClusterLuaScript.fromResource(cluster, "lua/apn/get.lua", ScriptOutputType.MULTI);
     this.insertScript = ClusterLuaScript.fromResource(cluster, "lua/apn/insert.lua", ScriptOutputType.VALUE);
     this.removeScript = ClusterLuaScript.fromResource(cluster, "lua/apn/remove.lua", ScriptOutputType.INTEGER);
 
     for (int i = 0; i < this.workerThreads.length; i++) {
-      this.workerThreads[i] = new Thread(new NotificationWorker(), "ApnFallbackManagerWorker-" + i);
+      this.workerThreads[i] = new Thread(new NotificationWorker(i), "ApnFallbackManagerWorker-" + i);
     }
   }
 
@@ -255,8 +274,10 @@ public class ApnFallbackManager implements Managed {
     return PENDING_NOTIFICATIONS_KEY + "::{" + RedisClusterUtil.getMinimalHashTag(slot) + "}";
   }
 
-  private int getNextSlot() {
-    return (int)(cluster.withCluster(connection -> connection.sync().incr(NEXT_SLOT_TO_PERSIST_KEY)) % SlotHash.SLOT_COUNT);
+  private Optional<Instant> getOldestPendingTimestamp(final int slot) {
+    final List<ScoredValue<String>> oldestPending = cluster.withCluster(connection -> connection.sync().zrangeWithScores(getPendingNotificationQueueKey(slot), 0, 0));
+
+    return oldestPending.stream().findFirst().map(scoredValue -> Instant.ofEpochMilli((long) scoredValue.getScore()));
   }
 
   private static class VoipRatioGauge extends RatioGauge {
@@ -42,25 +42,28 @@ public class MessageSender implements Managed {
   private final GCMSender                  gcmSender;
   private final APNSender                  apnSender;
   private final PushLatencyManager         pushLatencyManager;
+  private final PushNotificationDebouncer  pushNotificationDebouncer;
 
   private static final String SEND_COUNTER_NAME      = name(MessageSender.class, "sendMessage");
   private static final String CHANNEL_TAG_NAME       = "channel";
   private static final String EPHEMERAL_TAG_NAME     = "ephemeral";
   private static final String CLIENT_ONLINE_TAG_NAME = "clientOnline";
 
-  public MessageSender(ApnFallbackManager    apnFallbackManager,
-                       ClientPresenceManager clientPresenceManager,
-                       MessagesManager       messagesManager,
-                       GCMSender             gcmSender,
-                       APNSender             apnSender,
-                       PushLatencyManager    pushLatencyManager)
+  public MessageSender(ApnFallbackManager        apnFallbackManager,
+                       ClientPresenceManager     clientPresenceManager,
+                       MessagesManager           messagesManager,
+                       GCMSender                 gcmSender,
+                       APNSender                 apnSender,
+                       PushLatencyManager        pushLatencyManager,
+                       PushNotificationDebouncer pushNotificationDebouncer)
   {
-    this.apnFallbackManager    = apnFallbackManager;
-    this.clientPresenceManager = clientPresenceManager;
-    this.messagesManager       = messagesManager;
-    this.gcmSender             = gcmSender;
-    this.apnSender             = apnSender;
-    this.pushLatencyManager    = pushLatencyManager;
+    this.apnFallbackManager        = apnFallbackManager;
+    this.clientPresenceManager     = clientPresenceManager;
+    this.messagesManager           = messagesManager;
+    this.gcmSender                 = gcmSender;
+    this.apnSender                 = apnSender;
+    this.pushLatencyManager        = pushLatencyManager;
+    this.pushNotificationDebouncer = pushNotificationDebouncer;
   }
 
   public void sendMessage(final Account account, final Device device, final Envelope message, boolean online)
@@ -112,13 +115,32 @@ public class MessageSender implements Managed {
   }
 
   public void sendNewMessageNotification(final Account account, final Device device) {
-    if (!Util.isEmpty(device.getGcmId())) {
+    final boolean hasGcmId = !Util.isEmpty(device.getGcmId());
+    final boolean hasApnId = !Util.isEmpty(device.getApnId()) || !Util.isEmpty(device.getVoipApnId());
+
+    if (!hasGcmId && !hasApnId) {
+      return;
+    }
+
+    if (!pushNotificationDebouncer.shouldSendNotification(account.getUuid(), device.getId())) {
+      return;
+    }
+
+    if (hasGcmId) {
       sendGcmNotification(account, device);
-    } else if (!Util.isEmpty(device.getApnId()) || !Util.isEmpty(device.getVoipApnId())) {
+    } else {
       sendApnNotification(account, device);
     }
   }
 
+  /**
+   * Resets notification debouncing for the given device, which should happen whenever the device connects and can
+   * retrieve its pending messages directly.
+   */
+  public void resetNotificationDebounce(final Account account, final Device device) {
+    pushNotificationDebouncer.clear(account.getUuid(), device.getId());
+  }
+
   private void sendGcmNotification(Account account, Device device) {
     GcmMessage gcmMessage = new GcmMessage(device.getGcmId(), account.getNumber(),
                                            (int)device.getId(), GcmMessage.Type.NOTIFICATION, Optional.empty());
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.push;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.lettuce.core.SetArgs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Duration;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicPushNotificationDebounceConfiguration;
+import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
+import org.whispersystems.textsecuregcm.storage.DynamicConfigurationManager;
+
+/**
+ * Suppresses duplicate "new message" push notifications to a device. Once a notification has been sent to a device,
+ * further notifications are suppressed until either the device connects or the debounce window elapses.
+ * <p/>
+ * The authoritative record of recently-notified devices lives in Redis so that all servers agree. Each server also
+ * remembers devices it notified itself for a short time so that bursts of messages to the same offline device don't
+ * each cost a Redis round trip.
+ */
+public class PushNotificationDebouncer {
+
+  private final FaultTolerantRedisCluster redisCluster;
+  private final DynamicConfigurationManager dynamicConfigurationManager;
+
+  private final Cache<String, Boolean> recentlyNotifiedDevices;
+
+  private static final Duration MAX_LOCAL_SUPPRESSION = Duration.ofSeconds(1);
+
+  private static final String NOTIFICATION_COUNTER_NAME = name(PushNotificationDebouncer.class, "notification");
+  private static final String OUTCOME_TAG_NAME = "outcome";
+  private static final String SOURCE_TAG_NAME = "source";
+
+  private static final Counter SENT_COUNTER = Metrics.counter(NOTIFICATION_COUNTER_NAME, OUTCOME_TAG_NAME, "sent", SOURCE_TAG_NAME, "redis");
+  private static final Counter SUPPRESSED_LOCAL_COUNTER = Metrics.counter(NOTIFICATION_COUNTER_NAME, OUTCOME_TAG_NAME, "suppressed", SOURCE_TAG_NAME, "local");
+  private static final Counter SUPPRESSED_REDIS_COUNTER = Metrics.counter(NOTIFICATION_COUNTER_NAME, OUTCOME_TAG_NAME, "suppressed", SOURCE_TAG_NAME, "redis");
+  private static final Counter REDIS_FAILURE_COUNTER = Metrics.counter(name(PushNotificationDebouncer.class, "redisFailure"));
+
+  private static final Logger logger = LoggerFactory.getLogger(PushNotificationDebouncer.class);
+
+  public PushNotificationDebouncer(final FaultTolerantRedisCluster redisCluster,
+      final DynamicConfigurationManager dynamicConfigurationManager) {
+
+    this.redisCluster = redisCluster;
+    this.dynamicConfigurationManager = dynamicConfigurationManager;
+
+    this.recentlyNotifiedDevices = CacheBuilder.newBuilder()
+        .expireAfterWrite(MAX_LOCAL_SUPPRESSION)
+        .maximumSize(100_000)
+        .build();
+  }
+
+  /**
+   * Checks whether a notification should be sent to the given device and, if so, opens a new debounce window for that
+   * device.
+   *
+   * @return {@code true} if a notification should be sent or {@code false} if one was sent recently enough that this
+   * one should be suppressed
+   */
+  public boolean shouldSendNotification(final UUID accountUuid, final long deviceId) {
+    final DynamicPushNotificationDebounceConfiguration configuration =
+        dynamicConfigurationManager.getConfiguration().getPushNotificationDebounceConfiguration();
+
+    if (!configuration.isEnabled()) {
+      return true;
+    }
+
+    final String key = getDebounceKey(accountUuid, deviceId);
+    final boolean useLocalCache = configuration.getWindow().compareTo(MAX_LOCAL_SUPPRESSION) >= 0;
+
+    if (useLocalCache && recentlyNotifiedDevices.getIfPresent(key) != null) {
+      SUPPRESSED_LOCAL_COUNTER.increment();
+      return false;
+    }
+
+    final boolean windowOpened;
+
+    try {
+      windowOpened = "OK".equals(redisCluster.withCluster(connection -> connection.sync()
+          .set(key, "", SetArgs.Builder.nx().px(configuration.getWindow().toMillis()))));
+    } catch (final RuntimeException e) {
+      // Err on the side of sending a redundant notification rather than dropping a needed one
+      logger.warn("Failed to check push notification debounce state", e);
+      REDIS_FAILURE_COUNTER.increment();
+
+      return true;
+    }
+
+    if (useLocalCache) {
+      recentlyNotifiedDevices.put(key, true);
+    }
+
+    if (windowOpened) {
+      SENT_COUNTER.increment();
+    } else {
+      SUPPRESSED_REDIS_COUNTER.increment();
+    }
+
+    return windowOpened;
+  }
+
+  /**
+   * Clears any open debounce window for the given device; this should be called when a device connects so that the
+   * next message that arrives after it disconnects triggers a fresh notification.
+   */
+  public void clear(final UUID accountUuid, final long deviceId) {
+    final String key = getDebounceKey(accountUuid, deviceId);
+
+    recentlyNotifiedDevices.invalidate(key);
+    redisCluster.useCluster(connection -> connection.async().del(key));
+  }
+
+  @VisibleForTesting
+  static String getDebounceKey(final UUID accountUuid, final long deviceId) {
+    return "push_debounce::{" + accountUuid.toString() + "::" + deviceId + "}";
+  }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.SlotHash;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A slot range scheduler divides the Redis cluster slot space among all live members of a fleet so that periodic
+ * per-slot work (like persisting message queues or sending fallback notifications) can be spread across servers
+ * without every worker contending for a single shared counter.
+ * <p/>
+ * Each scheduler instance periodically records a heartbeat in a shared membership set and reads back the set of live
+ * members. Members are ordered by identifier, and each member claims a contiguous range of slots based on its position
+ * in that order; members whose heartbeats have expired are dropped from the set, at which point the remaining members
+ * absorb their ranges on their next heartbeat. Each member's range is further divided into contiguous "lanes," one per
+ * local worker, and workers cycle through the slots in their own lane.
+ * <p/>
+ * Callers may report the age of the oldest outstanding entry they observe in each slot; the scheduler publishes the
+ * largest age observed during each full pass through a lane as a lag gauge.
+ */
+public class SlotRangeScheduler implements Managed {
+
+  private final String schedulerName;
+  private final String memberId = UUID.randomUUID().toString();
+
+  private final FaultTolerantRedisCluster cluster;
+  private final ClusterLuaScript heartbeatScript;
+  private final ScheduledExecutorService scheduledExecutorService;
+  private final Clock clock;
+
+  private final int laneCount;
+  private final Duration heartbeatInterval;
+  private final Duration memberExpiration;
+
+  private volatile Assignment assignment;
+  private volatile int memberCount = 1;
+
+  private final AtomicIntegerArray nextSlotByLane;
+  private final AtomicLongArray lagMillisByLane;
+  private final AtomicLongArray pendingLagMillisByLane;
+
+  private ScheduledFuture<?> heartbeatFuture;
+
+  private static final String MEMBER_COUNT_GAUGE_NAME = name(SlotRangeScheduler.class, "memberCount");
+  private static final String OWNED_SLOTS_GAUGE_NAME = name(SlotRangeScheduler.class, "ownedSlots");
+  private static final String LANE_LAG_GAUGE_NAME = name(SlotRangeScheduler.class, "laneLag");
+  private static final String REBALANCE_COUNTER_NAME = name(SlotRangeScheduler.class, "rebalance");
+  private static final String HEARTBEAT_FAILURE_COUNTER_NAME = name(SlotRangeScheduler.class, "heartbeatFailure");
+
+  private static final String SCHEDULER_TAG_NAME = "scheduler";
+  private static final String LANE_TAG_NAME = "lane";
+
+  private static final Logger log = LoggerFactory.getLogger(SlotRangeScheduler.class);
+
+  public SlotRangeScheduler(final String schedulerName,
+      final FaultTolerantRedisCluster cluster,
+      final ScheduledExecutorService scheduledExecutorService,
+      final int laneCount,
+      final Duration heartbeatInterval,
+      final Duration memberExpiration) throws IOException {
+
+    this(schedulerName, cluster, scheduledExecutorService, laneCount, heartbeatInterval, memberExpiration, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  SlotRangeScheduler(final String schedulerName,
+      final FaultTolerantRedisCluster cluster,
+      final ScheduledExecutorService scheduledExecutorService,
+      final int laneCount,
+      final Duration heartbeatInterval,
+      final Duration memberExpiration,
+      final Clock clock) throws IOException {
+
+    if (laneCount < 1) {
+      throw new IllegalArgumentException("Lane count must be positive");
+    }
+
+    this.schedulerName = schedulerName;
+    this.cluster = cluster;
+    this.heartbeatScript = ClusterLuaScript.fromResource(cluster, "lua/slot_range_scheduler/heartbeat.lua", ScriptOutputType.MULTI);
+    this.scheduledExecutorService = scheduledExecutorService;
+    this.laneCount = laneCount;
+    this.heartbeatInterval = heartbeatInterval;
+    this.memberExpiration = memberExpiration;
+    this.clock = clock;
+
+    this.nextSlotByLane = new AtomicIntegerArray(laneCount);
+    this.lagMillisByLane = new AtomicLongArray(laneCount);
+    this.pendingLagMillisByLane = new AtomicLongArray(laneCount);
+
+    // Until we've heard from the rest of the fleet, assume we're alone and own every slot.
+    setAssignment(Assignment.forMember(0, 1, laneCount));
+
+    Metrics.gauge(MEMBER_COUNT_GAUGE_NAME, Tags.of(SCHEDULER_TAG_NAME, schedulerName), this, scheduler -> scheduler.memberCount);
+    Metrics.gauge(OWNED_SLOTS_GAUGE_NAME, Tags.of(SCHEDULER_TAG_NAME, schedulerName), this, scheduler -> scheduler.assignment.getOwnedSlotCount());
+
+    for (int lane = 0; lane < laneCount; lane++) {
+      final int l = lane;
+      Metrics.gauge(LANE_LAG_GAUGE_NAME, Tags.of(SCHEDULER_TAG_NAME, schedulerName, LANE_TAG_NAME, String.valueOf(lane)),
+          lagMillisByLane, lags -> lags.get(l));
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    // A failed first heartbeat shouldn't keep the server from starting; we'll keep our provisional assignment until a
+    // scheduled heartbeat succeeds.
+    heartbeatAndLogFailures();
+
+    heartbeatFuture = scheduledExecutorService.scheduleWithFixedDelay(this::heartbeatAndLogFailures,
+        heartbeatInterval.toMillis(), heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private void heartbeatAndLogFailures() {
+    try {
+      heartbeat();
+    } catch (final Throwable t) {
+      log.warn("Failed to record heartbeat for {}", schedulerName, t);
+      Metrics.counter(HEARTBEAT_FAILURE_COUNTER_NAME, SCHEDULER_TAG_NAME, schedulerName).increment();
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (heartbeatFuture != null) {
+      heartbeatFuture.cancel(false);
+    }
+
+    // Leave the fleet explicitly so our peers can pick up our slots on their next heartbeat instead of waiting for our
+    // membership to expire.
+    cluster.useCluster(connection -> connection.sync().zrem(getMembersKey(), memberId));
+  }
+
+  /**
+   * Returns the number of lanes (and, by convention, local workers) managed by this scheduler.
+   *
+   * @return the number of lanes managed by this scheduler
+   */
+  public int getLaneCount() {
+    return laneCount;
+  }
+
+  /**
+   * Returns the next slot the worker for the given lane should process and advances the lane's cursor.
+   *
+   * @param lane the lane for which to retrieve the next slot
+   *
+   * @return the next slot to process, or empty if the given lane currently owns no slots
+   */
+  public OptionalInt nextSlot(final int lane) {
+    final SlotRange range = assignment.getRange(lane);
+
+    if (range.isEmpty()) {
+      return OptionalInt.empty();
+    }
+
+    int current;
+    int slot;
+    int next;
+
+    do {
+      current = nextSlotByLane.get(lane);
+      slot = range.contains(current) ? current : range.start;
+      next = slot + 1 >= range.end ? range.start : slot + 1;
+    } while (!nextSlotByLane.compareAndSet(lane, current, next));
+
+    if (slot == range.start) {
+      // We've completed a full pass through the lane; publish the largest lag we observed along the way.
+      lagMillisByLane.set(lane, pendingLagMillisByLane.getAndSet(lane, 0));
+    }
+
+    return OptionalInt.of(slot);
+  }
+
+  /**
+   * Records the timestamp of the oldest outstanding entry observed by the worker for the given lane.
+   *
+   * @param lane the lane in which the entry was observed
+   * @param oldestEntryTimestamp the timestamp of the oldest outstanding entry in the slot most recently processed
+   */
+  public void recordOldestEntry(final int lane, final Instant oldestEntryTimestamp) {
+    final long lagMillis = Math.max(0, clock.millis() - oldestEntryTimestamp.toEpochMilli());
+    pendingLagMillisByLane.accumulateAndGet(lane, lagMillis, Math::max);
+  }
+
+  /**
+   * Returns the largest age of any outstanding entry observed in the given lane during either the current or the most
+   * recently completed pass through the lane.
+   *
+   * @param lane the lane for which to retrieve lag
+   *
+   * @return the current lag for the given lane
+   */
+  public Duration getLag(final int lane) {
+    return Duration.ofMillis(Math.max(lagMillisByLane.get(lane), pendingLagMillisByLane.get(lane)));
+  }
+
+  @VisibleForTesting
+  void heartbeat() {
+    @SuppressWarnings("unchecked") final List<String> members = new ArrayList<>((List<String>) heartbeatScript.execute(
+        List.of(getMembersKey()),
+        List.of(memberId, String.valueOf(clock.millis()), String.valueOf(memberExpiration.toMillis()))));
+
+    if (!members.contains(memberId)) {
+      members.add(memberId);
+    }
+
+    Collections.sort(members);
+
+    final Assignment updatedAssignment = Assignment.forMember(members.indexOf(memberId), members.size(), laneCount);
+
+    if (!updatedAssignment.equals(assignment)) {
+      log.info("Rebalancing {}; now responsible for slots [{}, {}) of {} as member {} of {}", schedulerName,
+          updatedAssignment.getStart(), updatedAssignment.getEnd(), SlotHash.SLOT_COUNT,
+          members.indexOf(memberId) + 1, members.size());
+
+      Metrics.counter(REBALANCE_COUNTER_NAME, SCHEDULER_TAG_NAME, schedulerName).increment();
+      setAssignment(updatedAssignment);
+    }
+
+    memberCount = members.size();
+  }
+
+  private void setAssignment(final Assignment assignment) {
+    this.assignment = assignment;
+
+    for (int lane = 0; lane < laneCount; lane++) {
+      final SlotRange range = assignment.getRange(lane);
+
+      // Lanes resume wherever they were if their cursor still falls within their new range
+      if (!range.contains(nextSlotByLane.get(lane))) {
+        nextSlotByLane.set(lane, range.start);
+        pendingLagMillisByLane.set(lane, 0);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  public void setNextSlot(final int slot) {
+    for (int lane = 0; lane < laneCount; lane++) {
+      if (assignment.getRange(lane).contains(slot)) {
+        nextSlotByLane.set(lane, slot);
+        return;
+      }
+    }
+
+    throw new IllegalArgumentException("Slot " + slot + " is not owned by this scheduler");
+  }
+
+  @VisibleForTesting
+  SlotRange getRange(final int lane) {
+    return assignment.getRange(lane);
+  }
+
+  @VisibleForTesting
+  String getMemberId() {
+    return memberId;
+  }
+
+  @VisibleForTesting
+  String getMembersKey() {
+    return "slot_range_scheduler::" + schedulerName + "::members";
+  }
+
+  @VisibleForTesting
+  static class SlotRange {
+
+    final int start;
+    final int end;
+
+    SlotRange(final int start, final int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    boolean isEmpty() {
+      return end <= start;
+    }
+
+    boolean contains(final int slot) {
+      return slot >= start && slot < end;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final SlotRange slotRange = (SlotRange) o;
+      return start == slotRange.start && end == slotRange.end;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * start + end;
+    }
+  }
+
+  private static class Assignment {
+
+    private final SlotRange[] ranges;
+
+    private Assignment(final SlotRange[] ranges) {
+      this.ranges = ranges;
+    }
+
+    static Assignment forMember(final int memberIndex, final int memberCount, final int laneCount) {
+      final int memberStart = (int) ((long) SlotHash.SLOT_COUNT * memberIndex / memberCount);
+      final int memberEnd = (int) ((long) SlotHash.SLOT_COUNT * (memberIndex + 1) / memberCount);
+      final int memberSlots = memberEnd - memberStart;
+
+      final SlotRange[] ranges = new SlotRange[laneCount];
+
+      for (int lane = 0; lane < laneCount; lane++) {
+        ranges[lane] = new SlotRange(memberStart + (memberSlots * lane / laneCount),
+            memberStart + (memberSlots * (lane + 1) / laneCount));
+      }
+
+      return new Assignment(ranges);
+    }
+
+    SlotRange getRange(final int lane) {
+      return ranges[lane];
+    }
+
+    int getStart() {
+      return ranges[0].start;
+    }
+
+    int getEnd() {
+      return ranges[ranges.length - 1].end;
+    }
+
+    int getOwnedSlotCount() {
+      return getEnd() - getStart();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      return Arrays.equals(ranges, ((Assignment) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(ranges);
+    }
+  }
+}
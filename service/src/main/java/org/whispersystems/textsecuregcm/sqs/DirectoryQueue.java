@@ -21,42 +21,116 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import com.google.common.collect.Iterables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.configuration.SqsConfiguration;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.util.Constants;
-import org.whispersystems.textsecuregcm.util.Pair;
 
-public class DirectoryQueue {
+/**
+ * Publishes directory updates (additions and removals of discoverable accounts) to the contact discovery SQS queues.
+ * <p>
+ * Updates are not sent on the calling thread. They're held briefly so that several changes to the same account in quick
+ * succession (as when a client sets its attributes, keys and devices one after another) collapse into a single message
+ * carrying the latest action, then sent in full batches to all queues in parallel. If publishing falls far enough
+ * behind that too many updates are waiting, updates for additional accounts are dropped and counted; the directory
+ * reconciler corrects any resulting drift. Once the queue has been stopped, updates are published synchronously on the
+ * calling thread so that nothing enqueued during shutdown is lost.
+ */
+public class DirectoryQueue implements Managed {
 
   private static final Logger  logger = LoggerFactory.getLogger(DirectoryQueue.class);
 
   private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   private final Meter serviceErrorMeter = metricRegistry.meter(name(DirectoryQueue.class, "serviceError"));
   private final Meter clientErrorMeter = metricRegistry.meter(name(DirectoryQueue.class, "clientError"));
+  private final Meter coalescedMeter = metricRegistry.meter(name(DirectoryQueue.class, "coalesced"));
+  private final Meter droppedMeter = metricRegistry.meter(name(DirectoryQueue.class, "dropped"));
   private final Timer sendMessageBatchTimer = metricRegistry.timer(name(DirectoryQueue.class, "sendMessageBatch"));
+  private final Timer publishLagTimer = metricRegistry.timer(name(DirectoryQueue.class, "publishLag"));
+
+  private static final int MAX_BATCH_SIZE = 10;
+  private static final int MAX_PENDING_UPDATES = 100_000;
+
+  private static final Duration FLUSH_INTERVAL = Duration.ofMillis(250);
+  private static final Duration SHUTDOWN_FLUSH_TIMEOUT = Duration.ofSeconds(10);
 
-  private final List<String>   queueUrls;
-  private final AmazonSQS      sqs;
+  private final List<String>             queueUrls;
+  private final AmazonSQS                sqs;
+  private final ScheduledExecutorService flushExecutor;
+  private final ExecutorService          publishExecutor;
 
-  public DirectoryQueue(SqsConfiguration sqsConfig) {
+  // Guarded by itself; kept in insertion order so the longest-waiting updates are sent first
+  private final Map<UUID, PendingUpdate> pendingUpdates = new LinkedHashMap<>();
+
+  // Guarded by pendingUpdates
+  private boolean stopped;
+
+  private ScheduledFuture<?> flushFuture;
+
+  public DirectoryQueue(final SqsConfiguration sqsConfig, final ScheduledExecutorService flushExecutor, final ExecutorService publishExecutor) {
+    this(sqsConfig.getQueueUrls(), buildSqsClient(sqsConfig), flushExecutor, publishExecutor);
+  }
+
+  @VisibleForTesting
+  DirectoryQueue(final List<String> queueUrls, final AmazonSQS sqs, final ScheduledExecutorService flushExecutor, final ExecutorService publishExecutor) {
+    this.queueUrls       = queueUrls;
+    this.sqs             = sqs;
+    this.flushExecutor   = flushExecutor;
+    this.publishExecutor = publishExecutor;
+
+    metricRegistry.gauge(name(DirectoryQueue.class, "pendingUpdates"), () -> pendingUpdates::size);
+  }
+
+  private static AmazonSQS buildSqsClient(final SqsConfiguration sqsConfig) {
     final AWSCredentials               credentials         = new BasicAWSCredentials(sqsConfig.getAccessKey(), sqsConfig.getAccessSecret());
     final AWSStaticCredentialsProvider credentialsProvider = new AWSStaticCredentialsProvider(credentials);
 
-    this.queueUrls = sqsConfig.getQueueUrls();
-    this.sqs       = AmazonSQSClientBuilder.standard().withRegion(sqsConfig.getRegion()).withCredentials(credentialsProvider).build();
+    return AmazonSQSClientBuilder.standard().withRegion(sqsConfig.getRegion()).withCredentials(credentialsProvider).build();
   }
 
-  @VisibleForTesting
-  DirectoryQueue(final List<String> queueUrls, final AmazonSQS sqs) {
-    this.queueUrls = queueUrls;
-    this.sqs       = sqs;
+  @Override
+  public synchronized void start() {
+    synchronized (pendingUpdates) {
+      stopped = false;
+    }
+
+    if (flushFuture == null) {
+      flushFuture = flushExecutor.scheduleWithFixedDelay(this::flush,
+          FLUSH_INTERVAL.toMillis(), FLUSH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (flushFuture != null) {
+      flushFuture.cancel(false);
+      flushFuture = null;
+    }
+
+    synchronized (pendingUpdates) {
+      stopped = true;
+    }
+
+    try {
+      CompletableFuture.runAsync(this::flush, flushExecutor).get(SHUTDOWN_FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (final Exception e) {
+      logger.warn("Failed to publish pending directory updates before shutting down", e);
+    }
   }
 
   public void refreshRegisteredUser(final Account account) {
@@ -64,53 +138,134 @@ public class DirectoryQueue {
   }
 
   public void refreshRegisteredUsers(final List<Account> accounts) {
-    final List<Pair<Account, String>> accountsAndActions = accounts.stream()
-        .map(account -> new Pair<>(account, account.isEnabled() && account.isDiscoverableByPhoneNumber() ? "add" : "delete"))
-        .collect(Collectors.toList());
-
-    sendUpdateMessages(accountsAndActions);
+    for (final Account account : accounts) {
+      enqueueUpdate(account, account.isEnabled() && account.isDiscoverableByPhoneNumber() ? "add" : "delete");
+    }
   }
 
   public void deleteAccount(final Account account) {
-    sendUpdateMessages(List.of(new Pair<>(account, "delete")));
+    deleteAccounts(List.of(account));
   }
 
-  private void sendUpdateMessages(final List<Pair<Account, String>> accountsAndActions) {
-    for (final String queueUrl : queueUrls) {
-      for (final List<Pair<Account, String>> partition : Iterables.partition(accountsAndActions, 10)) {
-        final List<SendMessageBatchRequestEntry> entries = partition.stream().map(pair -> {
-          final Account account = pair.first();
-          final String action = pair.second();
-
-          return new SendMessageBatchRequestEntry()
-              .withMessageBody("-")
-              .withId(UUID.randomUUID().toString())
-              .withMessageDeduplicationId(UUID.randomUUID().toString())
-              .withMessageGroupId(account.getNumber())
-              .withMessageAttributes(Map.of(
-                  "id", new MessageAttributeValue().withDataType("String").withStringValue(account.getNumber()),
-                  "uuid", new MessageAttributeValue().withDataType("String").withStringValue(account.getUuid().toString()),
-                  "action", new MessageAttributeValue().withDataType("String").withStringValue(action)
-              ));
-        }).collect(Collectors.toList());
-
-        final SendMessageBatchRequest sendMessageBatchRequest = new SendMessageBatchRequest()
-            .withQueueUrl(queueUrl)
-            .withEntries(entries);
-
-        try (final Timer.Context ignored = sendMessageBatchTimer.time()) {
-          sqs.sendMessageBatch(sendMessageBatchRequest);
-        } catch (AmazonServiceException ex) {
-          serviceErrorMeter.mark();
-          logger.warn("sqs service error: ", ex);
-        } catch (AmazonClientException ex) {
-          clientErrorMeter.mark();
-          logger.warn("sqs client error: ", ex);
-        } catch (Throwable t) {
-          logger.warn("sqs unexpected error: ", t);
+  public void deleteAccounts(final List<Account> accounts) {
+    for (final Account account : accounts) {
+      enqueueUpdate(account, "delete");
+    }
+  }
+
+  private void enqueueUpdate(final Account account, final String action) {
+    final UUID uuid = account.getUuid();
+    final boolean publishImmediately;
+
+    synchronized (pendingUpdates) {
+      publishImmediately = stopped;
+
+      if (!publishImmediately) {
+        final PendingUpdate existingUpdate = pendingUpdates.get(uuid);
+
+        if (existingUpdate != null) {
+          // Keep the latest action, but measure lag from when the account first needed an update
+          pendingUpdates.put(uuid, new PendingUpdate(account.getNumber(), uuid, action, existingUpdate.queuedAtNanos));
+          coalescedMeter.mark();
+        } else if (pendingUpdates.size() < MAX_PENDING_UPDATES) {
+          pendingUpdates.put(uuid, new PendingUpdate(account.getNumber(), uuid, action, System.nanoTime()));
+        } else {
+          droppedMeter.mark();
         }
       }
     }
+
+    if (publishImmediately) {
+      sendUpdate(new PendingUpdate(account.getNumber(), uuid, action, System.nanoTime()));
+    }
   }
 
+  private void sendUpdate(final PendingUpdate update) {
+    for (final String queueUrl : queueUrls) {
+      sendMessageBatch(queueUrl, List.of(update));
+    }
+  }
+
+  /**
+   * Publishes all pending updates and waits for publication to finish. Flushes never overlap, so updates for the same
+   * account always reach each queue in the order they were made.
+   */
+  @VisibleForTesting
+  void flush() {
+    final List<PendingUpdate> updates;
+
+    synchronized (pendingUpdates) {
+      updates = new ArrayList<>(pendingUpdates.values());
+      pendingUpdates.clear();
+    }
+
+    if (updates.isEmpty()) {
+      return;
+    }
+
+    final List<CompletableFuture<Void>> publishFutures = new ArrayList<>();
+
+    for (final String queueUrl : queueUrls) {
+      for (final List<PendingUpdate> partition : Iterables.partition(updates, MAX_BATCH_SIZE)) {
+        publishFutures.add(CompletableFuture.runAsync(() -> sendMessageBatch(queueUrl, partition), publishExecutor));
+      }
+    }
+
+    try {
+      CompletableFuture.allOf(publishFutures.toArray(new CompletableFuture[0])).join();
+    } catch (final Exception e) {
+      logger.warn("Failed to publish directory updates", e);
+    }
+
+    final long publishedAtNanos = System.nanoTime();
+
+    for (final PendingUpdate update : updates) {
+      publishLagTimer.update(publishedAtNanos - update.queuedAtNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void sendMessageBatch(final String queueUrl, final List<PendingUpdate> updates) {
+    final List<SendMessageBatchRequestEntry> entries = updates.stream().map(update ->
+        new SendMessageBatchRequestEntry()
+            .withMessageBody("-")
+            .withId(UUID.randomUUID().toString())
+            .withMessageDeduplicationId(UUID.randomUUID().toString())
+            .withMessageGroupId(update.number)
+            .withMessageAttributes(Map.of(
+                "id", new MessageAttributeValue().withDataType("String").withStringValue(update.number),
+                "uuid", new MessageAttributeValue().withDataType("String").withStringValue(update.uuid.toString()),
+                "action", new MessageAttributeValue().withDataType("String").withStringValue(update.action)
+            ))).collect(Collectors.toList());
+
+    final SendMessageBatchRequest sendMessageBatchRequest = new SendMessageBatchRequest()
+        .withQueueUrl(queueUrl)
+        .withEntries(entries);
+
+    try (final Timer.Context ignored = sendMessageBatchTimer.time()) {
+      sqs.sendMessageBatch(sendMessageBatchRequest);
+    } catch (AmazonServiceException ex) {
+      serviceErrorMeter.mark();
+      logger.warn("sqs service error: ", ex);
+    } catch (AmazonClientException ex) {
+      clientErrorMeter.mark();
+      logger.warn("sqs client error: ", ex);
+    } catch (Throwable t) {
+      logger.warn("sqs unexpected error: ", t);
+    }
+  }
+
+  private static class PendingUpdate {
+
+    private final String number;
+    private final UUID uuid;
+    private final String action;
+    private final long queuedAtNanos;
+
+    private PendingUpdate(final String number, final UUID uuid, final String action, final long queuedAtNanos) {
+      this.number = number;
+      this.uuid = uuid;
+      this.action = action;
+      this.queuedAtNanos = queuedAtNanos;
+    }
+  }
 }
@@ -17,6 +17,7 @@ import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -27,6 +28,7 @@ import static io.micrometer.core.instrument.Metrics.timer;
 public class AbstractDynamoDbStore {
 
     private final DynamoDbClient dynamoDbClient;
+    private final DynamoDbBatchWriter batchWriter;
 
     private final Timer   batchWriteItemsFirstPass   = timer(name(getClass(), "batchWriteItems"), "firstAttempt", "true");
     private final Timer   batchWriteItemsRetryPass   = timer(name(getClass(), "batchWriteItems"), "firstAttempt", "false");
@@ -39,7 +41,12 @@ public class AbstractDynamoDbStore {
     public static final int RESULT_SET_CHUNK_SIZE = 100;
 
     public AbstractDynamoDbStore(final DynamoDbClient dynamoDbClient) {
+        this(dynamoDbClient, null);
+    }
+
+    public AbstractDynamoDbStore(final DynamoDbClient dynamoDbClient, final DynamoDbBatchWriter batchWriter) {
         this.dynamoDbClient = dynamoDbClient;
+        this.batchWriter = batchWriter;
     }
 
     protected DynamoDbClient db() {
@@ -63,6 +70,18 @@ public class AbstractDynamoDbStore {
         }
     }
 
+    /**
+     * Writes the given items via the shared asynchronous batch writer, which keeps many batches in flight and retries
+     * unprocessed items with backoff.
+     */
+    protected CompletableFuture<Void> writeItemsAsync(final String tableName, final List<WriteRequest> items) {
+        if (batchWriter == null) {
+            throw new IllegalStateException("No batch writer configured for " + getClass().getSimpleName());
+        }
+
+        return batchWriter.writeItems(tableName, items);
+    }
+
     static <T> void writeInBatches(final Iterable<T> items, final Consumer<List<T>> action) {
         final List<T> batch = new ArrayList<>(DYNAMO_DB_MAX_BATCH_SIZE);
 
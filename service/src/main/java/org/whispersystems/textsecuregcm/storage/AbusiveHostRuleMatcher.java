@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.storage;
+
+import com.google.common.net.InetAddresses;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, in-memory index of abusive host rules that answers the same question as Postgres' {@code <<=} ("is
+ * contained by or equals") operator for {@code inet} values.
+ * <p>
+ * Rules for single hosts (by far the most common kind, since auto-blocked hosts are all single addresses) are kept in
+ * a hash map. Rules for networks are kept in binary prefix tries, one per address family, so finding every rule that
+ * covers an address takes at most one step per bit of the address.
+ */
+class AbusiveHostRuleMatcher {
+
+  private final Map<InetAddress, List<AbusiveHostRule>> hostRules;
+
+  private final TrieNode ipv4Networks;
+  private final TrieNode ipv6Networks;
+
+  private final int size;
+
+  static final AbusiveHostRuleMatcher EMPTY = new AbusiveHostRuleMatcher(Collections.emptyList());
+
+  AbusiveHostRuleMatcher(final Collection<AbusiveHostRule> rules) {
+    final Map<InetAddress, List<AbusiveHostRule>> hostRules = new HashMap<>();
+
+    this.ipv4Networks = new TrieNode();
+    this.ipv6Networks = new TrieNode();
+
+    for (final AbusiveHostRule rule : rules) {
+      final String host = rule.getHost();
+      final int slash = host.indexOf('/');
+
+      final InetAddress address = InetAddresses.forString(slash >= 0 ? host.substring(0, slash) : host);
+      final byte[] addressBytes = address.getAddress();
+      final int maxPrefixLength = addressBytes.length * 8;
+      final int prefixLength = slash >= 0 ? Integer.parseInt(host.substring(slash + 1)) : maxPrefixLength;
+
+      if (prefixLength < 0 || prefixLength > maxPrefixLength) {
+        throw new IllegalArgumentException("Invalid prefix length: " + host);
+      }
+
+      if (prefixLength == maxPrefixLength) {
+        hostRules.computeIfAbsent(address, ignored -> new ArrayList<>(1)).add(rule);
+      } else {
+        TrieNode node = addressBytes.length == 4 ? ipv4Networks : ipv6Networks;
+
+        for (int bit = 0; bit < prefixLength; bit++) {
+          node = node.getOrCreateChild(getBit(addressBytes, bit));
+        }
+
+        node.addRule(rule);
+      }
+    }
+
+    hostRules.replaceAll((address, addressRules) -> List.copyOf(addressRules));
+
+    this.hostRules = hostRules;
+    this.size = rules.size();
+  }
+
+  private AbusiveHostRuleMatcher(final Map<InetAddress, List<AbusiveHostRule>> hostRules,
+      final TrieNode ipv4Networks, final TrieNode ipv6Networks, final int size) {
+
+    this.hostRules = hostRules;
+    this.ipv4Networks = ipv4Networks;
+    this.ipv6Networks = ipv6Networks;
+    this.size = size;
+  }
+
+  /**
+   * Returns a matcher with all of this matcher's rules plus the given rule for a single host. This matcher is left
+   * unchanged, and its network rules are shared with the returned matcher rather than copied. If this matcher already
+   * has a rule for exactly the given host, this matcher is returned as-is, since the database allows at most one rule
+   * per host.
+   *
+   * @throws IllegalArgumentException if the rule's host is not a single IPv4 or IPv6 address literal
+   */
+  AbusiveHostRuleMatcher withHostRule(final AbusiveHostRule rule) {
+    final InetAddress address = InetAddresses.forString(rule.getHost());
+
+    if (hostRules.containsKey(address)) {
+      return this;
+    }
+
+    final Map<InetAddress, List<AbusiveHostRule>> updatedHostRules = new HashMap<>(hostRules);
+    updatedHostRules.put(address, List.of(rule));
+
+    return new AbusiveHostRuleMatcher(updatedHostRules, ipv4Networks, ipv6Networks, size + 1);
+  }
+
+  /**
+   * Returns all rules whose host or network contains the given address literal, from least to most specific.
+   * Hostnames are never resolved; anything that isn't an IPv4 or IPv6 address literal matches no rules.
+   */
+  List<AbusiveHostRule> getRulesFor(final String host) {
+    if (!InetAddresses.isInetAddress(host)) {
+      return Collections.emptyList();
+    }
+
+    final InetAddress address = InetAddresses.forString(host);
+    final byte[] addressBytes = address.getAddress();
+
+    List<AbusiveHostRule> matchingRules = Collections.emptyList();
+
+    TrieNode node = addressBytes.length == 4 ? ipv4Networks : ipv6Networks;
+
+    for (int bit = 0; node != null; bit++) {
+      if (!node.rules.isEmpty()) {
+        if (matchingRules.isEmpty()) {
+          matchingRules = new ArrayList<>(node.rules.size());
+        }
+
+        matchingRules.addAll(node.rules);
+      }
+
+      node = bit < addressBytes.length * 8 ? node.getChild(getBit(addressBytes, bit)) : null;
+    }
+
+    final List<AbusiveHostRule> exactRules = hostRules.get(address);
+
+    if (exactRules != null) {
+      if (matchingRules.isEmpty()) {
+        return exactRules;
+      }
+
+      matchingRules.addAll(exactRules);
+    }
+
+    return matchingRules;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private static int getBit(final byte[] bytes, final int bit) {
+    return (bytes[bit / 8] >> (7 - (bit % 8))) & 1;
+  }
+
+  private static class TrieNode {
+
+    private TrieNode zero;
+    private TrieNode one;
+
+    private List<AbusiveHostRule> rules = Collections.emptyList();
+
+    private TrieNode getChild(final int bit) {
+      return bit == 0 ? zero : one;
+    }
+
+    private TrieNode getOrCreateChild(final int bit) {
+      if (bit == 0) {
+        if (zero == null) {
+          zero = new TrieNode();
+        }
+
+        return zero;
+      } else {
+        if (one == null) {
+          one = new TrieNode();
+        }
+
+        return one;
+      }
+    }
+
+    private void addRule(final AbusiveHostRule rule) {
+      if (rules.isEmpty()) {
+        rules = new ArrayList<>(1);
+      }
+
+      rules.add(rule);
+    }
+  }
+}
@@ -5,17 +5,36 @@
 
 package org.whispersystems.textsecuregcm.storage;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
+import com.google.common.net.InetAddresses;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.storage.mappers.AbusiveHostRuleRowMapper;
 import org.whispersystems.textsecuregcm.util.Constants;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
-public class AbusiveHostRules {
+/**
+ * Stores rules that block or restrict verification requests from abusive hosts and networks.
+ * <p>
+ * Once started, rules are looked up in an in-memory copy of the whole table that's refreshed periodically, so that
+ * floods of requests from abusive hosts don't each cost a database query. Hosts blocked by this server are added to the
+ * in-memory copy as soon as they're inserted; hosts blocked by other servers are picked up by the next periodic
+ * refresh. Until the first refresh succeeds, lookups go to the database.
+ */
+public class AbusiveHostRules implements Managed {
 
   public static final String ID      = "id";
   public static final String HOST    = "host";
@@ -26,15 +45,66 @@ public class AbusiveHostRules {
   private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   private final Timer          getTimer       = metricRegistry.timer(name(AbusiveHostRules.class, "get"));
   private final Timer          insertTimer    = metricRegistry.timer(name(AbusiveHostRules.class, "setBlockedHost"));
+  private final Timer          refreshTimer   = metricRegistry.timer(name(AbusiveHostRules.class, "refresh"));
+  private final Meter          refreshErrors  = metricRegistry.meter(name(AbusiveHostRules.class, "refreshErrors"));
+
+  private final FaultTolerantDatabase    database;
+  private final ScheduledExecutorService refreshExecutor;
+  private final Duration                 refreshInterval;
+
+  private volatile AbusiveHostRuleMatcher matcher;
+  private volatile long                   lastRefreshMillis;
+
+  // Guards replacement of the matcher, and collects hosts blocked while a refresh is reading the table so that the
+  // refresh doesn't discard them if its query missed them
+  private final Object                matcherLock = new Object();
+  private       List<AbusiveHostRule> blockedDuringRefresh;
 
-  private final FaultTolerantDatabase database;
+  private ScheduledFuture<?> refreshFuture;
+
+  private static final Logger logger = LoggerFactory.getLogger(AbusiveHostRules.class);
+
+  public AbusiveHostRules(FaultTolerantDatabase database, ScheduledExecutorService refreshExecutor, Duration refreshInterval) {
+    this.database        = database;
+    this.refreshExecutor = refreshExecutor;
+    this.refreshInterval = refreshInterval;
 
-  public AbusiveHostRules(FaultTolerantDatabase database) {
-    this.database = database;
     this.database.getDatabase().registerRowMapper(new AbusiveHostRuleRowMapper());
+
+    metricRegistry.gauge(name(AbusiveHostRules.class, "rules"), () -> () -> {
+      final AbusiveHostRuleMatcher currentMatcher = matcher;
+      return currentMatcher != null ? currentMatcher.size() : 0;
+    });
+
+    metricRegistry.gauge(name(AbusiveHostRules.class, "refreshLagMillis"), () -> () ->
+        lastRefreshMillis > 0 ? System.currentTimeMillis() - lastRefreshMillis : 0);
+  }
+
+  @Override
+  public synchronized void start() {
+    refresh();
+
+    if (refreshFuture == null) {
+      refreshFuture = refreshExecutor.scheduleWithFixedDelay(this::refresh,
+          refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (refreshFuture != null) {
+      refreshFuture.cancel(false);
+      refreshFuture = null;
+    }
   }
 
   public List<AbusiveHostRule> getAbusiveHostRulesFor(String host) {
+    final AbusiveHostRuleMatcher currentMatcher = matcher;
+
+    if (currentMatcher != null) {
+      return currentMatcher.getRulesFor(host);
+    }
+
     return database.with(jdbi -> jdbi.withHandle(handle -> {
       try (Timer.Context timer = getTimer.time()) {
         return handle.createQuery("SELECT * FROM abusive_host_rules WHERE :host::inet <<= " + HOST)
@@ -46,15 +116,67 @@ public class AbusiveHostRules {
   }
 
   public void setBlockedHost(String host, String notes) {
-    database.use(jdbi -> jdbi.useHandle(handle -> {
+    final int inserted = database.with(jdbi -> jdbi.withHandle(handle -> {
       try (Timer.Context timer = insertTimer.time()) {
-        handle.createUpdate("INSERT INTO abusive_host_rules(host, blocked, notes) VALUES(:host::inet, :blocked, :notes) ON CONFLICT DO NOTHING")
-              .bind("host", host)
-              .bind("blocked", 1)
-              .bind("notes", notes)
-              .execute();
+        return handle.createUpdate("INSERT INTO abusive_host_rules(host, blocked, notes) VALUES(:host::inet, :blocked, :notes) ON CONFLICT DO NOTHING")
+                     .bind("host", host)
+                     .bind("blocked", 1)
+                     .bind("notes", notes)
+                     .execute();
       }
     }));
+
+    // Don't make this server wait for the next scheduled refresh to start enforcing a block it just created, but don't
+    // reload the whole table for it either; auto-blocks arrive fastest during an attack, which is exactly when we don't
+    // want extra load on the database. Networks (as opposed to single hosts) are left for the next refresh.
+    if (inserted > 0 && InetAddresses.isInetAddress(host)) {
+      final AbusiveHostRule rule = new AbusiveHostRule(host, true, Collections.emptyList());
+
+      synchronized (matcherLock) {
+        if (matcher != null) {
+          matcher = matcher.withHostRule(rule);
+        }
+
+        if (blockedDuringRefresh != null) {
+          blockedDuringRefresh.add(rule);
+        }
+      }
+    }
   }
 
+  /**
+   * Reloads all rules from the database and swaps them in for subsequent lookups. If the rules can't be loaded, the
+   * previous rules (if any) remain in effect.
+   */
+  public synchronized void refresh() {
+    synchronized (matcherLock) {
+      blockedDuringRefresh = new ArrayList<>();
+    }
+
+    try (Timer.Context timer = refreshTimer.time()) {
+      final List<AbusiveHostRule> rules = database.with(jdbi -> jdbi.withHandle(handle ->
+          handle.createQuery("SELECT * FROM abusive_host_rules")
+                .mapTo(AbusiveHostRule.class)
+                .list()));
+
+      AbusiveHostRuleMatcher refreshedMatcher = new AbusiveHostRuleMatcher(rules);
+
+      synchronized (matcherLock) {
+        for (final AbusiveHostRule rule : blockedDuringRefresh) {
+          refreshedMatcher = refreshedMatcher.withHostRule(rule);
+        }
+
+        matcher = refreshedMatcher;
+      }
+
+      lastRefreshMillis = System.currentTimeMillis();
+    } catch (final Exception e) {
+      refreshErrors.mark();
+      logger.warn("Failed to refresh abusive host rules", e);
+    } finally {
+      synchronized (matcherLock) {
+        blockedDuringRefresh = null;
+      }
+    }
+  }
 }
@@ -14,9 +14,11 @@ import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.util.Constants;
 import org.whispersystems.textsecuregcm.util.Util;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -30,12 +32,14 @@ public class AccountCleaner extends AccountDatabaseCrawlerListener {
   private static final Histogram      deletableAccountHistogram = metricRegistry.histogram(name(AccountCleaner.class, "deletableAccountsPerChunk"));
 
   @VisibleForTesting
-  public static final int MAX_ACCOUNT_UPDATES_PER_CHUNK = 40;
+  public static final int MAX_ACCOUNT_UPDATES_PER_CHUNK = 400;
 
   private final AccountsManager accountsManager;
+  private final Executor        deletionExecutor;
 
-  public AccountCleaner(AccountsManager accountsManager) {
-    this.accountsManager = accountsManager;
+  public AccountCleaner(AccountsManager accountsManager, Executor deletionExecutor) {
+    this.accountsManager  = accountsManager;
+    this.deletionExecutor = deletionExecutor;
   }
 
   @Override
@@ -48,8 +52,8 @@ public class AccountCleaner extends AccountDatabaseCrawlerListener {
 
   @Override
   protected void onCrawlChunk(Optional<UUID> fromUuid, List<Account> chunkAccounts) {
-    int accountUpdateCount    = 0;
-    int deletableAccountCount = 0;
+    final List<Account> accountsToDelete      = new ArrayList<>();
+    int                 deletableAccountCount = 0;
 
     for (Account account : chunkAccounts) {
       if (isExpired(account)) {
@@ -59,17 +63,20 @@ public class AccountCleaner extends AccountDatabaseCrawlerListener {
       if (needsExplicitRemoval(account)) {
         expiredAccountsMeter.mark();
 
-        if (accountUpdateCount < MAX_ACCOUNT_UPDATES_PER_CHUNK) {
-          try {
-            accountsManager.delete(account, AccountsManager.DeletionReason.EXPIRED);
-            accountUpdateCount++;
-          } catch (final Exception e) {
-            log.warn("Failed to delete account {}", account.getUuid(), e);
-          }
+        if (accountsToDelete.size() < MAX_ACCOUNT_UPDATES_PER_CHUNK) {
+          accountsToDelete.add(account);
         }
       }
     }
 
+    if (!accountsToDelete.isEmpty()) {
+      try {
+        accountsManager.deleteAll(accountsToDelete, AccountsManager.DeletionReason.EXPIRED, deletionExecutor);
+      } catch (final Exception e) {
+        log.warn("Failed to delete {} accounts", accountsToDelete.size(), e);
+      }
+    }
+
     deletableAccountHistogram.update(deletableAccountCount);
   }
 
@@ -13,14 +13,28 @@ import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.util.Constants;
 import org.whispersystems.textsecuregcm.util.Util;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import io.dropwizard.lifecycle.Managed;
 
+/**
+ * Walks the accounts table in UUID order, one chunk at a time, handing each chunk to a set of listeners. Only one
+ * worker crawls at a time.
+ * <p>
+ * Listeners process each chunk in the order given, except that consecutive {@linkplain
+ * AccountDatabaseCrawlerListener#isReadOnly() read-only} listeners process it concurrently. A listener that fails on a
+ * chunk doesn't stop the other listeners from processing it, but the crawl doesn't advance past a chunk until every
+ * listener has processed it successfully; the whole chunk is retried instead. While an accelerated crawl's listeners are busy with one chunk, the
+ * next chunk is read in the background; it's only used if it's still fresh when the listeners are ready for it.
+ */
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 public class AccountDatabaseCrawler implements Managed, Runnable {
 
@@ -31,21 +45,34 @@ public class AccountDatabaseCrawler implements Managed, Runnable {
   private static final long   WORKER_TTL_MS              = 120_000L;
   private static final long   ACCELERATED_CHUNK_INTERVAL = 10L;
 
-  private final AccountsManager                      accounts;
-  private final int                                  chunkSize;
-  private final long                                 chunkIntervalMs;
-  private final String                               workerId;
-  private final AccountDatabaseCrawlerCache          cache;
-  private final List<AccountDatabaseCrawlerListener> listeners;
+  // Listeners that update accounts write back what they were given, so a prefetched chunk must not be much older than
+  // one read just before processing
+  private static final long   MAX_PREFETCHED_CHUNK_AGE_MS = 5_000L;
+
+  private final AccountsManager                            accounts;
+  private final int                                        chunkSize;
+  private final long                                       chunkIntervalMs;
+  private final String                                     workerId;
+  private final AccountDatabaseCrawlerCache                cache;
+  private final List<AccountDatabaseCrawlerListener>       listeners;
+  private final List<List<AccountDatabaseCrawlerListener>> listenerStages;
+  private final ExecutorService                            executor;
 
   private AtomicBoolean running = new AtomicBoolean(false);
   private boolean finished;
 
+  // Only accessed from the crawling thread
+  private boolean         accelerated;
+  private PrefetchedChunk prefetchedChunk;
+
+  private volatile Optional<UUID> lastUuid = Optional.empty();
+
   public AccountDatabaseCrawler(AccountsManager accounts,
                                 AccountDatabaseCrawlerCache cache,
                                 List<AccountDatabaseCrawlerListener> listeners,
                                 int chunkSize,
-                                long chunkIntervalMs)
+                                long chunkIntervalMs,
+                                ExecutorService executor)
   {
     this.accounts             = accounts;
     this.chunkSize            = chunkSize;
@@ -53,6 +80,31 @@ public class AccountDatabaseCrawler implements Managed, Runnable {
     this.workerId             = UUID.randomUUID().toString();
     this.cache                = cache;
     this.listeners            = listeners;
+    this.listenerStages       = buildListenerStages(listeners);
+    this.executor             = executor;
+
+    metricRegistry.gauge(name(AccountDatabaseCrawler.class, "crawlPosition"), () -> this::getCrawlPosition);
+  }
+
+  private static List<List<AccountDatabaseCrawlerListener>> buildListenerStages(List<AccountDatabaseCrawlerListener> listeners) {
+    final List<List<AccountDatabaseCrawlerListener>> stages = new ArrayList<>();
+    List<AccountDatabaseCrawlerListener> readOnlyStage = null;
+
+    for (AccountDatabaseCrawlerListener listener : listeners) {
+      if (listener.isReadOnly()) {
+        if (readOnlyStage == null) {
+          readOnlyStage = new ArrayList<>();
+          stages.add(readOnlyStage);
+        }
+
+        readOnlyStage.add(listener);
+      } else {
+        stages.add(List.of(listener));
+        readOnlyStage = null;
+      }
+    }
+
+    return stages;
   }
 
   @Override
@@ -72,12 +124,9 @@ public class AccountDatabaseCrawler implements Managed, Runnable {
 
   @Override
   public void run() {
-    boolean accelerated = false;
-
     while (running.get()) {
       try {
-        accelerated = doPeriodicWork();
-        sleepWhileRunning(accelerated ? ACCELERATED_CHUNK_INTERVAL : chunkIntervalMs);
+        sleepWhileRunning(doPeriodicWork() ? ACCELERATED_CHUNK_INTERVAL : chunkIntervalMs);
       } catch (Throwable t) {
         logger.warn("error in database crawl: {}: {}", t.getClass().getSimpleName(), t.getMessage(), t);
         Util.sleep(10000);
@@ -96,7 +145,8 @@ public class AccountDatabaseCrawler implements Managed, Runnable {
       try {
         long startTimeMs = System.currentTimeMillis();
         processChunk();
-        if (cache.isAccelerated()) {
+        accelerated = cache.isAccelerated();
+        if (accelerated) {
           return true;
         }
         long endTimeMs = System.currentTimeMillis();
@@ -105,6 +155,10 @@ public class AccountDatabaseCrawler implements Managed, Runnable {
       } finally {
         cache.releaseActiveWork(workerId);
       }
+    } else {
+      // Another worker has the crawl, and any chunk we prefetched is no longer ours to use
+      accelerated = false;
+      prefetchedChunk = null;
     }
     return false;
   }
@@ -116,28 +170,132 @@ public class AccountDatabaseCrawler implements Managed, Runnable {
       listeners.forEach(AccountDatabaseCrawlerListener::onCrawlStart);
     }
 
-    List<Account> chunkAccounts = readChunk(fromUuid, chunkSize);
+    List<Account> chunkAccounts = takePrefetchedChunk(fromUuid).orElseGet(() -> readChunk(fromUuid, chunkSize));
 
     if (chunkAccounts.isEmpty()) {
       logger.info("Finished crawl");
       listeners.forEach(listener -> listener.onCrawlEnd(fromUuid));
       cache.setLastUuid(Optional.empty());
       cache.setAccelerated(false);
+      lastUuid = Optional.empty();
     } else {
+      if (accelerated) {
+        final Optional<UUID> nextFromUuid = getLastUuid(chunkAccounts);
+
+        prefetchedChunk = new PrefetchedChunk(nextFromUuid, System.currentTimeMillis(),
+            CompletableFuture.supplyAsync(() -> readChunk(nextFromUuid, chunkSize), executor));
+      }
+
       try {
-        for (AccountDatabaseCrawlerListener listener : listeners) {
-          listener.timeAndProcessCrawlChunk(fromUuid, chunkAccounts);
-        }
-        cache.setLastUuid(Optional.of(chunkAccounts.get(chunkAccounts.size() - 1).getUuid()));
+        processChunkWithListeners(fromUuid, chunkAccounts);
+
+        final Optional<UUID> nextFromUuid = getLastUuid(chunkAccounts);
+        cache.setLastUuid(nextFromUuid);
+        lastUuid = nextFromUuid;
       } catch (AccountDatabaseCrawlerRestartException e) {
+        prefetchedChunk = null;
         cache.setLastUuid(Optional.empty());
         cache.setAccelerated(false);
+        lastUuid = Optional.empty();
+      } catch (RuntimeException e) {
+        prefetchedChunk = null;
+        throw e;
       }
 
     }
 
   }
 
+  private static Optional<UUID> getLastUuid(List<Account> chunkAccounts) {
+    return Optional.of(chunkAccounts.get(chunkAccounts.size() - 1).getUuid());
+  }
+
+  /**
+   * Hands a chunk to every listener, even if some of them fail.
+   *
+   * @throws AccountDatabaseCrawlerRestartException if any listener asked for the crawl to restart
+   * @throws IllegalStateException if any listener failed to process the chunk, so that the chunk will be retried
+   */
+  private void processChunkWithListeners(Optional<UUID> fromUuid, List<Account> chunkAccounts) throws AccountDatabaseCrawlerRestartException {
+    boolean restart = false;
+    final List<Exception> failures = new ArrayList<>();
+
+    for (List<AccountDatabaseCrawlerListener> stage : listenerStages) {
+      if (stage.size() == 1) {
+        restart |= processChunkWithListener(stage.get(0), fromUuid, chunkAccounts, failures);
+      } else {
+        final List<CompletableFuture<Boolean>> stageFutures = new ArrayList<>(stage.size());
+
+        for (AccountDatabaseCrawlerListener listener : stage) {
+          stageFutures.add(CompletableFuture.supplyAsync(() -> processChunkWithListener(listener, fromUuid, chunkAccounts, failures), executor));
+        }
+
+        for (CompletableFuture<Boolean> stageFuture : stageFutures) {
+          restart |= stageFuture.join();
+        }
+      }
+    }
+
+    if (restart) {
+      throw new AccountDatabaseCrawlerRestartException("restart requested by listener");
+    }
+
+    if (!failures.isEmpty()) {
+      final IllegalStateException exception =
+          new IllegalStateException(failures.size() + " listener(s) failed to process chunk starting after " + fromUuid, failures.get(0));
+
+      failures.stream().skip(1).forEach(exception::addSuppressed);
+
+      throw exception;
+    }
+  }
+
+  /**
+   * Hands a chunk to a single listener, recording any failure other than a request to restart the crawl rather than
+   * throwing it.
+   *
+   * @return {@code true} if the listener asked for the crawl to restart
+   */
+  private boolean processChunkWithListener(AccountDatabaseCrawlerListener listener, Optional<UUID> fromUuid, List<Account> chunkAccounts, List<Exception> failures) {
+    try {
+      listener.timeAndProcessCrawlChunk(fromUuid, chunkAccounts);
+      return false;
+    } catch (AccountDatabaseCrawlerRestartException e) {
+      return true;
+    } catch (Exception e) {
+      metricRegistry.meter(name(AccountDatabaseCrawler.class, "listenerFailed", listener.getClass().getSimpleName())).mark();
+      logger.warn("{} failed to process chunk starting after {}", listener.getClass().getSimpleName(), fromUuid, e);
+
+      synchronized (failures) {
+        failures.add(e);
+      }
+
+      return false;
+    }
+  }
+
+  private Optional<List<Account>> takePrefetchedChunk(Optional<UUID> fromUuid) {
+    final PrefetchedChunk chunk = prefetchedChunk;
+    prefetchedChunk = null;
+
+    if (chunk == null || !chunk.fromUuid.equals(fromUuid)) {
+      return Optional.empty();
+    }
+
+    try {
+      final List<Account> chunkAccounts = chunk.accounts.join();
+
+      if (System.currentTimeMillis() - chunk.startTimeMs > MAX_PREFETCHED_CHUNK_AGE_MS) {
+        return Optional.empty();
+      }
+
+      return Optional.of(chunkAccounts);
+    } catch (CompletionException e) {
+      logger.warn("Failed to prefetch chunk", e);
+      return Optional.empty();
+    }
+  }
+
   private List<Account> readChunk(Optional<UUID> fromUuid, int chunkSize) {
     try (Timer.Context timer = readChunkTimer.time()) {
 
@@ -149,8 +307,29 @@ public class AccountDatabaseCrawler implements Managed, Runnable {
     }
   }
 
+  /**
+   * Returns the approximate fraction of the account keyspace this worker has crawled in the current crawl. Account
+   * UUIDs are random, so the position of the last crawled UUID within the space of all UUIDs tracks progress closely.
+   */
+  private double getCrawlPosition() {
+    return lastUuid.map(uuid -> (double) (uuid.getMostSignificantBits() >>> 11) / (1L << 53)).orElse(0.0);
+  }
+
   private synchronized void sleepWhileRunning(long delayMs) {
     if (running.get()) Util.wait(this, delayMs);
   }
 
+  private static class PrefetchedChunk {
+
+    private final Optional<UUID>                   fromUuid;
+    private final long                             startTimeMs;
+    private final CompletableFuture<List<Account>> accounts;
+
+    private PrefetchedChunk(Optional<UUID> fromUuid, long startTimeMs, CompletableFuture<List<Account>> accounts) {
+      this.fromUuid    = fromUuid;
+      this.startTimeMs = startTimeMs;
+      this.accounts    = accounts;
+    }
+  }
+
 }
@@ -30,6 +30,15 @@ public abstract class AccountDatabaseCrawlerListener {
     processChunkTimer = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME).timer(name(AccountDatabaseCrawlerListener.class, "processChunk", getClass().getSimpleName()));
   }
 
+  /**
+   * Indicates whether this listener only reads the accounts in each chunk. Consecutive read-only listeners process a
+   * chunk concurrently; a listener that may change or delete accounts processes each chunk on its own, after the
+   * listeners before it and before the listeners after it.
+   */
+  public boolean isReadOnly() {
+    return false;
+  }
+
   public void timeAndProcessCrawlChunk(Optional<UUID> fromUuid, List<Account> chunkAccounts) throws AccountDatabaseCrawlerRestartException {
     try (Timer.Context timer = processChunkTimer.time()) {
       onCrawlChunk(fromUuid, chunkAccounts);
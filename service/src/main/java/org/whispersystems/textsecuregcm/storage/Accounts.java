@@ -11,9 +11,11 @@ import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
 import org.whispersystems.textsecuregcm.storage.mappers.AccountRowMapper;
 import org.whispersystems.textsecuregcm.util.Constants;
@@ -35,7 +37,9 @@ public class Accounts implements AccountStore {
   private final Timer          getByUuidTimer        = metricRegistry.timer(name(Accounts.class, "getByUuid"       ));
   private final Timer          getAllFromTimer       = metricRegistry.timer(name(Accounts.class, "getAllFrom"      ));
   private final Timer          getAllFromOffsetTimer = metricRegistry.timer(name(Accounts.class, "getAllFromOffset"));
+  private final Timer          updateAllTimer        = metricRegistry.timer(name(Accounts.class, "updateAll"       ));
   private final Timer          deleteTimer           = metricRegistry.timer(name(Accounts.class, "delete"          ));
+  private final Timer          deleteAllTimer        = metricRegistry.timer(name(Accounts.class, "deleteAll"       ));
   private final Timer          vacuumTimer           = metricRegistry.timer(name(Accounts.class, "vacuum"          ));
 
   private final FaultTolerantDatabase database;
@@ -79,6 +83,31 @@ public class Accounts implements AccountStore {
     }));
   }
 
+  /**
+   * Updates the stored data for all of the given accounts in a single batch.
+   */
+  public void updateAll(Collection<Account> accounts) {
+    if (accounts.isEmpty()) {
+      return;
+    }
+
+    database.use(jdbi -> jdbi.useHandle(handle -> {
+      try (Timer.Context ignored = updateAllTimer.time()) {
+        final PreparedBatch batch = handle.prepareBatch("UPDATE accounts SET " + DATA + " = CAST(:data AS json) WHERE " + UID + " = :uuid");
+
+        for (final Account account : accounts) {
+          batch.bind("uuid", account.getUuid())
+               .bind("data", mapper.writeValueAsString(account))
+               .add();
+        }
+
+        batch.execute();
+      } catch (JsonProcessingException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }));
+  }
+
   @Override
   public Optional<Account> get(String number) {
     return database.with(jdbi -> jdbi.withHandle(handle -> {
@@ -137,6 +166,27 @@ public class Accounts implements AccountStore {
     }));
   }
 
+  /**
+   * Deletes all of the accounts with the given UUIDs in a single batch.
+   */
+  public void deleteAll(final Collection<UUID> uuids) {
+    if (uuids.isEmpty()) {
+      return;
+    }
+
+    database.use(jdbi -> jdbi.useHandle(handle -> {
+      try (Timer.Context ignored = deleteAllTimer.time()) {
+        final PreparedBatch batch = handle.prepareBatch("DELETE FROM accounts WHERE " + UID + " = :uuid");
+
+        for (final UUID uuid : uuids) {
+          batch.bind("uuid", uuid).add();
+        }
+
+        batch.execute();
+      }
+    }));
+  }
+
   public void vacuum() {
     database.use(jdbi -> jdbi.useHandle(handle -> {
       try (Timer.Context ignored = vacuumTimer.time()) {
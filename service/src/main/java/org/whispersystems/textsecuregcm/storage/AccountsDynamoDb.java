@@ -26,6 +26,7 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.Delete;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
@@ -166,30 +167,43 @@ public class AccountsDynamoDb extends AbstractDynamoDbStore implements AccountSt
 
   @Override
   public void update(Account account) {
-    UPDATE_TIMER.record(() -> {
-      UpdateItemRequest updateItemRequest;
-      try {
-        updateItemRequest = UpdateItemRequest.builder()
-            .tableName(accountsTableName)
-            .key(Map.of(KEY_ACCOUNT_UUID, AttributeValues.fromUUID(account.getUuid())))
-            .updateExpression("SET #data = :data, #version = :version")
-            .conditionExpression("attribute_exists(#number)")
-            .expressionAttributeNames(Map.of("#number", ATTR_ACCOUNT_E164,
-                "#data", ATTR_ACCOUNT_DATA,
-                "#version", ATTR_MIGRATION_VERSION))
-            .expressionAttributeValues(Map.of(
-                ":data", AttributeValues.fromByteArray(SystemMapper.getMapper().writeValueAsBytes(account)),
-                ":version", AttributeValues.fromInt(account.getDynamoDbMigrationVersion())))
-            .build();
+    UPDATE_TIMER.record(() -> client.updateItem(buildUpdateItemRequest(account)));
+  }
 
-      } catch (JsonProcessingException e) {
-        throw new IllegalArgumentException(e);
-      }
+  /**
+   * Updates the given account without blocking. Like {@link #update(Account)}, the update fails with a
+   * {@link ConditionalCheckFailedException} if the account does not already exist.
+   */
+  public CompletableFuture<Void> updateAsync(Account account) {
+    try {
+      final Timer.Sample sample = Timer.start();
 
-      client.updateItem(updateItemRequest);
-    });
+      return asyncClient.updateItem(buildUpdateItemRequest(account))
+          .whenComplete((response, cause) -> sample.stop(UPDATE_TIMER))
+          .thenApply(response -> null);
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
   }
 
+  private UpdateItemRequest buildUpdateItemRequest(Account account) {
+    try {
+      return UpdateItemRequest.builder()
+          .tableName(accountsTableName)
+          .key(Map.of(KEY_ACCOUNT_UUID, AttributeValues.fromUUID(account.getUuid())))
+          .updateExpression("SET #data = :data, #version = :version")
+          .conditionExpression("attribute_exists(#number)")
+          .expressionAttributeNames(Map.of("#number", ATTR_ACCOUNT_E164,
+              "#data", ATTR_ACCOUNT_DATA,
+              "#version", ATTR_MIGRATION_VERSION))
+          .expressionAttributeValues(Map.of(
+              ":data", AttributeValues.fromByteArray(SystemMapper.getMapper().writeValueAsBytes(account)),
+              ":version", AttributeValues.fromInt(account.getDynamoDbMigrationVersion())))
+          .build();
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
 
   @Override
   public Optional<Account> get(String number) {
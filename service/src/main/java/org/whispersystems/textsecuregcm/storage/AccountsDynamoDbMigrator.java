@@ -15,6 +15,11 @@ public class AccountsDynamoDbMigrator extends AccountDatabaseCrawlerListener {
     this.dynamicConfigurationManager = dynamicConfigurationManager;
   }
 
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
   @Override
   public void onCrawlStart() {
 
@@ -13,11 +13,16 @@ import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import io.lettuce.core.LettuceFutures;
 import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Metrics;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +31,9 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 import net.logstash.logback.argument.StructuredArguments;
@@ -39,6 +47,7 @@ import org.whispersystems.textsecuregcm.securebackup.SecureBackupClient;
 import org.whispersystems.textsecuregcm.securestorage.SecureStorageClient;
 import org.whispersystems.textsecuregcm.sqs.DirectoryQueue;
 import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.SystemMapper;
 import org.whispersystems.textsecuregcm.util.Util;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
@@ -51,11 +60,15 @@ public class AccountsManager {
   private static final Timer          getByNumberTimer = metricRegistry.timer(name(AccountsManager.class, "getByNumber"));
   private static final Timer          getByUuidTimer   = metricRegistry.timer(name(AccountsManager.class, "getByUuid"  ));
   private static final Timer          deleteTimer      = metricRegistry.timer(name(AccountsManager.class, "delete"));
+  private static final Timer          updateAllTimer   = metricRegistry.timer(name(AccountsManager.class, "updateAll"  ));
+  private static final Timer          deleteAllTimer   = metricRegistry.timer(name(AccountsManager.class, "deleteAll"  ));
 
   private static final Timer redisSetTimer       = metricRegistry.timer(name(AccountsManager.class, "redisSet"      ));
   private static final Timer redisNumberGetTimer = metricRegistry.timer(name(AccountsManager.class, "redisNumberGet"));
   private static final Timer redisUuidGetTimer   = metricRegistry.timer(name(AccountsManager.class, "redisUuidGet"  ));
   private static final Timer redisDeleteTimer    = metricRegistry.timer(name(AccountsManager.class, "redisDelete"   ));
+  private static final Timer redisSetAllTimer    = metricRegistry.timer(name(AccountsManager.class, "redisSetAll"   ));
+  private static final Timer redisDeleteAllTimer = metricRegistry.timer(name(AccountsManager.class, "redisDeleteAll"));
 
   private static final String DELETE_COUNTER_NAME       = name(AccountsManager.class, "deleteCounter");
   private static final String DELETE_ERROR_COUNTER_NAME = name(AccountsManager.class, "deleteError");
@@ -66,6 +79,8 @@ public class AccountsManager {
   private static final Counter DYNAMO_MIGRATION_COMPARISON_COUNTER = Metrics.counter(name(AccountsManager.class, "migration", "comparisons"));
   private static final String DYNAMO_MIGRATION_MISMATCH_COUNTER_NAME = name(AccountsManager.class, "migration", "mismatches");
 
+  private static final int MAX_CONCURRENT_DYNAMO_UPDATES = 32;
+
   private final Logger logger = LoggerFactory.getLogger(AccountsManager.class);
 
   private final Accounts                  accounts;
@@ -186,6 +201,56 @@ public class AccountsManager {
     }
   }
 
+  /**
+   * Updates many accounts at once, as {@link #update(Account)} would. Cache entries are written in a single pipelined
+   * batch, database rows are updated in a single JDBI batch, and DynamoDB updates (if enabled) are issued concurrently,
+   * at most {@value #MAX_CONCURRENT_DYNAMO_UPDATES} at a time.
+   */
+  public void updateAll(final List<Account> accountsToUpdate) {
+    if (accountsToUpdate.isEmpty()) {
+      return;
+    }
+
+    try (Timer.Context ignored = updateAllTimer.time()) {
+      accountsToUpdate.forEach(account -> account.setDynamoDbMigrationVersion(account.getDynamoDbMigrationVersion() + 1));
+
+      redisSetAll(accountsToUpdate);
+      databaseUpdateAll(accountsToUpdate);
+
+      if (dynamoWriteEnabled()) {
+        final List<Account> enrolledAccounts = accountsToUpdate.stream()
+            .filter(account -> experimentEnrollmentManager.isEnrolled(account.getUuid(), "accountsDynamoDbMigration"))
+            .collect(Collectors.toList());
+
+        // Crawler chunks can hold a thousand accounts, so only start a limited window of updates at a time
+        for (final List<Account> window : Lists.partition(enrolledAccounts, MAX_CONCURRENT_DYNAMO_UPDATES)) {
+          final List<Pair<Account, CompletableFuture<Void>>> dynamoUpdates = window.stream()
+              .map(account -> new Pair<>(account, accountsDynamoDb.updateAsync(account)))
+              .collect(Collectors.toList());
+
+          for (final Pair<Account, CompletableFuture<Void>> dynamoUpdate : dynamoUpdates) {
+            final Account account = dynamoUpdate.first();
+
+            runSafelyAndRecordMetrics(() -> {
+                  try {
+                    dynamoUpdate.second().join();
+                  } catch (final CompletionException e) {
+                    if (e.getCause() instanceof ConditionalCheckFailedException) {
+                      dynamoCreate(account);
+                    } else {
+                      throw e;
+                    }
+                  }
+                  return true;
+                }, Optional.of(account.getUuid()), true,
+                (databaseSuccess, dynamoSuccess) -> Optional.empty(), // both values are always true
+                "update");
+          }
+        }
+      }
+    }
+  }
+
   public Optional<Account> get(AmbiguousIdentifier identifier) {
     if      (identifier.hasNumber()) return get(identifier.getNumber());
     else if (identifier.hasUuid())   return get(identifier.getUuid());
@@ -265,10 +330,7 @@ public class AccountsManager {
 
     } catch (final Exception e) {
       logger.warn("Failed to delete account", e);
-
-      Metrics.counter(DELETE_ERROR_COUNTER_NAME,
-          COUNTRY_CODE_TAG_NAME, Util.getCountryCode(account.getNumber()),
-          DELETION_REASON_TAG_NAME, deletionReason.tagValue).increment();
+      incrementDeleteErrorCounter(account, deletionReason);
 
       throw e;
     }
@@ -279,6 +341,84 @@ public class AccountsManager {
            .increment();
   }
 
+  /**
+   * Deletes many accounts at once, as {@link #delete(Account, DeletionReason)} would. Per-account data held by other
+   * services is cleared for all accounts concurrently, with each account's usernames, profiles, keys and messages
+   * cleared by a task on the given executor and its remote storage and backup deletions in flight alongside. The
+   * directory updates, cache entries and database rows for all accounts are then removed in batches.
+   * <p>
+   * An account whose data couldn't be cleared is logged, counted as a deletion error and left in place; the remaining
+   * accounts are still deleted.
+   */
+  public void deleteAll(final List<Account> accountsToDelete, final DeletionReason deletionReason, final Executor executor) {
+    if (accountsToDelete.isEmpty()) {
+      return;
+    }
+
+    try (final Timer.Context ignored = deleteAllTimer.time()) {
+      final List<CompletableFuture<Void>> clearFutures = accountsToDelete.stream()
+          .map(account -> CompletableFuture.allOf(
+              secureStorageClient.deleteStoredData(account.getUuid()),
+              secureBackupClient.deleteBackups(account.getUuid()),
+              CompletableFuture.runAsync(() -> {
+                usernamesManager.delete(account.getUuid());
+                profilesManager.deleteAll(account.getUuid());
+                keysDynamoDb.delete(account);
+                messagesManager.clear(account.getUuid());
+              }, executor)))
+          .collect(Collectors.toList());
+
+      final List<Account> clearedAccounts = new ArrayList<>(accountsToDelete.size());
+
+      for (int i = 0; i < accountsToDelete.size(); i++) {
+        final Account account = accountsToDelete.get(i);
+
+        try {
+          clearFutures.get(i).join();
+          clearedAccounts.add(account);
+        } catch (final CompletionException e) {
+          logger.warn("Failed to delete account", e.getCause());
+          incrementDeleteErrorCounter(account, deletionReason);
+        }
+      }
+
+      try {
+        directoryQueue.deleteAccounts(clearedAccounts);
+        redisDeleteAll(clearedAccounts);
+        databaseDeleteAll(clearedAccounts);
+      } catch (final Exception e) {
+        logger.warn("Failed to delete accounts", e);
+        clearedAccounts.forEach(account -> incrementDeleteErrorCounter(account, deletionReason));
+
+        throw e;
+      }
+
+      if (dynamoDeleteEnabled()) {
+        for (final Account account : clearedAccounts) {
+          try {
+            dynamoDelete(account);
+          } catch (final Exception e) {
+            logger.error("Could not delete account {} from dynamo", account.getUuid().toString());
+            Metrics.counter(DYNAMO_MIGRATION_ERROR_COUNTER_NAME, "action", "delete").increment();
+          }
+        }
+      }
+
+      for (final Account account : clearedAccounts) {
+        Metrics.counter(DELETE_COUNTER_NAME,
+                        COUNTRY_CODE_TAG_NAME,    Util.getCountryCode(account.getNumber()),
+                        DELETION_REASON_TAG_NAME, deletionReason.tagValue)
+               .increment();
+      }
+    }
+  }
+
+  private void incrementDeleteErrorCounter(final Account account, final DeletionReason deletionReason) {
+    Metrics.counter(DELETE_ERROR_COUNTER_NAME,
+        COUNTRY_CODE_TAG_NAME, Util.getCountryCode(account.getNumber()),
+        DELETION_REASON_TAG_NAME, deletionReason.tagValue).increment();
+  }
+
   private String getAccountMapKey(String number) {
     return "AccountMap::" + number;
   }
@@ -302,6 +442,35 @@ public class AccountsManager {
     }
   }
 
+  private void redisSetAll(final List<Account> accountsToSet) {
+    try (Timer.Context ignored = redisSetAllTimer.time()) {
+      final List<String> accountJson = new ArrayList<>(accountsToSet.size());
+
+      for (final Account account : accountsToSet) {
+        accountJson.add(mapper.writeValueAsString(account));
+      }
+
+      cacheCluster.useCluster(connection -> {
+        final RedisAdvancedClusterAsyncCommands<String, String> commands = connection.async();
+        final List<RedisFuture<String>>                         futures  = new ArrayList<>(accountsToSet.size() * 2);
+
+        for (int i = 0; i < accountsToSet.size(); i++) {
+          final Account account = accountsToSet.get(i);
+
+          futures.add(commands.set(getAccountMapKey(account.getNumber()), account.getUuid().toString()));
+          futures.add(commands.set(getAccountEntityKey(account.getUuid()), accountJson.get(i)));
+        }
+
+        // Like redisSet, don't return until the cache has been updated so stale entries can't outlive the update
+        for (final RedisFuture<String> future : futures) {
+          LettuceFutures.awaitOrCancel(future, connection.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        }
+      });
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   private Optional<Account> redisGet(String number) {
     try (Timer.Context ignored = redisNumberGetTimer.time()) {
       final String uuid = cacheCluster.withCluster(connection -> connection.sync().get(getAccountMapKey(number)));
@@ -344,6 +513,27 @@ public class AccountsManager {
     }
   }
 
+  private void redisDeleteAll(final List<Account> accountsToDelete) {
+    if (accountsToDelete.isEmpty()) {
+      return;
+    }
+
+    try (final Timer.Context ignored = redisDeleteAllTimer.time()) {
+      cacheCluster.useCluster(connection -> {
+        final RedisAdvancedClusterAsyncCommands<String, String> commands = connection.async();
+        final List<RedisFuture<Long>>                           futures  = new ArrayList<>(accountsToDelete.size());
+
+        for (final Account account : accountsToDelete) {
+          futures.add(commands.del(getAccountMapKey(account.getNumber()), getAccountEntityKey(account.getUuid())));
+        }
+
+        for (final RedisFuture<Long> future : futures) {
+          LettuceFutures.awaitOrCancel(future, connection.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        }
+      });
+    }
+  }
+
   private Optional<Account> databaseGet(String number) {
     return accounts.get(number);
   }
@@ -360,10 +550,18 @@ public class AccountsManager {
     accounts.update(account);
   }
 
+  private void databaseUpdateAll(List<Account> accountsToUpdate) {
+    accounts.updateAll(accountsToUpdate);
+  }
+
   private void databaseDelete(final Account account) {
     accounts.delete(account.getUuid());
   }
 
+  private void databaseDeleteAll(final List<Account> accountsToDelete) {
+    accounts.deleteAll(accountsToDelete.stream().map(Account::getUuid).collect(Collectors.toList()));
+  }
+
   private Optional<Account> dynamoGet(String number) {
     return accountsDynamoDb.get(number);
   }
@@ -7,16 +7,16 @@ package org.whispersystems.textsecuregcm.storage;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dropwizard.metrics.MetricsFactory;
 import io.dropwizard.metrics.ReporterFactory;
+import io.lettuce.core.ScriptOutputType;
 import org.whispersystems.textsecuregcm.entities.ActiveUserTally;
+import org.whispersystems.textsecuregcm.redis.ClusterLuaScript;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
-import org.whispersystems.textsecuregcm.util.SystemMapper;
 import org.whispersystems.textsecuregcm.util.Util;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,9 +24,19 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Counts active users by platform and country as the account database is crawled, reporting the totals when the crawl
+ * ends.
+ * <p>
+ * Running tallies are kept in a Redis hash with one counter per platform or country and interval. Each chunk's counts
+ * are added by a single script call, which skips a chunk whose counts were already added (as when a chunk is retried).
+ */
 public class ActiveUserCounter extends AccountDatabaseCrawlerListener {
 
-  private static final String TALLY_KEY         = "active_user_tally";
+  private static final String TALLY_KEY             = "active_user_tallies";
+  private static final String FROM_UUID_FIELD       = "fromUuid";
+  private static final String PLATFORM_FIELD_PREFIX = "platform:";
+  private static final String COUNTRY_FIELD_PREFIX  = "country:";
 
   private static final String PLATFORM_IOS     = "ios";
   private static final String PLATFORM_ANDROID = "android";
@@ -35,12 +45,17 @@ public class ActiveUserCounter extends AccountDatabaseCrawlerListener {
 
   private final MetricsFactory            metricsFactory;
   private final FaultTolerantRedisCluster cacheCluster;
-  private final ObjectMapper              mapper;
+  private final ClusterLuaScript          incrementTalliesScript;
 
-  public ActiveUserCounter(MetricsFactory metricsFactory, FaultTolerantRedisCluster cacheCluster) {
+  public ActiveUserCounter(MetricsFactory metricsFactory, FaultTolerantRedisCluster cacheCluster) throws IOException {
     this.metricsFactory         = metricsFactory;
     this.cacheCluster           = cacheCluster;
-    this.mapper                 = SystemMapper.getMapper();
+    this.incrementTalliesScript = ClusterLuaScript.fromResource(cacheCluster, "lua/active_user_counter/increment_tallies.lua", ScriptOutputType.INTEGER);
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
   }
 
   @Override
@@ -143,53 +158,59 @@ public class ActiveUserCounter extends AccountDatabaseCrawlerListener {
   }
 
   private void incrementTallies(UUID fromUuid, Map<String, long[]> platformIncrements, Map<String, long[]> countryIncrements) {
-    try {
-      final String tallyValue = cacheCluster.withCluster(connection -> connection.sync().get(TALLY_KEY));
-
-      ActiveUserTally activeUserTally;
-
-      if (tallyValue == null) {
-        activeUserTally = new ActiveUserTally(fromUuid, platformIncrements, countryIncrements);
-      } else {
-        activeUserTally = mapper.readValue(tallyValue, ActiveUserTally.class);
-
-        if (!fromUuid.equals(activeUserTally.getFromUuid())) {
-          activeUserTally.setFromUuid(fromUuid);
-          Map<String, long[]> platformTallies = activeUserTally.getPlatforms();
-          addTallyMaps(platformTallies, platformIncrements);
-          Map<String, long[]> countryTallies = activeUserTally.getCountries();
-          addTallyMaps(countryTallies, countryIncrements);
-        }
-      }
+    final List<String> args = new ArrayList<>();
+    args.add(fromUuid.toString());
 
-      final String tallyJson = mapper.writeValueAsString(activeUserTally);
+    addIncrementArgs(args, PLATFORM_FIELD_PREFIX, platformIncrements);
+    addIncrementArgs(args, COUNTRY_FIELD_PREFIX, countryIncrements);
 
-      cacheCluster.useCluster(connection -> connection.sync().set(TALLY_KEY, tallyJson));
-    } catch (JsonProcessingException e) {
-      throw new IllegalArgumentException(e);
-    }
+    incrementTalliesScript.execute(List.of(TALLY_KEY), args);
   }
 
-  private void addTallyMaps(Map<String, long[]> tallyMap, Map<String, long[]> incrementMap) {
+  private void addIncrementArgs(List<String> args, String fieldPrefix, Map<String, long[]> incrementMap) {
     incrementMap.forEach((key, increments) -> {
-      long[] tallies = tallyMap.get(key);
-      if (tallies == null) {
-        tallyMap.put(key, increments);
-      } else {
-        for (int i = 0; i < INTERVALS.length; i++) {
-          tallies[i] += increments[i];
+      for (int i = 0; i < INTERVALS.length; i++) {
+        if (increments[i] != 0) {
+          args.add(fieldPrefix + key + ":" + INTERVALS[i]);
+          args.add(String.valueOf(increments[i]));
         }
       }
     });
   }
 
   private ActiveUserTally getFinalTallies() {
-    try {
-      final String tallyJson = cacheCluster.withCluster(connection -> connection.sync().get(TALLY_KEY));
+    final Map<String, String> tallyFields = cacheCluster.withCluster(connection -> connection.sync().hgetall(TALLY_KEY));
+
+    final Map<String, long[]> platformTallies = new HashMap<>();
+    final Map<String, long[]> countryTallies  = new HashMap<>();
 
-      return mapper.readValue(tallyJson, ActiveUserTally.class);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    tallyFields.forEach((field, value) -> {
+      if (field.startsWith(PLATFORM_FIELD_PREFIX)) {
+        addTallyField(platformTallies, field.substring(PLATFORM_FIELD_PREFIX.length()), value);
+      } else if (field.startsWith(COUNTRY_FIELD_PREFIX)) {
+        addTallyField(countryTallies, field.substring(COUNTRY_FIELD_PREFIX.length()), value);
+      }
+    });
+
+    final String fromUuid = tallyFields.get(FROM_UUID_FIELD);
+
+    return new ActiveUserTally(fromUuid != null ? UUID.fromString(fromUuid) : null, platformTallies, countryTallies);
+  }
+
+  private void addTallyField(Map<String, long[]> tallyMap, String keyAndInterval, String value) {
+    final int separatorIndex = keyAndInterval.lastIndexOf(':');
+
+    if (separatorIndex < 0) {
+      return;
+    }
+
+    final String intervalName = keyAndInterval.substring(separatorIndex + 1);
+
+    for (int i = 0; i < INTERVALS.length; i++) {
+      if (INTERVALS[i].equals(intervalName)) {
+        getTallyFromMap(tallyMap, keyAndInterval.substring(0, separatorIndex))[i] = Long.parseLong(value);
+        return;
+      }
     }
   }
 
@@ -38,6 +38,11 @@ public class DirectoryReconciler extends AccountDatabaseCrawlerListener {
     sendChunkErrorMeter       = metricRegistry.meter(name(DirectoryReconciler.class, name, "sendChunkError"));
   }
 
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
   @Override
   public void onCrawlStart() { }
 
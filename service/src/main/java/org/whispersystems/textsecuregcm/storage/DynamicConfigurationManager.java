@@ -25,7 +25,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CountDownLatch;
 
 public class DynamicConfigurationManager {
 
@@ -35,11 +35,12 @@ public class DynamicConfigurationManager {
   private final String          clientId;
   private final AmazonAppConfig appConfigClient;
 
-  private final AtomicReference<DynamicConfiguration>   configuration    = new AtomicReference<>();
+  // Published once by the worker thread for each new configuration version; readers never need to take a lock
+  private volatile DynamicConfiguration configuration;
 
-  private GetConfigurationResult lastConfigResult;
+  private final CountDownLatch initialized = new CountDownLatch(1);
 
-  private boolean initialized = false;
+  private GetConfigurationResult lastConfigResult;
 
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(new YAMLFactory())
       .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
@@ -67,25 +68,29 @@ public class DynamicConfigurationManager {
   }
 
   public DynamicConfiguration getConfiguration() {
-    synchronized (this) {
-      while (!initialized) Util.wait(this);
+    final DynamicConfiguration currentConfiguration = configuration;
+
+    if (currentConfiguration != null) {
+      return currentConfiguration;
     }
 
-    return configuration.get();
+    try {
+      initialized.await();
+    } catch (final InterruptedException e) {
+      throw new AssertionError(e);
+    }
+
+    return configuration;
   }
 
   public void start() {
-    configuration.set(retrieveInitialDynamicConfiguration());
-
-    synchronized (this) {
-      this.initialized = true;
-      this.notifyAll();
-    }
+    configuration = retrieveInitialDynamicConfiguration();
+    initialized.countDown();
 
     final Thread workerThread = new Thread(() -> {
       while (true) {
         try {
-          retrieveDynamicConfiguration().ifPresent(configuration::set);
+          retrieveDynamicConfiguration().ifPresent(dynamicConfiguration -> configuration = dynamicConfiguration);
         } catch (Throwable t) {
           logger.warn("Error retrieving dynamic configuration", t);
         }
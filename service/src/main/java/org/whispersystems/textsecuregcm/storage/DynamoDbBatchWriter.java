@@ -0,0 +1,314 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.storage;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+/**
+ * Writes items to DynamoDB in batches using an asynchronous client, keeping many batches in flight at once.
+ * <p>
+ * The number of batches in flight is governed by an additive-increase/multiplicative-decrease limit: each fully
+ * processed batch nudges the limit up, and a throttled batch (either a throughput exception or a response with
+ * unprocessed items) halves it. Throttled items are retried after a jittered, exponentially-increasing delay.
+ */
+public class DynamoDbBatchWriter {
+
+  private final DynamoDbAsyncClient dynamoDbAsyncClient;
+  private final ScheduledExecutorService retryExecutor;
+
+  private final int minInFlightBatches;
+  private final int maxInFlightBatches;
+  private final int maxAttempts;
+  private final Duration baseRetryDelay;
+  private final Duration maxRetryDelay;
+
+  private final Queue<PendingBatch> pendingBatches = new ArrayDeque<>();
+
+  // All guarded by this
+  private int inFlightBatches;
+  private double inFlightLimit;
+  private long limitGeneration;
+
+  private final Counter itemsWrittenCounter;
+  private final Counter itemsFailedCounter;
+  private final Counter batchesCounter;
+  private final Counter throttledBatchesCounter;
+
+  private static final String WRITER_TAG_NAME = "writer";
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 10;
+  private static final Duration DEFAULT_BASE_RETRY_DELAY = Duration.ofMillis(50);
+  private static final Duration DEFAULT_MAX_RETRY_DELAY = Duration.ofSeconds(5);
+
+  private static final Logger logger = LoggerFactory.getLogger(DynamoDbBatchWriter.class);
+
+  /**
+   * @param writerName a name for this writer, used to tag its metrics so that writers for different tables can be told
+   * apart
+   */
+  public DynamoDbBatchWriter(final String writerName,
+      final DynamoDbAsyncClient dynamoDbAsyncClient,
+      final ScheduledExecutorService retryExecutor,
+      final int maxInFlightBatches) {
+
+    this(writerName, dynamoDbAsyncClient, retryExecutor, 1, maxInFlightBatches, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_RETRY_DELAY,
+        DEFAULT_MAX_RETRY_DELAY);
+  }
+
+  @VisibleForTesting
+  DynamoDbBatchWriter(final String writerName,
+      final DynamoDbAsyncClient dynamoDbAsyncClient,
+      final ScheduledExecutorService retryExecutor,
+      final int minInFlightBatches,
+      final int maxInFlightBatches,
+      final int maxAttempts,
+      final Duration baseRetryDelay,
+      final Duration maxRetryDelay) {
+
+    if (minInFlightBatches < 1 || maxInFlightBatches < minInFlightBatches) {
+      throw new IllegalArgumentException("Invalid in-flight batch limits: " + minInFlightBatches + ", " + maxInFlightBatches);
+    }
+
+    this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+    this.retryExecutor = retryExecutor;
+    this.minInFlightBatches = minInFlightBatches;
+    this.maxInFlightBatches = maxInFlightBatches;
+    this.maxAttempts = maxAttempts;
+    this.baseRetryDelay = baseRetryDelay;
+    this.maxRetryDelay = maxRetryDelay;
+
+    this.inFlightLimit = maxInFlightBatches;
+
+    final Tags tags = Tags.of(WRITER_TAG_NAME, writerName);
+
+    this.itemsWrittenCounter = Metrics.counter(name(DynamoDbBatchWriter.class, "itemsWritten"), tags);
+    this.itemsFailedCounter = Metrics.counter(name(DynamoDbBatchWriter.class, "itemsFailed"), tags);
+    this.batchesCounter = Metrics.counter(name(DynamoDbBatchWriter.class, "batches"), tags);
+    this.throttledBatchesCounter = Metrics.counter(name(DynamoDbBatchWriter.class, "throttledBatches"), tags);
+
+    Metrics.gauge(name(DynamoDbBatchWriter.class, "inFlightBatches"), tags, this, DynamoDbBatchWriter::getInFlightBatches);
+    Metrics.gauge(name(DynamoDbBatchWriter.class, "inFlightLimit"), tags, this, DynamoDbBatchWriter::getInFlightLimit);
+  }
+
+  /**
+   * Writes the given items to the given table, splitting them into batches as needed.
+   *
+   * @return a future that completes when all items have been written, or completes exceptionally if any batch could
+   * not be written within the allowed number of attempts
+   */
+  public CompletableFuture<Void> writeItems(final String tableName, final List<WriteRequest> items) {
+    final List<CompletableFuture<Void>> batchFutures = new ArrayList<>();
+
+    for (int start = 0; start < items.size(); start += AbstractDynamoDbStore.DYNAMO_DB_MAX_BATCH_SIZE) {
+      final List<WriteRequest> batchItems =
+          items.subList(start, Math.min(items.size(), start + AbstractDynamoDbStore.DYNAMO_DB_MAX_BATCH_SIZE));
+
+      final PendingBatch batch = new PendingBatch(tableName, batchItems, new CompletableFuture<>(), 1);
+      batchFutures.add(batch.future);
+
+      enqueue(batch);
+    }
+
+    return CompletableFuture.allOf(batchFutures.toArray(new CompletableFuture[0]));
+  }
+
+  private void enqueue(final PendingBatch batch) {
+    synchronized (this) {
+      pendingBatches.add(batch);
+    }
+
+    dispatch();
+  }
+
+  private void dispatch() {
+    final List<PendingBatch> batchesToSend = new ArrayList<>();
+
+    synchronized (this) {
+      while (inFlightBatches < (int) inFlightLimit && !pendingBatches.isEmpty()) {
+        final PendingBatch batch = pendingBatches.remove();
+        batch.limitGeneration = limitGeneration;
+
+        inFlightBatches++;
+        batchesToSend.add(batch);
+      }
+    }
+
+    batchesToSend.forEach(this::send);
+  }
+
+  private void send(final PendingBatch batch) {
+    batchesCounter.increment();
+
+    final CompletableFuture<BatchWriteItemResponse> responseFuture;
+
+    try {
+      responseFuture = dynamoDbAsyncClient.batchWriteItem(BatchWriteItemRequest.builder()
+          .requestItems(Map.of(batch.tableName, batch.items))
+          .build());
+    } catch (final Exception e) {
+      handleFailure(batch, e);
+      return;
+    }
+
+    responseFuture.whenComplete((response, cause) -> {
+      if (cause != null) {
+        handleFailure(batch, cause);
+      } else {
+        handleResponse(batch, response);
+      }
+    });
+  }
+
+  private void handleResponse(final PendingBatch batch, final BatchWriteItemResponse response) {
+    final List<WriteRequest> unprocessedItems = response.hasUnprocessedItems()
+        ? response.unprocessedItems().getOrDefault(batch.tableName, List.of())
+        : List.of();
+
+    itemsWrittenCounter.increment(batch.items.size() - unprocessedItems.size());
+
+    if (unprocessedItems.isEmpty()) {
+      releaseAndIncreaseLimit();
+      batch.future.complete(null);
+    } else {
+      releaseAndDecreaseLimit(batch);
+      retryOrFail(batch.withItems(unprocessedItems), null);
+    }
+  }
+
+  private void handleFailure(final PendingBatch batch, final Throwable throwable) {
+    final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+        ? throwable.getCause()
+        : throwable;
+
+    if (cause instanceof ProvisionedThroughputExceededException || cause instanceof RequestLimitExceededException) {
+      releaseAndDecreaseLimit(batch);
+      retryOrFail(batch.withItems(batch.items), cause);
+    } else {
+      release();
+      itemsFailedCounter.increment(batch.items.size());
+      batch.future.completeExceptionally(cause);
+    }
+  }
+
+  private void retryOrFail(final PendingBatch batch, final Throwable cause) {
+    if (batch.attempt > maxAttempts) {
+      logger.warn("Failed to write {} items to {} after {} attempts", batch.items.size(), batch.tableName, maxAttempts);
+
+      itemsFailedCounter.increment(batch.items.size());
+      batch.future.completeExceptionally(cause != null ? cause :
+          new IllegalStateException(batch.items.size() + " items remained unprocessed after " + maxAttempts + " attempts"));
+    } else {
+      try {
+        retryExecutor.schedule(() -> enqueue(batch), getRetryDelayMillis(batch.attempt), TimeUnit.MILLISECONDS);
+      } catch (final RejectedExecutionException e) {
+        // The retry executor shuts down with the server; don't leave callers waiting on a retry that will never run
+        logger.warn("Could not schedule retry for {} items to {}", batch.items.size(), batch.tableName, e);
+
+        itemsFailedCounter.increment(batch.items.size());
+        batch.future.completeExceptionally(e);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  long getRetryDelayMillis(final int attempt) {
+    // "Full jitter" backoff: pick a random delay between zero and an exponentially-increasing ceiling
+    final long ceiling = Math.min(maxRetryDelay.toMillis(), baseRetryDelay.toMillis() << Math.min(attempt - 1, 30));
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  private void release() {
+    synchronized (this) {
+      inFlightBatches--;
+    }
+
+    dispatch();
+  }
+
+  private void releaseAndIncreaseLimit() {
+    synchronized (this) {
+      inFlightBatches--;
+      inFlightLimit = Math.min(maxInFlightBatches, inFlightLimit + 1 / inFlightLimit);
+    }
+
+    dispatch();
+  }
+
+  private void releaseAndDecreaseLimit(final PendingBatch batch) {
+    throttledBatchesCounter.increment();
+
+    synchronized (this) {
+      inFlightBatches--;
+
+      // Only back off once per "generation" so a burst of throttled batches that were all sent under the same limit
+      // doesn't collapse the limit all the way to the floor
+      if (batch.limitGeneration == limitGeneration) {
+        inFlightLimit = Math.max(minInFlightBatches, inFlightLimit / 2);
+        limitGeneration++;
+      }
+    }
+
+    dispatch();
+  }
+
+  @VisibleForTesting
+  synchronized int getInFlightBatches() {
+    return inFlightBatches;
+  }
+
+  @VisibleForTesting
+  synchronized double getInFlightLimit() {
+    return inFlightLimit;
+  }
+
+  private static class PendingBatch {
+
+    private final String tableName;
+    private final List<WriteRequest> items;
+    private final CompletableFuture<Void> future;
+    private final int attempt;
+
+    private long limitGeneration;
+
+    private PendingBatch(final String tableName, final List<WriteRequest> items, final CompletableFuture<Void> future,
+        final int attempt) {
+
+      this.tableName = tableName;
+      this.items = items;
+      this.future = future;
+      this.attempt = attempt;
+    }
+
+    private PendingBatch withItems(final List<WriteRequest> items) {
+      return new PendingBatch(tableName, items, future, attempt + 1);
+    }
+  }
+}
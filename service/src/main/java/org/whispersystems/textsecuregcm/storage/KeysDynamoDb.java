@@ -8,18 +8,35 @@ package org.whispersystems.textsecuregcm.storage;
 import static com.codahale.metrics.MetricRegistry.name;
 
 import com.google.common.annotations.VisibleForTesting;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.ScriptOutputType;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.entities.PreKey;
+import org.whispersystems.textsecuregcm.redis.ClusterLuaScript;
+import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
 import org.whispersystems.textsecuregcm.util.AttributeValues;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
@@ -32,10 +49,29 @@ import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
 import software.amazon.awssdk.services.dynamodb.model.Select;
 import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
+/**
+ * Stores one-time pre-keys in DynamoDB.
+ * <p>
+ * Clients check how many pre-keys they have left far more often than they upload new ones, and counting keys in
+ * DynamoDB means reading every remaining key. Per-device counts are therefore cached in Redis and adjusted as keys are
+ * stored, claimed and deleted. Cached counts expire after a while (and are discarded if they ever go negative), so a
+ * count that drifts because an adjustment failed is corrected by a fresh count from DynamoDB.
+ * <p>
+ * Each cached count is stored alongside a version that every change to the device's keys advances. A count read from
+ * DynamoDB, or the number of keys just stored, is only cached if the version hasn't moved since the read or store
+ * began, so a slow reader can't overwrite a newer count with an inflated one.
+ */
 public class KeysDynamoDb extends AbstractDynamoDbStore {
 
+  private final DynamoDbAsyncClient asyncClient;
+  private final FaultTolerantRedisCluster cacheCluster;
   private final String tableName;
 
+  private final ClusterLuaScript setCountScript;
+  private final ClusterLuaScript replaceCountScript;
+  private final ClusterLuaScript decrementCountScript;
+  private final ClusterLuaScript clearCountScript;
+
   static final String KEY_ACCOUNT_UUID = "U";
   static final String KEY_DEVICE_ID_KEY_ID = "DK";
   static final String KEY_PUBLIC_KEY = "P";
@@ -49,26 +85,106 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
   private static final DistributionSummary CONTESTED_KEY_DISTRIBUTION    = Metrics.summary(name(KeysDynamoDb.class, "contestedKeys"));
   private static final DistributionSummary KEY_COUNT_DISTRIBUTION        = Metrics.summary(name(KeysDynamoDb.class, "keyCount"));
 
-  public KeysDynamoDb(final DynamoDbClient dynamoDB, final String tableName) {
-    super(dynamoDB);
+  private static final String  STORE_KEYS_WRITES_COUNTER_NAME = name(KeysDynamoDb.class, "storeKeysWrites");
+  private static final Counter STORE_KEYS_PUT_COUNTER         = Metrics.counter(STORE_KEYS_WRITES_COUNTER_NAME, "type", "put");
+  private static final Counter STORE_KEYS_DELETE_COUNTER      = Metrics.counter(STORE_KEYS_WRITES_COUNTER_NAME, "type", "delete");
+
+  private static final String  KEY_COUNT_CACHE_COUNTER_NAME = name(KeysDynamoDb.class, "keyCountCache");
+  private static final Counter KEY_COUNT_CACHE_HIT_COUNTER  = Metrics.counter(KEY_COUNT_CACHE_COUNTER_NAME, "outcome", "hit");
+  private static final Counter KEY_COUNT_CACHE_MISS_COUNTER = Metrics.counter(KEY_COUNT_CACHE_COUNTER_NAME, "outcome", "miss");
+
+  private static final String   KEY_COUNT_CACHE_PREFIX = "prekey_counts::";
+  private static final String   COUNT_FIELD            = "count";
+  private static final String   VERSION_FIELD          = "version";
+  private static final Duration KEY_COUNT_CACHE_TTL    = Duration.ofHours(1);
+
+  private static final Logger logger = LoggerFactory.getLogger(KeysDynamoDb.class);
+
+  // When claiming keys for all of an account's devices, each device's claim considers only this many candidates at a
+  // time; if every candidate turns out to have been taken by a concurrent claim, it looks again, up to a limit.
+  private static final int CLAIM_CANDIDATE_LIMIT = 10;
+  private static final int MAX_CLAIM_ATTEMPTS = 3;
+
+  public KeysDynamoDb(final DynamoDbClient dynamoDB, final DynamoDbAsyncClient asyncClient,
+      final DynamoDbBatchWriter batchWriter, final FaultTolerantRedisCluster cacheCluster, final String tableName)
+      throws IOException {
+
+    super(dynamoDB, batchWriter);
+    this.asyncClient = asyncClient;
+    this.cacheCluster = cacheCluster;
     this.tableName = tableName;
+
+    this.setCountScript = ClusterLuaScript.fromResource(cacheCluster, "lua/keys/set_count.lua", ScriptOutputType.INTEGER);
+    this.replaceCountScript = ClusterLuaScript.fromResource(cacheCluster, "lua/keys/replace_count.lua", ScriptOutputType.INTEGER);
+    this.decrementCountScript = ClusterLuaScript.fromResource(cacheCluster, "lua/keys/decrement_count.lua", ScriptOutputType.INTEGER);
+    this.clearCountScript = ClusterLuaScript.fromResource(cacheCluster, "lua/keys/clear_count.lua", ScriptOutputType.INTEGER);
   }
 
+  /**
+   * Replaces all of a device's pre-keys with the given keys. New keys are written before any existing keys are removed,
+   * so a concurrent claim never finds the device without keys; existing keys that aren't being replaced are deleted
+   * once all new keys have been written.
+   */
   public void store(final Account account, final long deviceId, final List<PreKey> keys) {
     STORE_KEYS_TIMER.record(() -> {
-      delete(account, deviceId);
+      final AttributeValue partitionKey = getPartitionKey(account.getUuid());
+      final Optional<String> cachedCountVersion = getCachedCount(account.getUuid(), deviceId).getVersion();
+
+      final Set<AttributeValue> newSortKeys = new HashSet<>();
+      final List<WriteRequest> puts = new ArrayList<>(keys.size());
+
+      for (final PreKey preKey : keys) {
+        final Map<String, AttributeValue> item = getItemFromPreKey(account.getUuid(), deviceId, preKey);
 
-      writeInBatches(keys, batch -> {
-        List<WriteRequest> items = new ArrayList<>();
-        for (final PreKey preKey : batch) {
-          items.add(WriteRequest.builder()
+        // A batch may not contain two writes to the same item, so only the first of any duplicate key IDs is kept
+        if (newSortKeys.add(item.get(KEY_DEVICE_ID_KEY_ID))) {
+          puts.add(WriteRequest.builder()
               .putRequest(PutRequest.builder()
-                  .item(getItemFromPreKey(account.getUuid(), deviceId, preKey))
+                  .item(item)
                   .build())
               .build());
         }
-        executeTableWriteItemsUntilComplete(Map.of(tableName, items));
-      });
+      }
+
+      final QueryRequest existingKeysQuery = QueryRequest.builder()
+          .tableName(tableName)
+          .keyConditionExpression("#uuid = :uuid AND begins_with (#sort, :sortprefix)")
+          .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID, "#sort", KEY_DEVICE_ID_KEY_ID))
+          .expressionAttributeValues(Map.of(
+              ":uuid", partitionKey,
+              ":sortprefix", getSortKeyPrefix(deviceId)))
+          .projectionExpression(KEY_DEVICE_ID_KEY_ID)
+          .consistentRead(true)
+          .build();
+
+      // Finding the keys to remove doesn't depend on the new keys having been written, so do both at once
+      final List<WriteRequest> deletes = new ArrayList<>();
+
+      final CompletableFuture<Void> findStaleKeysFuture = asyncClient.queryPaginator(existingKeysQuery).items()
+          .subscribe(item -> {
+            final AttributeValue sortKey = item.get(KEY_DEVICE_ID_KEY_ID);
+
+            if (!newSortKeys.contains(sortKey)) {
+              deletes.add(WriteRequest.builder()
+                  .deleteRequest(DeleteRequest.builder()
+                      .key(Map.of(
+                          KEY_ACCOUNT_UUID, partitionKey,
+                          KEY_DEVICE_ID_KEY_ID, sortKey))
+                      .build())
+                  .build());
+            }
+          });
+
+      CompletableFuture.allOf(writeItemsAsync(tableName, puts), findStaleKeysFuture).join();
+
+      if (!deletes.isEmpty()) {
+        writeItemsAsync(tableName, deletes).join();
+      }
+
+      STORE_KEYS_PUT_COUNTER.increment(puts.size());
+      STORE_KEYS_DELETE_COUNTER.increment(deletes.size());
+
+      replaceCachedCount(account.getUuid(), deviceId, cachedCountVersion, puts.size());
     });
   }
 
@@ -100,6 +216,7 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
               .build();
           DeleteItemResponse deleteItemResponse = db().deleteItem(deleteItemRequest);
           if (deleteItemResponse.hasAttributes()) {
+            decrementCachedCount(account.getUuid(), deviceId);
             return Optional.of(getPreKeyFromItem(deleteItemResponse.attributes()));
           }
 
@@ -113,20 +230,121 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
     });
   }
 
+  /**
+   * Claims one pre-key for each of the given account's devices. Claims for all devices proceed concurrently, and each
+   * device's claim picks among several available keys at random so that concurrent callers fetching keys for the same
+   * account mostly avoid contending for the same key.
+   *
+   * @return a map of device IDs to claimed pre-keys; devices with no available pre-keys are absent
+   */
   public Map<Long, PreKey> take(final Account account) {
-    return TAKE_KEYS_FOR_ACCOUNT_TIMER.record(() -> {
-      final Map<Long, PreKey> preKeysByDeviceId = new HashMap<>();
+    final Timer.Sample sample = Timer.start();
+
+    try {
+      final AttributeValue partitionKey = getPartitionKey(account.getUuid());
+      final Map<Long, CompletableFuture<Optional<PreKey>>> claimFuturesByDeviceId = new HashMap<>();
 
       for (final Device device : account.getDevices()) {
-        take(account, device.getId()).ifPresent(preKey -> preKeysByDeviceId.put(device.getId(), preKey));
+        claimFuturesByDeviceId.put(device.getId(), claimAsync(partitionKey, device.getId(), 1));
       }
 
+      CompletableFuture.allOf(claimFuturesByDeviceId.values().toArray(new CompletableFuture[0])).join();
+
+      final Map<Long, PreKey> preKeysByDeviceId = new HashMap<>();
+
+      claimFuturesByDeviceId.forEach((deviceId, claimFuture) ->
+          claimFuture.join().ifPresent(preKey -> preKeysByDeviceId.put(deviceId, preKey)));
+
+      preKeysByDeviceId.keySet().forEach(deviceId -> decrementCachedCount(account.getUuid(), deviceId));
+
       return preKeysByDeviceId;
+    } catch (final CompletionException e) {
+      // Unwrap so callers see the same DynamoDB exceptions as they would from the synchronous client
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw e;
+    } finally {
+      sample.stop(TAKE_KEYS_FOR_ACCOUNT_TIMER);
+    }
+  }
+
+  private CompletableFuture<Optional<PreKey>> claimAsync(final AttributeValue partitionKey, final long deviceId, final int attempt) {
+    final QueryRequest queryRequest = QueryRequest.builder()
+        .tableName(tableName)
+        .keyConditionExpression("#uuid = :uuid AND begins_with (#sort, :sortprefix)")
+        .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID, "#sort", KEY_DEVICE_ID_KEY_ID))
+        .expressionAttributeValues(Map.of(
+            ":uuid", partitionKey,
+            ":sortprefix", getSortKeyPrefix(deviceId)))
+        .projectionExpression(KEY_DEVICE_ID_KEY_ID)
+        .limit(CLAIM_CANDIDATE_LIMIT)
+        .consistentRead(false)
+        .build();
+
+    return asyncClient.query(queryRequest).thenCompose(response -> {
+      final List<Map<String, AttributeValue>> candidates = new ArrayList<>(response.items());
+      Collections.shuffle(candidates, ThreadLocalRandom.current());
+
+      return claimFirstAvailableAsync(partitionKey, candidates, 0).thenCompose(maybePreKey -> {
+        // Every candidate was claimed out from under us, but there may be more keys beyond the ones we looked at
+        if (maybePreKey.isEmpty() && response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+            && attempt < MAX_CLAIM_ATTEMPTS) {
+          return claimAsync(partitionKey, deviceId, attempt + 1);
+        }
+
+        return CompletableFuture.completedFuture(maybePreKey);
+      });
+    });
+  }
+
+  /**
+   * Tries to delete each candidate in turn, starting at the given index, until one deletion actually removes a key.
+   * Candidates are tried one at a time rather than all at once so that a claim never consumes more than one key.
+   */
+  private CompletableFuture<Optional<PreKey>> claimFirstAvailableAsync(final AttributeValue partitionKey,
+      final List<Map<String, AttributeValue>> candidates, final int index) {
+
+    if (index >= candidates.size()) {
+      CONTESTED_KEY_DISTRIBUTION.record(index);
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+
+    final DeleteItemRequest deleteItemRequest = DeleteItemRequest.builder()
+        .tableName(tableName)
+        .key(Map.of(
+            KEY_ACCOUNT_UUID, partitionKey,
+            KEY_DEVICE_ID_KEY_ID, candidates.get(index).get(KEY_DEVICE_ID_KEY_ID)))
+        .returnValues(ReturnValue.ALL_OLD)
+        .build();
+
+    return asyncClient.deleteItem(deleteItemRequest).thenCompose(deleteItemResponse -> {
+      if (deleteItemResponse.hasAttributes()) {
+        CONTESTED_KEY_DISTRIBUTION.record(index);
+        return CompletableFuture.completedFuture(Optional.of(getPreKeyFromItem(deleteItemResponse.attributes())));
+      }
+
+      return claimFirstAvailableAsync(partitionKey, candidates, index + 1);
     });
   }
 
   public int getCount(final Account account, final long deviceId) {
     return GET_KEY_COUNT_TIMER.record(() -> {
+      final CachedCount cachedCount = getCachedCount(account.getUuid(), deviceId);
+
+      if (cachedCount.getCount().isPresent()) {
+        KEY_COUNT_CACHE_HIT_COUNTER.increment();
+        KEY_COUNT_DISTRIBUTION.record(cachedCount.getCount().get());
+        return cachedCount.getCount().get();
+      }
+
+      KEY_COUNT_CACHE_MISS_COUNTER.increment();
+
+      // A count that will be cached has to reflect every write that happened before it was read, or a stale count could
+      // be served for as long as the cache entry lives; a count that won't be cached can be slightly stale
+      final boolean willCache = cachedCount.getVersion().isPresent();
+
       QueryRequest queryRequest = QueryRequest.builder()
           .tableName(tableName)
           .keyConditionExpression("#uuid = :uuid AND begins_with (#sort, :sortprefix)")
@@ -135,7 +353,7 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
               ":uuid", getPartitionKey(account.getUuid()),
               ":sortprefix", getSortKeyPrefix(deviceId)))
           .select(Select.COUNT)
-          .consistentRead(false)
+          .consistentRead(willCache)
           .build();
 
       int keyCount = 0;
@@ -148,6 +366,11 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
         keyCount += page.count();
       }
       KEY_COUNT_DISTRIBUTION.record(keyCount);
+
+      if (willCache) {
+        setCachedCount(account.getUuid(), deviceId, cachedCount.getVersion().get(), keyCount);
+      }
+
       return keyCount;
     });
   }
@@ -165,6 +388,8 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
           .build();
 
       deleteItemsForAccountMatchingQuery(account, queryRequest);
+
+      account.getDevices().forEach(device -> clearCachedCount(account.getUuid(), device.getId()));
     });
   }
 
@@ -183,6 +408,8 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
           .build();
 
       deleteItemsForAccountMatchingQuery(account, queryRequest);
+
+      clearCachedCount(account.getUuid(), deviceId);
     });
   }
 
@@ -204,6 +431,63 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
     });
   }
 
+  private CachedCount getCachedCount(final UUID accountUuid, final long deviceId) {
+    try {
+      final List<KeyValue<String, String>> fields = cacheCluster.withCluster(connection ->
+          connection.sync().hmget(getCountCacheKey(accountUuid, deviceId), COUNT_FIELD, VERSION_FIELD));
+
+      final Optional<Integer> count = fields.get(0).optional().map(Integer::parseInt).filter(parsedCount -> parsedCount >= 0);
+      final String version = fields.get(1).getValueOrElse("0");
+
+      return new CachedCount(count, Optional.of(version));
+    } catch (final RedisException | NumberFormatException e) {
+      logger.warn("Failed to read cached pre-key count", e);
+    }
+
+    return new CachedCount(Optional.empty(), Optional.empty());
+  }
+
+  private void setCachedCount(final UUID accountUuid, final long deviceId, final String expectedVersion, final int count) {
+    try {
+      setCountScript.execute(List.of(getCountCacheKey(accountUuid, deviceId)),
+          List.of(expectedVersion, String.valueOf(count), String.valueOf(KEY_COUNT_CACHE_TTL.toSeconds())));
+    } catch (final RedisException e) {
+      logger.warn("Failed to cache pre-key count", e);
+    }
+  }
+
+  private void replaceCachedCount(final UUID accountUuid, final long deviceId, final Optional<String> expectedVersion, final int count) {
+    try {
+      // If the version couldn't be read, pass one that can't match so that any cached count is dropped
+      replaceCountScript.execute(List.of(getCountCacheKey(accountUuid, deviceId)),
+          List.of(expectedVersion.orElse(""), String.valueOf(count), String.valueOf(KEY_COUNT_CACHE_TTL.toSeconds())));
+    } catch (final RedisException e) {
+      logger.warn("Failed to cache pre-key count", e);
+    }
+  }
+
+  private void decrementCachedCount(final UUID accountUuid, final long deviceId) {
+    try {
+      decrementCountScript.execute(List.of(getCountCacheKey(accountUuid, deviceId)),
+          List.of(String.valueOf(KEY_COUNT_CACHE_TTL.toSeconds())));
+    } catch (final RedisException e) {
+      logger.warn("Failed to decrement cached pre-key count", e);
+    }
+  }
+
+  private void clearCachedCount(final UUID accountUuid, final long deviceId) {
+    try {
+      clearCountScript.execute(List.of(getCountCacheKey(accountUuid, deviceId)),
+          List.of(String.valueOf(KEY_COUNT_CACHE_TTL.toSeconds())));
+    } catch (final RedisException e) {
+      logger.warn("Failed to clear cached pre-key count", e);
+    }
+  }
+
+  private static String getCountCacheKey(final UUID accountUuid, final long deviceId) {
+    return KEY_COUNT_CACHE_PREFIX + accountUuid + "::" + deviceId;
+  }
+
   private static AttributeValue getPartitionKey(final UUID accountUuid) {
     return AttributeValues.fromUUID(accountUuid);
   }
@@ -233,4 +517,26 @@ public class KeysDynamoDb extends AbstractDynamoDbStore {
     final long keyId = item.get(KEY_DEVICE_ID_KEY_ID).b().asByteBuffer().getLong(8);
     return new PreKey(keyId, item.get(KEY_PUBLIC_KEY).s());
   }
+
+  private static class CachedCount {
+
+    private final Optional<Integer> count;
+    private final Optional<String> version;
+
+    private CachedCount(final Optional<Integer> count, final Optional<String> version) {
+      this.count = count;
+      this.version = version;
+    }
+
+    public Optional<Integer> getCount() {
+      return count;
+    }
+
+    /**
+     * @return the version of the cached count, or empty if it couldn't be read (in which case no count should be cached)
+     */
+    public Optional<String> getVersion() {
+      return version;
+    }
+  }
 }
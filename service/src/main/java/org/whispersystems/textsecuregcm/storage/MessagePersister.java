@@ -14,7 +14,9 @@ import com.google.common.annotations.VisibleForTesting;
 import io.dropwizard.lifecycle.Managed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicMessagePersisterConfiguration;
 import org.whispersystems.textsecuregcm.entities.MessageProtos;
+import org.whispersystems.textsecuregcm.redis.SlotRangeScheduler;
 import org.whispersystems.textsecuregcm.util.Constants;
 import org.whispersystems.textsecuregcm.util.Util;
 
@@ -22,19 +24,34 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
+/**
+ * The message persister moves messages that have lingered in the Redis message cache into durable storage. Each worker
+ * thread walks the slots assigned to its lane by a {@link SlotRangeScheduler}, and the queues found in each slot are
+ * persisted concurrently on a shared thread pool so DynamoDB writes for different queues overlap.
+ * <p/>
+ * The size of that pool tracks the backlog: it grows multiplicatively when workers find full batches of queues or the
+ * oldest queue in a lane has waited well beyond the persistence delay, and shrinks gradually as slots come up empty,
+ * always staying within the bounds set in dynamic configuration.
+ */
 public class MessagePersister implements Managed {
 
     private final MessagesCache               messagesCache;
     private final MessagesManager             messagesManager;
     private final AccountsManager             accountsManager;
+    private final DynamicConfigurationManager dynamicConfigurationManager;
+    private final SlotRangeScheduler          slotRangeScheduler;
+    private final ThreadPoolExecutor          persistQueueExecutor;
 
     private final Duration        persistDelay;
 
-    private final    Thread[]     workerThreads = new Thread[WORKER_THREAD_COUNT];
+    private final    Thread[]     workerThreads;
     private volatile boolean      running;
 
     private final MetricRegistry metricRegistry             = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
@@ -49,31 +66,49 @@ public class MessagePersister implements Managed {
     static final int MESSAGE_BATCH_LIMIT = 100;
 
     private static final String DISABLE_PERSISTER_FEATURE_FLAG = "DISABLE_MESSAGE_PERSISTER";
-    private static final int WORKER_THREAD_COUNT = 4;
+
+    private static final long IDLE_SLEEP_MILLIS        = 100;
+    private static final long MAX_FAILURE_SLEEP_MILLIS = 10_000;
 
     private static final Logger logger = LoggerFactory.getLogger(MessagePersister.class);
 
-    public MessagePersister(final MessagesCache messagesCache, final MessagesManager messagesManager, final AccountsManager accountsManager, final DynamicConfigurationManager dynamicConfigurationManager, final Duration persistDelay) {
+    public MessagePersister(final MessagesCache messagesCache, final MessagesManager messagesManager, final AccountsManager accountsManager, final DynamicConfigurationManager dynamicConfigurationManager, final SlotRangeScheduler slotRangeScheduler, final ThreadPoolExecutor persistQueueExecutor, final Duration persistDelay) {
         this.messagesCache               = messagesCache;
         this.messagesManager             = messagesManager;
         this.accountsManager             = accountsManager;
+        this.dynamicConfigurationManager = dynamicConfigurationManager;
+        this.slotRangeScheduler          = slotRangeScheduler;
+        this.persistQueueExecutor        = persistQueueExecutor;
         this.persistDelay                = persistDelay;
+        this.workerThreads               = new Thread[slotRangeScheduler.getLaneCount()];
+
+        metricRegistry.gauge(name(MessagePersister.class, "concurrency"), () -> persistQueueExecutor::getCorePoolSize);
+        metricRegistry.gauge(name(MessagePersister.class, "persistedMessagesPerSecondCeiling"), () -> this::getPersistedMessagesPerSecondCeiling);
 
         for (int i = 0; i < workerThreads.length; i++) {
+            final int lane = i;
+
             workerThreads[i] = new Thread(() -> {
+                int consecutiveFailures = 0;
+
                 while (running) {
                     if (dynamicConfigurationManager.getConfiguration().getActiveFeatureFlags().contains(DISABLE_PERSISTER_FEATURE_FLAG)) {
                         Util.sleep(1000);
                     } else {
                         try {
-                            final int queuesPersisted = persistNextQueues(Instant.now());
+                            final int queuesPersisted = persistNextQueues(lane, Instant.now());
                             queueCountHistogram.update(queuesPersisted);
+                            consecutiveFailures = 0;
 
-                            if (queuesPersisted == 0) {
-                                Util.sleep(100);
+                            // If we're falling behind, sweep through empty slots as quickly as we can to find work
+                            if (queuesPersisted == 0 && !isBacklogged(lane)) {
+                                Util.sleep(IDLE_SLEEP_MILLIS);
                             }
                         } catch (final Throwable t) {
                             logger.warn("Failed to persist queues", t);
+
+                            consecutiveFailures += 1;
+                            Util.sleep(Math.min(MAX_FAILURE_SLEEP_MILLIS, IDLE_SLEEP_MILLIS << Math.min(consecutiveFailures, 16)));
                         }
                     }
                 }
@@ -109,9 +144,25 @@ public class MessagePersister implements Managed {
     }
 
     @VisibleForTesting
-    int persistNextQueues(final Instant currentTime) {
-        final int slot = messagesCache.getNextSlotToPersist();
+    int persistNextQueues(final int lane, final Instant currentTime) {
+        final OptionalInt maybeSlot = slotRangeScheduler.nextSlot(lane);
+
+        if (maybeSlot.isEmpty()) {
+            return 0;
+        }
+
+        final int slot = maybeSlot.getAsInt();
+
+        messagesCache.getOldestQueueTimestamp(slot).ifPresent(oldestQueueTimestamp -> slotRangeScheduler.recordOldestEntry(lane, oldestQueueTimestamp));
+
+        final int queuesPersisted = persistQueues(slot, currentTime);
+        adjustConcurrency(queuesPersisted >= QUEUE_BATCH_LIMIT || isBacklogged(lane), queuesPersisted == 0);
 
+        return queuesPersisted;
+    }
+
+    @VisibleForTesting
+    int persistQueues(final int slot, final Instant currentTime) {
         List<String> queuesToPersist;
         int queuesPersisted = 0;
 
@@ -120,20 +171,27 @@ public class MessagePersister implements Managed {
                 queuesToPersist = messagesCache.getQueuesToPersist(slot, currentTime.minus(persistDelay), QUEUE_BATCH_LIMIT);
             }
 
-            for (final String queue : queuesToPersist) {
-                final UUID accountUuid = MessagesCache.getAccountUuidFromQueueName(queue);
-                final long deviceId    = MessagesCache.getDeviceIdFromQueueName(queue);
+            final CompletableFuture<?>[] persistFutures = new CompletableFuture<?>[queuesToPersist.size()];
 
-                try {
-                    persistQueue(accountUuid, deviceId);
-                } catch (final Exception e) {
-                    persistQueueExceptionMeter.mark();
-                    logger.warn("Failed to persist queue {}::{}; will schedule for retry", accountUuid, deviceId, e);
+            for (int i = 0; i < queuesToPersist.size(); i++) {
+                final String queue       = queuesToPersist.get(i);
+                final UUID   accountUuid = MessagesCache.getAccountUuidFromQueueName(queue);
+                final long   deviceId    = MessagesCache.getDeviceIdFromQueueName(queue);
 
-                    messagesCache.addQueueToPersist(accountUuid, deviceId);
-                }
+                persistFutures[i] = CompletableFuture.runAsync(() -> {
+                    try {
+                        persistQueue(accountUuid, deviceId);
+                    } catch (final Exception e) {
+                        persistQueueExceptionMeter.mark();
+                        logger.warn("Failed to persist queue {}::{}; will schedule for retry", accountUuid, deviceId, e);
+
+                        messagesCache.addQueueToPersist(accountUuid, deviceId);
+                    }
+                }, persistQueueExecutor);
             }
 
+            CompletableFuture.allOf(persistFutures).join();
+
             queuesPersisted += queuesToPersist.size();
         } while (queuesToPersist.size() >= QUEUE_BATCH_LIMIT);
 
@@ -154,20 +212,18 @@ public class MessagePersister implements Managed {
         }
 
         try (final Timer.Context ignored = persistQueueTimer.time()) {
-            messagesCache.lockQueueForPersistence(accountUuid, deviceId);
-
             try {
                 int messageCount = 0;
-                List<MessageProtos.Envelope> messages;
-
-                do {
-                    messages = messagesCache.getMessagesToPersist(accountUuid, deviceId, MESSAGE_BATCH_LIMIT);
+                List<MessageProtos.Envelope> messages = messagesCache.lockQueueAndGetMessagesToPersist(accountUuid, deviceId, MESSAGE_BATCH_LIMIT);
 
+                while (!messages.isEmpty()) {
                     messagesManager.persistMessages(accountUuid, deviceId, messages);
                     messageCount += messages.size();
 
                     persistMessageMeter.mark(messages.size());
-                } while (!messages.isEmpty());
+
+                    messages = messagesCache.getMessagesToPersist(accountUuid, deviceId, MESSAGE_BATCH_LIMIT);
+                }
 
                 queueSizeHistogram.update(messageCount);
             } finally {
@@ -175,4 +231,50 @@ public class MessagePersister implements Managed {
             }
         }
     }
+
+    private boolean isBacklogged(final int lane) {
+        return slotRangeScheduler.getLag(lane).compareTo(persistDelay.multipliedBy(2)) > 0;
+    }
+
+    @VisibleForTesting
+    void adjustConcurrency(final boolean backlogged, final boolean idle) {
+        final DynamicMessagePersisterConfiguration configuration = dynamicConfigurationManager.getConfiguration().getMessagePersisterConfiguration();
+
+        synchronized (persistQueueExecutor) {
+            final int currentConcurrency = persistQueueExecutor.getCorePoolSize();
+            int targetConcurrency = currentConcurrency;
+
+            if (backlogged) {
+                targetConcurrency = currentConcurrency * 2;
+            } else if (idle) {
+                targetConcurrency = currentConcurrency - 1;
+            }
+
+            targetConcurrency = Math.max(configuration.getMinConcurrency(), Math.min(configuration.getMaxConcurrency(), targetConcurrency));
+
+            if (targetConcurrency > persistQueueExecutor.getMaximumPoolSize()) {
+                persistQueueExecutor.setMaximumPoolSize(targetConcurrency);
+                persistQueueExecutor.setCorePoolSize(targetConcurrency);
+            } else if (targetConcurrency != currentConcurrency) {
+                persistQueueExecutor.setCorePoolSize(targetConcurrency);
+                persistQueueExecutor.setMaximumPoolSize(targetConcurrency);
+            }
+        }
+    }
+
+    /**
+     * Estimates the greatest rate at which this persister could move messages out of the cache if it ran at its maximum
+     * configured concurrency, based on the observed mean queue size and mean time to persist a queue.
+     */
+    @VisibleForTesting
+    double getPersistedMessagesPerSecondCeiling() {
+        final double meanQueuePersistSeconds = persistQueueTimer.getSnapshot().getMean() / 1_000_000_000d;
+
+        if (meanQueuePersistSeconds <= 0) {
+            return 0;
+        }
+
+        return dynamicConfigurationManager.getConfiguration().getMessagePersisterConfiguration().getMaxConcurrency() *
+            queueSizeHistogram.getSnapshot().getMean() / meanQueuePersistSeconds;
+    }
 }
@@ -10,10 +10,13 @@ import static com.codahale.metrics.MetricRegistry.name;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.dropwizard.lifecycle.Managed;
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisFuture;
 import io.lettuce.core.ScoredValue;
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.ZAddArgs;
 import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
 import io.lettuce.core.cluster.event.ClusterTopologyChangedEvent;
 import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
 import io.lettuce.core.cluster.pubsub.RedisClusterPubSubAdapter;
@@ -35,6 +38,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,7 +79,6 @@ public class MessagesCache extends RedisClusterPubSubAdapter<String, String> imp
     private final Counter ephemeralMessageNotificationCounter = Metrics.counter(name(MessagesCache.class, "newMessageNotification"), "ephemeral", "true");
     private final Counter queuePersistedNotificationCounter   = Metrics.counter(name(MessagesCache.class, "queuePersisted"));
 
-    static final         String NEXT_SLOT_TO_PERSIST_KEY  = "user_queue_persist_slot";
     private static final byte[] LOCK_VALUE                = "1".getBytes(StandardCharsets.UTF_8);
 
     private static final String QUEUE_KEYSPACE_PREFIX           = "__keyspace@0__:user_queue::";
@@ -262,20 +265,38 @@ public class MessagesCache extends RedisClusterPubSubAdapter<String, String> imp
 
     @VisibleForTesting
     List<MessageProtos.Envelope> getMessagesToPersist(final UUID accountUuid, final long destinationDevice, final int limit) {
-        return getMessagesTimer.record(() -> {
-            final List<ScoredValue<byte[]>>    scoredMessages = readDeleteCluster.withBinaryCluster(connection -> connection.sync().zrangeWithScores(getMessageQueueKey(accountUuid, destinationDevice), 0, limit));
-            final List<MessageProtos.Envelope> envelopes      = new ArrayList<>(scoredMessages.size());
+        return getMessagesTimer.record(() -> parseEnvelopes(readDeleteCluster.withBinaryCluster(connection -> connection.sync().zrangeWithScores(getMessageQueueKey(accountUuid, destinationDevice), 0, limit))));
+    }
 
-            for (final ScoredValue<byte[]> scoredMessage : scoredMessages) {
-                try {
-                    envelopes.add(MessageProtos.Envelope.parseFrom(scoredMessage.getValue()));
-                } catch (InvalidProtocolBufferException e) {
-                    logger.warn("Failed to parse envelope", e);
-                }
+    /**
+     * Locks the given queue for persistence and retrieves its first page of messages to persist. Both commands target
+     * the same hash slot and are pipelined on a single connection, so the lock is always in place before the read is
+     * processed, but the caller only pays for one round trip.
+     */
+    List<MessageProtos.Envelope> lockQueueAndGetMessagesToPersist(final UUID accountUuid, final long destinationDevice, final int limit) {
+        return getMessagesTimer.record(() -> parseEnvelopes(readDeleteCluster.withBinaryCluster(connection -> {
+            final RedisAdvancedClusterAsyncCommands<byte[], byte[]> commands = connection.async();
+
+            final RedisFuture<String>                    lockFuture     = commands.setex(getPersistInProgressKey(accountUuid, destinationDevice), 30, LOCK_VALUE);
+            final RedisFuture<List<ScoredValue<byte[]>>> messagesFuture = commands.zrangeWithScores(getMessageQueueKey(accountUuid, destinationDevice), 0, limit);
+
+            LettuceFutures.awaitOrCancel(lockFuture, connection.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            return LettuceFutures.awaitOrCancel(messagesFuture, connection.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        })));
+    }
+
+    private static List<MessageProtos.Envelope> parseEnvelopes(final List<ScoredValue<byte[]>> scoredMessages) {
+        final List<MessageProtos.Envelope> envelopes = new ArrayList<>(scoredMessages.size());
+
+        for (final ScoredValue<byte[]> scoredMessage : scoredMessages) {
+            try {
+                envelopes.add(MessageProtos.Envelope.parseFrom(scoredMessage.getValue()));
+            } catch (InvalidProtocolBufferException e) {
+                logger.warn("Failed to parse envelope", e);
             }
+        }
 
-            return envelopes;
-        });
+        return envelopes;
     }
 
     public Optional<MessageProtos.Envelope> takeEphemeralMessage(final UUID destinationUuid, final long destinationDevice) {
@@ -322,8 +343,10 @@ public class MessagesCache extends RedisClusterPubSubAdapter<String, String> imp
                                                 Collections.emptyList()));
     }
 
-    int getNextSlotToPersist() {
-        return (int)(readDeleteCluster.withCluster(connection -> connection.sync().incr(NEXT_SLOT_TO_PERSIST_KEY)) % SlotHash.SLOT_COUNT);
+    Optional<Instant> getOldestQueueTimestamp(final int slot) {
+        final List<ScoredValue<byte[]>> oldestQueues = readDeleteCluster.withBinaryCluster(connection -> connection.sync().zrangeWithScores(getQueueIndexKey(slot), 0, 0));
+
+        return oldestQueues.stream().findFirst().map(scoredValue -> Instant.ofEpochMilli((long)scoredValue.getScore()));
     }
 
     List<String> getQueuesToPersist(final int slot, final Instant maxTime, final int limit) {
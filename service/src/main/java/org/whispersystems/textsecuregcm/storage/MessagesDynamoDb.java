@@ -8,11 +8,11 @@ package org.whispersystems.textsecuregcm.storage;
 import static com.codahale.metrics.MetricRegistry.name;
 import static io.micrometer.core.instrument.Metrics.timer;
 
-import com.google.common.collect.ImmutableMap;
 import io.micrometer.core.instrument.Timer;
 import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -61,57 +61,59 @@ public class MessagesDynamoDb extends AbstractDynamoDbStore {
   private final String tableName;
   private final Duration timeToLive;
 
-  public MessagesDynamoDb(DynamoDbClient dynamoDb, String tableName, Duration timeToLive) {
-    super(dynamoDb);
+  public MessagesDynamoDb(DynamoDbClient dynamoDb, DynamoDbBatchWriter batchWriter, String tableName, Duration timeToLive) {
+    super(dynamoDb, batchWriter);
 
     this.tableName = tableName;
     this.timeToLive = timeToLive;
   }
 
   public void store(final List<MessageProtos.Envelope> messages, final UUID destinationAccountUuid, final long destinationDeviceId) {
-    storeTimer.record(() -> writeInBatches(messages, (messageBatch) -> storeBatch(messageBatch, destinationAccountUuid, destinationDeviceId)));
+    storeTimer.record(() -> {
+      final AttributeValue partitionKey = convertPartitionKey(destinationAccountUuid);
+      final List<WriteRequest> writeItems = new ArrayList<>(messages.size());
+
+      for (final MessageProtos.Envelope message : messages) {
+        writeItems.add(WriteRequest.builder()
+            .putRequest(PutRequest.builder().item(buildItem(message, partitionKey, destinationDeviceId)).build())
+            .build());
+      }
+
+      writeItemsAsync(tableName, writeItems).join();
+    });
   }
 
-  private void storeBatch(final List<MessageProtos.Envelope> messages, final UUID destinationAccountUuid, final long destinationDeviceId) {
-    if (messages.size() > DYNAMO_DB_MAX_BATCH_SIZE) {
-      throw new IllegalArgumentException("Maximum batch size of " + DYNAMO_DB_MAX_BATCH_SIZE + " execeeded with " + messages.size() + " messages");
-    }
+  private Map<String, AttributeValue> buildItem(final MessageProtos.Envelope message, final AttributeValue partitionKey, final long destinationDeviceId) {
+    final UUID messageUuid = UUID.fromString(message.getServerGuid());
+    final Map<String, AttributeValue> item = new HashMap<>(16);
 
-    final AttributeValue partitionKey = convertPartitionKey(destinationAccountUuid);
-    List<WriteRequest> writeItems = new ArrayList<>();
-    for (MessageProtos.Envelope message : messages) {
-      final UUID messageUuid = UUID.fromString(message.getServerGuid());
-      final ImmutableMap.Builder<String, AttributeValue> item = ImmutableMap.<String, AttributeValue>builder()
-          .put(KEY_PARTITION, partitionKey)
-          .put(KEY_SORT, convertSortKey(destinationDeviceId, message.getServerTimestamp(), messageUuid))
-          .put(LOCAL_INDEX_MESSAGE_UUID_KEY_SORT, convertLocalIndexMessageUuidSortKey(messageUuid))
-          .put(KEY_TYPE, AttributeValues.fromInt(message.getType().getNumber()))
-          .put(KEY_TIMESTAMP, AttributeValues.fromLong(message.getTimestamp()))
-          .put(KEY_TTL, AttributeValues.fromLong(getTtlForMessage(message)));
-      if (message.hasRelay() && message.getRelay().length() > 0) {
-        item.put(KEY_RELAY, AttributeValues.fromString(message.getRelay()));
-      }
-      if (message.hasSource()) {
-        item.put(KEY_SOURCE, AttributeValues.fromString(message.getSource()));
-      }
-      if (message.hasSourceUuid()) {
-        item.put(KEY_SOURCE_UUID, AttributeValues.fromUUID(UUID.fromString(message.getSourceUuid())));
-      }
-      if (message.hasSourceDevice()) {
-        item.put(KEY_SOURCE_DEVICE, AttributeValues.fromInt(message.getSourceDevice()));
-      }
-      if (message.hasLegacyMessage()) {
-        item.put(KEY_MESSAGE, AttributeValues.fromByteArray(message.getLegacyMessage().toByteArray()));
-      }
-      if (message.hasContent()) {
-        item.put(KEY_CONTENT, AttributeValues.fromByteArray(message.getContent().toByteArray()));
-      }
-      writeItems.add(WriteRequest.builder().putRequest(PutRequest.builder()
-          .item(item.build())
-          .build()).build());
+    item.put(KEY_PARTITION, partitionKey);
+    item.put(KEY_SORT, convertSortKey(destinationDeviceId, message.getServerTimestamp(), messageUuid));
+    item.put(LOCAL_INDEX_MESSAGE_UUID_KEY_SORT, convertLocalIndexMessageUuidSortKey(messageUuid));
+    item.put(KEY_TYPE, AttributeValues.fromInt(message.getType().getNumber()));
+    item.put(KEY_TIMESTAMP, AttributeValues.fromLong(message.getTimestamp()));
+    item.put(KEY_TTL, AttributeValues.fromLong(getTtlForMessage(message)));
+
+    if (message.hasRelay() && message.getRelay().length() > 0) {
+      item.put(KEY_RELAY, AttributeValues.fromString(message.getRelay()));
+    }
+    if (message.hasSource()) {
+      item.put(KEY_SOURCE, AttributeValues.fromString(message.getSource()));
+    }
+    if (message.hasSourceUuid()) {
+      item.put(KEY_SOURCE_UUID, AttributeValues.fromUUID(UUID.fromString(message.getSourceUuid())));
+    }
+    if (message.hasSourceDevice()) {
+      item.put(KEY_SOURCE_DEVICE, AttributeValues.fromInt(message.getSourceDevice()));
+    }
+    if (message.hasLegacyMessage()) {
+      item.put(KEY_MESSAGE, AttributeValues.fromByteArray(message.getLegacyMessage().toByteArray()));
+    }
+    if (message.hasContent()) {
+      item.put(KEY_CONTENT, AttributeValues.fromByteArray(message.getContent().toByteArray()));
     }
 
-    executeTableWriteItemsUntilComplete(Map.of(tableName, writeItems));
+    return item;
   }
 
   public List<OutgoingMessageEntity> load(final UUID destinationAccountUuid, final long destinationDeviceId, final int requestedNumberOfMessagesToFetch) {
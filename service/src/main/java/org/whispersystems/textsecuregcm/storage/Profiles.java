@@ -10,10 +10,17 @@ import static com.codahale.metrics.MetricRegistry.name;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import org.jdbi.v3.core.statement.Query;
 import org.whispersystems.textsecuregcm.storage.mappers.VersionedProfileMapper;
 import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
 
 public class Profiles {
 
@@ -31,13 +38,17 @@ public class Profiles {
 
   private final Timer setTimer    = metricRegistry.timer(name(Profiles.class, "set"   ));
   private final Timer getTimer    = metricRegistry.timer(name(Profiles.class, "get"   ));
+  private final Timer getAllTimer = metricRegistry.timer(name(Profiles.class, "getAll"));
   private final Timer deleteTimer = metricRegistry.timer(name(Profiles.class, "delete"));
 
-  private final FaultTolerantDatabase database;
+  private final FaultTolerantDatabase  database;
+  private final VersionedProfileMapper versionedProfileMapper = new VersionedProfileMapper();
+
+  private static final int MAX_PROFILES_PER_QUERY = 100;
 
   public Profiles(FaultTolerantDatabase database) {
     this.database = database;
-    this.database.getDatabase().registerRowMapper(new VersionedProfileMapper());
+    this.database.getDatabase().registerRowMapper(versionedProfileMapper);
   }
 
   public void set(UUID uuid, VersionedProfile profile) {
@@ -86,6 +97,43 @@ public class Profiles {
     }));
   }
 
+  /**
+   * Retrieves many versioned profiles at once, issuing one query per {@value MAX_PROFILES_PER_QUERY} requested
+   * profiles rather than one query per profile.
+   *
+   * @return a map of (uuid, version) pairs to the matching profiles; requested profiles that don't exist are absent
+   */
+  public Map<Pair<UUID, String>, VersionedProfile> getAll(Collection<Pair<UUID, String>> uuidsAndVersions) {
+    final List<Pair<UUID, String>>                  requested = new ArrayList<>(uuidsAndVersions);
+    final Map<Pair<UUID, String>, VersionedProfile> found     = new HashMap<>();
+
+    for (int start = 0; start < requested.size(); start += MAX_PROFILES_PER_QUERY) {
+      final List<Pair<UUID, String>> chunk = requested.subList(start, Math.min(requested.size(), start + MAX_PROFILES_PER_QUERY));
+
+      database.use(jdbi -> jdbi.useHandle(handle -> {
+        try (Timer.Context ignored = getAllTimer.time()) {
+          final StringBuilder values = new StringBuilder();
+
+          for (int i = 0; i < chunk.size(); i++) {
+            values.append(i == 0 ? "" : ", ").append("(:uuid").append(i).append(", :version").append(i).append(")");
+          }
+
+          final Query query = handle.createQuery("SELECT * FROM profiles WHERE (" + UID + ", " + VERSION + ") IN (" + values + ")");
+
+          for (int i = 0; i < chunk.size(); i++) {
+            query.bind("uuid" + i, chunk.get(i).first());
+            query.bind("version" + i, chunk.get(i).second());
+          }
+
+          query.map((resultSet, ctx) -> new Pair<>(UUID.fromString(resultSet.getString(UID)), versionedProfileMapper.map(resultSet, ctx)))
+               .forEach(uuidAndProfile -> found.put(new Pair<>(uuidAndProfile.first(), uuidAndProfile.second().getVersion()), uuidAndProfile.second()));
+        }
+      }));
+    }
+
+    return found;
+  }
+
   public void deleteAll(UUID uuid) {
     database.use(jdbi -> jdbi.useHandle(handle -> {
       try (Timer.Context ignored = deleteTimer.time()) {
@@ -5,55 +5,235 @@
 
 package org.whispersystems.textsecuregcm.storage;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import io.lettuce.core.LettuceFutures;
 import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
+import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.SystemMapper;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * Stores versioned profiles in Postgres with a Redis cache in front of it and, in front of that, a small local cache
+ * of recently-read profiles. Hot profiles (for instance, those of popular group members) are read far more often than
+ * they're written, so most reads never leave this server.
+ * <p>
+ * Local entries are replaced or discarded when this server changes or deletes a profile and expire after a short time
+ * so that changes made through other servers become visible promptly. Until then, other servers may continue to serve a
+ * profile from their local caches for up to {@link #LOCAL_CACHE_TTL} after it's been changed or deleted.
+ */
 public class ProfilesManager {
 
   private final Logger logger = LoggerFactory.getLogger(ProfilesManager.class);
 
   private static final String CACHE_PREFIX = "profiles::";
 
+  private static final Duration LOCAL_CACHE_TTL = Duration.ofSeconds(10);
+  private static final int LOCAL_CACHE_MAX_SIZE = 50_000;
+
+  private static final int DELETION_GENERATION_STRIPES = 1024;
+
+  private static final String GET_PROFILE_COUNTER_NAME = name(ProfilesManager.class, "get");
+  private static final String SOURCE_TAG_NAME = "source";
+
+  private static final Counter LOCAL_HIT_COUNTER = Metrics.counter(GET_PROFILE_COUNTER_NAME, SOURCE_TAG_NAME, "local");
+  private static final Counter CACHE_HIT_COUNTER = Metrics.counter(GET_PROFILE_COUNTER_NAME, SOURCE_TAG_NAME, "cache");
+  private static final Counter DATABASE_HIT_COUNTER = Metrics.counter(GET_PROFILE_COUNTER_NAME, SOURCE_TAG_NAME, "database");
+  private static final Counter NOT_FOUND_COUNTER = Metrics.counter(GET_PROFILE_COUNTER_NAME, SOURCE_TAG_NAME, "none");
+
   private final Profiles                  profiles;
   private final FaultTolerantRedisCluster cacheCluster;
   private final ObjectMapper              mapper;
 
+  private final Cache<Pair<UUID, String>, VersionedProfile> localCache;
+
+  // The versions of each account's profile held in the local cache, so an account's entries can be found without
+  // scanning the whole cache; entries are only modified from within compute() so each account's set is updated atomically
+  private final ConcurrentMap<UUID, Set<String>> localVersionsByUuid = new ConcurrentHashMap<>();
+
+  // Bumped whenever an account's profiles are deleted, so a read that overlaps the deletion can tell that what it read may
+  // already be gone and shouldn't be cached locally. Accounts share a bounded set of stripes; a deletion for another
+  // account in the same stripe only costs an overlapping read its local caching.
+  private final AtomicLongArray deletionGenerations = new AtomicLongArray(DELETION_GENERATION_STRIPES);
+
   public ProfilesManager(Profiles profiles, FaultTolerantRedisCluster cacheCluster) {
     this.profiles               = profiles;
     this.cacheCluster           = cacheCluster;
     this.mapper                 = SystemMapper.getMapper();
+
+    this.localCache = CacheBuilder.newBuilder()
+        .expireAfterWrite(LOCAL_CACHE_TTL)
+        .maximumSize(LOCAL_CACHE_MAX_SIZE)
+        .removalListener((RemovalListener<Pair<UUID, String>, VersionedProfile>) notification -> {
+          if (notification.getCause() != RemovalCause.REPLACED) {
+            removeLocalVersion(notification.getKey());
+          }
+        })
+        .build();
   }
 
   public void set(UUID uuid, VersionedProfile versionedProfile) {
     memcacheSet(uuid, versionedProfile);
     profiles.set(uuid, versionedProfile);
+    localPut(new Pair<>(uuid, versionedProfile.getVersion()), versionedProfile);
   }
 
   public void deleteAll(UUID uuid) {
     memcacheDelete(uuid);
     profiles.deleteAll(uuid);
+
+    // Bump the generation before invalidating local entries; see localPutUnlessDeleted
+    deletionGenerations.incrementAndGet(getDeletionGenerationStripe(uuid));
+
+    final Set<String> localVersions = localVersionsByUuid.remove(uuid);
+
+    if (localVersions != null) {
+      localVersions.forEach(version -> localCache.invalidate(new Pair<>(uuid, version)));
+    }
   }
 
   public Optional<VersionedProfile> get(UUID uuid, String version) {
+    final Pair<UUID, String> key = new Pair<>(uuid, version);
+
+    final VersionedProfile localProfile = localCache.getIfPresent(key);
+
+    if (localProfile != null) {
+      LOCAL_HIT_COUNTER.increment();
+      return Optional.of(localProfile);
+    }
+
+    final long deletionGeneration = getDeletionGeneration(uuid);
+
     Optional<VersionedProfile> profile = memcacheGet(uuid, version);
 
-    if (!profile.isPresent()) {
+    if (profile.isPresent()) {
+      CACHE_HIT_COUNTER.increment();
+    } else {
       profile = profiles.get(uuid, version);
       profile.ifPresent(versionedProfile -> memcacheSet(uuid, versionedProfile));
+
+      (profile.isPresent() ? DATABASE_HIT_COUNTER : NOT_FOUND_COUNTER).increment();
     }
 
+    profile.ifPresent(versionedProfile -> localPutUnlessDeleted(key, versionedProfile, deletionGeneration));
+
     return profile;
   }
 
+  /**
+   * Retrieves many versioned profiles at once. Profiles not cached locally are fetched from Redis in a single
+   * pipelined batch, and any still missing after that are loaded from the database in bulk.
+   *
+   * @return a map of (uuid, version) pairs to the matching profiles; requested profiles that don't exist are absent
+   */
+  public Map<Pair<UUID, String>, VersionedProfile> getAll(Collection<Pair<UUID, String>> uuidsAndVersions) {
+    final Map<UUID, Long> deletionGenerationsByUuid = new HashMap<>();
+    uuidsAndVersions.forEach(key -> deletionGenerationsByUuid.computeIfAbsent(key.first(), this::getDeletionGeneration));
+
+    final Map<Pair<UUID, String>, VersionedProfile> found = new HashMap<>(localCache.getAllPresent(uuidsAndVersions));
+    LOCAL_HIT_COUNTER.increment(found.size());
+
+    final Set<Pair<UUID, String>> misses = new LinkedHashSet<>(uuidsAndVersions);
+    misses.removeAll(found.keySet());
+
+    if (!misses.isEmpty()) {
+      final Map<Pair<UUID, String>, VersionedProfile> cached = memcacheGetAll(misses);
+      CACHE_HIT_COUNTER.increment(cached.size());
+
+      found.putAll(cached);
+      cached.forEach((key, profile) -> localPutUnlessDeleted(key, profile, deletionGenerationsByUuid.get(key.first())));
+      misses.removeAll(cached.keySet());
+    }
+
+    if (!misses.isEmpty()) {
+      final Map<Pair<UUID, String>, VersionedProfile> stored = profiles.getAll(misses);
+      DATABASE_HIT_COUNTER.increment(stored.size());
+      NOT_FOUND_COUNTER.increment(misses.size() - stored.size());
+
+      memcacheSetAll(stored);
+
+      found.putAll(stored);
+      stored.forEach((key, profile) -> localPutUnlessDeleted(key, profile, deletionGenerationsByUuid.get(key.first())));
+    }
+
+    return found;
+  }
+
+  /**
+   * Caches a profile that was read from Redis or the database, unless the account's profiles may have been deleted since
+   * the read began (i.e. the account's deletion generation is no longer the one observed before the read).
+   */
+  private void localPutUnlessDeleted(final Pair<UUID, String> key, final VersionedProfile profile, final long deletionGeneration) {
+    if (getDeletionGeneration(key.first()) != deletionGeneration) {
+      return;
+    }
+
+    localPut(key, profile);
+
+    // A deletion may have started between the check above and the put; deleteAll bumps the generation before it
+    // invalidates local entries, so either it will find and invalidate this entry or we'll see the new generation here
+    if (getDeletionGeneration(key.first()) != deletionGeneration) {
+      localCache.invalidate(key);
+    }
+  }
+
+  private long getDeletionGeneration(final UUID uuid) {
+    return deletionGenerations.get(getDeletionGenerationStripe(uuid));
+  }
+
+  private static int getDeletionGenerationStripe(final UUID uuid) {
+    return Math.floorMod(uuid.hashCode(), DELETION_GENERATION_STRIPES);
+  }
+
+  private void localPut(final Pair<UUID, String> key, final VersionedProfile profile) {
+    // Index first so that a cached entry can be found by its UUID; if an eviction of the same key races with this put and
+    // drops it from the index, the entry just lives out its (short) time in the cache
+    localVersionsByUuid.compute(key.first(), (uuid, versions) -> {
+      final Set<String> updatedVersions = versions != null ? versions : new HashSet<>();
+      updatedVersions.add(key.second());
+
+      return updatedVersions;
+    });
+
+    localCache.put(key, profile);
+  }
+
+  private void removeLocalVersion(final Pair<UUID, String> key) {
+    localVersionsByUuid.computeIfPresent(key.first(), (uuid, versions) -> {
+      versions.remove(key.second());
+      return versions.isEmpty() ? null : versions;
+    });
+  }
+
   private void memcacheSet(UUID uuid, VersionedProfile profile) {
     try {
       final String profileJson = mapper.writeValueAsString(profile);
@@ -64,6 +244,29 @@ public class ProfilesManager {
     }
   }
 
+  private void memcacheSetAll(Map<Pair<UUID, String>, VersionedProfile> profilesByKey) {
+    if (profilesByKey.isEmpty()) {
+      return;
+    }
+
+    try {
+      final Map<Pair<UUID, String>, String> jsonByKey = new HashMap<>();
+
+      for (final Map.Entry<Pair<UUID, String>, VersionedProfile> entry : profilesByKey.entrySet()) {
+        jsonByKey.put(entry.getKey(), mapper.writeValueAsString(entry.getValue()));
+      }
+
+      cacheCluster.useCluster(connection -> {
+        final RedisAdvancedClusterAsyncCommands<String, String> commands = connection.async();
+        jsonByKey.forEach((key, json) -> commands.hset(CACHE_PREFIX + key.first().toString(), key.second(), json));
+      });
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException(e);
+    } catch (RedisException e) {
+      logger.warn("Redis exception", e);
+    }
+  }
+
   private Optional<VersionedProfile> memcacheGet(UUID uuid, String version) {
     try {
       final String json = cacheCluster.withCluster(connection -> connection.sync().hget(CACHE_PREFIX + uuid.toString(), version));
@@ -79,6 +282,50 @@ public class ProfilesManager {
     }
   }
 
+  private Map<Pair<UUID, String>, VersionedProfile> memcacheGetAll(Collection<Pair<UUID, String>> uuidsAndVersions) {
+    final List<Pair<UUID, String>> keys = new ArrayList<>(uuidsAndVersions);
+    final List<String>             jsonValues;
+
+    try {
+      jsonValues = cacheCluster.withCluster(connection -> {
+        final RedisAdvancedClusterAsyncCommands<String, String> commands = connection.async();
+        final List<RedisFuture<String>>                         futures  = new ArrayList<>(keys.size());
+
+        for (final Pair<UUID, String> key : keys) {
+          futures.add(commands.hget(CACHE_PREFIX + key.first().toString(), key.second()));
+        }
+
+        // All commands are already in flight, so waiting on each in turn still only costs one round trip per node
+        final List<String> values = new ArrayList<>(futures.size());
+
+        for (final RedisFuture<String> future : futures) {
+          values.add(LettuceFutures.awaitOrCancel(future, connection.getTimeout().toMillis(), TimeUnit.MILLISECONDS));
+        }
+
+        return values;
+      });
+    } catch (RedisException e) {
+      logger.warn("Redis exception", e);
+      return Map.of();
+    }
+
+    final Map<Pair<UUID, String>, VersionedProfile> found = new HashMap<>();
+
+    for (int i = 0; i < keys.size(); i++) {
+      final String json = jsonValues.get(i);
+
+      if (json != null) {
+        try {
+          found.put(keys.get(i), mapper.readValue(json, VersionedProfile.class));
+        } catch (IOException e) {
+          logger.warn("Error deserializing value...", e);
+        }
+      }
+    }
+
+    return found;
+  }
+
   private void memcacheDelete(UUID uuid) {
     cacheCluster.useCluster(connection -> connection.sync().del(CACHE_PREFIX + uuid.toString()));
   }
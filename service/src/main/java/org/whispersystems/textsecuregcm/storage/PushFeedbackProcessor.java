@@ -76,12 +76,12 @@ public class PushFeedbackProcessor extends AccountDatabaseCrawlerListener {
       }
 
       if (update) {
-        accountsManager.update(account);
         directoryUpdateAccounts.add(account);
       }
     }
 
     if (!directoryUpdateAccounts.isEmpty()) {
+      accountsManager.updateAll(directoryUpdateAccounts);
       directoryQueue.refreshRegisteredUsers(directoryUpdateAccounts);
     }
   }
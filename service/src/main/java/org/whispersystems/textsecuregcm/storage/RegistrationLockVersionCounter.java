@@ -40,6 +40,11 @@ public class RegistrationLockVersionCounter extends AccountDatabaseCrawlerListen
         this.metricsFactory = metricsFactory;
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     @Override
     public void onCrawlStart() {
         redisCluster.useCluster(connection -> connection.sync().hset(REGLOCK_COUNT_KEY, Map.of(PIN_KEY, "0", REGLOCK_KEY, "0")));
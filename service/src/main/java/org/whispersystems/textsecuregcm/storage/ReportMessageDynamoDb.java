@@ -2,31 +2,37 @@ package org.whispersystems.textsecuregcm.storage;
 
 import org.whispersystems.textsecuregcm.util.AttributeValues;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
 import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public class ReportMessageDynamoDb {
+public class ReportMessageDynamoDb extends AbstractDynamoDbStore {
 
   static final String KEY_HASH = "H";
   static final String ATTR_TTL = "E";
 
   static final Duration TIME_TO_LIVE = Duration.ofDays(7);
 
-  private final DynamoDbClient db;
   private final String tableName;
 
-  public ReportMessageDynamoDb(final DynamoDbClient dynamoDB, final String tableName) {
-    this.db = dynamoDB;
+  public ReportMessageDynamoDb(final DynamoDbClient dynamoDB, final DynamoDbBatchWriter batchWriter, final String tableName) {
+    super(dynamoDB, batchWriter);
+
     this.tableName = tableName;
   }
 
   public void store(byte[] hash) {
-    db.putItem(PutItemRequest.builder()
+    db().putItem(PutItemRequest.builder()
         .tableName(tableName)
         .item(Map.of(
             KEY_HASH, AttributeValues.fromByteArray(hash),
@@ -35,8 +41,28 @@ public class ReportMessageDynamoDb {
         .build());
   }
 
+  /**
+   * Stores the given hashes using batched, asynchronous writes.
+   *
+   * @return a future that completes when all hashes have been stored
+   */
+  public CompletableFuture<Void> storeAll(final List<byte[]> hashes) {
+    final AttributeValue ttl = AttributeValues.fromLong(Instant.now().plus(TIME_TO_LIVE).getEpochSecond());
+    final List<WriteRequest> writeRequests = new ArrayList<>(hashes.size());
+
+    for (final byte[] hash : hashes) {
+      writeRequests.add(WriteRequest.builder()
+          .putRequest(PutRequest.builder().item(Map.of(
+              KEY_HASH, AttributeValues.fromByteArray(hash),
+              ATTR_TTL, ttl)).build())
+          .build());
+    }
+
+    return writeItemsAsync(tableName, writeRequests);
+  }
+
   public boolean remove(byte[] hash) {
-    final DeleteItemResponse deleteItemResponse = db.deleteItem(DeleteItemRequest.builder()
+    final DeleteItemResponse deleteItemResponse = db().deleteItem(DeleteItemRequest.builder()
         .tableName(tableName)
         .key(Map.of(KEY_HASH, AttributeValues.fromByteArray(hash)))
         .returnValues(ReturnValue.ALL_OLD)
@@ -3,45 +3,198 @@ package org.whispersystems.textsecuregcm.storage;
 import static com.codahale.metrics.MetricRegistry.name;
 
 import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.util.UUIDUtil;
 import org.whispersystems.textsecuregcm.util.Util;
 
-public class ReportMessageManager {
+/**
+ * Records hashes of sent messages so that recipients can later report them as spam, and counts those reports.
+ * <p>
+ * Storing a hash happens on the message-sending path, so hashes are queued in memory and written to DynamoDB in
+ * batches from a background thread rather than one at a time on the request thread. If DynamoDB falls far enough
+ * behind that the queue fills up, new hashes are dropped (and counted) instead of slowing down message delivery; a
+ * dropped hash only means that the corresponding message can't be reported.
+ */
+public class ReportMessageManager implements Managed {
 
   @VisibleForTesting
   static final String REPORT_COUNTER_NAME = name(ReportMessageManager.class, "reported");
 
+  private static final String STORE_COUNTER_NAME = name(ReportMessageManager.class, "store");
+  private static final String OUTCOME_TAG_NAME = "outcome";
+
   private final ReportMessageDynamoDb reportMessageDynamoDb;
   private final MeterRegistry meterRegistry;
+  private final ScheduledExecutorService flushExecutor;
+
+  private final BlockingQueue<byte[]> pendingHashes = new ArrayBlockingQueue<>(MAX_PENDING_HASHES);
+  private final AtomicInteger inFlightHashes = new AtomicInteger();
+
+  private final Counter storedCounter;
+  private final Counter droppedCounter;
+  private final Counter failedCounter;
+
+  private ScheduledFuture<?> flushFuture;
+
+  private static final int MAX_PENDING_HASHES = 100_000;
+  private static final int MAX_IN_FLIGHT_HASHES = 10_000;
+  private static final int MAX_HASHES_PER_WRITE = AbstractDynamoDbStore.DYNAMO_DB_MAX_BATCH_SIZE * 8;
+
+  private static final Duration FLUSH_INTERVAL = Duration.ofMillis(100);
+  private static final Duration SHUTDOWN_FLUSH_TIMEOUT = Duration.ofSeconds(10);
+  private static final Duration SHUTDOWN_FLUSH_RETRY_INTERVAL = Duration.ofMillis(10);
+
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  });
 
   private static final Logger logger = LoggerFactory.getLogger(ReportMessageManager.class);
 
-  public ReportMessageManager(ReportMessageDynamoDb reportMessageDynamoDb, final MeterRegistry meterRegistry) {
+  public ReportMessageManager(ReportMessageDynamoDb reportMessageDynamoDb, final MeterRegistry meterRegistry,
+      final ScheduledExecutorService flushExecutor) {
 
     this.reportMessageDynamoDb = reportMessageDynamoDb;
     this.meterRegistry = meterRegistry;
+    this.flushExecutor = flushExecutor;
+
+    this.storedCounter = meterRegistry.counter(STORE_COUNTER_NAME, OUTCOME_TAG_NAME, "stored");
+    this.droppedCounter = meterRegistry.counter(STORE_COUNTER_NAME, OUTCOME_TAG_NAME, "dropped");
+    this.failedCounter = meterRegistry.counter(STORE_COUNTER_NAME, OUTCOME_TAG_NAME, "failed");
+
+    meterRegistry.gauge(name(ReportMessageManager.class, "pendingHashes"), pendingHashes, Collection::size);
+    meterRegistry.gauge(name(ReportMessageManager.class, "inFlightHashes"), inFlightHashes);
+  }
+
+  @Override
+  public synchronized void start() {
+    if (flushFuture == null) {
+      flushFuture = flushExecutor.scheduleWithFixedDelay(this::flush,
+          FLUSH_INTERVAL.toMillis(), FLUSH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
   }
 
+  @Override
+  public synchronized void stop() {
+    if (flushFuture != null) {
+      flushFuture.cancel(false);
+      flushFuture = null;
+    }
+
+    // A single flush only takes as many hashes as can be in flight at once, so keep flushing until the queue is empty
+    final long deadlineNanos = System.nanoTime() + SHUTDOWN_FLUSH_TIMEOUT.toNanos();
+
+    try {
+      do {
+        flush().get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+        if (!pendingHashes.isEmpty() && inFlightHashes.get() >= MAX_IN_FLIGHT_HASHES) {
+          // Writes started by an earlier scheduled flush are still holding all the in-flight capacity
+          Thread.sleep(SHUTDOWN_FLUSH_RETRY_INTERVAL.toMillis());
+        }
+      } while (!pendingHashes.isEmpty() && System.nanoTime() < deadlineNanos);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final Exception e) {
+      logger.warn("Failed to flush pending hashes before shutting down", e);
+    }
+
+    if (!pendingHashes.isEmpty()) {
+      logger.warn("Shut down with {} hashes still pending", pendingHashes.size());
+    }
+  }
+
+  /**
+   * Queues a hash of the given message for storage. This method never blocks on DynamoDB.
+   */
   public void store(String sourceNumber, UUID messageGuid) {
 
     try {
       Objects.requireNonNull(sourceNumber);
 
-      reportMessageDynamoDb.store(hash(messageGuid, sourceNumber));
+      if (!pendingHashes.offer(hash(messageGuid, sourceNumber))) {
+        droppedCounter.increment();
+      }
     } catch (final Exception e) {
       logger.warn("Failed to store hash", e);
     }
   }
 
+  /**
+   * Writes queued hashes to DynamoDB, holding back any that would push the number of hashes being written above a
+   * fixed limit; those stay queued until the next flush.
+   *
+   * @return a future that completes when all hashes taken from the queue by this flush have been written (or have
+   * failed to be written)
+   */
+  @VisibleForTesting
+  CompletableFuture<Void> flush() {
+    final List<CompletableFuture<Void>> writeFutures = new ArrayList<>();
+
+    while (!pendingHashes.isEmpty()) {
+      final int available = Math.min(MAX_HASHES_PER_WRITE, MAX_IN_FLIGHT_HASHES - inFlightHashes.get());
+
+      if (available <= 0) {
+        break;
+      }
+
+      final List<byte[]> hashes = new ArrayList<>(available);
+      pendingHashes.drainTo(hashes, available);
+
+      if (hashes.isEmpty()) {
+        break;
+      }
+
+      inFlightHashes.addAndGet(hashes.size());
+
+      CompletableFuture<Void> writeFuture;
+
+      try {
+        writeFuture = reportMessageDynamoDb.storeAll(hashes);
+      } catch (final Exception e) {
+        writeFuture = CompletableFuture.failedFuture(e);
+      }
+
+      writeFutures.add(writeFuture.handle((ignored, cause) -> {
+        inFlightHashes.addAndGet(-hashes.size());
+
+        if (cause == null) {
+          storedCounter.increment(hashes.size());
+        } else {
+          failedCounter.increment(hashes.size());
+          logger.warn("Failed to store {} hashes", hashes.size(), cause);
+        }
+
+        return null;
+      }));
+    }
+
+    return CompletableFuture.allOf(writeFutures.toArray(new CompletableFuture[0]));
+  }
+
   public void report(String sourceNumber, UUID messageGuid) {
 
     final boolean found = reportMessageDynamoDb.remove(hash(messageGuid, sourceNumber));
@@ -55,12 +208,7 @@ public class ReportMessageManager {
   }
 
   private byte[] hash(UUID messageGuid, String otherId) {
-    final MessageDigest sha256;
-    try {
-      sha256 = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
-    }
+    final MessageDigest sha256 = SHA256.get();
 
     sha256.update(UUIDUtil.toBytes(messageGuid));
     sha256.update(otherId.getBytes(StandardCharsets.UTF_8));
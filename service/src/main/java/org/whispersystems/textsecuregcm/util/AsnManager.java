@@ -15,8 +15,7 @@ import io.micrometer.core.instrument.Timer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.Inet4Address;
-import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
@@ -60,13 +59,11 @@ public class AsnManager implements Managed {
     asnTableMonitor.stop();
   }
 
+  /**
+   * Finds the ASN for the given IPv4 or IPv6 address literal. Hostnames are never resolved.
+   */
   public Optional<Long> getAsn(final String address) {
-    try {
-      return asnTable.get().getAsn((Inet4Address) Inet4Address.getByName(address));
-    } catch (final UnknownHostException e) {
-      log.warn("Could not parse \"{}\" as an Inet4Address", address);
-      return Optional.empty();
-    }
+    return asnTable.get().getAsn(address);
   }
 
   private void handleAsnTableChanged(final InputStream asnTableObject) {
@@ -81,7 +78,7 @@ public class AsnManager implements Managed {
 
   @VisibleForTesting
   void handleAsnTableChangedStream(final InputStream inputStream) {
-    try (final InputStreamReader reader = new InputStreamReader(inputStream)) {
+    try (final InputStreamReader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
       asnTable.set(new AsnTable(reader));
     } catch (final Exception e) {
       REFRESH_ERRORS.increment();
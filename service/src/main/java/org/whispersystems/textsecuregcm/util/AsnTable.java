@@ -6,77 +6,206 @@
 package org.whispersystems.textsecuregcm.util;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.net.InetAddresses;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Optional;
-import java.util.TreeMap;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import java.util.stream.IntStream;
 
 /**
  * Allows IP->ASN lookup operations using data from https://iptoasn.com/.
+ * <p>
+ * Ranges are held in sorted primitive arrays and found by binary search, which keeps the full dataset (hundreds of
+ * thousands of ranges) compact and avoids allocating anything per lookup. Rows may identify addresses either as
+ * unsigned 32-bit integers (as in the {@code ip2asn-v4-u32} dataset) or as IPv4 or IPv6 address literals (as in the
+ * {@code ip2asn-v4} and {@code ip2asn-v6} datasets).
  */
 class AsnTable {
-  private final NavigableMap<Long, AsnRange> asnBlocksByFirstIp = new TreeMap<>();
-  private final Map<Long, String> countryCodesByAsn = new HashMap<>();
 
-  private static class AsnRange {
-    private final long rangeStart;
-    private final long rangeEnd;
+  // IPv4 ranges, sorted by first address
+  private final long[] ipv4RangeStarts;
+  private final long[] ipv4RangeEnds;
+  private final int[] ipv4Asns;
 
-    private final long asn;
+  // IPv6 ranges, sorted by first address; each address is split into its high and low 64 bits
+  private final long[] ipv6RangeStartsHigh;
+  private final long[] ipv6RangeStartsLow;
+  private final long[] ipv6RangeEndsHigh;
+  private final long[] ipv6RangeEndsLow;
+  private final int[] ipv6Asns;
 
-    private AsnRange(long rangeStart, long rangeEnd, long asn) {
-      this.rangeStart = rangeStart;
-      this.rangeEnd = rangeEnd;
-      this.asn = asn;
+  // Distinct ASNs, sorted, with the country code for each ASN at the same index
+  private final long[] asns;
+  private final String[] countryCodes;
+
+  public static final AsnTable EMPTY = new AsnTable(new ParsedTable());
+
+  public AsnTable(final Reader tsvReader) throws IOException {
+    this(parse(tsvReader));
+  }
+
+  private AsnTable(final ParsedTable parsedTable) {
+    {
+      final RangeBuilder ipv4Ranges = parsedTable.ipv4Ranges;
+      final int[] order = ipv4Ranges.getSortedOrder();
+
+      ipv4RangeStarts = ipv4Ranges.getStartsLow(order);
+      ipv4RangeEnds = ipv4Ranges.getEndsLow(order);
+      ipv4Asns = ipv4Ranges.getAsns(order);
     }
 
-    boolean contains(final long address) {
-      return address >= rangeStart && address <= rangeEnd;
+    {
+      final RangeBuilder ipv6Ranges = parsedTable.ipv6Ranges;
+      final int[] order = ipv6Ranges.getSortedOrder();
+
+      ipv6RangeStartsHigh = ipv6Ranges.getStartsHigh(order);
+      ipv6RangeStartsLow = ipv6Ranges.getStartsLow(order);
+      ipv6RangeEndsHigh = ipv6Ranges.getEndsHigh(order);
+      ipv6RangeEndsLow = ipv6Ranges.getEndsLow(order);
+      ipv6Asns = ipv6Ranges.getAsns(order);
     }
 
-    long getAsn() {
-      return asn;
+    asns = parsedTable.countryCodesByAsn.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+    countryCodes = new String[asns.length];
+
+    for (int i = 0; i < asns.length; i++) {
+      countryCodes[i] = parsedTable.countryCodesByAsn.get(asns[i]);
     }
   }
 
-  public static final AsnTable EMPTY = new AsnTable();
+  /**
+   * Parses the given TSV data in a single streaming pass.
+   */
+  private static ParsedTable parse(final Reader tsvReader) throws IOException {
+    final ParsedTable parsedTable = new ParsedTable();
+    final Map<String, String> canonicalCountryCodes = new HashMap<>();
 
-  public AsnTable(final Reader tsvReader) throws IOException {
-    try (final CSVParser csvParser = CSVFormat.TDF.parse(tsvReader)) {
-      for (final CSVRecord record : csvParser) {
-        final long start = Long.parseLong(record.get(0), 10);
-        final long end = Long.parseLong(record.get(1), 10);
-        final long asn = Long.parseLong(record.get(2), 10);
-        final String countryCode = record.get(3);
-
-        asnBlocksByFirstIp.put(start, new AsnRange(start, end, asn));
-        countryCodesByAsn.put(asn, countryCode);
+    final BufferedReader reader = tsvReader instanceof BufferedReader
+        ? (BufferedReader) tsvReader
+        : new BufferedReader(tsvReader);
+
+    String line;
+
+    while ((line = reader.readLine()) != null) {
+      if (line.isBlank()) {
+        continue;
       }
+
+      final int firstTab = line.indexOf('\t');
+      final int secondTab = line.indexOf('\t', firstTab + 1);
+      final int thirdTab = line.indexOf('\t', secondTab + 1);
+
+      if (firstTab < 0 || secondTab < 0 || thirdTab < 0) {
+        throw new IOException("Malformed IP-to-ASN row: " + line);
+      }
+
+      final int fourthTab = line.indexOf('\t', thirdTab + 1);
+
+      final String start = line.substring(0, firstTab);
+      final String end = line.substring(firstTab + 1, secondTab);
+      final long asn = Long.parseLong(line.substring(secondTab + 1, thirdTab), 10);
+      final String countryCode = canonicalCountryCodes.computeIfAbsent(
+          line.substring(thirdTab + 1, fourthTab >= 0 ? fourthTab : line.length()), code -> code);
+
+      if (start.indexOf(':') >= 0) {
+        final byte[] startAddress = InetAddresses.forString(start).getAddress();
+        final byte[] endAddress = InetAddresses.forString(end).getAddress();
+
+        parsedTable.ipv6Ranges.add(getHigh(startAddress), getLow(startAddress), getHigh(endAddress), getLow(endAddress), (int) asn);
+      } else if (start.indexOf('.') >= 0) {
+        parsedTable.ipv4Ranges.add(0, IpAddressUtil.parseIpv4Address(start), 0, IpAddressUtil.parseIpv4Address(end), (int) asn);
+      } else {
+        parsedTable.ipv4Ranges.add(0, Long.parseLong(start, 10), 0, Long.parseLong(end, 10), (int) asn);
+      }
+
+      parsedTable.countryCodesByAsn.put(asn, countryCode);
+    }
+
+    return parsedTable;
+  }
+
+  /**
+   * Finds the ASN for the given IPv4 or IPv6 address literal. Hostnames are never resolved.
+   */
+  public Optional<Long> getAsn(final String address) {
+    final long ipv4Address = IpAddressUtil.parseIpv4Address(address);
+
+    if (ipv4Address >= 0) {
+      return getIpv4Asn(ipv4Address);
+    }
+
+    if (address.indexOf(':') >= 0 && InetAddresses.isInetAddress(address)) {
+      return getAsn(InetAddresses.forString(address));
     }
+
+    return Optional.empty();
   }
 
-  private AsnTable() {
+  public Optional<Long> getAsn(final InetAddress address) {
+    if (address instanceof Inet4Address) {
+      return getIpv4Asn(ipToLong((Inet4Address) address));
+    } else if (address instanceof Inet6Address) {
+      final byte[] bytes = address.getAddress();
+      return getIpv6Asn(getHigh(bytes), getLow(bytes));
+    }
+
+    return Optional.empty();
   }
 
-  public Optional<Long> getAsn(final Inet4Address address) {
-    final long addressAsLong = ipToLong(address);
+  private Optional<Long> getIpv4Asn(final long address) {
+    // Find the last range that starts at or before the given address
+    int index = Arrays.binarySearch(ipv4RangeStarts, address);
+
+    if (index < 0) {
+      index = -index - 2;
+    }
+
+    if (index >= 0 && address <= ipv4RangeEnds[index]) {
+      return toAsn(ipv4Asns[index]);
+    }
 
-    return Optional.ofNullable(asnBlocksByFirstIp.floorEntry(addressAsLong))
-        .filter(entry -> entry.getValue().contains(addressAsLong))
-        .map(entry -> entry.getValue().getAsn())
-        .filter(asn -> asn != 0);
+    return Optional.empty();
+  }
+
+  private Optional<Long> getIpv6Asn(final long high, final long low) {
+    int lowerBound = 0;
+    int upperBound = ipv6Asns.length - 1;
+    int index = -1;
+
+    // Find the last range that starts at or before the given address
+    while (lowerBound <= upperBound) {
+      final int mid = (lowerBound + upperBound) >>> 1;
+
+      if (compareUnsigned(ipv6RangeStartsHigh[mid], ipv6RangeStartsLow[mid], high, low) <= 0) {
+        index = mid;
+        lowerBound = mid + 1;
+      } else {
+        upperBound = mid - 1;
+      }
+    }
+
+    if (index >= 0 && compareUnsigned(high, low, ipv6RangeEndsHigh[index], ipv6RangeEndsLow[index]) <= 0) {
+      return toAsn(ipv6Asns[index]);
+    }
+
+    return Optional.empty();
+  }
+
+  private static Optional<Long> toAsn(final int asn) {
+    return asn != 0 ? Optional.of(Integer.toUnsignedLong(asn)) : Optional.empty();
   }
 
   public Optional<String> getCountryCode(final long asn) {
-    return Optional.ofNullable(countryCodesByAsn.get(asn));
+    final int index = Arrays.binarySearch(asns, asn);
+    return index >= 0 ? Optional.of(countryCodes[index]) : Optional.empty();
   }
 
   @VisibleForTesting
@@ -88,4 +217,125 @@ class AsnTable {
     buffer.flip();
     return buffer.getLong();
   }
+
+  private static long getHigh(final byte[] address) {
+    return ByteBuffer.wrap(address, 0, 8).getLong();
+  }
+
+  private static long getLow(final byte[] address) {
+    return ByteBuffer.wrap(address, 8, 8).getLong();
+  }
+
+  private static int compareUnsigned(final long highA, final long lowA, final long highB, final long lowB) {
+    final int highComparison = Long.compareUnsigned(highA, highB);
+    return highComparison != 0 ? highComparison : Long.compareUnsigned(lowA, lowB);
+  }
+
+  private static class ParsedTable {
+
+    private final RangeBuilder ipv4Ranges = new RangeBuilder(1 << 10);
+    private final RangeBuilder ipv6Ranges = new RangeBuilder(1 << 10);
+    private final Map<Long, String> countryCodesByAsn = new HashMap<>();
+  }
+
+  /**
+   * Accumulates address ranges in growable primitive arrays while a table is being parsed.
+   */
+  private static class RangeBuilder {
+
+    private long[] startsHigh;
+    private long[] startsLow;
+    private long[] endsHigh;
+    private long[] endsLow;
+    private int[] asns;
+
+    private int size = 0;
+
+    private RangeBuilder(final int initialCapacity) {
+      startsHigh = new long[initialCapacity];
+      startsLow = new long[initialCapacity];
+      endsHigh = new long[initialCapacity];
+      endsLow = new long[initialCapacity];
+      asns = new int[initialCapacity];
+    }
+
+    private void add(final long startHigh, final long startLow, final long endHigh, final long endLow, final int asn) {
+      if (size == asns.length) {
+        final int capacity = Math.max(16, size * 2);
+
+        startsHigh = Arrays.copyOf(startsHigh, capacity);
+        startsLow = Arrays.copyOf(startsLow, capacity);
+        endsHigh = Arrays.copyOf(endsHigh, capacity);
+        endsLow = Arrays.copyOf(endsLow, capacity);
+        asns = Arrays.copyOf(asns, capacity);
+      }
+
+      startsHigh[size] = startHigh;
+      startsLow[size] = startLow;
+      endsHigh[size] = endHigh;
+      endsLow[size] = endLow;
+      asns[size] = asn;
+
+      size++;
+    }
+
+    /**
+     * Returns the order in which ranges should appear to be sorted by first address; published datasets are already
+     * sorted, in which case this is just the identity order.
+     */
+    private int[] getSortedOrder() {
+      boolean sorted = true;
+
+      for (int i = 1; i < size && sorted; i++) {
+        sorted = compareUnsigned(startsHigh[i - 1], startsLow[i - 1], startsHigh[i], startsLow[i]) <= 0;
+      }
+
+      final IntStream indices = IntStream.range(0, size);
+
+      if (sorted) {
+        return indices.toArray();
+      }
+
+      return indices.boxed()
+          .sorted((a, b) -> compareUnsigned(startsHigh[a], startsLow[a], startsHigh[b], startsLow[b]))
+          .mapToInt(Integer::intValue)
+          .toArray();
+    }
+
+    private long[] getStartsHigh(final int[] order) {
+      return reorder(startsHigh, order);
+    }
+
+    private long[] getStartsLow(final int[] order) {
+      return reorder(startsLow, order);
+    }
+
+    private long[] getEndsHigh(final int[] order) {
+      return reorder(endsHigh, order);
+    }
+
+    private long[] getEndsLow(final int[] order) {
+      return reorder(endsLow, order);
+    }
+
+    private int[] getAsns(final int[] order) {
+      final int[] reordered = new int[order.length];
+
+      for (int i = 0; i < order.length; i++) {
+        reordered[i] = asns[order[i]];
+      }
+
+      return reordered;
+    }
+
+    private static long[] reorder(final long[] values, final int[] order) {
+      final long[] reordered = new long[order.length];
+
+      for (int i = 0; i < order.length; i++) {
+        reordered[i] = values[order[i]];
+      }
+
+      return reordered;
+    }
+  }
 }
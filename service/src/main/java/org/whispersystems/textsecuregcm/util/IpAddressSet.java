@@ -0,0 +1,350 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.util;
+
+import com.google.common.net.InetAddresses;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An immutable set of IPv4 and IPv6 addresses and CIDR blocks, parsed from a list with one address or block per line.
+ * <p>
+ * Individual addresses are held in open-addressing hash tables of primitive values (32-bit values for IPv4 addresses
+ * and pairs of 64-bit values for IPv6 addresses), so a set of tens of thousands of addresses occupies a few hundred
+ * kilobytes and checking an IPv4 address literal doesn't allocate anything. CIDR blocks are expected to be rare and
+ * are checked one by one.
+ */
+class IpAddressSet {
+
+  // IPv4 addresses; zero marks an empty slot, so the address 0.0.0.0 is tracked separately
+  private final int[] ipv4Addresses;
+  private final boolean containsIpv4Zero;
+
+  // IPv6 addresses as interleaved high/low pairs; (0, 0) marks an empty slot, so "::" is tracked separately
+  private final long[] ipv6Addresses;
+  private final boolean containsIpv6Zero;
+
+  private final int[] ipv4BlockNetworks;
+  private final int[] ipv4BlockMasks;
+
+  private final long[] ipv6BlockNetworks;
+  private final long[] ipv6BlockMasks;
+
+  private final int size;
+
+  public static final IpAddressSet EMPTY = new IpAddressSet(new Builder());
+
+  private IpAddressSet(final Builder builder) {
+    int distinctAddresses = 0;
+
+    {
+      final int capacity = tableCapacity(builder.ipv4Count);
+
+      ipv4Addresses = new int[capacity];
+      boolean containsZero = false;
+
+      for (int i = 0; i < builder.ipv4Count; i++) {
+        final int address = builder.ipv4[i];
+
+        if (address == 0) {
+          containsZero = true;
+        } else {
+          int slot = mix(address) & (capacity - 1);
+
+          while (ipv4Addresses[slot] != 0 && ipv4Addresses[slot] != address) {
+            slot = (slot + 1) & (capacity - 1);
+          }
+
+          if (ipv4Addresses[slot] == 0) {
+            ipv4Addresses[slot] = address;
+            distinctAddresses++;
+          }
+        }
+      }
+
+      containsIpv4Zero = containsZero;
+    }
+
+    {
+      final int capacity = tableCapacity(builder.ipv6Count);
+
+      ipv6Addresses = new long[capacity * 2];
+      boolean containsZero = false;
+
+      for (int i = 0; i < builder.ipv6Count; i++) {
+        final long high = builder.ipv6[i * 2];
+        final long low = builder.ipv6[i * 2 + 1];
+
+        if (high == 0 && low == 0) {
+          containsZero = true;
+        } else {
+          int slot = mix(high, low) & (capacity - 1);
+
+          while (!isEmptyIpv6Slot(slot) &&
+              !(ipv6Addresses[slot * 2] == high && ipv6Addresses[slot * 2 + 1] == low)) {
+
+            slot = (slot + 1) & (capacity - 1);
+          }
+
+          if (isEmptyIpv6Slot(slot)) {
+            ipv6Addresses[slot * 2] = high;
+            ipv6Addresses[slot * 2 + 1] = low;
+            distinctAddresses++;
+          }
+        }
+      }
+
+      containsIpv6Zero = containsZero;
+    }
+
+    ipv4BlockNetworks = Arrays.copyOf(builder.ipv4BlockNetworks, builder.ipv4BlockCount);
+    ipv4BlockMasks = Arrays.copyOf(builder.ipv4BlockMasks, builder.ipv4BlockCount);
+    ipv6BlockNetworks = Arrays.copyOf(builder.ipv6BlockNetworks, builder.ipv6BlockCount * 2);
+    ipv6BlockMasks = Arrays.copyOf(builder.ipv6BlockMasks, builder.ipv6BlockCount * 2);
+
+    size = distinctAddresses + (containsIpv4Zero ? 1 : 0) + (containsIpv6Zero ? 1 : 0)
+        + builder.ipv4BlockCount + builder.ipv6BlockCount;
+  }
+
+  /**
+   * Parses a list of addresses and CIDR blocks with one entry per line. Blank lines and lines starting with "#" are
+   * ignored.
+   *
+   * @throws IllegalArgumentException if any line is not a valid address or CIDR block
+   */
+  public static IpAddressSet parse(final Reader reader) throws IOException {
+    final Builder builder = new Builder();
+
+    final BufferedReader bufferedReader = reader instanceof BufferedReader
+        ? (BufferedReader) reader
+        : new BufferedReader(reader);
+
+    String line;
+
+    while ((line = bufferedReader.readLine()) != null) {
+      final String entry = line.strip();
+
+      if (!entry.isEmpty() && !entry.startsWith("#")) {
+        builder.add(entry);
+      }
+    }
+
+    return new IpAddressSet(builder);
+  }
+
+  /**
+   * Checks whether the given IPv4 or IPv6 address literal is in this set. Hostnames are never resolved.
+   */
+  public boolean contains(final String address) {
+    final long ipv4Address = IpAddressUtil.parseIpv4Address(address);
+
+    if (ipv4Address >= 0) {
+      return containsIpv4((int) ipv4Address);
+    }
+
+    if (address.indexOf(':') >= 0 && InetAddresses.isInetAddress(address)) {
+      final byte[] bytes = InetAddresses.forString(address).getAddress();
+
+      if (bytes.length == 4) {
+        // IPv4-mapped IPv6 addresses come back as IPv4 addresses
+        return containsIpv4(ByteBuffer.wrap(bytes).getInt());
+      }
+
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      return containsIpv6(buffer.getLong(), buffer.getLong());
+    }
+
+    return false;
+  }
+
+  private boolean containsIpv4(final int address) {
+    if (address == 0) {
+      if (containsIpv4Zero) {
+        return true;
+      }
+    } else {
+      final int mask = ipv4Addresses.length - 1;
+
+      for (int slot = mix(address) & mask; ipv4Addresses[slot] != 0; slot = (slot + 1) & mask) {
+        if (ipv4Addresses[slot] == address) {
+          return true;
+        }
+      }
+    }
+
+    for (int i = 0; i < ipv4BlockNetworks.length; i++) {
+      if ((address & ipv4BlockMasks[i]) == ipv4BlockNetworks[i]) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private boolean containsIpv6(final long high, final long low) {
+    if (high == 0 && low == 0) {
+      if (containsIpv6Zero) {
+        return true;
+      }
+    } else {
+      final int mask = (ipv6Addresses.length / 2) - 1;
+
+      for (int slot = mix(high, low) & mask; !isEmptyIpv6Slot(slot); slot = (slot + 1) & mask) {
+        if (ipv6Addresses[slot * 2] == high && ipv6Addresses[slot * 2 + 1] == low) {
+          return true;
+        }
+      }
+    }
+
+    for (int i = 0; i < ipv6BlockNetworks.length; i += 2) {
+      if ((high & ipv6BlockMasks[i]) == ipv6BlockNetworks[i] && (low & ipv6BlockMasks[i + 1]) == ipv6BlockNetworks[i + 1]) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the number of distinct addresses plus the number of blocks in this set.
+   */
+  public int size() {
+    return size;
+  }
+
+  private boolean isEmptyIpv6Slot(final int slot) {
+    return ipv6Addresses[slot * 2] == 0 && ipv6Addresses[slot * 2 + 1] == 0;
+  }
+
+  private static int tableCapacity(final int entries) {
+    // Keep the load factor at or below 0.5 so probe sequences stay short
+    return Math.max(2, Integer.highestOneBit(Math.max(1, entries) * 2 - 1) << 1);
+  }
+
+  private static int mix(final int value) {
+    // The finalization step from MurmurHash3; addresses in a list tend to cluster, so spread the bits around
+    int h = value;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+
+    return h;
+  }
+
+  private static int mix(final long high, final long low) {
+    long h = high * 0x9e3779b97f4a7c15L + low;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+
+    return (int) h;
+  }
+
+  /**
+   * Accumulates addresses and blocks in growable primitive arrays while a set is being parsed; duplicate addresses
+   * are dropped when the hash tables are built.
+   */
+  private static class Builder {
+
+    private int[] ipv4 = new int[1024];
+    private int ipv4Count;
+
+    private long[] ipv6 = new long[64];
+    private int ipv6Count;
+
+    private int[] ipv4BlockNetworks = new int[4];
+    private int[] ipv4BlockMasks = new int[4];
+    private int ipv4BlockCount;
+
+    private long[] ipv6BlockNetworks = new long[8];
+    private long[] ipv6BlockMasks = new long[8];
+    private int ipv6BlockCount;
+
+    private void add(final String entry) {
+      final int slash = entry.indexOf('/');
+
+      final String addressString = slash >= 0 ? entry.substring(0, slash) : entry;
+      final InetAddress address = InetAddresses.forString(addressString);
+      final byte[] bytes = address.getAddress();
+
+      if (slash < 0) {
+        if (bytes.length == 4) {
+          addIpv4(ByteBuffer.wrap(bytes).getInt());
+        } else {
+          final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+          addIpv6(buffer.getLong(), buffer.getLong());
+        }
+
+        return;
+      }
+
+      final int prefixLength = Integer.parseInt(entry.substring(slash + 1));
+
+      if (prefixLength < 0 || prefixLength > bytes.length * 8) {
+        throw new IllegalArgumentException("Invalid prefix length: " + entry);
+      }
+
+      if (bytes.length == 4) {
+        final int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+        addIpv4Block(ByteBuffer.wrap(bytes).getInt() & mask, mask);
+      } else {
+        final long highMask = prefixLength == 0 ? 0 : (prefixLength >= 64 ? -1L : -1L << (64 - prefixLength));
+        final long lowMask = prefixLength <= 64 ? 0 : (prefixLength == 128 ? -1L : -1L << (128 - prefixLength));
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        addIpv6Block(buffer.getLong() & highMask, buffer.getLong() & lowMask, highMask, lowMask);
+      }
+    }
+
+    private void addIpv4(final int address) {
+      if (ipv4Count == ipv4.length) {
+        ipv4 = Arrays.copyOf(ipv4, ipv4.length * 2);
+      }
+
+      ipv4[ipv4Count++] = address;
+    }
+
+    private void addIpv6(final long high, final long low) {
+      if (ipv6Count * 2 == ipv6.length) {
+        ipv6 = Arrays.copyOf(ipv6, ipv6.length * 2);
+      }
+
+      ipv6[ipv6Count * 2] = high;
+      ipv6[ipv6Count * 2 + 1] = low;
+      ipv6Count++;
+    }
+
+    private void addIpv4Block(final int network, final int mask) {
+      if (ipv4BlockCount == ipv4BlockNetworks.length) {
+        ipv4BlockNetworks = Arrays.copyOf(ipv4BlockNetworks, ipv4BlockNetworks.length * 2);
+        ipv4BlockMasks = Arrays.copyOf(ipv4BlockMasks, ipv4BlockMasks.length * 2);
+      }
+
+      ipv4BlockNetworks[ipv4BlockCount] = network;
+      ipv4BlockMasks[ipv4BlockCount] = mask;
+      ipv4BlockCount++;
+    }
+
+    private void addIpv6Block(final long networkHigh, final long networkLow, final long maskHigh, final long maskLow) {
+      if (ipv6BlockCount * 2 == ipv6BlockNetworks.length) {
+        ipv6BlockNetworks = Arrays.copyOf(ipv6BlockNetworks, ipv6BlockNetworks.length * 2);
+        ipv6BlockMasks = Arrays.copyOf(ipv6BlockMasks, ipv6BlockMasks.length * 2);
+      }
+
+      ipv6BlockNetworks[ipv6BlockCount * 2] = networkHigh;
+      ipv6BlockNetworks[ipv6BlockCount * 2 + 1] = networkLow;
+      ipv6BlockMasks[ipv6BlockCount * 2] = maskHigh;
+      ipv6BlockMasks[ipv6BlockCount * 2 + 1] = maskLow;
+      ipv6BlockCount++;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.util;
+
+/**
+ * Tools for working with textual IP addresses on hot paths where allocating {@link java.net.InetAddress} instances
+ * would be wasteful.
+ */
+public class IpAddressUtil {
+
+  /**
+   * Parses a dotted-quad IPv4 address without allocating or resolving anything.
+   *
+   * @param address the string to parse
+   *
+   * @return the address as an unsigned 32-bit value, or -1 if the given string is not a dotted-quad IPv4 address
+   */
+  public static long parseIpv4Address(final String address) {
+    long result = 0;
+    int octet = -1;
+    int octets = 0;
+
+    for (int i = 0; i < address.length(); i++) {
+      final char c = address.charAt(i);
+
+      if (c >= '0' && c <= '9') {
+        octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+
+        if (octet > 255) {
+          return -1;
+        }
+      } else if (c == '.' && octet >= 0 && octets < 3) {
+        result = (result << 8) | octet;
+        octet = -1;
+        octets++;
+      } else {
+        return -1;
+      }
+    }
+
+    if (octet < 0 || octets != 3) {
+      return -1;
+    }
+
+    return (result << 8) | octet;
+  }
+}
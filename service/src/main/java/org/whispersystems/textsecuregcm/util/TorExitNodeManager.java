@@ -15,11 +15,9 @@ import io.micrometer.core.instrument.Timer;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Collections;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.configuration.MonitoredS3ObjectConfiguration;
@@ -33,7 +31,7 @@ public class TorExitNodeManager implements Managed {
 
   private final S3ObjectMonitor exitListMonitor;
 
-  private final AtomicReference<Set<String>> exitNodeAddresses = new AtomicReference<>(Collections.emptySet());
+  private final AtomicReference<IpAddressSet> exitNodeAddresses = new AtomicReference<>(IpAddressSet.EMPTY);
 
   private static final Timer REFRESH_TIMER = Metrics.timer(name(TorExitNodeManager.class, "refresh"));
   private static final Counter REFRESH_ERRORS = Metrics.counter(name(TorExitNodeManager.class, "refreshErrors"));
@@ -52,6 +50,8 @@ public class TorExitNodeManager implements Managed {
         scheduledExecutorService,
         configuration.getRefreshInterval(),
         this::handleExitListChanged);
+
+    Metrics.gauge(name(TorExitNodeManager.class, "exitNodes"), exitNodeAddresses, addresses -> addresses.get().size());
   }
 
   @Override
@@ -64,6 +64,10 @@ public class TorExitNodeManager implements Managed {
     exitListMonitor.stop();
   }
 
+  /**
+   * Checks whether the given IPv4 or IPv6 address literal belongs to a Tor exit node (or falls within a CIDR block of
+   * exit nodes). Equivalent representations of the same address match regardless of formatting.
+   */
   public boolean isTorExitNode(final String address) {
     return exitNodeAddresses.get().contains(address);
   }
@@ -74,8 +78,9 @@ public class TorExitNodeManager implements Managed {
 
   @VisibleForTesting
   void handleExitListChangedStream(final InputStream inputStream) {
-    try (final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-      exitNodeAddresses.set(reader.lines().collect(Collectors.toSet()));
+    try (final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+      // Parse the whole list before swapping it in so lookups never see a partially-built list
+      exitNodeAddresses.set(IpAddressSet.parse(reader));
     } catch (final Exception e) {
       REFRESH_ERRORS.increment();
       log.warn("Failed to refresh Tor exit node list", e);
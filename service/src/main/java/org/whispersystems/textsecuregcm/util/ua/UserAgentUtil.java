@@ -6,11 +6,15 @@
 package org.whispersystems.textsecuregcm.util.ua;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.vdurmont.semver4j.Semver;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.EnumMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,11 +30,35 @@ public class UserAgentUtil {
         LEGACY_PATTERNS_BY_PLATFORM.put(ClientPlatform.IOS, Pattern.compile("^Signal/([^ ]+)( (.+))?$", Pattern.CASE_INSENSITIVE));
     }
 
+    // There are only a few thousand distinct User-Agent strings in the wild, and the same string is often parsed several
+    // times in the course of handling a single request, so it's much cheaper to remember results than to re-parse
+    private static final Cache<String, Optional<UserAgent>> PARSED_USER_AGENTS = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .build();
+
     public static UserAgent parseUserAgentString(final String userAgentString) throws UnrecognizedUserAgentException {
         if (StringUtils.isBlank(userAgentString)) {
             throw new UnrecognizedUserAgentException("User-Agent string is blank");
         }
 
+        final Optional<UserAgent> maybeUserAgent;
+
+        try {
+            maybeUserAgent = PARSED_USER_AGENTS.get(userAgentString, () -> {
+                try {
+                    return Optional.ofNullable(parseUncachedUserAgentString(userAgentString));
+                } catch (final UnrecognizedUserAgentException e) {
+                    return Optional.empty();
+                }
+            });
+        } catch (final ExecutionException e) {
+            throw new UnrecognizedUserAgentException(e.getCause());
+        }
+
+        return maybeUserAgent.orElseThrow(UnrecognizedUserAgentException::new);
+    }
+
+    private static UserAgent parseUncachedUserAgentString(final String userAgentString) throws UnrecognizedUserAgentException {
         try {
             final UserAgent standardUserAgent = parseStandardUserAgentString(userAgentString);
 
@@ -47,7 +75,7 @@ public class UserAgentUtil {
             throw new UnrecognizedUserAgentException(e);
         }
 
-        throw new UnrecognizedUserAgentException();
+        return null;
     }
 
     @VisibleForTesting
@@ -70,6 +70,7 @@ public class AuthenticatedConnectListener implements WebSocketConnectListener {
 
       openWebsocketCounter.inc();
       RedisOperation.unchecked(() -> apnFallbackManager.cancel(account, device));
+      RedisOperation.unchecked(() -> messageSender.resetNotificationDebounce(account, device));
 
       context.addListener(new WebSocketSessionContext.WebSocketEventListener() {
         @Override
@@ -0,0 +1,18 @@
+-- keys: tally_key
+-- argv: from_uuid, field_1, increment_1, field_2, increment_2, ...
+
+local tallyKey = KEYS[1]
+local fromUuid = ARGV[1]
+
+-- A chunk that's retried after its tallies were recorded must not be counted twice
+if redis.call("HGET", tallyKey, "fromUuid") == fromUuid then
+    return 0
+end
+
+redis.call("HSET", tallyKey, "fromUuid", fromUuid)
+
+for i = 2, #ARGV, 2 do
+    redis.call("HINCRBY", tallyKey, ARGV[i], ARGV[i + 1])
+end
+
+return 1
@@ -0,0 +1,24 @@
+local hllKey            = KEYS[1]
+local maxCardinalityKey = KEYS[2]
+
+local target                = ARGV[1]
+local defaultMaxCardinality = tonumber(ARGV[2])
+local ttlSeconds            = tonumber(ARGV[3])
+
+local changed        = redis.call("PFADD", hllKey, target) == 1
+local cardinality    = redis.call("PFCOUNT", hllKey)
+local maxCardinality = tonumber(redis.call("GET", maxCardinalityKey)) or defaultMaxCardinality
+
+local remainingTtl = redis.call("TTL", hllKey)
+
+if remainingTtl == -1 then
+    redis.call("EXPIRE", hllKey, ttlSeconds)
+    remainingTtl = ttlSeconds
+end
+
+-- Returns whether the limit was exceeded (1) or not (0) and the number of seconds until the set of targets is reset
+if changed and cardinality > maxCardinality then
+    return { 1, remainingTtl }
+else
+    return { 0, remainingTtl }
+end
@@ -0,0 +1,14 @@
+-- keys: count_key
+-- argv: ttl_seconds
+
+local countKey   = KEYS[1]
+local ttlSeconds = tonumber(ARGV[1])
+
+-- Keep (and advance) the version rather than deleting the whole key so that a count read from the database before the
+-- keys were deleted can't be cached afterward
+redis.call("HINCRBY", countKey, "version", 1)
+redis.call("HDEL", countKey, "count")
+
+if redis.call("TTL", countKey) == -1 then
+    redis.call("EXPIRE", countKey, ttlSeconds)
+end
@@ -0,0 +1,15 @@
+-- keys: count_key
+-- argv: ttl_seconds
+
+local countKey   = KEYS[1]
+local ttlSeconds = tonumber(ARGV[1])
+
+redis.call("HINCRBY", countKey, "version", 1)
+
+if redis.call("HEXISTS", countKey, "count") == 1 and redis.call("HINCRBY", countKey, "count", -1) < 0 then
+    redis.call("HDEL", countKey, "count")
+end
+
+if redis.call("TTL", countKey) == -1 then
+    redis.call("EXPIRE", countKey, ttlSeconds)
+end
@@ -0,0 +1,20 @@
+-- keys: count_key
+-- argv: expected_version, count, ttl_seconds
+
+local countKey        = KEYS[1]
+local expectedVersion = ARGV[1]
+local count           = ARGV[2]
+local ttlSeconds      = tonumber(ARGV[3])
+
+local version = redis.call("HGET", countKey, "version") or "0"
+
+-- If keys were claimed while new keys were being stored, the number of stored keys overstates the number remaining;
+-- drop the count so it's read afresh instead
+if version == expectedVersion then
+    redis.call("HSET", countKey, "count", count)
+else
+    redis.call("HDEL", countKey, "count")
+end
+
+redis.call("HINCRBY", countKey, "version", 1)
+redis.call("EXPIRE", countKey, ttlSeconds)
@@ -0,0 +1,20 @@
+-- keys: count_key
+-- argv: expected_version, count, ttl_seconds
+
+local countKey        = KEYS[1]
+local expectedVersion = ARGV[1]
+local count           = ARGV[2]
+local ttlSeconds      = tonumber(ARGV[3])
+
+local version = redis.call("HGET", countKey, "version") or "0"
+
+-- A count read from the database is only cached if no keys were stored, claimed or deleted while it was being read and
+-- nothing else has cached a count in the meantime; otherwise it may be stale
+if version ~= expectedVersion or redis.call("HEXISTS", countKey, "count") == 1 then
+    return 0
+end
+
+redis.call("HSET", countKey, "count", count)
+redis.call("EXPIRE", countKey, ttlSeconds)
+
+return 1
@@ -0,0 +1,52 @@
+local bucketKey = KEYS[1]
+
+local bucketSize        = tonumber(ARGV[1])
+local leakRatePerMillis = tonumber(ARGV[2])
+local amount            = tonumber(ARGV[3])
+local now               = tonumber(ARGV[4])
+local ttlMillis         = tonumber(ARGV[5])
+local dryRun            = ARGV[6] == "true"
+local maxAmount         = tonumber(ARGV[7]) or amount
+
+local spaceRemaining       = bucketSize
+local lastUpdateTimeMillis = now
+
+local state = redis.call("GET", bucketKey)
+
+if state then
+    if string.sub(state, 1, 1) == "{" then
+        -- Buckets written by older servers are JSON-serialized LeakyBucket entities
+        local ok, legacyBucket = pcall(cjson.decode, state)
+
+        if ok and legacyBucket.spaceRemaining and legacyBucket.lastUpdateTimeMillis then
+            spaceRemaining       = tonumber(legacyBucket.spaceRemaining)
+            lastUpdateTimeMillis = tonumber(legacyBucket.lastUpdateTimeMillis)
+        end
+    else
+        local separator = string.find(state, ":", 1, true)
+
+        if separator then
+            spaceRemaining       = tonumber(string.sub(state, 1, separator - 1)) or bucketSize
+            lastUpdateTimeMillis = tonumber(string.sub(state, separator + 1)) or now
+        end
+    end
+end
+
+spaceRemaining = math.min(bucketSize, math.floor(spaceRemaining + ((now - lastUpdateTimeMillis) * leakRatePerMillis)))
+
+-- Returns the number of permits granted (which may exceed the requested amount, up to maxAmount, when the caller
+-- wants to lease permits for local use) and, if no permits were granted, the number of milliseconds until the
+-- requested amount will be available or -1 if the requested amount exceeds the size of the bucket
+if spaceRemaining >= amount then
+    local granted = math.max(amount, math.min(spaceRemaining, maxAmount))
+
+    if not dryRun then
+        redis.call("SET", bucketKey, string.format("%d:%d", spaceRemaining - granted, now), "PX", ttlMillis)
+    end
+
+    return { granted, 0 }
+elseif amount > bucketSize then
+    return { 0, -1 }
+else
+    return { 0, math.ceil((amount - spaceRemaining) / leakRatePerMillis) }
+end
@@ -0,0 +1,11 @@
+local membersKey = KEYS[1]
+
+local memberId   = ARGV[1]
+local now        = tonumber(ARGV[2])
+local expiration = tonumber(ARGV[3])
+
+redis.call("ZADD", membersKey, now, memberId)
+redis.call("ZREMRANGEBYSCORE", membersKey, "-inf", "(" .. (now - expiration))
+redis.call("PEXPIRE", membersKey, expiration * 2)
+
+return redis.call("ZRANGE", membersKey, 0, -1)
@@ -400,4 +400,56 @@ class DynamicConfigurationTest {
       assertThat(rateLimitChallengeConfiguration.isUnsealedSenderLimitEnforced()).isFalse();
     }
   }
+
+  @Test
+  void testParseMessagePersisterConfiguration() throws JsonProcessingException {
+    {
+      final String emptyConfigYaml = "test: true";
+      final DynamicConfiguration emptyConfig =
+          DynamicConfigurationManager.parseConfiguration(emptyConfigYaml).orElseThrow();
+
+      assertThat(emptyConfig.getMessagePersisterConfiguration().getMinConcurrency()).isEqualTo(4);
+      assertThat(emptyConfig.getMessagePersisterConfiguration().getMaxConcurrency()).isEqualTo(32);
+    }
+
+    {
+      final String messagePersisterConfig =
+          "messagePersister:\n"
+              + "  minConcurrency: 8\n"
+              + "  maxConcurrency: 64";
+
+      final DynamicMessagePersisterConfiguration config =
+          DynamicConfigurationManager.parseConfiguration(messagePersisterConfig).orElseThrow()
+              .getMessagePersisterConfiguration();
+
+      assertThat(config.getMinConcurrency()).isEqualTo(8);
+      assertThat(config.getMaxConcurrency()).isEqualTo(64);
+    }
+  }
+
+  @Test
+  void testParsePushNotificationDebounceConfiguration() throws JsonProcessingException {
+    {
+      final String emptyConfigYaml = "test: true";
+      final DynamicConfiguration emptyConfig =
+          DynamicConfigurationManager.parseConfiguration(emptyConfigYaml).orElseThrow();
+
+      assertThat(emptyConfig.getPushNotificationDebounceConfiguration().isEnabled()).isFalse();
+      assertThat(emptyConfig.getPushNotificationDebounceConfiguration().getWindow()).isEqualTo(Duration.ofSeconds(30));
+    }
+
+    {
+      final String debounceConfig =
+          "pushNotificationDebounce:\n"
+              + "  enabled: true\n"
+              + "  window: PT1M";
+
+      final DynamicPushNotificationDebounceConfiguration config =
+          DynamicConfigurationManager.parseConfiguration(debounceConfig).orElseThrow()
+              .getPushNotificationDebounceConfiguration();
+
+      assertThat(config.isEnabled()).isTrue();
+      assertThat(config.getWindow()).isEqualTo(Duration.ofMinutes(1));
+    }
+  }
 }
@@ -5,6 +5,8 @@
 
 package org.whispersystems.textsecuregcm.limits;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -58,4 +60,41 @@ public class CardinalityRateLimiterTest extends AbstractRedisClusterTest {
     }
   }
 
+  @Test
+  public void testRateLimitExceeded() throws RateLimitExceededException {
+    final CardinalityRateLimiter rateLimiter =
+        new CardinalityRateLimiter(getRedisCluster(), "test", Duration.ofDays(1), 1);
+
+    final String source = "+18005551234";
+
+    rateLimiter.validate(source, "first", rateLimiter.getDefaultMaxCardinality());
+    assertEquals(Duration.ofDays(1).toSeconds(), rateLimiter.getRemainingTtl(source));
+
+    final RateLimitExceededException exception = assertThrows(RateLimitExceededException.class,
+        () -> rateLimiter.validate(source, "second", rateLimiter.getDefaultMaxCardinality()));
+
+    assertTrue(exception.getRetryDuration().compareTo(Duration.ZERO) > 0);
+    assertTrue(exception.getRetryDuration().compareTo(Duration.ofDays(1)) <= 0);
+
+    // Repeated targets don't count against the limit
+    rateLimiter.validate(source, "first", rateLimiter.getDefaultMaxCardinality());
+  }
+
+  @Test
+  public void testIncreaseMaxCardinality() throws RateLimitExceededException {
+    final CardinalityRateLimiter rateLimiter =
+        new CardinalityRateLimiter(getRedisCluster(), "test", Duration.ofDays(1), 1);
+
+    final String source = "+18005551234";
+
+    rateLimiter.validate(source, "first", rateLimiter.getDefaultMaxCardinality());
+    assertThrows(RateLimitExceededException.class,
+        () -> rateLimiter.validate(source, "second", rateLimiter.getDefaultMaxCardinality()));
+
+    rateLimiter.increaseMaxCardinality(source, rateLimiter.getDefaultMaxCardinality(), 2);
+
+    rateLimiter.validate(source, "third", rateLimiter.getDefaultMaxCardinality());
+    assertThrows(RateLimitExceededException.class,
+        () -> rateLimiter.validate(source, "fourth", rateLimiter.getDefaultMaxCardinality()));
+  }
 }
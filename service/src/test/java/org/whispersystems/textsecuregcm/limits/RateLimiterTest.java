@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.limits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Clock;
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.controllers.RateLimitExceededException;
+import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
+
+public class RateLimiterTest extends AbstractRedisClusterTest {
+
+  private Clock clock;
+  private RateLimiter rateLimiter;
+
+  private static final long CURRENT_TIME_MILLIS = 1_600_000_000_000L;
+
+  private static final int BUCKET_SIZE = 2;
+  private static final double LEAK_RATE_PER_MINUTE = 1.0;
+
+  private static final String KEY = "+18005551234";
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+
+    clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(CURRENT_TIME_MILLIS);
+
+    rateLimiter = new RateLimiter(getRedisCluster(), "test", BUCKET_SIZE, LEAK_RATE_PER_MINUTE, 0, Duration.ZERO, clock);
+  }
+
+  @Test
+  public void testValidate() throws RateLimitExceededException {
+    rateLimiter.validate(KEY);
+    rateLimiter.validate(KEY);
+
+    final RateLimitExceededException exception = assertThrows(RateLimitExceededException.class,
+        () -> rateLimiter.validate(KEY));
+
+    assertEquals(Duration.ofMinutes(1), exception.getRetryDuration());
+
+    // Other keys have their own buckets
+    rateLimiter.validate(KEY + "0");
+  }
+
+  @Test
+  public void testLeak() throws RateLimitExceededException {
+    rateLimiter.validate(KEY, 2);
+    assertThrows(RateLimitExceededException.class, () -> rateLimiter.validate(KEY));
+
+    when(clock.millis()).thenReturn(CURRENT_TIME_MILLIS + Duration.ofSeconds(30).toMillis());
+    assertThrows(RateLimitExceededException.class, () -> rateLimiter.validate(KEY));
+
+    when(clock.millis()).thenReturn(CURRENT_TIME_MILLIS + Duration.ofMinutes(1).toMillis());
+    rateLimiter.validate(KEY);
+    assertThrows(RateLimitExceededException.class, () -> rateLimiter.validate(KEY));
+  }
+
+  @Test
+  public void testHasAvailablePermits() throws RateLimitExceededException {
+    assertTrue(rateLimiter.hasAvailablePermits(KEY, 2));
+    assertTrue(rateLimiter.hasAvailablePermits(KEY, 2));
+
+    rateLimiter.validate(KEY);
+
+    assertTrue(rateLimiter.hasAvailablePermits(KEY, 1));
+    assertFalse(rateLimiter.hasAvailablePermits(KEY, 2));
+  }
+
+  @Test
+  public void testExceedsBucketSize() {
+    assertThrows(IllegalArgumentException.class, () -> rateLimiter.validate(KEY, BUCKET_SIZE + 1));
+  }
+
+  @Test
+  public void testClear() throws RateLimitExceededException {
+    rateLimiter.validate(KEY, 2);
+    rateLimiter.clear(KEY);
+    rateLimiter.validate(KEY, 2);
+  }
+
+  @Test
+  public void testLegacyBucket() throws Exception {
+    final String legacyBucket = new ObjectMapper().writeValueAsString(new LegacyLeakyBucket(BUCKET_SIZE,
+        LEAK_RATE_PER_MINUTE / 60_000, 1, CURRENT_TIME_MILLIS));
+
+    getRedisCluster().useCluster(connection -> connection.sync().set(rateLimiter.getBucketName(KEY), legacyBucket));
+
+    rateLimiter.validate(KEY);
+    assertThrows(RateLimitExceededException.class, () -> rateLimiter.validate(KEY));
+
+    // The bucket should have been rewritten in the compact format
+    assertEquals("0:" + CURRENT_TIME_MILLIS,
+        getRedisCluster().withCluster(connection -> connection.sync().get(rateLimiter.getBucketName(KEY))));
+  }
+
+  @Test
+  public void testLocalLease() throws RateLimitExceededException {
+    final RateLimiter leasingRateLimiter = buildLeasingRateLimiter();
+
+    // The first request for a key shouldn't lease anything
+    leasingRateLimiter.validate(KEY);
+    assertEquals("9:" + CURRENT_TIME_MILLIS, getBucketState(leasingRateLimiter));
+
+    // ...but the second should lease a batch of permits, and subsequent requests should be served locally
+    leasingRateLimiter.validate(KEY);
+    assertEquals("5:" + CURRENT_TIME_MILLIS, getBucketState(leasingRateLimiter));
+
+    leasingRateLimiter.validate(KEY);
+    leasingRateLimiter.validate(KEY, 2);
+    assertTrue(leasingRateLimiter.hasAvailablePermits(KEY, 1));
+    assertEquals("5:" + CURRENT_TIME_MILLIS, getBucketState(leasingRateLimiter));
+
+    // Once the lease runs out, we should take another from the shared bucket
+    leasingRateLimiter.validate(KEY);
+    leasingRateLimiter.validate(KEY);
+    assertEquals("1:" + CURRENT_TIME_MILLIS, getBucketState(leasingRateLimiter));
+  }
+
+  @Test
+  public void testLocalLeaseExpires() throws RateLimitExceededException {
+    final RateLimiter leasingRateLimiter = buildLeasingRateLimiter();
+
+    leasingRateLimiter.validate(KEY);
+    leasingRateLimiter.validate(KEY);
+    assertEquals("5:" + CURRENT_TIME_MILLIS, getBucketState(leasingRateLimiter));
+
+    final long later = CURRENT_TIME_MILLIS + 1_500;
+    when(clock.millis()).thenReturn(later);
+
+    leasingRateLimiter.validate(KEY);
+    assertEquals("1:" + later, getBucketState(leasingRateLimiter));
+  }
+
+  @Test
+  public void testLocalLeaseNeverExceedsBucket() throws RateLimitExceededException {
+    final RateLimiter leasingRateLimiter = buildLeasingRateLimiter();
+
+    for (int i = 0; i < 10; i++) {
+      leasingRateLimiter.validate(KEY);
+    }
+
+    assertThrows(RateLimitExceededException.class, () -> leasingRateLimiter.validate(KEY));
+    assertFalse(leasingRateLimiter.hasAvailablePermits(KEY, 1));
+  }
+
+  @Test
+  public void testClearLocalLease() throws RateLimitExceededException {
+    final RateLimiter leasingRateLimiter = buildLeasingRateLimiter();
+
+    leasingRateLimiter.validate(KEY);
+    leasingRateLimiter.validate(KEY);
+    leasingRateLimiter.clear(KEY);
+
+    assertNull(getBucketState(leasingRateLimiter));
+
+    leasingRateLimiter.validate(KEY);
+    assertEquals("9:" + CURRENT_TIME_MILLIS, getBucketState(leasingRateLimiter));
+  }
+
+  private RateLimiter buildLeasingRateLimiter() {
+    return new RateLimiter(getRedisCluster(), "leasing", 10, LEAK_RATE_PER_MINUTE, 4, Duration.ofSeconds(1), clock);
+  }
+
+  private String getBucketState(final RateLimiter rateLimiter) {
+    return getRedisCluster().withCluster(connection -> connection.sync().get(rateLimiter.getBucketName(KEY)));
+  }
+
+  @SuppressWarnings("unused")
+  private static class LegacyLeakyBucket {
+
+    public final int bucketSize;
+    public final double leakRatePerMillis;
+    public final int spaceRemaining;
+    public final long lastUpdateTimeMillis;
+
+    private LegacyLeakyBucket(final int bucketSize, final double leakRatePerMillis, final int spaceRemaining,
+        final long lastUpdateTimeMillis) {
+
+      this.bucketSize = bucketSize;
+      this.leakRatePerMillis = leakRatePerMillis;
+      this.spaceRemaining = spaceRemaining;
+      this.lastUpdateTimeMillis = lastUpdateTimeMillis;
+    }
+  }
+}
@@ -115,4 +115,17 @@ public class UnsealedSenderRateLimiterTest extends AbstractRedisClusterTest {
     when(fourthDestination.getUuid()).thenReturn(UUID.randomUUID());
     unsealedSenderRateLimiter.validate(sender, fourthDestination);
   }
+
+  @Test
+  public void legacyMaxCardinality() throws RateLimitExceededException {
+    unsealedSenderRateLimiter.validate(sender, firstDestination);
+
+    assertThrows(RateLimitExceededException.class, () -> unsealedSenderRateLimiter.validate(sender, secondDestination));
+
+    getRedisCluster().useCluster(connection ->
+        connection.sync().set("max_unsealed_sender_cardinality::" + sender.getUuid(), "2"));
+
+    unsealedSenderRateLimiter.validate(sender, firstDestination);
+    unsealedSenderRateLimiter.validate(sender, secondDestination);
+  }
 }
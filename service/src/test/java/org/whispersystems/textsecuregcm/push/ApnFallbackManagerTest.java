@@ -12,14 +12,17 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
 import org.whispersystems.textsecuregcm.redis.RedisException;
+import org.whispersystems.textsecuregcm.redis.SlotRangeScheduler;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
 import org.whispersystems.textsecuregcm.util.Pair;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -34,6 +37,7 @@ public class ApnFallbackManagerTest extends AbstractRedisClusterTest {
 
     private APNSender apnSender;
 
+    private SlotRangeScheduler slotRangeScheduler;
     private ApnFallbackManager apnFallbackManager;
 
     private static final UUID   ACCOUNT_UUID   = UUID.randomUUID();
@@ -61,7 +65,8 @@ public class ApnFallbackManagerTest extends AbstractRedisClusterTest {
 
         apnSender = mock(APNSender.class);
 
-        apnFallbackManager = new ApnFallbackManager(getRedisCluster(), apnSender, accountsManager);
+        slotRangeScheduler = new SlotRangeScheduler("test", getRedisCluster(), mock(ScheduledExecutorService.class), 1, Duration.ofSeconds(5), Duration.ofSeconds(30));
+        apnFallbackManager = new ApnFallbackManager(getRedisCluster(), apnSender, accountsManager, slotRangeScheduler);
     }
 
     @Test
@@ -86,14 +91,13 @@ public class ApnFallbackManagerTest extends AbstractRedisClusterTest {
 
     @Test
     public void testProcessNextSlot() throws RedisException {
-        final ApnFallbackManager.NotificationWorker worker = apnFallbackManager.new NotificationWorker();
+        final ApnFallbackManager.NotificationWorker worker = apnFallbackManager.new NotificationWorker(0);
 
         apnFallbackManager.schedule(account, device, System.currentTimeMillis() - 30_000);
 
         final int slot = SlotHash.getSlot(apnFallbackManager.getEndpointKey(account, device));
-        final int previousSlot = (slot + SlotHash.SLOT_COUNT - 1) % SlotHash.SLOT_COUNT;
 
-        getRedisCluster().withCluster(connection -> connection.sync().set(ApnFallbackManager.NEXT_SLOT_TO_PERSIST_KEY, String.valueOf(previousSlot)));
+        slotRangeScheduler.setNextSlot(slot);
 
         assertEquals(1, worker.processNextSlot());
 
@@ -106,6 +110,8 @@ public class ApnFallbackManagerTest extends AbstractRedisClusterTest {
         assertEquals(ACCOUNT_NUMBER, message.getNumber());
         assertEquals(DEVICE_ID, message.getDeviceId());
 
+        slotRangeScheduler.setNextSlot(slot);
+
         assertEquals(0, worker.processNextSlot());
     }
 }
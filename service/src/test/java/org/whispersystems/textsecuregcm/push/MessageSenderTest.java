@@ -35,6 +35,7 @@ public class MessageSenderTest {
     private MessagesManager       messagesManager;
     private GCMSender             gcmSender;
     private APNSender             apnSender;
+    private PushNotificationDebouncer pushNotificationDebouncer;
     private MessageSender         messageSender;
 
     private static final UUID ACCOUNT_UUID = UUID.randomUUID();
@@ -51,15 +52,18 @@ public class MessageSenderTest {
         messagesManager       = mock(MessagesManager.class);
         gcmSender             = mock(GCMSender.class);
         apnSender             = mock(APNSender.class);
+        pushNotificationDebouncer = mock(PushNotificationDebouncer.class);
         messageSender         = new MessageSender(mock(ApnFallbackManager.class),
                                                   clientPresenceManager,
                                                   messagesManager,
                                                   gcmSender,
                                                   apnSender,
-                                                  mock(PushLatencyManager.class));
+                                                  mock(PushLatencyManager.class),
+                                                  pushNotificationDebouncer);
 
         when(account.getUuid()).thenReturn(ACCOUNT_UUID);
         when(device.getId()).thenReturn(DEVICE_ID);
+        when(pushNotificationDebouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID)).thenReturn(true);
     }
 
     @Test
@@ -114,6 +118,19 @@ public class MessageSenderTest {
         verifyZeroInteractions(apnSender);
     }
 
+    @Test
+    public void testSendMessageGcmClientNotPresentDebounced() throws Exception {
+        when(clientPresenceManager.isPresent(ACCOUNT_UUID, DEVICE_ID)).thenReturn(false);
+        when(device.getGcmId()).thenReturn("gcm-id");
+        when(pushNotificationDebouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID)).thenReturn(false);
+
+        messageSender.sendMessage(account, device, message, false);
+
+        verify(messagesManager).insert(ACCOUNT_UUID, DEVICE_ID, message);
+        verifyZeroInteractions(gcmSender);
+        verifyZeroInteractions(apnSender);
+    }
+
     @Test
     public void testSendMessageApnClientNotPresent() throws Exception {
         when(clientPresenceManager.isPresent(ACCOUNT_UUID, DEVICE_ID)).thenReturn(false);
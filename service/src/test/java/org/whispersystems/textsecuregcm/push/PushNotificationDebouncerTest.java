@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.push;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicPushNotificationDebounceConfiguration;
+import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
+import org.whispersystems.textsecuregcm.storage.DynamicConfigurationManager;
+
+public class PushNotificationDebouncerTest extends AbstractRedisClusterTest {
+
+    private DynamicPushNotificationDebounceConfiguration debounceConfiguration;
+    private PushNotificationDebouncer                    debouncer;
+
+    private static final UUID ACCOUNT_UUID = UUID.randomUUID();
+    private static final long DEVICE_ID    = 1L;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        debounceConfiguration = new DynamicPushNotificationDebounceConfiguration();
+        debounceConfiguration.setEnabled(true);
+
+        debouncer = new PushNotificationDebouncer(getRedisCluster(), mockConfigurationManager());
+    }
+
+    @Test
+    public void testSuppressDuplicates() {
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+        assertFalse(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID + 1));
+    }
+
+    @Test
+    public void testSuppressAcrossServers() {
+        final PushNotificationDebouncer otherDebouncer = new PushNotificationDebouncer(getRedisCluster(), mockConfigurationManager());
+
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+        assertFalse(otherDebouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    }
+
+    @Test
+    public void testClear() {
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+
+        debouncer.clear(ACCOUNT_UUID, DEVICE_ID);
+
+        // The deletion happens asynchronously; make sure it has landed before checking again
+        getRedisCluster().useCluster(connection -> connection.sync().ping());
+        assertEquals(0L, (long) getRedisCluster().withCluster(connection ->
+            connection.sync().exists(PushNotificationDebouncer.getDebounceKey(ACCOUNT_UUID, DEVICE_ID))));
+
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    }
+
+    @Test
+    public void testWindowExpires() throws InterruptedException {
+        debounceConfiguration.setWindow(Duration.ofMillis(50));
+
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+        assertFalse(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+
+        Thread.sleep(100);
+
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    }
+
+    @Test
+    public void testDisabled() {
+        debounceConfiguration.setEnabled(false);
+
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+        assertTrue(debouncer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    }
+
+    private DynamicConfigurationManager mockConfigurationManager() {
+        final DynamicConfigurationManager dynamicConfigurationManager = mock(DynamicConfigurationManager.class);
+        final DynamicConfiguration        dynamicConfiguration        = mock(DynamicConfiguration.class);
+
+        when(dynamicConfigurationManager.getConfiguration()).thenReturn(dynamicConfiguration);
+        when(dynamicConfiguration.getPushNotificationDebounceConfiguration()).thenReturn(debounceConfiguration);
+
+        return dynamicConfigurationManager;
+    }
+}
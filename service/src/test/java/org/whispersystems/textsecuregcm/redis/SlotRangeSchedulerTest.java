@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.lettuce.core.cluster.SlotHash;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.OptionalInt;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SlotRangeSchedulerTest extends AbstractRedisClusterTest {
+
+    private Clock clock;
+
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(5);
+    private static final Duration MEMBER_EXPIRATION  = Duration.ofSeconds(30);
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(System.currentTimeMillis());
+    }
+
+    @Test
+    public void testSingleMemberOwnsAllSlots() throws Exception {
+        final SlotRangeScheduler scheduler = buildScheduler(4);
+        scheduler.heartbeat();
+
+        int ownedSlots = 0;
+
+        for (int lane = 0; lane < scheduler.getLaneCount(); lane++) {
+            final SlotRangeScheduler.SlotRange range = scheduler.getRange(lane);
+            ownedSlots += range.end - range.start;
+
+            if (lane > 0) {
+                assertEquals(scheduler.getRange(lane - 1).end, range.start);
+            }
+        }
+
+        assertEquals(SlotHash.SLOT_COUNT, ownedSlots);
+    }
+
+    @Test
+    public void testNextSlotWrapsWithinLane() throws Exception {
+        final SlotRangeScheduler scheduler = buildScheduler(4);
+        final SlotRangeScheduler.SlotRange range = scheduler.getRange(1);
+
+        scheduler.setNextSlot(range.end - 1);
+
+        assertEquals(OptionalInt.of(range.end - 1), scheduler.nextSlot(1));
+        assertEquals(OptionalInt.of(range.start), scheduler.nextSlot(1));
+        assertEquals(OptionalInt.of(range.start + 1), scheduler.nextSlot(1));
+    }
+
+    @Test
+    public void testRebalance() throws Exception {
+        final SlotRangeScheduler first  = buildScheduler(2);
+        final SlotRangeScheduler second = buildScheduler(2);
+
+        first.heartbeat();
+        second.heartbeat();
+        first.heartbeat();
+
+        final boolean firstIsLower = first.getMemberId().compareTo(second.getMemberId()) < 0;
+        final SlotRangeScheduler lower = firstIsLower ? first : second;
+        final SlotRangeScheduler upper = firstIsLower ? second : first;
+
+        assertEquals(0, lower.getRange(0).start);
+        assertEquals(SlotHash.SLOT_COUNT / 2, lower.getRange(1).end);
+        assertEquals(SlotHash.SLOT_COUNT / 2, upper.getRange(0).start);
+        assertEquals(SlotHash.SLOT_COUNT, upper.getRange(1).end);
+
+        // Let the upper member's heartbeat lapse; the lower member should absorb its slots.
+        when(clock.millis()).thenReturn(System.currentTimeMillis() + MEMBER_EXPIRATION.toMillis() * 2);
+        lower.heartbeat();
+
+        assertEquals(0, lower.getRange(0).start);
+        assertEquals(SlotHash.SLOT_COUNT, lower.getRange(1).end);
+    }
+
+    @Test
+    public void testStopLeavesFleet() throws Exception {
+        final SlotRangeScheduler first  = buildScheduler(1);
+        final SlotRangeScheduler second = buildScheduler(1);
+
+        first.heartbeat();
+        second.heartbeat();
+
+        second.stop();
+        first.heartbeat();
+
+        assertEquals(0, first.getRange(0).start);
+        assertEquals(SlotHash.SLOT_COUNT, first.getRange(0).end);
+        assertFalse(getRedisCluster().withCluster(connection -> connection.sync().zrange(first.getMembersKey(), 0, -1))
+            .contains(second.getMemberId()));
+    }
+
+    @Test
+    public void testStartSurvivesHeartbeatFailure() throws Exception {
+        final ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+        final SlotRangeScheduler scheduler = new SlotRangeScheduler("test", getRedisCluster(), scheduledExecutorService, 1,
+            HEARTBEAT_INTERVAL, MEMBER_EXPIRATION, clock);
+
+        when(clock.millis()).thenThrow(new RuntimeException("OH NO"));
+
+        scheduler.start();
+
+        // The scheduled heartbeat still gets a chance to recover, and we keep our provisional assignment until then
+        verify(scheduledExecutorService).scheduleWithFixedDelay(any(Runnable.class), eq(HEARTBEAT_INTERVAL.toMillis()),
+            eq(HEARTBEAT_INTERVAL.toMillis()), eq(TimeUnit.MILLISECONDS));
+
+        assertEquals(0, scheduler.getRange(0).start);
+        assertEquals(SlotHash.SLOT_COUNT, scheduler.getRange(0).end);
+    }
+
+    private SlotRangeScheduler buildScheduler(final int laneCount) throws Exception {
+        return new SlotRangeScheduler("test", getRedisCluster(), mock(ScheduledExecutorService.class), laneCount,
+            HEARTBEAT_INTERVAL, MEMBER_EXPIRATION, clock);
+    }
+}
@@ -17,14 +17,25 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.whispersystems.textsecuregcm.storage.Account;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(JUnitParamsRunner.class)
@@ -34,7 +45,7 @@ public class DirectoryQueueTest {
     @Parameters(method = "argumentsForTestRefreshRegisteredUser")
     public void testRefreshRegisteredUser(final boolean accountEnabled, final boolean accountDiscoverableByPhoneNumber, final String expectedAction) {
         final AmazonSQS      sqs            = mock(AmazonSQS.class);
-        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqs);
+        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqs, mock(ScheduledExecutorService.class), MoreExecutors.newDirectExecutorService());
 
         final Account account = mock(Account.class);
         when(account.getNumber()).thenReturn("+18005556543");
@@ -43,6 +54,7 @@ public class DirectoryQueueTest {
         when(account.isDiscoverableByPhoneNumber()).thenReturn(accountDiscoverableByPhoneNumber);
 
         directoryQueue.refreshRegisteredUser(account);
+        directoryQueue.flush();
 
         final ArgumentCaptor<SendMessageBatchRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
         verify(sqs).sendMessageBatch(requestCaptor.capture());
@@ -56,7 +68,7 @@ public class DirectoryQueueTest {
     @Test
     public void testRefreshBatch() {
         final AmazonSQS sqs = mock(AmazonSQS.class);
-        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqs);
+        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqs, mock(ScheduledExecutorService.class), MoreExecutors.newDirectExecutorService());
 
         final Account discoverableAccount = mock(Account.class);
         when(discoverableAccount.getNumber()).thenReturn("+18005556543");
@@ -71,6 +83,7 @@ public class DirectoryQueueTest {
         when(undiscoverableAccount.isDiscoverableByPhoneNumber()).thenReturn(false);
 
         directoryQueue.refreshRegisteredUsers(List.of(discoverableAccount, undiscoverableAccount));
+        directoryQueue.flush();
 
         final ArgumentCaptor<SendMessageBatchRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
         verify(sqs).sendMessageBatch(requestCaptor.capture());
@@ -91,7 +104,7 @@ public class DirectoryQueueTest {
     @Test
     public void testSendMessageMultipleQueues() {
         final AmazonSQS      sqs            = mock(AmazonSQS.class);
-        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://first", "sqs://second"), sqs);
+        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://first", "sqs://second"), sqs, mock(ScheduledExecutorService.class), MoreExecutors.newDirectExecutorService());
 
         final Account account = mock(Account.class);
         when(account.getNumber()).thenReturn("+18005556543");
@@ -100,6 +113,7 @@ public class DirectoryQueueTest {
         when(account.isDiscoverableByPhoneNumber()).thenReturn(true);
 
         directoryQueue.refreshRegisteredUser(account);
+        directoryQueue.flush();
 
         final ArgumentCaptor<SendMessageBatchRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
         verify(sqs, times(2)).sendMessageBatch(requestCaptor.capture());
@@ -112,6 +126,106 @@ public class DirectoryQueueTest {
         }
     }
 
+    @Test
+    public void testCoalesceUpdates() {
+        final AmazonSQS      sqs            = mock(AmazonSQS.class);
+        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqs, mock(ScheduledExecutorService.class), MoreExecutors.newDirectExecutorService());
+
+        final Account account = mock(Account.class);
+        when(account.getNumber()).thenReturn("+18005556543");
+        when(account.getUuid()).thenReturn(UUID.randomUUID());
+        when(account.isEnabled()).thenReturn(true);
+        when(account.isDiscoverableByPhoneNumber()).thenReturn(true);
+
+        directoryQueue.refreshRegisteredUser(account);
+        directoryQueue.refreshRegisteredUser(account);
+        directoryQueue.deleteAccount(account);
+
+        verify(sqs, never()).sendMessageBatch(any(SendMessageBatchRequest.class));
+
+        directoryQueue.flush();
+
+        final ArgumentCaptor<SendMessageBatchRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqs).sendMessageBatch(requestCaptor.capture());
+
+        assertEquals(1, requestCaptor.getValue().getEntries().size());
+
+        final Map<String, MessageAttributeValue> messageAttributes = requestCaptor.getValue().getEntries().get(0).getMessageAttributes();
+        assertEquals(new MessageAttributeValue().withDataType("String").withStringValue("delete"), messageAttributes.get("action"));
+
+        // Nothing is left to send after a flush
+        directoryQueue.flush();
+        verifyNoMoreInteractions(sqs);
+    }
+
+    @Test
+    public void testFullBatches() {
+        final AmazonSQS      sqs            = mock(AmazonSQS.class);
+        final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://first", "sqs://second"), sqs, mock(ScheduledExecutorService.class), MoreExecutors.newDirectExecutorService());
+
+        final List<Account> accounts = new ArrayList<>();
+
+        for (int i = 0; i < 25; i++) {
+            final Account account = mock(Account.class);
+            when(account.getNumber()).thenReturn("+1800555" + String.format("%04d", i));
+            when(account.getUuid()).thenReturn(UUID.randomUUID());
+
+            accounts.add(account);
+        }
+
+        directoryQueue.deleteAccounts(accounts);
+        directoryQueue.flush();
+
+        final ArgumentCaptor<SendMessageBatchRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqs, times(6)).sendMessageBatch(requestCaptor.capture());
+
+        for (final String queueUrl : List.of("sqs://first", "sqs://second")) {
+            final List<Integer> batchSizes = requestCaptor.getAllValues().stream()
+                .filter(request -> request.getQueueUrl().equals(queueUrl))
+                .map(request -> request.getEntries().size())
+                .sorted()
+                .collect(Collectors.toList());
+
+            assertEquals(List.of(5, 10, 10), batchSizes);
+        }
+    }
+
+    @Test
+    public void testStart() {
+        final ScheduledExecutorService flushExecutor  = mock(ScheduledExecutorService.class);
+        final DirectoryQueue           directoryQueue = new DirectoryQueue(List.of("sqs://test"), mock(AmazonSQS.class), flushExecutor, MoreExecutors.newDirectExecutorService());
+
+        directoryQueue.start();
+
+        verify(flushExecutor).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPublishAfterStop() throws InterruptedException {
+        final AmazonSQS                sqs            = mock(AmazonSQS.class);
+        final ScheduledExecutorService flushExecutor  = Executors.newSingleThreadScheduledExecutor();
+        final DirectoryQueue           directoryQueue = new DirectoryQueue(List.of("sqs://first", "sqs://second"), sqs, flushExecutor, MoreExecutors.newDirectExecutorService());
+
+        final Account account = mock(Account.class);
+        when(account.getNumber()).thenReturn("+18005556543");
+        when(account.getUuid()).thenReturn(UUID.randomUUID());
+
+        directoryQueue.stop();
+        directoryQueue.deleteAccount(account);
+
+        // Updates made after the final flush are published right away rather than waiting for a flush that won't come
+        final ArgumentCaptor<SendMessageBatchRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqs, times(2)).sendMessageBatch(requestCaptor.capture());
+
+        for (final SendMessageBatchRequest request : requestCaptor.getAllValues()) {
+            assertEquals(1, request.getEntries().size());
+            assertEquals("delete", request.getEntries().get(0).getMessageAttributes().get("action").getStringValue());
+        }
+
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
     @SuppressWarnings("unused")
     private Object argumentsForTestRefreshRegisteredUser() {
         return new Object[] {
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class AbusiveHostRuleMatcherTest {
+
+  @Test
+  void testGetRulesFor() {
+    final AbusiveHostRuleMatcher matcher = new AbusiveHostRuleMatcher(List.of(
+        rule("0.0.0.0/0"),
+        rule("192.168.0.0/16"),
+        rule("192.168.1.0/24"),
+        rule("192.168.1.1"),
+        rule("10.1.2.3/8"),
+        rule("2001:db8::/32"),
+        rule("2001:db8::1")));
+
+    assertEquals(7, matcher.size());
+
+    assertEquals(List.of("0.0.0.0/0", "192.168.0.0/16", "192.168.1.0/24", "192.168.1.1"), hosts(matcher.getRulesFor("192.168.1.1")));
+    assertEquals(List.of("0.0.0.0/0", "192.168.0.0/16", "192.168.1.0/24"), hosts(matcher.getRulesFor("192.168.1.2")));
+    assertEquals(List.of("0.0.0.0/0", "192.168.0.0/16"), hosts(matcher.getRulesFor("192.168.2.1")));
+    assertEquals(List.of("0.0.0.0/0", "10.1.2.3/8"), hosts(matcher.getRulesFor("10.200.0.1")));
+    assertEquals(List.of("0.0.0.0/0"), hosts(matcher.getRulesFor("172.17.0.1")));
+
+    assertEquals(List.of("2001:db8::/32", "2001:db8::1"), hosts(matcher.getRulesFor("2001:0db8:0:0:0:0:0:1")));
+    assertEquals(List.of("2001:db8::/32"), hosts(matcher.getRulesFor("2001:db8:ffff::1")));
+    assertTrue(matcher.getRulesFor("2001:db9::1").isEmpty());
+
+    assertTrue(matcher.getRulesFor("not-an-address.example.com").isEmpty());
+    assertTrue(matcher.getRulesFor("").isEmpty());
+  }
+
+  @Test
+  void testWithHostRule() {
+    final AbusiveHostRuleMatcher matcher = new AbusiveHostRuleMatcher(List.of(
+        rule("192.168.1.0/24"),
+        rule("192.168.1.1")));
+
+    final AbusiveHostRuleMatcher updatedMatcher = matcher.withHostRule(rule("192.168.1.2"));
+
+    assertEquals(3, updatedMatcher.size());
+    assertEquals(List.of("192.168.1.0/24", "192.168.1.2"), hosts(updatedMatcher.getRulesFor("192.168.1.2")));
+    assertEquals(List.of("192.168.1.0/24", "192.168.1.1"), hosts(updatedMatcher.getRulesFor("192.168.1.1")));
+
+    assertEquals(2, matcher.size());
+    assertEquals(List.of("192.168.1.0/24"), hosts(matcher.getRulesFor("192.168.1.2")));
+
+    assertSame(updatedMatcher, updatedMatcher.withHostRule(rule("192.168.1.2")));
+    assertThrows(IllegalArgumentException.class, () -> matcher.withHostRule(rule("192.168.2.0/24")));
+  }
+
+  @Test
+  void testEmpty() {
+    assertEquals(0, AbusiveHostRuleMatcher.EMPTY.size());
+    assertTrue(AbusiveHostRuleMatcher.EMPTY.getRulesFor("192.168.1.1").isEmpty());
+    assertTrue(AbusiveHostRuleMatcher.EMPTY.getRulesFor("::1").isEmpty());
+  }
+
+  @Test
+  void testInvalidRule() {
+    assertThrows(IllegalArgumentException.class, () -> new AbusiveHostRuleMatcher(List.of(rule("192.168.1.0/33"))));
+    assertThrows(IllegalArgumentException.class, () -> new AbusiveHostRuleMatcher(List.of(rule("nonsense"))));
+  }
+
+  private static AbusiveHostRule rule(final String host) {
+    return new AbusiveHostRule(host, true, Collections.emptyList());
+  }
+
+  private static List<String> hosts(final List<AbusiveHostRule> rules) {
+    return rules.stream().map(AbusiveHostRule::getHost).collect(Collectors.toList());
+  }
+}
@@ -5,6 +5,7 @@
 
 package org.whispersystems.textsecuregcm.storage;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Before;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
@@ -56,7 +57,8 @@ public class AccountDatabaseCrawlerIntegrationTest extends AbstractRedisClusterT
         .thenReturn(Collections.emptyList());
 
     final AccountDatabaseCrawlerCache crawlerCache = new AccountDatabaseCrawlerCache(getRedisCluster());
-    accountDatabaseCrawler = new AccountDatabaseCrawler(accountsManager, crawlerCache, List.of(listener), CHUNK_SIZE, CHUNK_INTERVAL_MS);
+    accountDatabaseCrawler = new AccountDatabaseCrawler(accountsManager, crawlerCache, List.of(listener), CHUNK_SIZE, CHUNK_INTERVAL_MS,
+        MoreExecutors.newDirectExecutorService());
   }
 
   @Test
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+class DynamoDbBatchWriterTest {
+
+  private DynamoDbAsyncClient dynamoDbAsyncClient;
+  private ScheduledExecutorService retryExecutor;
+  private DynamoDbBatchWriter batchWriter;
+
+  private static final String TABLE_NAME = "test";
+  private static final int MAX_ATTEMPTS = 3;
+
+  @BeforeEach
+  void setUp() {
+    dynamoDbAsyncClient = mock(DynamoDbAsyncClient.class);
+    retryExecutor = Executors.newSingleThreadScheduledExecutor();
+    batchWriter = new DynamoDbBatchWriter("test", dynamoDbAsyncClient, retryExecutor, 1, 4, MAX_ATTEMPTS, Duration.ofMillis(1),
+        Duration.ofMillis(5));
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    retryExecutor.shutdown();
+    retryExecutor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void testWriteItemsInBatches() {
+    when(dynamoDbAsyncClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build()));
+
+    batchWriter.writeItems(TABLE_NAME, generateItems(60)).join();
+
+    final ArgumentCaptor<BatchWriteItemRequest> requestCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+    verify(dynamoDbAsyncClient, times(3)).batchWriteItem(requestCaptor.capture());
+
+    assertEquals(List.of(25, 25, 10), requestCaptor.getAllValues().stream()
+        .map(request -> request.requestItems().get(TABLE_NAME).size())
+        .collect(Collectors.toList()));
+
+    assertEquals(0, batchWriter.getInFlightBatches());
+  }
+
+  @Test
+  void testRetryUnprocessedItems() {
+    final List<WriteRequest> items = generateItems(10);
+
+    when(dynamoDbAsyncClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(BatchWriteItemResponse.builder()
+            .unprocessedItems(Map.of(TABLE_NAME, items.subList(0, 4)))
+            .build()))
+        .thenReturn(CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build()));
+
+    batchWriter.writeItems(TABLE_NAME, items).join();
+
+    final ArgumentCaptor<BatchWriteItemRequest> requestCaptor = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+    verify(dynamoDbAsyncClient, times(2)).batchWriteItem(requestCaptor.capture());
+
+    assertEquals(items.subList(0, 4), requestCaptor.getAllValues().get(1).requestItems().get(TABLE_NAME));
+    assertTrue(batchWriter.getInFlightLimit() < 4);
+  }
+
+  @Test
+  void testRetryThrottledBatch() {
+    when(dynamoDbAsyncClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+        .thenReturn(CompletableFuture.failedFuture(ProvisionedThroughputExceededException.builder().build()))
+        .thenReturn(CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build()));
+
+    batchWriter.writeItems(TABLE_NAME, generateItems(10)).join();
+
+    verify(dynamoDbAsyncClient, times(2)).batchWriteItem(any(BatchWriteItemRequest.class));
+    assertTrue(batchWriter.getInFlightLimit() < 4);
+  }
+
+  @Test
+  void testFailAfterMaxAttempts() {
+    when(dynamoDbAsyncClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+        .thenReturn(CompletableFuture.failedFuture(ProvisionedThroughputExceededException.builder().build()));
+
+    final CompletableFuture<Void> future = batchWriter.writeItems(TABLE_NAME, generateItems(10));
+
+    final CompletionException completionException = assertThrows(CompletionException.class, future::join);
+    assertTrue(completionException.getCause() instanceof ProvisionedThroughputExceededException);
+
+    verify(dynamoDbAsyncClient, times(MAX_ATTEMPTS)).batchWriteItem(any(BatchWriteItemRequest.class));
+    assertEquals(0, batchWriter.getInFlightBatches());
+  }
+
+  @Test
+  void testRetryAfterShutdown() {
+    when(dynamoDbAsyncClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+        .thenReturn(CompletableFuture.failedFuture(ProvisionedThroughputExceededException.builder().build()));
+
+    retryExecutor.shutdown();
+
+    final CompletableFuture<Void> future = batchWriter.writeItems(TABLE_NAME, generateItems(10));
+
+    final CompletionException completionException = assertThrows(CompletionException.class, future::join);
+    assertTrue(completionException.getCause() instanceof RejectedExecutionException);
+
+    verify(dynamoDbAsyncClient).batchWriteItem(any(BatchWriteItemRequest.class));
+    assertEquals(0, batchWriter.getInFlightBatches());
+  }
+
+  @Test
+  void testNonRetryableFailure() {
+    when(dynamoDbAsyncClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+        .thenReturn(CompletableFuture.failedFuture(new RuntimeException("OH NO")));
+
+    assertThrows(CompletionException.class, () -> batchWriter.writeItems(TABLE_NAME, generateItems(10)).join());
+    verify(dynamoDbAsyncClient).batchWriteItem(any(BatchWriteItemRequest.class));
+  }
+
+  @Test
+  void testInFlightLimit() {
+    final List<CompletableFuture<BatchWriteItemResponse>> responseFutures = new ArrayList<>();
+
+    when(dynamoDbAsyncClient.batchWriteItem(any(BatchWriteItemRequest.class))).thenAnswer(invocation -> {
+      final CompletableFuture<BatchWriteItemResponse> responseFuture = new CompletableFuture<>();
+      responseFutures.add(responseFuture);
+      return responseFuture;
+    });
+
+    final CompletableFuture<Void> future = batchWriter.writeItems(TABLE_NAME, generateItems(25 * 6));
+
+    assertEquals(4, responseFutures.size());
+    assertEquals(4, batchWriter.getInFlightBatches());
+
+    responseFutures.get(0).complete(BatchWriteItemResponse.builder().build());
+
+    assertEquals(5, responseFutures.size());
+    assertFalse(future.isDone());
+
+    for (int i = 1; i < 6; i++) {
+      responseFutures.get(i).complete(BatchWriteItemResponse.builder().build());
+    }
+
+    future.join();
+    assertEquals(6, responseFutures.size());
+    assertEquals(0, batchWriter.getInFlightBatches());
+  }
+
+  @Test
+  void testRetryDelay() {
+    for (int attempt = 1; attempt < 10; attempt++) {
+      final long delay = batchWriter.getRetryDelayMillis(attempt);
+
+      assertTrue(delay >= 0);
+      assertTrue(delay <= 5);
+    }
+  }
+
+  private static List<WriteRequest> generateItems(final int count) {
+    final List<WriteRequest> items = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      items.add(WriteRequest.builder()
+          .putRequest(PutRequest.builder().item(Map.of("K", AttributeValue.builder().n(String.valueOf(i)).build())).build())
+          .build());
+    }
+
+    return items;
+  }
+}
@@ -9,21 +9,27 @@ import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.entities.PreKey;
+import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
-public class KeysDynamoDbTest {
+public class KeysDynamoDbTest extends AbstractRedisClusterTest {
 
     private Account account;
     private KeysDynamoDb keysDynamoDb;
@@ -35,8 +41,10 @@ public class KeysDynamoDbTest {
     private static final long DEVICE_ID = 1L;
 
     @Before
-    public void setup() {
-        keysDynamoDb = new KeysDynamoDb(dynamoDbRule.getDynamoDbClient(), KeysDynamoDbRule.TABLE_NAME);
+    public void setup() throws Exception {
+        keysDynamoDb = new KeysDynamoDb(dynamoDbRule.getDynamoDbClient(), dynamoDbRule.getDynamoDbAsyncClient(),
+            new DynamoDbBatchWriter("keys", dynamoDbRule.getDynamoDbAsyncClient(), mock(ScheduledExecutorService.class), 8),
+            getRedisCluster(), KeysDynamoDbRule.TABLE_NAME);
 
         account = mock(Account.class);
         when(account.getNumber()).thenReturn(ACCOUNT_NUMBER);
@@ -64,6 +72,23 @@ public class KeysDynamoDbTest {
                 2, keysDynamoDb.getCount(account, DEVICE_ID));
     }
 
+    @Test
+    public void testStoreOverlappingKeys() {
+        keysDynamoDb.store(account, DEVICE_ID, List.of(new PreKey(1, "first-key"), new PreKey(2, "second-key"), new PreKey(3, "third-key")));
+        keysDynamoDb.store(account, DEVICE_ID, List.of(new PreKey(2, "second-key"), new PreKey(3, "third-key"), new PreKey(4, "fourth-key"), new PreKey(4, "fourth-key")));
+
+        assertEquals(3, keysDynamoDb.getCount(account, DEVICE_ID));
+
+        final Set<PreKey> takenKeys = new HashSet<>();
+
+        for (int i = 0; i < 3; i++) {
+            keysDynamoDb.take(account, DEVICE_ID).ifPresent(takenKeys::add);
+        }
+
+        assertEquals(Set.of(new PreKey(2, "second-key"), new PreKey(3, "third-key"), new PreKey(4, "fourth-key")), takenKeys);
+        assertEquals(Optional.empty(), keysDynamoDb.take(account, DEVICE_ID));
+    }
+
     @Test
     public void testTakeAccount() {
         final Device firstDevice = mock(Device.class);
@@ -89,6 +114,42 @@ public class KeysDynamoDbTest {
         assertEquals(0, keysDynamoDb.getCount(account, DEVICE_ID + 1));
     }
 
+    @Test
+    public void testTakeAccountManyKeys() {
+        final Device firstDevice = mock(Device.class);
+        final Device secondDevice = mock(Device.class);
+
+        when(firstDevice.getId()).thenReturn(DEVICE_ID);
+        when(secondDevice.getId()).thenReturn(DEVICE_ID + 1);
+        when(account.getDevices()).thenReturn(Set.of(firstDevice, secondDevice));
+
+        final List<PreKey> firstDevicePreKeys = new ArrayList<>();
+        final List<PreKey> secondDevicePreKeys = new ArrayList<>();
+
+        for (int i = 0; i < 25; i++) {
+            firstDevicePreKeys.add(new PreKey(i, "first-device-key-" + i));
+            secondDevicePreKeys.add(new PreKey(i, "second-device-key-" + i));
+        }
+
+        keysDynamoDb.store(account, DEVICE_ID, firstDevicePreKeys);
+        keysDynamoDb.store(account, DEVICE_ID + 1, secondDevicePreKeys);
+
+        final Set<PreKey> takenFirstDeviceKeys = new HashSet<>();
+        final Set<PreKey> takenSecondDeviceKeys = new HashSet<>();
+
+        for (int i = 0; i < 25; i++) {
+            final Map<Long, PreKey> taken = keysDynamoDb.take(account);
+
+            assertEquals(2, taken.size());
+            assertTrue(takenFirstDeviceKeys.add(taken.get(DEVICE_ID)));
+            assertTrue(takenSecondDeviceKeys.add(taken.get(DEVICE_ID + 1)));
+        }
+
+        assertEquals(Set.copyOf(firstDevicePreKeys), takenFirstDeviceKeys);
+        assertEquals(Set.copyOf(secondDevicePreKeys), takenSecondDeviceKeys);
+        assertEquals(Collections.emptyMap(), keysDynamoDb.take(account));
+    }
+
     @Test
     public void testTakeAccountAndDeviceId() {
         assertEquals(Optional.empty(), keysDynamoDb.take(account, DEVICE_ID));
@@ -108,6 +169,56 @@ public class KeysDynamoDbTest {
         assertEquals(1, keysDynamoDb.getCount(account, DEVICE_ID));
     }
 
+    @Test
+    public void testGetCountCached() {
+        final String countKey = "prekey_counts::" + account.getUuid() + "::" + DEVICE_ID;
+
+        keysDynamoDb.store(account, DEVICE_ID, List.of(new PreKey(1, "public-key"), new PreKey(2, "different-public-key")));
+        assertEquals("2", getCachedCount(countKey));
+
+        keysDynamoDb.take(account, DEVICE_ID);
+        assertEquals("1", getCachedCount(countKey));
+        assertEquals(1, keysDynamoDb.getCount(account, DEVICE_ID));
+
+        // A stale cached count is served until it expires or is replaced
+        getRedisCluster().useCluster(connection -> connection.sync().hset(countKey, "count", "17"));
+        assertEquals(17, keysDynamoDb.getCount(account, DEVICE_ID));
+
+        // ...but a missing or invalid one is recounted and cached again
+        getRedisCluster().useCluster(connection -> connection.sync().hset(countKey, "count", "-1"));
+        assertEquals(1, keysDynamoDb.getCount(account, DEVICE_ID));
+        assertEquals("1", getCachedCount(countKey));
+
+        keysDynamoDb.delete(account, DEVICE_ID);
+        assertNull(getCachedCount(countKey));
+        assertEquals(0, keysDynamoDb.getCount(account, DEVICE_ID));
+        assertEquals("0", getCachedCount(countKey));
+    }
+
+    @Test
+    public void testGetCountNotCachedAfterConcurrentChange() {
+        final String countKey = "prekey_counts::" + account.getUuid() + "::" + DEVICE_ID;
+
+        keysDynamoDb.store(account, DEVICE_ID, List.of(new PreKey(1, "public-key"), new PreKey(2, "different-public-key")));
+        getRedisCluster().useCluster(connection -> connection.sync().hdel(countKey, "count"));
+
+        // Simulate claims landing while the count is being read from DynamoDB; the count that was read may not reflect
+        // them, so it mustn't be cached
+        final UUID uuid = account.getUuid();
+
+        when(account.getUuid()).thenAnswer(invocation -> {
+            getRedisCluster().useCluster(connection -> connection.sync().hincrby(countKey, "version", 1));
+            return uuid;
+        });
+
+        assertEquals(2, keysDynamoDb.getCount(account, DEVICE_ID));
+        assertNull(getCachedCount(countKey));
+    }
+
+    private String getCachedCount(final String countKey) {
+        return getRedisCluster().withCluster(connection -> connection.sync().hget(countKey, "count"));
+    }
+
     @Test
     public void testDeleteByAccount() {
         keysDynamoDb.store(account, DEVICE_ID, List.of(new PreKey(1, "public-key"), new PreKey(2, "different-public-key")));
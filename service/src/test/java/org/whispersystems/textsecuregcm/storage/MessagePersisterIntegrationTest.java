@@ -21,6 +21,9 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.lang3.RandomStringUtils;
@@ -32,6 +35,7 @@ import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfigurati
 import org.whispersystems.textsecuregcm.entities.MessageProtos;
 import org.whispersystems.textsecuregcm.metrics.PushLatencyManager;
 import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
+import org.whispersystems.textsecuregcm.redis.SlotRangeScheduler;
 import org.whispersystems.textsecuregcm.tests.util.MessagesDynamoDbRule;
 import org.whispersystems.textsecuregcm.util.AttributeValues;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
@@ -45,8 +49,9 @@ public class MessagePersisterIntegrationTest extends AbstractRedisClusterTest {
 
     private ExecutorService  notificationExecutorService;
     private MessagesCache    messagesCache;
-    private MessagesManager  messagesManager;
-    private MessagePersister messagePersister;
+    private MessagesManager    messagesManager;
+    private SlotRangeScheduler slotRangeScheduler;
+    private MessagePersister   messagePersister;
     private Account          account;
 
     private static final Duration PERSIST_DELAY = Duration.ofMinutes(10);
@@ -61,14 +66,16 @@ public class MessagePersisterIntegrationTest extends AbstractRedisClusterTest {
             connection.sync().upstream().commands().configSet("notify-keyspace-events", "K$glz");
         });
 
-        final MessagesDynamoDb messagesDynamoDb = new MessagesDynamoDb(messagesDynamoDbRule.getDynamoDbClient(), MessagesDynamoDbRule.TABLE_NAME, Duration.ofDays(7));
+        final MessagesDynamoDb messagesDynamoDb = new MessagesDynamoDb(messagesDynamoDbRule.getDynamoDbClient(),
+        new DynamoDbBatchWriter("messages", messagesDynamoDbRule.getDynamoDbAsyncClient(), mock(ScheduledExecutorService.class), 8), MessagesDynamoDbRule.TABLE_NAME, Duration.ofDays(7));
         final AccountsManager accountsManager = mock(AccountsManager.class);
         final DynamicConfigurationManager dynamicConfigurationManager = mock(DynamicConfigurationManager.class);
 
         notificationExecutorService = Executors.newSingleThreadExecutor();
         messagesCache               = new MessagesCache(getRedisCluster(), getRedisCluster(), notificationExecutorService);
         messagesManager             = new MessagesManager(messagesDynamoDb, messagesCache, mock(PushLatencyManager.class), mock(ReportMessageManager.class));
-        messagePersister            = new MessagePersister(messagesCache, messagesManager, accountsManager, dynamicConfigurationManager, PERSIST_DELAY);
+        slotRangeScheduler          = new SlotRangeScheduler("test", getRedisCluster(), mock(ScheduledExecutorService.class), 4, Duration.ofSeconds(5), Duration.ofSeconds(30));
+        messagePersister            = new MessagePersister(messagesCache, messagesManager, accountsManager, dynamicConfigurationManager, slotRangeScheduler, new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()), PERSIST_DELAY);
 
         account = mock(Account.class);
 
@@ -107,7 +114,7 @@ public class MessagePersisterIntegrationTest extends AbstractRedisClusterTest {
             expectedMessages.add(message);
         }
 
-        getRedisCluster().useCluster(connection -> connection.sync().set(MessagesCache.NEXT_SLOT_TO_PERSIST_KEY, String.valueOf(SlotHash.getSlot(MessagesCache.getMessageQueueKey(account.getUuid(), 1)) - 1)));
+        slotRangeScheduler.setNextSlot(SlotHash.getSlot(MessagesCache.getMessageQueueKey(account.getUuid(), 1)));
 
         final AtomicBoolean messagesPersisted = new AtomicBoolean(false);
 
@@ -26,6 +26,9 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Before;
@@ -35,6 +38,7 @@ import org.mockito.stubbing.Answer;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
 import org.whispersystems.textsecuregcm.entities.MessageProtos;
 import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
+import org.whispersystems.textsecuregcm.redis.SlotRangeScheduler;
 
 public class MessagePersisterTest extends AbstractRedisClusterTest {
 
@@ -43,6 +47,8 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
     private MessagesDynamoDb         messagesDynamoDb;
     private MessagePersister         messagePersister;
     private AccountsManager          accountsManager;
+    private ThreadPoolExecutor       persistQueueExecutor;
+    private DynamicConfiguration     dynamicConfiguration;
 
     private static final UUID   DESTINATION_ACCOUNT_UUID   = UUID.randomUUID();
     private static final String DESTINATION_ACCOUNT_NUMBER = "+18005551234";
@@ -65,11 +71,15 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
 
         when(accountsManager.get(DESTINATION_ACCOUNT_UUID)).thenReturn(Optional.of(account));
         when(account.getNumber()).thenReturn(DESTINATION_ACCOUNT_NUMBER);
-        when(dynamicConfigurationManager.getConfiguration()).thenReturn(new DynamicConfiguration());
+        dynamicConfiguration = new DynamicConfiguration();
+        when(dynamicConfigurationManager.getConfiguration()).thenReturn(dynamicConfiguration);
 
         notificationExecutorService = Executors.newSingleThreadExecutor();
+        persistQueueExecutor        = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
         messagesCache               = new MessagesCache(getRedisCluster(), getRedisCluster(), notificationExecutorService);
-        messagePersister            = new MessagePersister(messagesCache, messagesManager, accountsManager, dynamicConfigurationManager, PERSIST_DELAY);
+        messagePersister            = new MessagePersister(messagesCache, messagesManager, accountsManager, dynamicConfigurationManager,
+                new SlotRangeScheduler("test", getRedisCluster(), mock(ScheduledExecutorService.class), 1, Duration.ofSeconds(5), Duration.ofSeconds(30)),
+                persistQueueExecutor, PERSIST_DELAY);
 
         doAnswer(invocation -> {
           final UUID destinationUuid = invocation.getArgument(0);
@@ -92,11 +102,14 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
 
         notificationExecutorService.shutdown();
         notificationExecutorService.awaitTermination(1, TimeUnit.SECONDS);
+
+        persistQueueExecutor.shutdown();
+        persistQueueExecutor.awaitTermination(1, TimeUnit.SECONDS);
     }
 
     @Test
     public void testPersistNextQueuesNoQueues() {
-        messagePersister.persistNextQueues(Instant.now());
+        messagePersister.persistNextQueues(0, Instant.now());
 
         verify(accountsManager, never()).get(any(UUID.class));
     }
@@ -108,9 +121,8 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
         final Instant now          = Instant.now();
 
         insertMessages(DESTINATION_ACCOUNT_UUID, DESTINATION_DEVICE_ID, messageCount, now);
-        setNextSlotToPersist(SlotHash.getSlot(queueName));
 
-        messagePersister.persistNextQueues(now.plus(messagePersister.getPersistDelay()));
+        messagePersister.persistQueues(SlotHash.getSlot(queueName), now.plus(messagePersister.getPersistDelay()));
 
         final ArgumentCaptor<List<MessageProtos.Envelope>> messagesCaptor = ArgumentCaptor.forClass(List.class);
 
@@ -125,9 +137,8 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
         final Instant now          = Instant.now();
 
         insertMessages(DESTINATION_ACCOUNT_UUID, DESTINATION_DEVICE_ID, messageCount, now);
-        setNextSlotToPersist(SlotHash.getSlot(queueName));
 
-        messagePersister.persistNextQueues(now);
+        messagePersister.persistQueues(SlotHash.getSlot(queueName), now);
 
         verify(messagesDynamoDb, never()).store(any(), any(), anyLong());
     }
@@ -153,9 +164,7 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
             insertMessages(accountUuid, deviceId, messagesPerQueue, now);
         }
 
-        setNextSlotToPersist(slot);
-
-        messagePersister.persistNextQueues(now.plus(messagePersister.getPersistDelay()));
+        messagePersister.persistQueues(slot, now.plus(messagePersister.getPersistDelay()));
 
         final ArgumentCaptor<List<MessageProtos.Envelope>> messagesCaptor = ArgumentCaptor.forClass(List.class);
 
@@ -170,18 +179,39 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
         final Instant now          = Instant.now();
 
         insertMessages(DESTINATION_ACCOUNT_UUID, DESTINATION_DEVICE_ID, messageCount, now);
-        setNextSlotToPersist(SlotHash.getSlot(queueName));
 
         doAnswer((Answer<Void>)invocation -> {
             throw new RuntimeException("OH NO.");
         }).when(messagesDynamoDb).store(any(), eq(DESTINATION_ACCOUNT_UUID), eq(DESTINATION_DEVICE_ID));
 
-        messagePersister.persistNextQueues(now.plus(messagePersister.getPersistDelay()));
+        messagePersister.persistQueues(SlotHash.getSlot(queueName), now.plus(messagePersister.getPersistDelay()));
 
         assertEquals(List.of(queueName),
                      messagesCache.getQueuesToPersist(SlotHash.getSlot(queueName), Instant.now().plus(messagePersister.getPersistDelay()), 1));
     }
 
+    @Test
+    public void testAdjustConcurrency() {
+        dynamicConfiguration.getMessagePersisterConfiguration().setConcurrency(2, 10);
+
+        messagePersister.adjustConcurrency(false, false);
+        assertEquals(4, persistQueueExecutor.getCorePoolSize());
+
+        messagePersister.adjustConcurrency(true, false);
+        assertEquals(8, persistQueueExecutor.getCorePoolSize());
+        assertEquals(8, persistQueueExecutor.getMaximumPoolSize());
+
+        messagePersister.adjustConcurrency(true, false);
+        assertEquals(10, persistQueueExecutor.getCorePoolSize());
+
+        for (int i = 0; i < 20; i++) {
+            messagePersister.adjustConcurrency(false, true);
+        }
+
+        assertEquals(2, persistQueueExecutor.getCorePoolSize());
+        assertEquals(2, persistQueueExecutor.getMaximumPoolSize());
+    }
+
     @SuppressWarnings("SameParameterValue")
     private static String generateRandomQueueNameForSlot(final int slot) {
         final UUID uuid = UUID.randomUUID();
@@ -214,8 +244,4 @@ public class MessagePersisterTest extends AbstractRedisClusterTest {
             messagesCache.insert(messageGuid, accountUuid, deviceId, envelope);
         }
     }
-
-    private void setNextSlotToPersist(final int nextSlot) {
-        getRedisCluster().useCluster(connection -> connection.sync().set(MessagesCache.NEXT_SLOT_TO_PERSIST_KEY, String.valueOf(nextSlot - 1)));
-    }
 }
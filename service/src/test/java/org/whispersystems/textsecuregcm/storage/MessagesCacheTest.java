@@ -163,6 +163,24 @@ public class MessagesCacheTest extends AbstractRedisClusterTest {
         assertEquals(messagesToPreserve, messagesCache.getMessagesToPersist(DESTINATION_UUID, DESTINATION_DEVICE_ID, messageCount));
     }
 
+    @Test
+    public void testLockQueueAndGetMessagesToPersist() {
+        final List<MessageProtos.Envelope> messages = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            final MessageProtos.Envelope message = generateRandomMessage(UUID.randomUUID(), true);
+
+            messagesCache.insert(UUID.fromString(message.getServerGuid()), DESTINATION_UUID, DESTINATION_DEVICE_ID, message);
+            messages.add(message);
+        }
+
+        assertEquals(messages, messagesCache.lockQueueAndGetMessagesToPersist(DESTINATION_UUID, DESTINATION_DEVICE_ID, messages.size()));
+        assertEquals(1L, (long)getRedisCluster().withCluster(connection -> connection.sync().exists("user_queue_persisting::{" + DESTINATION_UUID + "::" + DESTINATION_DEVICE_ID + "}")));
+
+        messagesCache.unlockQueueForPersistence(DESTINATION_UUID, DESTINATION_DEVICE_ID);
+        assertEquals(0L, (long)getRedisCluster().withCluster(connection -> connection.sync().exists("user_queue_persisting::{" + DESTINATION_UUID + "::" + DESTINATION_DEVICE_ID + "}")));
+    }
+
     @Test
     public void testHasMessages() {
         assertFalse(messagesCache.hasMessages(DESTINATION_UUID, DESTINATION_DEVICE_ID));
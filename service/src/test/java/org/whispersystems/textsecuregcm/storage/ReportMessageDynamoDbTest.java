@@ -4,7 +4,12 @@ import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -31,7 +36,9 @@ class ReportMessageDynamoDbTest {
 
   @BeforeEach
   void setUp() {
-    this.reportMessageDynamoDb = new ReportMessageDynamoDb(dynamoDbExtension.getDynamoDbClient(), TABLE_NAME);
+    this.reportMessageDynamoDb = new ReportMessageDynamoDb(dynamoDbExtension.getDynamoDbClient(),
+        new DynamoDbBatchWriter("reportMessages", dynamoDbExtension.getDynamoDbAsyncClient(), mock(ScheduledExecutorService.class), 8),
+        TABLE_NAME);
   }
 
   @Test
@@ -59,4 +66,19 @@ class ReportMessageDynamoDbTest {
     );
   }
 
+  @Test
+  void testStoreAll() {
+    final List<byte[]> hashes = new ArrayList<>();
+
+    for (int i = 0; i < 60; i++) {
+      hashes.add(UUIDUtil.toBytes(UUID.randomUUID()));
+    }
+
+    reportMessageDynamoDb.storeAll(hashes).join();
+
+    for (final byte[] hash : hashes) {
+      assertTrue(reportMessageDynamoDb.remove(hash));
+    }
+  }
+
 }
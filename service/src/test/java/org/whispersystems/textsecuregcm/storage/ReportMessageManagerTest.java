@@ -1,5 +1,6 @@
 package org.whispersystems.textsecuregcm.storage;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
@@ -12,15 +13,21 @@ import static org.mockito.Mockito.when;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 class ReportMessageManagerTest {
 
   private final ReportMessageDynamoDb reportMessageDynamoDb = mock(ReportMessageDynamoDb.class);
   private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
 
-  private final ReportMessageManager reportMessageManager = new ReportMessageManager(reportMessageDynamoDb, meterRegistry);
+  private final ReportMessageManager reportMessageManager =
+      new ReportMessageManager(reportMessageDynamoDb, meterRegistry, mock(ScheduledExecutorService.class));
 
   @Test
   void testStore() {
@@ -32,14 +39,52 @@ class ReportMessageManagerTest {
 
     verifyZeroInteractions(reportMessageDynamoDb);
 
+    when(reportMessageDynamoDb.storeAll(any())).thenReturn(CompletableFuture.completedFuture(null));
+
     reportMessageManager.store(number, messageGuid);
+    reportMessageManager.store(number, UUID.randomUUID());
+
+    verifyZeroInteractions(reportMessageDynamoDb);
+
+    reportMessageManager.flush().join();
 
-    verify(reportMessageDynamoDb).store(any());
+    final ArgumentCaptor<List<byte[]>> hashesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(reportMessageDynamoDb).storeAll(hashesCaptor.capture());
+    assertEquals(2, hashesCaptor.getValue().size());
+    assertEquals(2, getCounterTotal(name(ReportMessageManager.class, "store")));
 
     doThrow(RuntimeException.class)
-      .when(reportMessageDynamoDb).store(any());
+      .when(reportMessageDynamoDb).storeAll(any());
 
     assertDoesNotThrow(() -> reportMessageManager.store(number, messageGuid));
+    assertDoesNotThrow(() -> reportMessageManager.flush().join());
+  }
+
+  @Test
+  void testStoreFailure() {
+    when(reportMessageDynamoDb.storeAll(any())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("OH NO")));
+
+    reportMessageManager.store("+15105551111", UUID.randomUUID());
+
+    assertDoesNotThrow(() -> reportMessageManager.flush().join());
+    assertEquals(1, meterRegistry.counter(name(ReportMessageManager.class, "store"), "outcome", "failed").count());
+  }
+
+  @Test
+  void testStopFlushesAllPendingHashes() {
+    when(reportMessageDynamoDb.storeAll(any())).thenAnswer(invocation ->
+        CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS)));
+
+    // More than can be in flight at once, so stopping takes several flushes
+    final int hashCount = 25_000;
+
+    for (int i = 0; i < hashCount; i++) {
+      reportMessageManager.store("+15105551111", UUID.randomUUID());
+    }
+
+    reportMessageManager.stop();
+
+    assertEquals(hashCount, meterRegistry.counter(name(ReportMessageManager.class, "store"), "outcome", "stored").count());
   }
 
   @Test
@@ -22,10 +22,13 @@ import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.RemoteConfig;
 import org.whispersystems.textsecuregcm.storage.RemoteConfigsManager;
 import org.whispersystems.textsecuregcm.tests.util.AuthHelper;
+import org.whispersystems.textsecuregcm.util.Conversions;
 
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
@@ -35,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -381,4 +385,39 @@ public class RemoteConfigControllerTest {
     }
 
   }
+
+  @Test
+  public void testBucketAssignmentsMatchDirectHash() throws NoSuchAlgorithmException {
+    final RemoteConfigController remoteConfigController =
+        new RemoteConfigController(remoteConfigsManager, remoteConfigsAuth, Map.of("maxGroupSize", "42"));
+
+    final List<RemoteConfig> remoteConfigList = remoteConfigsManager.getAll();
+    final MessageDigest      digest           = MessageDigest.getInstance("SHA1");
+    final Random             random           = new Random(9424242L);
+
+    for (int i = 0; i < 1000; i++) {
+      final UUID    uuid    = AuthHelper.getRandomUUID(random);
+      final Account account = mock(Account.class);
+      when(account.getUuid()).thenReturn(uuid);
+
+      final List<UserRemoteConfig> userRemoteConfigs = remoteConfigController.getAll(account).getConfig();
+
+      for (int j = 0; j < remoteConfigList.size(); j++) {
+        final RemoteConfig config  = remoteConfigList.get(j);
+        final String       hashKey = config.getHashKey() != null ? config.getHashKey() : config.getName();
+
+        final ByteBuffer uuidBuffer = ByteBuffer.allocate(16);
+        uuidBuffer.putLong(uuid.getMostSignificantBits());
+        uuidBuffer.putLong(uuid.getLeastSignificantBits());
+        digest.update(uuidBuffer.array());
+
+        final int bucket = (int) (Math.abs(Conversions.byteArrayToLong(digest.digest(hashKey.getBytes(StandardCharsets.UTF_8)))) % 100);
+        final boolean expectedInBucket = config.getUuids().contains(uuid) || bucket < config.getPercentage();
+
+        assertThat(userRemoteConfigs.get(j).getName()).isEqualTo(config.getName());
+        assertThat(userRemoteConfigs.get(j).isEnabled()).isEqualTo(expectedInBucket);
+        assertThat(userRemoteConfigs.get(j).getValue()).isEqualTo(expectedInBucket ? config.getValue() : config.getDefaultValue());
+      }
+    }
+  }
 }
@@ -20,21 +20,28 @@ import org.whispersystems.textsecuregcm.storage.FaultTolerantDatabase;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 public class AbusiveHostRulesTest {
 
   @Rule
   public PreparedDbRule db = EmbeddedPostgresRules.preparedDatabase(LiquibasePreparer.forClasspathLocation("abusedb.xml"));
 
+  private ScheduledExecutorService refreshExecutor;
   private AbusiveHostRules abusiveHostRules;
 
   @Before
   public void setup() {
-    this.abusiveHostRules = new AbusiveHostRules(new FaultTolerantDatabase("abusive_hosts-test", Jdbi.create(db.getTestDatabase()), new CircuitBreakerConfiguration()));
+    this.refreshExecutor = mock(ScheduledExecutorService.class);
+    this.abusiveHostRules = new AbusiveHostRules(new FaultTolerantDatabase("abusive_hosts-test", Jdbi.create(db.getTestDatabase()), new CircuitBreakerConfiguration()),
+                                                 refreshExecutor, Duration.ofMinutes(1));
   }
 
   @Test
@@ -90,6 +97,36 @@ public class AbusiveHostRulesTest {
     assertThat(rules.get(0).getRegions()).isEqualTo(Arrays.asList("+1", "+49"));
   }
 
+  @Test
+  public void testRefresh() throws SQLException {
+    PreparedStatement statement = db.getTestDatabase().getConnection().prepareStatement("INSERT INTO abusive_host_rules (host, blocked, regions) VALUES (?::INET, ?, ?)");
+    statement.setString(1, "192.168.1.0/24");
+    statement.setInt(2, 0);
+    statement.setString(3, "+1,+49");
+    statement.execute();
+
+    abusiveHostRules.refresh();
+
+    statement.setString(1, "192.168.1.100");
+    statement.setInt(2, 1);
+    statement.setString(3, null);
+    statement.execute();
+
+    List<AbusiveHostRule> rules = abusiveHostRules.getAbusiveHostRulesFor("192.168.1.100");
+    assertThat(rules.size()).isEqualTo(1);
+    assertThat(rules.get(0).getHost()).isEqualTo("192.168.1.0/24");
+    assertThat(rules.get(0).getRegions()).isEqualTo(Arrays.asList("+1", "+49"));
+
+    abusiveHostRules.refresh();
+
+    rules = abusiveHostRules.getAbusiveHostRulesFor("192.168.1.100");
+    assertThat(rules.size()).isEqualTo(2);
+    assertThat(rules.get(1).getHost()).isEqualTo("192.168.1.100");
+    assertThat(rules.get(1).isBlocked()).isTrue();
+
+    assertThat(abusiveHostRules.getAbusiveHostRulesFor("192.168.2.1").isEmpty()).isTrue();
+  }
+
   @Test
   public void testInsertBlocked() throws Exception {
     abusiveHostRules.setBlockedHost("172.17.0.1", "Testing one two");
@@ -120,4 +157,24 @@ public class AbusiveHostRulesTest {
     assertThat(resultSet.getString("notes")).isEqualTo("Testing one two");
   }
 
+  @Test
+  public void testInsertBlockedAfterRefresh() {
+    abusiveHostRules.refresh();
+    assertThat(abusiveHostRules.getAbusiveHostRulesFor("172.17.0.1").isEmpty()).isTrue();
+
+    abusiveHostRules.setBlockedHost("172.17.0.1", "Testing one two");
+
+    List<AbusiveHostRule> rules = abusiveHostRules.getAbusiveHostRulesFor("172.17.0.1");
+    assertThat(rules.size()).isEqualTo(1);
+    assertThat(rules.get(0).isBlocked()).isTrue();
+
+    verifyZeroInteractions(refreshExecutor);
+
+    abusiveHostRules.refresh();
+
+    rules = abusiveHostRules.getAbusiveHostRulesFor("172.17.0.1");
+    assertThat(rules.size()).isEqualTo(1);
+    assertThat(rules.get(0).isBlocked()).isTrue();
+  }
+
 }
@@ -6,6 +6,7 @@ package org.whispersystems.textsecuregcm.tests.storage;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.AccountCleaner;
 import org.whispersystems.textsecuregcm.storage.AccountDatabaseCrawlerRestartException;
@@ -17,20 +18,23 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class AccountCleanerTest {
 
-  private final AccountsManager accountsManager = mock(AccountsManager.class);
+  private final AccountsManager accountsManager  = mock(AccountsManager.class);
+  private final Executor        deletionExecutor = mock(Executor.class);
 
   private final Account deletedDisabledAccount   = mock(Account.class);
   private final Account undeletedDisabledAccount = mock(Account.class);
@@ -73,14 +77,12 @@ public class AccountCleanerTest {
 
   @Test
   public void testAccounts() throws AccountDatabaseCrawlerRestartException {
-    AccountCleaner accountCleaner = new AccountCleaner(accountsManager);
+    AccountCleaner accountCleaner = new AccountCleaner(accountsManager, deletionExecutor);
     accountCleaner.onCrawlStart();
     accountCleaner.timeAndProcessCrawlChunk(Optional.empty(), Arrays.asList(deletedDisabledAccount, undeletedDisabledAccount, undeletedEnabledAccount));
     accountCleaner.onCrawlEnd(Optional.empty());
 
-    verify(accountsManager, never()).delete(eq(deletedDisabledAccount), any());
-    verify(accountsManager).delete(undeletedDisabledAccount, AccountsManager.DeletionReason.EXPIRED);
-    verify(accountsManager, never()).delete(eq(undeletedEnabledAccount), any());
+    verify(accountsManager).deleteAll(List.of(undeletedDisabledAccount), AccountsManager.DeletionReason.EXPIRED, deletionExecutor);
 
     verifyNoMoreInteractions(accountsManager);
   }
@@ -97,13 +99,30 @@ public class AccountCleanerTest {
 
     accounts.add(deletedDisabledAccount);
 
-    AccountCleaner accountCleaner = new AccountCleaner(accountsManager);
+    AccountCleaner accountCleaner = new AccountCleaner(accountsManager, deletionExecutor);
     accountCleaner.onCrawlStart();
     accountCleaner.timeAndProcessCrawlChunk(Optional.empty(), accounts);
     accountCleaner.onCrawlEnd(Optional.empty());
 
-    verify(accountsManager, times(AccountCleaner.MAX_ACCOUNT_UPDATES_PER_CHUNK)).delete(undeletedDisabledAccount, AccountsManager.DeletionReason.EXPIRED);
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Account>> deletedAccountsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(accountsManager).deleteAll(deletedAccountsCaptor.capture(), eq(AccountsManager.DeletionReason.EXPIRED), eq(deletionExecutor));
     verifyNoMoreInteractions(accountsManager);
+
+    assertEquals(AccountCleaner.MAX_ACCOUNT_UPDATES_PER_CHUNK, deletedAccountsCaptor.getValue().size());
+    assertTrue(deletedAccountsCaptor.getValue().stream().allMatch(account -> account == undeletedDisabledAccount));
+  }
+
+  @Test
+  public void testDeleteFailure() throws AccountDatabaseCrawlerRestartException {
+    doThrow(new RuntimeException("OH NO")).when(accountsManager).deleteAll(any(), any(), any());
+
+    AccountCleaner accountCleaner = new AccountCleaner(accountsManager, deletionExecutor);
+    accountCleaner.onCrawlStart();
+    accountCleaner.timeAndProcessCrawlChunk(Optional.empty(), Arrays.asList(undeletedDisabledAccount, undeletedEnabledAccount));
+    accountCleaner.onCrawlEnd(Optional.empty());
+
+    verify(accountsManager).deleteAll(List.of(undeletedDisabledAccount), AccountsManager.DeletionReason.EXPIRED, deletionExecutor);
   }
 
 }
@@ -5,6 +5,7 @@
 
 package org.whispersystems.textsecuregcm.tests.storage;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Before;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.storage.Account;
@@ -20,6 +21,7 @@ import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -41,7 +43,7 @@ public class AccountDatabaseCrawlerTest {
   private final AccountDatabaseCrawlerListener listener = mock(AccountDatabaseCrawlerListener.class);
   private final AccountDatabaseCrawlerCache    cache    = mock(AccountDatabaseCrawlerCache.class);
 
-  private final AccountDatabaseCrawler        crawler   = new AccountDatabaseCrawler(accounts, cache, Arrays.asList(listener), CHUNK_SIZE, CHUNK_INTERVAL_MS);
+  private final AccountDatabaseCrawler        crawler   = new AccountDatabaseCrawler(accounts, cache, Arrays.asList(listener), CHUNK_SIZE, CHUNK_INTERVAL_MS, MoreExecutors.newDirectExecutorService());
 
   @Before
   public void setup() {
@@ -78,6 +80,7 @@ public class AccountDatabaseCrawlerTest {
     verifyNoMoreInteractions(account1);
     verifyNoMoreInteractions(account2);
     verifyNoMoreInteractions(accounts);
+    verify(listener).isReadOnly();
     verifyNoMoreInteractions(listener);
     verifyNoMoreInteractions(cache);
   }
@@ -103,6 +106,7 @@ public class AccountDatabaseCrawlerTest {
 
     verifyNoMoreInteractions(account2);
     verifyNoMoreInteractions(accounts);
+    verify(listener).isReadOnly();
     verifyNoMoreInteractions(listener);
     verifyNoMoreInteractions(cache);
   }
@@ -129,6 +133,7 @@ public class AccountDatabaseCrawlerTest {
 
     verifyNoMoreInteractions(account2);
     verifyNoMoreInteractions(accounts);
+    verify(listener).isReadOnly();
     verifyNoMoreInteractions(listener);
     verifyNoMoreInteractions(cache);
   }
@@ -156,6 +161,7 @@ public class AccountDatabaseCrawlerTest {
 
     verifyNoMoreInteractions(account2);
     verifyNoMoreInteractions(accounts);
+    verify(listener).isReadOnly();
     verifyNoMoreInteractions(listener);
     verifyNoMoreInteractions(cache);
   }
@@ -183,8 +189,64 @@ public class AccountDatabaseCrawlerTest {
     verifyZeroInteractions(account2);
 
     verifyNoMoreInteractions(accounts);
+    verify(listener).isReadOnly();
     verifyNoMoreInteractions(listener);
     verifyNoMoreInteractions(cache);
   }
 
+  @Test
+  public void testListenerFailureIsolated() throws AccountDatabaseCrawlerRestartException {
+    final AccountDatabaseCrawlerListener failingListener = mock(AccountDatabaseCrawlerListener.class);
+    final AccountDatabaseCrawlerListener readOnlyListener = mock(AccountDatabaseCrawlerListener.class);
+    when(readOnlyListener.isReadOnly()).thenReturn(true);
+
+    final AccountDatabaseCrawler crawler = new AccountDatabaseCrawler(accounts, cache,
+        Arrays.asList(failingListener, readOnlyListener, listener), CHUNK_SIZE, CHUNK_INTERVAL_MS, MoreExecutors.newDirectExecutorService());
+
+    when(cache.getLastUuid()).thenReturn(Optional.of(ACCOUNT1));
+    doThrow(RuntimeException.class).when(failingListener).timeAndProcessCrawlChunk(any(), any());
+
+    assertThatThrownBy(crawler::doPeriodicWork).isInstanceOf(IllegalStateException.class);
+
+    // Every listener still gets the chunk, but the crawl doesn't move past it so that it will be retried
+    verify(failingListener).timeAndProcessCrawlChunk(eq(Optional.of(ACCOUNT1)), eq(Arrays.asList(account2)));
+    verify(readOnlyListener).timeAndProcessCrawlChunk(eq(Optional.of(ACCOUNT1)), eq(Arrays.asList(account2)));
+    verify(listener).timeAndProcessCrawlChunk(eq(Optional.of(ACCOUNT1)), eq(Arrays.asList(account2)));
+    verify(cache, never()).setLastUuid(any());
+    verify(cache).releaseActiveWork(any(String.class));
+
+    doNothing().when(failingListener).timeAndProcessCrawlChunk(any(), any());
+
+    assertThat(crawler.doPeriodicWork()).isFalse();
+
+    verify(failingListener, times(2)).timeAndProcessCrawlChunk(eq(Optional.of(ACCOUNT1)), eq(Arrays.asList(account2)));
+    verify(cache).setLastUuid(eq(Optional.of(ACCOUNT2)));
+  }
+
+  @Test
+  public void testAcceleratedCrawlPrefetch() throws AccountDatabaseCrawlerRestartException {
+    final UUID account3Uuid = UUID.randomUUID();
+    final Account account3 = mock(Account.class);
+    when(account3.getUuid()).thenReturn(account3Uuid);
+
+    when(cache.isAccelerated()).thenReturn(true);
+    when(accounts.getAllFrom(eq(ACCOUNT2), anyInt())).thenReturn(Arrays.asList(account3));
+    when(cache.getLastUuid()).thenReturn(Optional.of(ACCOUNT1), Optional.of(ACCOUNT1), Optional.of(ACCOUNT2));
+
+    // The first chunk can't have been prefetched, but the crawl is now known to be accelerated...
+    assertThat(crawler.doPeriodicWork()).isTrue();
+    verify(accounts, times(1)).getAllFrom(eq(ACCOUNT1), eq(CHUNK_SIZE));
+    verify(accounts, never()).getAllFrom(eq(ACCOUNT2), eq(CHUNK_SIZE));
+
+    // ...so the next chunk is read while the listeners are busy with this one
+    assertThat(crawler.doPeriodicWork()).isTrue();
+    verify(accounts, times(2)).getAllFrom(eq(ACCOUNT1), eq(CHUNK_SIZE));
+    verify(accounts, times(1)).getAllFrom(eq(ACCOUNT2), eq(CHUNK_SIZE));
+
+    // The prefetched chunk is used rather than read again
+    assertThat(crawler.doPeriodicWork()).isTrue();
+    verify(accounts, times(1)).getAllFrom(eq(ACCOUNT2), eq(CHUNK_SIZE));
+    verify(listener).timeAndProcessCrawlChunk(eq(Optional.of(ACCOUNT2)), eq(Arrays.asList(account3)));
+  }
+
 }
@@ -9,8 +9,10 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -21,10 +23,19 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
+import java.time.Duration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -384,6 +395,127 @@ class AccountsManagerTest {
     verifyNoMoreInteractions(accountsDynamoDb);
   }
 
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void testUpdateAll(boolean dynamoEnabled) throws Exception {
+    RedisAdvancedClusterAsyncCommands<String, String> asyncCommands       = mock(RedisAdvancedClusterAsyncCommands.class);
+    FaultTolerantRedisCluster                         cacheCluster        = buildMockAsyncRedisCluster(asyncCommands);
+    Accounts                                          accounts            = mock(Accounts.class);
+    AccountsDynamoDb                                  accountsDynamoDb    = mock(AccountsDynamoDb.class);
+    DirectoryQueue                                    directoryQueue      = mock(DirectoryQueue.class);
+    KeysDynamoDb                                      keysDynamoDb        = mock(KeysDynamoDb.class);
+    MessagesManager                                   messagesManager     = mock(MessagesManager.class);
+    UsernamesManager                                  usernamesManager    = mock(UsernamesManager.class);
+    ProfilesManager                                   profilesManager     = mock(ProfilesManager.class);
+    SecureBackupClient                                secureBackupClient  = mock(SecureBackupClient.class);
+    SecureStorageClient                               secureStorageClient = mock(SecureStorageClient.class);
+    Account                                           firstAccount        = new Account("+14152222222", UUID.randomUUID(), new HashSet<>(), new byte[16]);
+    Account                                           secondAccount       = new Account("+14153333333", UUID.randomUUID(), new HashSet<>(), new byte[16]);
+
+    enableDynamo(dynamoEnabled);
+
+    RedisFuture<String> setFuture = completedRedisFuture("OK");
+    when(asyncCommands.set(anyString(), anyString())).thenReturn(setFuture);
+
+    when(accountsDynamoDb.updateAsync(firstAccount)).thenReturn(CompletableFuture.completedFuture(null));
+    when(accountsDynamoDb.updateAsync(secondAccount)).thenReturn(CompletableFuture.failedFuture(ConditionalCheckFailedException.builder().build()));
+
+    AccountsManager accountsManager = new AccountsManager(accounts, accountsDynamoDb, cacheCluster, directoryQueue, keysDynamoDb, messagesManager, usernamesManager, profilesManager, secureStorageClient, secureBackupClient, experimentEnrollmentManager, dynamicConfigurationManager);
+
+    accountsManager.updateAll(List.of(firstAccount, secondAccount));
+
+    assertEquals(1, firstAccount.getDynamoDbMigrationVersion());
+    assertEquals(1, secondAccount.getDynamoDbMigrationVersion());
+
+    verify(asyncCommands).set("AccountMap::+14152222222", firstAccount.getUuid().toString());
+    verify(asyncCommands).set(eq("Account3::" + firstAccount.getUuid()), anyString());
+    verify(asyncCommands).set("AccountMap::+14153333333", secondAccount.getUuid().toString());
+    verify(asyncCommands).set(eq("Account3::" + secondAccount.getUuid()), anyString());
+
+    verify(accounts).updateAll(List.of(firstAccount, secondAccount));
+    verifyNoMoreInteractions(accounts);
+
+    verify(accountsDynamoDb, dynamoEnabled ? times(1) : never()).updateAsync(firstAccount);
+    verify(accountsDynamoDb, dynamoEnabled ? times(1) : never()).updateAsync(secondAccount);
+    verify(accountsDynamoDb, dynamoEnabled ? times(1) : never()).create(secondAccount);
+    verifyNoMoreInteractions(accountsDynamoDb);
+  }
+
+  @Test
+  void testDeleteAll() throws Exception {
+    RedisAdvancedClusterAsyncCommands<String, String> asyncCommands       = mock(RedisAdvancedClusterAsyncCommands.class);
+    FaultTolerantRedisCluster                         cacheCluster        = buildMockAsyncRedisCluster(asyncCommands);
+    Accounts                                          accounts            = mock(Accounts.class);
+    AccountsDynamoDb                                  accountsDynamoDb    = mock(AccountsDynamoDb.class);
+    DirectoryQueue                                    directoryQueue      = mock(DirectoryQueue.class);
+    KeysDynamoDb                                      keysDynamoDb        = mock(KeysDynamoDb.class);
+    MessagesManager                                   messagesManager     = mock(MessagesManager.class);
+    UsernamesManager                                  usernamesManager    = mock(UsernamesManager.class);
+    ProfilesManager                                   profilesManager     = mock(ProfilesManager.class);
+    SecureBackupClient                                secureBackupClient  = mock(SecureBackupClient.class);
+    SecureStorageClient                               secureStorageClient = mock(SecureStorageClient.class);
+    Account                                           deletedAccount      = new Account("+14152222222", UUID.randomUUID(), new HashSet<>(), new byte[16]);
+    Account                                           failedAccount       = new Account("+14153333333", UUID.randomUUID(), new HashSet<>(), new byte[16]);
+
+    enableDynamo(false);
+
+    RedisFuture<Long> delFuture = completedRedisFuture(2L);
+    when(asyncCommands.del(any())).thenReturn(delFuture);
+
+    when(secureStorageClient.deleteStoredData(any())).thenReturn(CompletableFuture.completedFuture(null));
+    when(secureBackupClient.deleteBackups(deletedAccount.getUuid())).thenReturn(CompletableFuture.completedFuture(null));
+    when(secureBackupClient.deleteBackups(failedAccount.getUuid())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("OH NO")));
+
+    AccountsManager accountsManager = new AccountsManager(accounts, accountsDynamoDb, cacheCluster, directoryQueue, keysDynamoDb, messagesManager, usernamesManager, profilesManager, secureStorageClient, secureBackupClient, experimentEnrollmentManager, dynamicConfigurationManager);
+
+    ExecutorService deletionExecutor = Executors.newFixedThreadPool(2);
+
+    try {
+      accountsManager.deleteAll(List.of(deletedAccount, failedAccount), AccountsManager.DeletionReason.EXPIRED, deletionExecutor);
+    } finally {
+      deletionExecutor.shutdown();
+    }
+
+    verify(usernamesManager).delete(deletedAccount.getUuid());
+    verify(profilesManager).deleteAll(deletedAccount.getUuid());
+    verify(keysDynamoDb).delete(deletedAccount);
+    verify(messagesManager).clear(deletedAccount.getUuid());
+    verify(messagesManager).clear(failedAccount.getUuid());
+
+    // Data for the account whose backups couldn't be deleted is cleared, but the account itself remains
+    verify(directoryQueue).deleteAccounts(List.of(deletedAccount));
+    verify(asyncCommands).del("AccountMap::+14152222222", "Account3::" + deletedAccount.getUuid());
+    verifyNoMoreInteractions(asyncCommands);
+    verify(accounts).deleteAll(List.of(deletedAccount.getUuid()));
+    verifyNoMoreInteractions(accounts);
+    verifyZeroInteractions(accountsDynamoDb);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static FaultTolerantRedisCluster buildMockAsyncRedisCluster(final RedisAdvancedClusterAsyncCommands<String, String> asyncCommands) {
+    final FaultTolerantRedisCluster                      cluster    = mock(FaultTolerantRedisCluster.class);
+    final StatefulRedisClusterConnection<String, String> connection = mock(StatefulRedisClusterConnection.class);
+
+    when(connection.async()).thenReturn(asyncCommands);
+    when(connection.getTimeout()).thenReturn(Duration.ofSeconds(1));
+
+    doAnswer(invocation -> {
+      invocation.getArgument(0, Consumer.class).accept(connection);
+      return null;
+    }).when(cluster).useCluster(any(Consumer.class));
+
+    return cluster;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> RedisFuture<T> completedRedisFuture(final T value) throws Exception {
+    final RedisFuture<T> future = mock(RedisFuture.class);
+    when(future.await(anyLong(), any())).thenReturn(true);
+    when(future.get()).thenReturn(value);
+
+    return future;
+  }
+
   @Test
   void testCompareAccounts() throws Exception {
     RedisAdvancedClusterCommands<String, String> commands            = mock(RedisAdvancedClusterCommands.class);
@@ -29,6 +29,7 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.jdbi.v3.core.HandleConsumer;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.transaction.TransactionException;
@@ -177,6 +178,26 @@ public class AccountsTest {
     verifyStoredState("+14151112222", account.getUuid(), retrieved.get(), account);
   }
 
+  @Test
+  public void testUpdateAll() {
+    Device  firstDevice   = generateDevice (1);
+    Account firstAccount  = generateAccount("+14151112222", UUID.randomUUID(), Collections.singleton(firstDevice));
+    Device  secondDevice  = generateDevice (1);
+    Account secondAccount = generateAccount("+14151113333", UUID.randomUUID(), Collections.singleton(secondDevice));
+
+    accounts.create(firstAccount);
+    accounts.create(secondAccount);
+
+    firstDevice.setName("foo");
+    secondDevice.setName("bar");
+
+    accounts.updateAll(List.of(firstAccount, secondAccount));
+    accounts.updateAll(Collections.emptyList());
+
+    verifyStoredState(firstAccount.getNumber(), firstAccount.getUuid(), accounts.get(firstAccount.getUuid()).get(), firstAccount);
+    verifyStoredState(secondAccount.getNumber(), secondAccount.getUuid(), accounts.get(secondAccount.getUuid()).get(), secondAccount);
+  }
+
   @Test
   public void testRetrieveFrom() {
     List<Account> users = new ArrayList<>();
@@ -239,6 +260,29 @@ public class AccountsTest {
     }
   }
 
+  @Test
+  public void testDeleteAll() {
+    final List<Account> deletedAccounts = new ArrayList<>();
+
+    for (int i = 0; i < 10; i++) {
+      final Account account = generateAccount("+1415111222" + i, UUID.randomUUID(), Collections.singleton(generateDevice(1)));
+      accounts.create(account);
+      deletedAccounts.add(account);
+    }
+
+    final Account retainedAccount = generateAccount("+14151112345", UUID.randomUUID(), Collections.singleton(generateDevice(1)));
+    accounts.create(retainedAccount);
+
+    accounts.deleteAll(deletedAccounts.stream().map(Account::getUuid).collect(Collectors.toList()));
+    accounts.deleteAll(Collections.emptyList());
+
+    for (final Account deletedAccount : deletedAccounts) {
+      assertThat(accounts.get(deletedAccount.getUuid())).isNotPresent();
+    }
+
+    verifyStoredState(retainedAccount.getNumber(), retainedAccount.getUuid(), accounts.get(retainedAccount.getUuid()).get(), retainedAccount);
+  }
+
   @Test
   public void testVacuum() {
     Device  device  = generateDevice (1                                            );
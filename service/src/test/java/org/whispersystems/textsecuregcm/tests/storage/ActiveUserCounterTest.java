@@ -5,26 +5,26 @@
 
 package org.whispersystems.textsecuregcm.tests.storage;
 
-import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
-import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
+import org.whispersystems.textsecuregcm.redis.AbstractRedisClusterTest;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.ActiveUserCounter;
 import org.whispersystems.textsecuregcm.storage.AccountDatabaseCrawlerRestartException;
 import org.whispersystems.textsecuregcm.storage.Device;
-import org.whispersystems.textsecuregcm.tests.util.RedisClusterHelper;
 
 import com.google.common.collect.ImmutableList;
 import io.dropwizard.metrics.MetricsFactory;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.Optional;
 
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -32,7 +32,7 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
-public class ActiveUserCounterTest {
+public class ActiveUserCounterTest extends AbstractRedisClusterTest {
 
   private final UUID UUID_IOS      = UUID.randomUUID();
   private final UUID UUID_ANDROID  = UUID.randomUUID();
@@ -42,7 +42,7 @@ public class ActiveUserCounterTest {
   private final String ACCOUNT_NUMBER_ANDROID  = "+5511987654321";
   private final String ACCOUNT_NUMBER_NODEVICE = "+5215551234567";
 
-  private final String TALLY_KEY       = "active_user_tally";
+  private final String TALLY_KEY       = "active_user_tallies";
 
   private final Device iosDevice     = mock(Device.class);
   private final Device androidDevice = mock(Device.class);
@@ -51,14 +51,13 @@ public class ActiveUserCounterTest {
   private final Account iosAccount     = mock(Account.class);
   private final Account noDeviceAccount = mock(Account.class);
 
-  private final RedisAdvancedClusterCommands<String, String> commands       = mock(RedisAdvancedClusterCommands.class);
-  private final FaultTolerantRedisCluster                    cacheCluster   = RedisClusterHelper.buildMockRedisCluster(commands);
-  private final MetricsFactory                               metricsFactory = mock(MetricsFactory.class);
+  private final MetricsFactory metricsFactory = mock(MetricsFactory.class);
 
-  private final ActiveUserCounter activeUserCounter = new ActiveUserCounter(metricsFactory, cacheCluster);
+  private ActiveUserCounter activeUserCounter;
 
   @Before
-  public void setup() {
+  public void setUp() throws Exception {
+    super.setUp();
 
     long halfDayAgo      = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(12);
     long fortyFiveDayAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(45);
@@ -83,16 +82,23 @@ public class ActiveUserCounterTest {
     when(noDeviceAccount.getMasterDevice()).thenReturn(Optional.ofNullable(null));
     when(noDeviceAccount.getNumber()).thenReturn(ACCOUNT_NUMBER_NODEVICE);
 
-    when(commands.get(any(String.class))).thenReturn("{\"fromNumber\":\"+\",\"platforms\":{},\"countries\":{}}");
     when(metricsFactory.getReporters()).thenReturn(ImmutableList.of());
+
+    activeUserCounter = new ActiveUserCounter(metricsFactory, getRedisCluster());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    super.tearDown();
   }
 
   @Test
   public void testCrawlStart() {
+    getRedisCluster().useCluster(connection -> connection.sync().hset(TALLY_KEY, "platform:ios:daily", "7"));
+
     activeUserCounter.onCrawlStart();
 
-    verify(cacheCluster, times(1)).useCluster(any());
-    verify(commands, times(1)).del(any(String.class));
+    assertTrue(getTallies().isEmpty());
 
     verifyZeroInteractions(iosDevice);
     verifyZeroInteractions(iosAccount);
@@ -100,17 +106,12 @@ public class ActiveUserCounterTest {
     verifyZeroInteractions(androidAccount);
     verifyZeroInteractions(noDeviceAccount);
     verifyZeroInteractions(metricsFactory);
-    verifyNoMoreInteractions(commands);
-    verifyNoMoreInteractions(cacheCluster);
   }
 
   @Test
   public void testCrawlEnd() {
     activeUserCounter.onCrawlEnd(Optional.empty());
 
-    verify(cacheCluster, times(1)).withCluster(any());
-    verify(commands, times(1)).get(any(String.class));
-
     verify(metricsFactory, times(1)).getReporters();
 
     verifyZeroInteractions(iosDevice);
@@ -120,9 +121,6 @@ public class ActiveUserCounterTest {
     verifyZeroInteractions(noDeviceAccount);
 
     verifyNoMoreInteractions(metricsFactory);
-    verifyNoMoreInteractions(commands);
-    verifyNoMoreInteractions(cacheCluster);
-
   }
 
   @Test
@@ -136,12 +134,18 @@ public class ActiveUserCounterTest {
     verify(iosDevice, times(1)).getApnId();
     verify(iosDevice, times(0)).getGcmId();
 
-    verify(cacheCluster, times(1)).withCluster(any());
-    verify(cacheCluster, times(1)).useCluster(any());
-    verify(commands, times(1)).get(any(String.class));
-    verify(commands, times(1)).set(any(String.class), eq("{\"fromUuid\":\""+UUID_IOS.toString()+"\",\"platforms\":{\"ios\":[1,1,1,1,1]},\"countries\":{\"1\":[1,1,1,1,1]}}"));
-
-    verify(metricsFactory, times(0)).getReporters();
+    assertEquals(Map.ofEntries(
+        Map.entry("fromUuid", UUID_IOS.toString()),
+        Map.entry("platform:ios:daily", "1"),
+        Map.entry("platform:ios:weekly", "1"),
+        Map.entry("platform:ios:monthly", "1"),
+        Map.entry("platform:ios:quarterly", "1"),
+        Map.entry("platform:ios:yearly", "1"),
+        Map.entry("country:1:daily", "1"),
+        Map.entry("country:1:weekly", "1"),
+        Map.entry("country:1:monthly", "1"),
+        Map.entry("country:1:quarterly", "1"),
+        Map.entry("country:1:yearly", "1")), getTallies());
 
     verifyZeroInteractions(androidDevice);
     verifyZeroInteractions(androidAccount);
@@ -150,8 +154,6 @@ public class ActiveUserCounterTest {
 
     verifyNoMoreInteractions(iosDevice);
     verifyNoMoreInteractions(iosAccount);
-    verifyNoMoreInteractions(commands);
-    verifyNoMoreInteractions(cacheCluster);
   }
 
   @Test
@@ -160,22 +162,15 @@ public class ActiveUserCounterTest {
 
     verify(noDeviceAccount, times(1)).getMasterDevice();
 
-    verify(cacheCluster, times(1)).withCluster(any());
-    verify(cacheCluster, times(1)).useCluster(any());
-    verify(commands, times(1)).get(eq(TALLY_KEY));
-    verify(commands, times(1)).set(any(String.class), eq("{\"fromUuid\":\""+UUID_NODEVICE+"\",\"platforms\":{},\"countries\":{}}"));
-
-    verify(metricsFactory, times(0)).getReporters();
+    assertEquals(Map.of("fromUuid", UUID_NODEVICE.toString()), getTallies());
 
     verifyZeroInteractions(iosDevice);
     verifyZeroInteractions(iosAccount);
     verifyZeroInteractions(androidDevice);
     verifyZeroInteractions(androidAccount);
-    verifyZeroInteractions(noDeviceAccount);
     verifyZeroInteractions(metricsFactory);
 
-    verifyNoMoreInteractions(commands);
-    verifyNoMoreInteractions(cacheCluster);
+    verifyNoMoreInteractions(noDeviceAccount);
   }
 
   @Test
@@ -196,12 +191,22 @@ public class ActiveUserCounterTest {
     verify(androidDevice, times(1)).getApnId();
     verify(androidDevice, times(1)).getGcmId();
 
-    verify(cacheCluster, times(1)).withCluster(any());
-    verify(cacheCluster, times(1)).useCluster(any());
-    verify(commands, times(1)).get(eq(TALLY_KEY));
-    verify(commands, times(1)).set(any(String.class), eq("{\"fromUuid\":\""+UUID_IOS+"\",\"platforms\":{\"android\":[0,0,0,1,1],\"ios\":[1,1,1,1,1]},\"countries\":{\"55\":[0,0,0,1,1],\"1\":[1,1,1,1,1]}}"));
-
-    verify(metricsFactory, times(0)).getReporters();
+    assertEquals(Map.ofEntries(
+        Map.entry("fromUuid", UUID_IOS.toString()),
+        Map.entry("platform:ios:daily", "1"),
+        Map.entry("platform:ios:weekly", "1"),
+        Map.entry("platform:ios:monthly", "1"),
+        Map.entry("platform:ios:quarterly", "1"),
+        Map.entry("platform:ios:yearly", "1"),
+        Map.entry("platform:android:quarterly", "1"),
+        Map.entry("platform:android:yearly", "1"),
+        Map.entry("country:1:daily", "1"),
+        Map.entry("country:1:weekly", "1"),
+        Map.entry("country:1:monthly", "1"),
+        Map.entry("country:1:quarterly", "1"),
+        Map.entry("country:1:yearly", "1"),
+        Map.entry("country:55:quarterly", "1"),
+        Map.entry("country:55:yearly", "1")), getTallies());
 
     verifyZeroInteractions(metricsFactory);
 
@@ -210,8 +215,26 @@ public class ActiveUserCounterTest {
     verifyNoMoreInteractions(androidDevice);
     verifyNoMoreInteractions(androidAccount);
     verifyNoMoreInteractions(noDeviceAccount);
-    verifyNoMoreInteractions(commands);
-    verifyNoMoreInteractions(cacheCluster);
   }
 
+  @Test
+  public void testCrawlChunkRetried() throws AccountDatabaseCrawlerRestartException {
+    activeUserCounter.timeAndProcessCrawlChunk(Optional.of(UUID_IOS), Arrays.asList(iosAccount));
+    activeUserCounter.timeAndProcessCrawlChunk(Optional.of(UUID_IOS), Arrays.asList(iosAccount));
+
+    assertEquals("1", getTallies().get("platform:ios:daily"));
+
+    activeUserCounter.timeAndProcessCrawlChunk(Optional.of(UUID_ANDROID), Arrays.asList(iosAccount, androidAccount));
+
+    final Map<String, String> tallies = getTallies();
+
+    assertEquals(UUID_ANDROID.toString(), tallies.get("fromUuid"));
+    assertEquals("2", tallies.get("platform:ios:daily"));
+    assertEquals("1", tallies.get("platform:android:yearly"));
+    assertEquals("2", tallies.get("country:1:yearly"));
+  }
+
+  private Map<String, String> getTallies() {
+    return getRedisCluster().withCluster(connection -> connection.sync().hgetall(TALLY_KEY));
+  }
 }
@@ -11,6 +11,7 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.entities.MessageProtos;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
+import org.whispersystems.textsecuregcm.storage.DynamoDbBatchWriter;
 import org.whispersystems.textsecuregcm.storage.MessagesDynamoDb;
 import org.whispersystems.textsecuregcm.tests.util.MessagesDynamoDbRule;
 
@@ -18,9 +19,11 @@ import java.time.Duration;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
 
 public class MessagesDynamoDbTest {
   private static final Random random = new Random();
@@ -67,7 +70,8 @@ public class MessagesDynamoDbTest {
 
   @Before
   public void setup() {
-    messagesDynamoDb = new MessagesDynamoDb(dynamoDbRule.getDynamoDbClient(), MessagesDynamoDbRule.TABLE_NAME, Duration.ofDays(7));
+    messagesDynamoDb = new MessagesDynamoDb(dynamoDbRule.getDynamoDbClient(),
+        new DynamoDbBatchWriter("messages", dynamoDbRule.getDynamoDbAsyncClient(), mock(ScheduledExecutorService.class), 8), MessagesDynamoDbRule.TABLE_NAME, Duration.ofDays(7));
   }
 
   @Test
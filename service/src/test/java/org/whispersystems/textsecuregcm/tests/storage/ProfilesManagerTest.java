@@ -9,8 +9,11 @@ import static junit.framework.TestCase.assertSame;
 import static junit.framework.TestCase.assertTrue;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -18,16 +21,26 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
 import org.whispersystems.textsecuregcm.storage.Profiles;
 import org.whispersystems.textsecuregcm.storage.ProfilesManager;
 import org.whispersystems.textsecuregcm.storage.VersionedProfile;
 import org.whispersystems.textsecuregcm.tests.util.RedisClusterHelper;
+import org.whispersystems.textsecuregcm.util.Pair;
 
 public class ProfilesManagerTest {
 
@@ -107,4 +120,138 @@ public class ProfilesManagerTest {
     verify(profiles, times(1)).get(eq(uuid), eq("someversion"));
     verifyNoMoreInteractions(profiles);
   }
+
+  @Test
+  public void testGetProfileLocallyCached() {
+    RedisAdvancedClusterCommands<String, String> commands = mock(RedisAdvancedClusterCommands.class);
+    FaultTolerantRedisCluster cacheCluster                = RedisClusterHelper.buildMockRedisCluster(commands);
+    Profiles            profiles                          = mock(Profiles.class);
+
+    UUID             uuid    = UUID.randomUUID();
+    VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", null, null,
+        null, "somecommitment".getBytes());
+
+    when(commands.hget(eq("profiles::" + uuid.toString()), eq("someversion"))).thenReturn(null);
+    when(profiles.get(eq(uuid), eq("someversion"))).thenReturn(Optional.of(profile));
+
+    ProfilesManager profilesManager = new ProfilesManager(profiles, cacheCluster);
+
+    assertSame(profile, profilesManager.get(uuid, "someversion").orElseThrow());
+    assertSame(profile, profilesManager.get(uuid, "someversion").orElseThrow());
+
+    verify(commands, times(1)).hget(eq("profiles::" + uuid.toString()), eq("someversion"));
+    verify(profiles, times(1)).get(eq(uuid), eq("someversion"));
+
+    VersionedProfile updatedProfile = new VersionedProfile("someversion", "othername", "someavatar", null, null,
+        null, "somecommitment".getBytes());
+
+    profilesManager.set(uuid, updatedProfile);
+    assertSame(updatedProfile, profilesManager.get(uuid, "someversion").orElseThrow());
+
+    UUID             otherUuid    = UUID.randomUUID();
+    VersionedProfile otherProfile = new VersionedProfile("someversion", "someothername", "someavatar", null, null,
+        null, "somecommitment".getBytes());
+
+    profilesManager.set(otherUuid, otherProfile);
+
+    profilesManager.deleteAll(uuid);
+    when(profiles.get(eq(uuid), eq("someversion"))).thenReturn(Optional.empty());
+
+    assertTrue(profilesManager.get(uuid, "someversion").isEmpty());
+    verify(commands, times(2)).hget(eq("profiles::" + uuid.toString()), eq("someversion"));
+
+    // Deleting one account's profiles leaves other accounts' locally-cached profiles alone
+    assertSame(otherProfile, profilesManager.get(otherUuid, "someversion").orElseThrow());
+    verify(commands, times(0)).hget(eq("profiles::" + otherUuid.toString()), eq("someversion"));
+  }
+
+  @Test
+  public void testGetProfileDeletedDuringRead() {
+    RedisAdvancedClusterCommands<String, String> commands = mock(RedisAdvancedClusterCommands.class);
+    FaultTolerantRedisCluster cacheCluster                = RedisClusterHelper.buildMockRedisCluster(commands);
+    Profiles            profiles                          = mock(Profiles.class);
+    ProfilesManager     profilesManager                   = new ProfilesManager(profiles, cacheCluster);
+
+    UUID             uuid    = UUID.randomUUID();
+    VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", null, null,
+        null, "somecommitment".getBytes());
+
+    when(commands.hget(eq("profiles::" + uuid.toString()), eq("someversion"))).thenReturn(null);
+
+    // The profile is deleted after it's been read from the database, but before the read returns
+    when(profiles.get(eq(uuid), eq("someversion"))).thenAnswer(invocation -> {
+      profilesManager.deleteAll(uuid);
+      return Optional.of(profile);
+    });
+
+    assertSame(profile, profilesManager.get(uuid, "someversion").orElseThrow());
+
+    when(profiles.get(eq(uuid), eq("someversion"))).thenReturn(Optional.empty());
+
+    assertTrue(profilesManager.get(uuid, "someversion").isEmpty());
+    verify(profiles, times(2)).get(eq(uuid), eq("someversion"));
+  }
+
+  @Test
+  public void testGetAll() throws Exception {
+    RedisAdvancedClusterAsyncCommands<String, String> asyncCommands = mock(RedisAdvancedClusterAsyncCommands.class);
+    StatefulRedisClusterConnection<String, String>    connection    = mock(StatefulRedisClusterConnection.class);
+    FaultTolerantRedisCluster                         cacheCluster  = mock(FaultTolerantRedisCluster.class);
+    Profiles                                          profiles      = mock(Profiles.class);
+
+    when(connection.async()).thenReturn(asyncCommands);
+    when(connection.getTimeout()).thenReturn(Duration.ofSeconds(1));
+    when(cacheCluster.withCluster(any(Function.class))).thenAnswer(invocation -> invocation.getArgument(0, Function.class).apply(connection));
+    doAnswer(invocation -> {
+      invocation.getArgument(0, Consumer.class).accept(connection);
+      return null;
+    }).when(cacheCluster).useCluster(any(Consumer.class));
+
+    UUID cachedUuid = UUID.randomUUID();
+    UUID storedUuid = UUID.randomUUID();
+    UUID missingUuid = UUID.randomUUID();
+
+    VersionedProfile storedProfile = new VersionedProfile("storedversion", "storedname", "someavatar", null, null,
+        null, "somecommitment".getBytes());
+
+    RedisFuture<String> cachedFuture = completedFuture("{\"version\": \"cachedversion\", \"name\": \"cachedname\"}");
+    RedisFuture<String> storedFuture = completedFuture(null);
+    RedisFuture<String> missingFuture = completedFuture(null);
+
+    when(asyncCommands.hget("profiles::" + cachedUuid, "cachedversion")).thenReturn(cachedFuture);
+    when(asyncCommands.hget("profiles::" + storedUuid, "storedversion")).thenReturn(storedFuture);
+    when(asyncCommands.hget("profiles::" + missingUuid, "missingversion")).thenReturn(missingFuture);
+
+    when(profiles.getAll(any())).thenReturn(Map.of(new Pair<>(storedUuid, "storedversion"), storedProfile));
+
+    ProfilesManager profilesManager = new ProfilesManager(profiles, cacheCluster);
+
+    List<Pair<UUID, String>> keys = List.of(
+        new Pair<>(cachedUuid, "cachedversion"),
+        new Pair<>(storedUuid, "storedversion"),
+        new Pair<>(missingUuid, "missingversion"));
+
+    Map<Pair<UUID, String>, VersionedProfile> found = profilesManager.getAll(keys);
+
+    assertEquals(2, found.size());
+    assertEquals("cachedname", found.get(new Pair<>(cachedUuid, "cachedversion")).getName());
+    assertSame(storedProfile, found.get(new Pair<>(storedUuid, "storedversion")));
+
+    verify(profiles).getAll(Set.of(new Pair<>(storedUuid, "storedversion"), new Pair<>(missingUuid, "missingversion")));
+    verify(asyncCommands).hset(eq("profiles::" + storedUuid), eq("storedversion"), anyString());
+
+    // Found profiles are now cached locally, so only the missing one needs another trip to Redis
+    assertEquals(found, profilesManager.getAll(keys));
+    verify(asyncCommands, times(1)).hget("profiles::" + cachedUuid, "cachedversion");
+    verify(asyncCommands, times(2)).hget("profiles::" + missingUuid, "missingversion");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static RedisFuture<String> completedFuture(final String value) throws Exception {
+    RedisFuture<String> future = mock(RedisFuture.class);
+    when(future.await(anyLong(), any())).thenReturn(true);
+    when(future.get()).thenReturn(value);
+
+    return future;
+  }
 }
@@ -16,7 +16,11 @@ import org.whispersystems.textsecuregcm.configuration.CircuitBreakerConfiguratio
 import org.whispersystems.textsecuregcm.storage.FaultTolerantDatabase;
 import org.whispersystems.textsecuregcm.storage.Profiles;
 import org.whispersystems.textsecuregcm.storage.VersionedProfile;
+import org.whispersystems.textsecuregcm.util.Pair;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -134,6 +138,37 @@ public class ProfilesTest {
     assertThat(retrieved.get().getAboutEmoji()).isEqualTo(profileTwo.getAboutEmoji());
   }
 
+  @Test
+  public void testGetAll() {
+    UUID             uuidOne    = UUID.randomUUID();
+    UUID             uuidTwo    = UUID.randomUUID();
+    VersionedProfile profileOne = new VersionedProfile("123", "foo", "avatarLocation", null, null,
+        null, "acommitment".getBytes());
+    VersionedProfile profileTwo = new VersionedProfile("345", "bar", "baz", null, null, null, "boof".getBytes());
+
+    profiles.set(uuidOne, profileOne);
+    profiles.set(uuidOne, profileTwo);
+    profiles.set(uuidTwo, profileTwo);
+
+    List<Pair<UUID, String>> requested = new ArrayList<>();
+    requested.add(new Pair<>(uuidOne, "123"));
+    requested.add(new Pair<>(uuidTwo, "345"));
+    requested.add(new Pair<>(uuidTwo, "123"));
+
+    for (int i = 0; i < 150; i++) {
+      requested.add(new Pair<>(UUID.randomUUID(), "123"));
+    }
+
+    Map<Pair<UUID, String>, VersionedProfile> retrieved = profiles.getAll(requested);
+
+    assertThat(retrieved.size()).isEqualTo(2);
+    assertThat(retrieved.get(new Pair<>(uuidOne, "123")).getName()).isEqualTo(profileOne.getName());
+    assertThat(retrieved.get(new Pair<>(uuidOne, "123")).getCommitment()).isEqualTo(profileOne.getCommitment());
+    assertThat(retrieved.get(new Pair<>(uuidTwo, "345")).getName()).isEqualTo(profileTwo.getName());
+
+    assertThat(profiles.getAll(List.of()).isEmpty()).isTrue();
+  }
+
   @Test
   public void testMissing() {
     UUID             uuid    = UUID.randomUUID();
@@ -23,6 +23,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -98,11 +99,17 @@ public class PushFeedbackProcessorTest {
     PushFeedbackProcessor processor = new PushFeedbackProcessor(accountsManager, directoryQueue);
     processor.timeAndProcessCrawlChunk(Optional.of(UUID.randomUUID()), List.of(uninstalledAccount, mixedAccount, stillActiveAccount, freshAccount, cleanAccount, undiscoverableAccount));
 
+    final ArgumentCaptor<List<Account>> updatedAccountArgumentCaptor = ArgumentCaptor.forClass(List.class);
+    verify(accountsManager).updateAll(updatedAccountArgumentCaptor.capture());
+    verify(accountsManager, never()).update(any());
+
+    final List<Account> updatedAccounts = updatedAccountArgumentCaptor.getValue();
+
     verify(uninstalledDevice).setApnId(isNull());
     verify(uninstalledDevice).setGcmId(isNull());
     verify(uninstalledDevice).setFetchesMessages(eq(false));
 
-    verify(accountsManager).update(eq(uninstalledAccount));
+    assertTrue(updatedAccounts.contains(uninstalledAccount));
 
     verify(uninstalledDeviceTwo).setApnId(isNull());
     verify(uninstalledDeviceTwo).setGcmId(isNull());
@@ -112,26 +119,26 @@ public class PushFeedbackProcessorTest {
     verify(installedDevice, never()).setGcmId(any());
     verify(installedDevice, never()).setFetchesMessages(anyBoolean());
 
-    verify(accountsManager).update(eq(mixedAccount));
+    assertTrue(updatedAccounts.contains(mixedAccount));
 
     verify(recentUninstalledDevice, never()).setApnId(any());
     verify(recentUninstalledDevice, never()).setGcmId(any());
     verify(recentUninstalledDevice, never()).setFetchesMessages(anyBoolean());
 
-    verify(accountsManager, never()).update(eq(freshAccount));
+    assertFalse(updatedAccounts.contains(freshAccount));
 
     verify(installedDeviceTwo, never()).setApnId(any());
     verify(installedDeviceTwo, never()).setGcmId(any());
     verify(installedDeviceTwo, never()).setFetchesMessages(anyBoolean());
 
-    verify(accountsManager, never()).update(eq(cleanAccount));
+    assertFalse(updatedAccounts.contains(cleanAccount));
 
     verify(stillActiveDevice).setUninstalledFeedbackTimestamp(eq(0L));
     verify(stillActiveDevice, never()).setApnId(any());
     verify(stillActiveDevice, never()).setGcmId(any());
     verify(stillActiveDevice, never()).setFetchesMessages(anyBoolean());
 
-    verify(accountsManager).update(eq(stillActiveAccount));
+    assertTrue(updatedAccounts.contains(stillActiveAccount));
 
     final ArgumentCaptor<List<Account>> refreshedAccountArgumentCaptor = ArgumentCaptor.forClass(List.class);
     verify(directoryQueue).refreshRegisteredUsers(refreshedAccountArgumentCaptor.capture());
@@ -9,7 +9,10 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Optional;
 
@@ -46,4 +49,39 @@ class AsnTableTest {
       assertEquals(0x00000000ffffffffL, AsnTable.ipToLong((Inet4Address) Inet4Address.getByName("255.255.255.255")));
       assertEquals(0x0000000000000001L, AsnTable.ipToLong((Inet4Address) Inet4Address.getByName("0.0.0.1")));
     }
+
+    @Test
+    void getAsnFromString() throws IOException {
+      try (final InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream("ip2asn-test.tsv"))) {
+        final AsnTable asnTable = new AsnTable(reader);
+
+        assertEquals(Optional.of(7922L), asnTable.getAsn("50.79.54.1"));
+        assertEquals(Optional.of(7552L), asnTable.getAsn("27.79.32.1"));
+        assertEquals(Optional.empty(), asnTable.getAsn("5.182.202.1"));
+        assertEquals(Optional.empty(), asnTable.getAsn("0.0.0.1"));
+        assertEquals(Optional.empty(), asnTable.getAsn("not-an-address.example.com"));
+        assertEquals(Optional.empty(), asnTable.getAsn("2001:db8::1"));
+      }
+    }
+
+    @Test
+    void getAsnMixedFormats() throws IOException {
+      final String tsv = "2001:200::\t2001:200:ffff:ffff:ffff:ffff:ffff:ffff\t2500\tJP\tWIDE-BLOCK WIDE Project\n" +
+          "50.79.0.0\t50.79.255.255\t7922\tUS\tCOMCAST-7922\n" +
+          "1.0.0.0\t1.0.0.255\t13335\tUS\tCLOUDFLARENET\n" +
+          "4294967040\t4294967295\t4200000000\tZZ\tPRIVATE\n";
+
+      final AsnTable asnTable = new AsnTable(new StringReader(tsv));
+
+      assertEquals(Optional.of(2500L), asnTable.getAsn("2001:200::1"));
+      assertEquals(Optional.of(2500L), asnTable.getAsn((Inet6Address) InetAddress.getByName("2001:200:ffff::1")));
+      assertEquals(Optional.empty(), asnTable.getAsn("2001:201::1"));
+      assertEquals(Optional.of(7922L), asnTable.getAsn("50.79.54.1"));
+      assertEquals(Optional.of(13335L), asnTable.getAsn("1.0.0.1"));
+      assertEquals(Optional.empty(), asnTable.getAsn("1.0.1.1"));
+      assertEquals(Optional.of(4200000000L), asnTable.getAsn("255.255.255.1"));
+
+      assertEquals(Optional.of("JP"), asnTable.getCountryCode(2500));
+      assertEquals(Optional.of("ZZ"), asnTable.getCountryCode(4200000000L));
+    }
 }
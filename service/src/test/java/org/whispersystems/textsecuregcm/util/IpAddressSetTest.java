@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.jupiter.api.Test;
+
+class IpAddressSetTest {
+
+  @Test
+  void testContains() throws IOException {
+    final IpAddressSet addresses = IpAddressSet.parse(new StringReader(
+        "# Tor exit nodes\n" +
+            "10.0.0.1\n" +
+            "  10.0.0.2  \n" +
+            "\n" +
+            "10.0.0.1\n" +
+            "0.0.0.0\n" +
+            "192.168.0.0/16\n" +
+            "::\n" +
+            "2001:db8::1\n" +
+            "2001:db8:1::/48\n"));
+
+    assertEquals(7, addresses.size());
+
+    assertTrue(addresses.contains("10.0.0.1"));
+    assertTrue(addresses.contains("10.0.0.2"));
+    assertTrue(addresses.contains("0.0.0.0"));
+    assertTrue(addresses.contains("192.168.17.4"));
+    assertTrue(addresses.contains("::"));
+    assertTrue(addresses.contains("2001:db8:0:0::1"));
+    assertTrue(addresses.contains("2001:db8:1:2:3:4:5:6"));
+    assertTrue(addresses.contains("::ffff:10.0.0.2"));
+
+    assertFalse(addresses.contains("10.0.0.3"));
+    assertFalse(addresses.contains("192.169.0.1"));
+    assertFalse(addresses.contains("2001:db8::2"));
+    assertFalse(addresses.contains("2001:db8:2::1"));
+    assertFalse(addresses.contains("not an address"));
+    assertFalse(addresses.contains("10.0.0.1.example.com"));
+    assertFalse(addresses.contains(""));
+  }
+
+  @Test
+  void testLargeSet() throws IOException {
+    final StringBuilder list = new StringBuilder();
+
+    for (int i = 0; i < 10_000; i++) {
+      list.append("10.").append(i >> 8).append('.').append(i & 0xff).append(".1\n");
+    }
+
+    final IpAddressSet addresses = IpAddressSet.parse(new StringReader(list.toString()));
+
+    assertEquals(10_000, addresses.size());
+
+    for (int i = 0; i < 10_000; i++) {
+      assertTrue(addresses.contains("10." + (i >> 8) + "." + (i & 0xff) + ".1"));
+      assertFalse(addresses.contains("10." + (i >> 8) + "." + (i & 0xff) + ".2"));
+    }
+  }
+
+  @Test
+  void testEmpty() {
+    assertEquals(0, IpAddressSet.EMPTY.size());
+    assertFalse(IpAddressSet.EMPTY.contains("10.0.0.1"));
+    assertFalse(IpAddressSet.EMPTY.contains("::"));
+  }
+
+  @Test
+  void testInvalidEntry() {
+    assertThrows(IllegalArgumentException.class, () -> IpAddressSet.parse(new StringReader("10.0.0.1\nnonsense\n")));
+    assertThrows(IllegalArgumentException.class, () -> IpAddressSet.parse(new StringReader("10.0.0.0/33\n")));
+  }
+}
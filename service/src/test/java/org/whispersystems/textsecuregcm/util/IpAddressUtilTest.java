@@ -0,0 +1,28 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class IpAddressUtilTest {
+
+  @Test
+  void parseIpv4Address() {
+    assertEquals(0x00000000ffffffffL, IpAddressUtil.parseIpv4Address("255.255.255.255"));
+    assertEquals(0x0000000000000001L, IpAddressUtil.parseIpv4Address("0.0.0.1"));
+    assertEquals(0x000000000a000001L, IpAddressUtil.parseIpv4Address("10.0.0.1"));
+
+    assertEquals(-1, IpAddressUtil.parseIpv4Address(""));
+    assertEquals(-1, IpAddressUtil.parseIpv4Address("10.0.0"));
+    assertEquals(-1, IpAddressUtil.parseIpv4Address("10.0.0.1.1"));
+    assertEquals(-1, IpAddressUtil.parseIpv4Address("10.0..1"));
+    assertEquals(-1, IpAddressUtil.parseIpv4Address("10.0.0.256"));
+    assertEquals(-1, IpAddressUtil.parseIpv4Address("10.0.0.1 "));
+    assertEquals(-1, IpAddressUtil.parseIpv4Address("::1"));
+  }
+}
@@ -36,4 +36,23 @@ public class TorExitNodeManagerTest extends AbstractRedisClusterTest {
     assertTrue(torExitNodeManager.isTorExitNode("10.0.0.2"));
     assertFalse(torExitNodeManager.isTorExitNode("10.0.0.3"));
   }
+
+  @Test
+  public void testIsTorExitNodeIpv6() {
+    final MonitoredS3ObjectConfiguration configuration = new MonitoredS3ObjectConfiguration();
+    configuration.setS3Region("ap-northeast-3");
+
+    final TorExitNodeManager torExitNodeManager =
+        new TorExitNodeManager(mock(ScheduledExecutorService.class), configuration);
+
+    torExitNodeManager.handleExitListChangedStream(
+        new ByteArrayInputStream("2001:db8::1\n2001:db8:1::/48\n10.0.0.1".getBytes(StandardCharsets.UTF_8)));
+
+    assertTrue(torExitNodeManager.isTorExitNode("2001:db8::1"));
+    assertTrue(torExitNodeManager.isTorExitNode("2001:0db8:0000:0000:0000:0000:0000:0001"));
+    assertTrue(torExitNodeManager.isTorExitNode("2001:db8:1:ffff::1"));
+    assertTrue(torExitNodeManager.isTorExitNode("::ffff:10.0.0.1"));
+    assertFalse(torExitNodeManager.isTorExitNode("2001:db8::2"));
+    assertFalse(torExitNodeManager.isTorExitNode("2001:db8:2::1"));
+  }
 }
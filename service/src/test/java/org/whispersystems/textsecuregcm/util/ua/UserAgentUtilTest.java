@@ -36,6 +36,18 @@ public class UserAgentUtilTest {
         assertThrows(UnrecognizedUserAgentException.class, () -> UserAgentUtil.parseUserAgentString(userAgentString));
     }
 
+    @Test
+    public void testParseUserAgentStringRepeated() throws UnrecognizedUserAgentException {
+        final String userAgentString = "Signal-Desktop/1.2.3 Linux";
+
+        assertSame(UserAgentUtil.parseUserAgentString(userAgentString), UserAgentUtil.parseUserAgentString(userAgentString));
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(UnrecognizedUserAgentException.class,
+                    () -> UserAgentUtil.parseUserAgentString("Signal-Android/4.6-8.3.unreasonableversionstring-17"));
+        }
+    }
+
     private static Object argumentsForTestParseBogusUserAgentString() {
         return new Object[] {
                 null,